@@ -29,6 +29,7 @@ package com.metsci.glimpse.gl.attribute;
 import static com.metsci.glimpse.gl.util.GLUtils.genBuffer;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.media.opengl.GL;
@@ -41,9 +42,26 @@ public abstract class GLBuffer
 
     protected int elementSize; // 1, 2, 3, or 4
 
+    // the device buffer most recently bound (one of glHandles)
     protected int glHandle;
     protected boolean dirty;
-    
+
+    // usage hint passed to glBufferData, buffers which are modified after their first
+    // upload are switched from GL_STATIC_DRAW to GL_DYNAMIC_DRAW unless the hint was set explicitly
+    protected int usage;
+    protected boolean usageFixed;
+
+    // number of device buffers cycled through (see setMultiBuffered)
+    protected int bufferCount;
+
+    // device buffers, their allocated sizes in bytes, and the range of vertices
+    // [dirtyFrom,dirtyTo) which has changed since each one was last uploaded
+    protected int[] glHandles;
+    protected int[] glCapacities;
+    protected int[] dirtyFrom;
+    protected int[] dirtyTo;
+    protected int glCurrent;
+
     protected ByteBuffer data;
     
     protected GLVertexAttribute boundType;
@@ -56,6 +74,10 @@ public abstract class GLBuffer
         this.glHandle = -1;
         this.dirty = true;
 
+        this.usage = GL.GL_STATIC_DRAW;
+        this.usageFixed = false;
+        this.bufferCount = 1;
+
         this.elementSize = elementSize;
         
         this.data = createBuffer( length, elementSize );
@@ -100,7 +122,90 @@ public abstract class GLBuffer
 
     public void makeDirty( )
     {
-        dirty = true;
+        makeDirty( 0, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Indicates that vertices in the range [fromVertex,toVertex) have changed. Only
+     * the (coalesced) changed range is copied to the device on the next call to {@link #prepare(GL)}.
+     */
+    public void makeDirty( int fromVertex, int toVertex )
+    {
+        lock.lock( );
+        try
+        {
+            if ( glHandles != null )
+            {
+                for ( int i = 0; i < glHandles.length; i++ )
+                {
+                    dirtyFrom[i] = Math.min( dirtyFrom[i], fromVertex );
+                    dirtyTo[i] = Math.max( dirtyTo[i], toVertex );
+                }
+            }
+
+            dirty = true;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Sets the usage hint passed to glBufferData (for example GL_STATIC_DRAW, GL_DYNAMIC_DRAW
+     * or GL_STREAM_DRAW). If not set, buffers start out as GL_STATIC_DRAW and switch to
+     * GL_DYNAMIC_DRAW once they are modified after their first upload.
+     */
+    public void setUsage( int usage )
+    {
+        lock.lock( );
+        try
+        {
+            this.usage = usage;
+            this.usageFixed = true;
+            reallocate( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public int getUsage( )
+    {
+        return usage;
+    }
+
+    /**
+     * If true, changes are uploaded to a second device buffer, alternating between the two,
+     * so that uploading new data never has to wait for the GPU to finish drawing from
+     * the buffer used in the previous frame. Each device buffer keeps its own dirty range,
+     * so partial updates remain partial. Doubles the device memory used.
+     */
+    public void setMultiBuffered( boolean multiBuffered )
+    {
+        lock.lock( );
+        try
+        {
+            this.bufferCount = multiBuffered ? 2 : 1;
+            makeDirty( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public boolean isMultiBuffered( )
+    {
+        return bufferCount > 1;
+    }
+
+    // forces every device buffer to be reallocated (and completely uploaded) by the next prepare
+    protected void reallocate( )
+    {
+        if ( glCapacities != null ) Arrays.fill( glCapacities, 0 );
+        makeDirty( );
     }
 
     public int getNumVertices( )
@@ -171,19 +276,38 @@ public abstract class GLBuffer
         lock.lock( );
         try
         {
-            if ( glHandle == -1 )
+            if ( glHandles == null || glHandles.length != bufferCount )
             {
-                glHandle = genBuffer( gl );
+                deleteBuffers( gl );
+
+                glHandles = new int[bufferCount];
+                glCapacities = new int[bufferCount];
+                dirtyFrom = new int[bufferCount];
+                dirtyTo = new int[bufferCount];
+                glCurrent = 0;
+
+                for ( int i = 0; i < bufferCount; i++ )
+                {
+                    glHandles[i] = genBuffer( gl );
+                }
+
                 makeDirty( );
             }
 
-            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, glHandle );
-
             if ( isDirty( ) )
             {
-                gl.glBufferData( GL.GL_ARRAY_BUFFER, data.limit( ), data.rewind( ), GL.GL_STATIC_DRAW );
+                // upload into the buffer least recently drawn from
+                glCurrent = ( glCurrent + 1 ) % bufferCount;
+                glHandle = glHandles[glCurrent];
+                gl.glBindBuffer( GL.GL_ARRAY_BUFFER, glHandle );
+                upload( gl, glCurrent );
                 dirty = false;
             }
+            else
+            {
+                glHandle = glHandles[glCurrent];
+                gl.glBindBuffer( GL.GL_ARRAY_BUFFER, glHandle );
+            }
 
             return !isDirty( );
         }
@@ -193,16 +317,67 @@ public abstract class GLBuffer
         }
     }
 
+    // must be called while holding lock with the device buffer bound
+    protected void upload( GL gl, int i )
+    {
+        int bytesPerVertex = elementSize * getBytesPerElement( );
+        int size = data.limit( );
+
+        if ( glCapacities[i] > 0 && !usageFixed && usage == GL.GL_STATIC_DRAW )
+        {
+            // this buffer is being modified after its first upload
+            usage = GL.GL_DYNAMIC_DRAW;
+            Arrays.fill( glCapacities, 0 );
+        }
+
+        int from;
+        int to;
+        if ( glCapacities[i] < size )
+        {
+            // allocate room for the whole host buffer so that later appends fit
+            int capacity = data.capacity( );
+            gl.glBufferData( GL.GL_ARRAY_BUFFER, capacity, null, usage );
+            glCapacities[i] = capacity;
+            from = 0;
+            to = size;
+        }
+        else
+        {
+            from = ( int ) Math.max( 0, Math.min( ( long ) dirtyFrom[i] * bytesPerVertex, size ) );
+            to = ( int ) Math.max( 0, Math.min( ( long ) dirtyTo[i] * bytesPerVertex, size ) );
+        }
+
+        if ( to > from )
+        {
+            data.position( from );
+            gl.glBufferSubData( GL.GL_ARRAY_BUFFER, from, to - from, data );
+            data.rewind( );
+        }
+
+        dirtyFrom[i] = Integer.MAX_VALUE;
+        dirtyTo[i] = 0;
+    }
+
+    protected void deleteBuffers( GL gl )
+    {
+        if ( glHandles != null )
+        {
+            gl.glDeleteBuffers( glHandles.length, glHandles, 0 );
+            glHandles = null;
+            glCapacities = null;
+            dirtyFrom = null;
+            dirtyTo = null;
+        }
+
+        glHandle = -1;
+    }
+
     public boolean dispose( GL gl )
     {
         lock.lock( );
         try
         {
-            if ( glHandle != -1 )
-            {
-                gl.glDeleteBuffers( 1, new int[] { glHandle }, 0 );
-                glHandle = -1;
-            }
+            deleteBuffers( gl );
         }
         finally
         {
@@ -228,6 +403,25 @@ public abstract class GLBuffer
         }
     }
 
+    /**
+     * Like {@link #mutate(Mutator)}, but the mutator promises to modify only the vertices
+     * in [fromVertex,toVertex), so only those are copied to the device.
+     */
+    public void mutate( Mutator mutator, int fromVertex, int toVertex )
+    {
+        lock.lock( );
+        try
+        {
+            mutator.mutate( data, elementSize );
+            data.flip( );
+            makeDirty( fromVertex, toVertex );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
     public static interface Mutator
     {
         public void mutate( ByteBuffer data, int length );
@@ -26,6 +26,7 @@
  */
 package com.metsci.glimpse.gl.attribute;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 
 import javax.media.opengl.GL;
@@ -76,8 +77,56 @@ public class GLFloatBuffer extends GLBuffer
         }
     }
 
+    /**
+     * Like {@link #mutate(Mutator)}, but the mutator promises to modify only the vertices
+     * in [fromVertex,toVertex), so only those are copied to the device.
+     */
+    public void mutate( Mutator mutator, int fromVertex, int toVertex )
+    {
+        lock.lock( );
+        try
+        {
+            data.clear( );
+            FloatBuffer floatData = data.asFloatBuffer( );
+
+            mutator.mutate( floatData, elementSize );
+
+            data.position( 0 );
+            data.limit( floatData.limit( ) * getBytesPerElement( ) );
+
+            makeDirty( fromVertex, toVertex );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Copies the values of the vertices in [fromVertex,toVertex) into dst, starting at
+     * dstOffset. Unlike {@link #mutate(Mutator)}, this does not change the position or
+     * limit of the underlying buffer and does not mark anything dirty.
+     */
+    public void get( int fromVertex, int toVertex, float[] dst, int dstOffset )
+    {
+        lock.lock( );
+        try
+        {
+            // duplicate( ) shares content but not position, limit, or byte order
+            ByteBuffer view = data.duplicate( ).order( data.order( ) );
+            view.clear( );
+            FloatBuffer floatData = view.asFloatBuffer( );
+            floatData.position( fromVertex * elementSize );
+            floatData.get( dst, dstOffset, ( toVertex - fromVertex ) * elementSize );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
     public static interface Mutator
     {
         public void mutate( FloatBuffer data, int length );
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
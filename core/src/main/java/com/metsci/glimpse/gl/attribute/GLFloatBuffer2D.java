@@ -26,8 +26,10 @@
  */
 package com.metsci.glimpse.gl.attribute;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 
+import com.metsci.glimpse.util.primitives.Ints;
 import com.metsci.glimpse.util.primitives.IntsModifiable;
 import com.metsci.glimpse.util.quadtree.FilterInt;
 import com.metsci.glimpse.util.quadtree.QuadTreeInts;
@@ -40,6 +42,12 @@ public class GLFloatBuffer2D extends GLFloatBuffer
     protected QuadTreeInts xyIndex;
     protected boolean indexEnabled;
 
+    // view of the whole of data used by xyIndex to look up coordinates,
+    // only recreated when data is reallocated (so lookups never allocate)
+    protected FloatBuffer indexView;
+    // number of vertices currently in xyIndex
+    protected int indexedCount;
+
     public GLFloatBuffer2D( int length, boolean indexEnabled )
     {
         super( length, 2 );
@@ -51,28 +59,18 @@ public class GLFloatBuffer2D extends GLFloatBuffer
         this( length, false );
     }
 
-    protected void pruneIndex( int updateIndex )
+    @Override
+    public void ensureCapacity( int length )
     {
         lock.lock();
         try
         {
-            if( ! indexEnabled )
-            {
-                xyIndex = null;
-                return;
-            }
+            ByteBuffer oldData = data;
 
-            if ( xyIndex == null || updateIndex > getNumVertices( ) )
-            {
-                xyIndex = null;
-            }
-            else
-            {
-                for ( int i = updateIndex ; i < getNumVertices( ) ;i++ )
-                {
-                    xyIndex.remove( i );
-                }
-            }
+            super.ensureCapacity( length );
+
+            // the contents are unchanged, so the index is still valid
+            if ( data != oldData ) indexView = null;
         }
         finally
         {
@@ -80,55 +78,117 @@ public class GLFloatBuffer2D extends GLFloatBuffer
         }
     }
 
-    protected void updateIndex( int updateIndex )
+    protected FloatBuffer getIndexView( )
     {
-        lock.lock();
-        try
+        if ( indexView == null )
         {
-            if( ! indexEnabled )
-            {
-                xyIndex = null;
-                return;
-            }
+            // duplicate( ) does not preserve byte order
+            ByteBuffer whole = data.duplicate( ).order( data.order( ) );
+            whole.clear( );
+            indexView = whole.asFloatBuffer( );
+        }
 
-            if ( xyIndex == null )
-            {
-                // mutators should optionally return a list of changed
-                // points to speed this up when only a few points change
-                xyIndex = new QuadTreeInts( MAX_BUCKET_SIZE )
-                {
-                    @Override
-                    protected final float x( int i )
-                    {
-                        return data.asFloatBuffer( ).get( i*2 );
-                    }
-
-                    @Override
-                    protected final float y( int i )
-                    {
-                        return data.asFloatBuffer( ).get( i*2+1 );
-                    }
-                };
-
-                  for ( int i = 0 ; i < getNumVertices( ) ;i++ )
-                {
-                    xyIndex.add( i );
-                }
-            }
-            else
-            {
-                  for ( int i = updateIndex ; i < getNumVertices( ) ;i++ )
-                {
-                    xyIndex.add( i );
-                }
-            }
+        return indexView;
+    }
+
+    /**
+     * Removes vertices in [from,to) from the index. Must be called before
+     * their coordinates are changed.
+     */
+    protected void pruneIndex( int from, int to )
+    {
+        if ( xyIndex == null ) return;
+
+        int end = Math.min( to, indexedCount );
+        for ( int i = from; i < end; i++ )
+        {
+            xyIndex.remove( i );
         }
-        finally
+    }
+
+    /**
+     * Adds vertices in [from,to), which were removed by {@link #pruneIndex(int, int)},
+     * back into the index, and brings the index up to date with the current vertex count.
+     */
+    protected void updateIndex( int from, int to )
+    {
+        if ( xyIndex == null )
         {
-            lock.unlock();
+            createIndex( );
+            return;
+        }
+
+        int oldCount = indexedCount;
+        int newCount = getNumVertices( );
+
+        for ( int i = newCount; i < oldCount; i++ )
+        {
+            if ( i < from || i >= to ) xyIndex.remove( i );
+        }
+
+        int end = Math.min( to, Math.min( oldCount, newCount ) );
+        for ( int i = from; i < end; i++ )
+        {
+            xyIndex.add( i );
+        }
+
+        for ( int i = oldCount; i < newCount; i++ )
+        {
+            xyIndex.add( i );
+        }
+
+        indexedCount = newCount;
+    }
+
+    /**
+     * Like {@link #pruneIndex(int, int)}, for an arbitrary set of vertices.
+     */
+    protected void pruneIndex( Ints indices )
+    {
+        if ( xyIndex == null ) return;
+
+        for ( int k = 0; k < indices.n( ); k++ )
+        {
+            int i = indices.v( k );
+            if ( i < indexedCount ) xyIndex.remove( i );
         }
     }
 
+    /**
+     * Like {@link #updateIndex(int, int)}, for an arbitrary set of vertices.
+     */
+    protected void updateIndex( Ints indices )
+    {
+        if ( xyIndex == null )
+        {
+            createIndex( );
+            return;
+        }
+
+        int oldCount = indexedCount;
+        int newCount = getNumVertices( );
+
+        // removing a vertex which is not in the index has no effect
+        for ( int i = newCount; i < oldCount; i++ )
+        {
+            xyIndex.remove( i );
+        }
+
+        int end = Math.min( oldCount, newCount );
+        for ( int k = 0; k < indices.n( ); k++ )
+        {
+            int i = indices.v( k );
+            if ( i < end ) xyIndex.add( i );
+        }
+
+        for ( int i = oldCount; i < newCount; i++ )
+        {
+            xyIndex.add( i );
+        }
+
+        indexedCount = newCount;
+    }
+
     protected void createIndex( )
     {
         lock.lock();
@@ -137,27 +197,28 @@ public class GLFloatBuffer2D extends GLFloatBuffer
             if( ! indexEnabled )
             {
                 xyIndex = null;
+                indexedCount = 0;
                 return;
             }
-            
-            // mutators should optionally return a list of changed
-            // points to speed this up when only a few points change
+
             xyIndex = new QuadTreeInts( MAX_BUCKET_SIZE )
             {
                 @Override
                 protected final float x( int i )
                 {
-                    return data.asFloatBuffer( ).get( i*2 );
+                    return indexView.get( i*2 );
                 }
 
                 @Override
                 protected final float y( int i )
                 {
-                    return data.asFloatBuffer( ).get( i*2+1 );
+                    return indexView.get( i*2+1 );
                 }
             };
 
-            for( int i = 0; i < getNumVertices( ); i++ )
+            getIndexView( );
+            indexedCount = getNumVertices( );
+            for( int i = 0; i < indexedCount; i++ )
             {
                 xyIndex.add( i );
             }
@@ -198,6 +259,7 @@ public class GLFloatBuffer2D extends GLFloatBuffer
             if( xyIndex == null )
                 return 0;
 
+            getIndexView( );
             return xyIndex.search( xMin, xMax, yMin, yMax, result );
         }
         finally
@@ -214,6 +276,7 @@ public class GLFloatBuffer2D extends GLFloatBuffer
             if( xyIndex == null )
                 return 0;
 
+            getIndexView( );
             return xyIndex.search( xMin, xMax, yMin, yMax, filter, result );
         }
         finally
@@ -227,21 +290,65 @@ public class GLFloatBuffer2D extends GLFloatBuffer
         lock.lock();
         try
         {
-            pruneIndex( mutator.getUpdateIndex( ) );
+            int updateIndex = mutator.getUpdateIndex( );
+
+            getIndexView( );
+            pruneIndex( updateIndex, Integer.MAX_VALUE );
             
             data.clear( );
             FloatBuffer floatData = data.asFloatBuffer( );
             
             mutator.mutate( floatData, elementSize );
             
-            updateIndex( mutator.getUpdateIndex( ) );
-            
             // the limit/position of floatData and data are independent
             // update data.limit() to reflect changes made to floatData
             data.position( 0 );
             data.limit( floatData.limit( ) * getBytesPerElement( ) );
+
+            updateIndex( updateIndex, Integer.MAX_VALUE );
             
-            makeDirty();
+            makeDirty( updateIndex, Integer.MAX_VALUE );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a mutator which modifies only the vertices it reports. Only those
+     * vertices are moved within the spatial index and copied to the device, so
+     * this is the cheapest way to update a few scattered points in a large buffer.
+     */
+    public void mutateIndexed( SparseIndexedMutator mutator )
+    {
+        lock.lock();
+        try
+        {
+            Ints indices = mutator.getChangedIndices( );
+
+            getIndexView( );
+            pruneIndex( indices );
+
+            data.clear( );
+            FloatBuffer floatData = data.asFloatBuffer( );
+
+            mutator.mutate( floatData, elementSize );
+
+            data.position( 0 );
+            data.limit( floatData.limit( ) * getBytesPerElement( ) );
+
+            updateIndex( indices );
+
+            int min = Integer.MAX_VALUE;
+            int max = -1;
+            for ( int k = 0; k < indices.n( ); k++ )
+            {
+                int i = indices.v( k );
+                if ( i < min ) min = i;
+                if ( i > max ) max = i;
+            }
+            if ( max >= 0 ) makeDirty( min, max + 1 );
         }
         finally
         {
@@ -274,6 +381,32 @@ public class GLFloatBuffer2D extends GLFloatBuffer
         }
     }
 
+    public void mutate( Mutator mutator, int fromVertex, int toVertex )
+    {
+        lock.lock();
+        try
+        {
+            getIndexView( );
+            pruneIndex( fromVertex, toVertex );
+
+            data.clear( );
+            FloatBuffer floatData = data.asFloatBuffer( );
+
+            mutator.mutate( floatData, elementSize );
+
+            data.position( 0 );
+            data.limit( floatData.limit( ) * getBytesPerElement( ) );
+
+            updateIndex( fromVertex, toVertex );
+
+            makeDirty( fromVertex, toVertex );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
     public static interface IndexedMutator extends Mutator
     {
         /**
@@ -284,4 +417,15 @@ public class GLFloatBuffer2D extends GLFloatBuffer
         public int getUpdateIndex( );
         public void mutate( FloatBuffer data, int elementSize );
     }
+
+    public static interface SparseIndexedMutator extends Mutator
+    {
+        /**
+         * Indicates which vertices the mutator will modify. Called before the mutator
+         * is applied, and the result must not change until the mutator has been applied.
+         * @return the indices of the changed vertices, in any order
+         */
+        public Ints getChangedIndices( );
+        public void mutate( FloatBuffer data, int elementSize );
+    }
 }
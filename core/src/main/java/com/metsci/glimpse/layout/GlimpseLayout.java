@@ -371,6 +371,22 @@ public class GlimpseLayout implements GlimpsePainter, GlimpseTarget, Mouseable
         }
     }
 
+    /**
+     * Returns the painters (including child GlimpseLayouts) attached to this GlimpseLayout.
+     */
+    public List<GlimpsePainter> getPainters( )
+    {
+        lock.lock( );
+        try
+        {
+            return layoutDelegate.getPainters( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
     public void invalidateLayout( )
     {
         lock.lock( );
@@ -292,6 +292,12 @@ public class GlimpseLayoutDelegate implements ComponentWrapper, ContainerWrapper
         memberList.remove( member );
     }
 
+    // the painters and child layouts attached to this layout
+    public List<GlimpsePainter> getPainters( )
+    {
+        return new ArrayList<GlimpsePainter>( memberMap.keySet( ) );
+    }
+
     public void setZOrder( GlimpsePainter painter, int zOrder )
     {
         Member member = memberMap.get( painter );
@@ -26,6 +26,8 @@
  */
 package com.metsci.glimpse.painter.base;
 
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +53,8 @@ public abstract class GlimpsePainterImpl implements GlimpsePainter
     protected boolean doErrorHandling = true;
     protected final String errorPrefix = "GL ERROR: " + getClass( ).getName( );
 
+    protected final Collection<GlimpsePainterDirtyListener> dirtyListeners = new CopyOnWriteArrayList<GlimpsePainterDirtyListener>( );
+
     protected abstract void paintTo( GlimpseContext context, GlimpseBounds bounds );
 
     public void setErrorHandling( boolean doErrorHandling )
@@ -58,10 +62,37 @@ public abstract class GlimpsePainterImpl implements GlimpsePainter
         this.doErrorHandling = doErrorHandling;
     }
 
+    /**
+     * Registers a listener which is notified whenever this painter's data or display settings
+     * change and it must be repainted.
+     */
+    public void addDirtyListener( GlimpsePainterDirtyListener listener )
+    {
+        this.dirtyListeners.add( listener );
+    }
+
+    public void removeDirtyListener( GlimpsePainterDirtyListener listener )
+    {
+        this.dirtyListeners.remove( listener );
+    }
+
+    /**
+     * Notifies the dirty listeners that this painter must be repainted. Subclasses should call
+     * this after changes made outside of paintTo( ) which affect what is drawn.
+     */
+    protected void notifyDirty( )
+    {
+        for ( GlimpsePainterDirtyListener listener : dirtyListeners )
+        {
+            listener.painterDirty( this );
+        }
+    }
+
     @Override
     public void setVisible( boolean show )
     {
         this.displayOn = show;
+        notifyDirty( );
     }
 
     @Override
@@ -40,12 +40,13 @@ import com.metsci.glimpse.context.GlimpseBounds;
 import com.metsci.glimpse.gl.attribute.GLFloatBuffer;
 import com.metsci.glimpse.gl.attribute.GLFloatBuffer.Mutator;
 import com.metsci.glimpse.gl.attribute.GLFloatBuffer2D;
-import com.metsci.glimpse.gl.attribute.GLFloatBuffer2D.IndexedMutator;
+import com.metsci.glimpse.gl.attribute.GLFloatBuffer2D.SparseIndexedMutator;
 import com.metsci.glimpse.gl.attribute.GLVertexAttribute;
 import com.metsci.glimpse.painter.base.GlimpseDataPainter2D;
 import com.metsci.glimpse.painter.shape.DynamicPointSetPainter.BulkColorAccumulator;
 import com.metsci.glimpse.support.color.GlimpseColor;
 import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.metsci.glimpse.util.primitives.Ints;
 import com.metsci.glimpse.util.primitives.IntsArray;
 
 /**
@@ -272,19 +273,13 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
                     data.put( color.length == 4 ? color[3] : 1.0f );
                 }
             }
-        } );
+        }, index * 2, index * 2 + 2 );
     }
 
     protected void mutatePosition( final int index, final float posX1, final float posY1, final float posX2, final float posY2 )
     {
-        this.pointBuffer.mutateIndexed( new IndexedMutator( )
+        this.pointBuffer.mutate( new Mutator( )
         {
-            @Override
-            public int getUpdateIndex( )
-            {
-                return index;
-            }
-
             @Override
             public void mutate( FloatBuffer data, int length )
             {
@@ -294,7 +289,7 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
                 data.put( posX2 );
                 data.put( posY2 );
             }
-        } );
+        }, index * 2, index * 2 + 2 );
     }
 
     protected int getIndexArray( List<Object> ids, int[] listIndex )
@@ -312,6 +307,18 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
         return minIndex;
     }
 
+    protected int getMaxIndex( int[] listIndex )
+    {
+        int maxIndex = -1;
+
+        for ( int i = 0; i < listIndex.length; i++ )
+        {
+            if ( maxIndex < listIndex[i] ) maxIndex = listIndex[i];
+        }
+
+        return maxIndex;
+    }
+
     protected void mutatePositions( BulkLineAccumulator accumulator )
     {
         final List<Object> ids = accumulator.getIds( );
@@ -321,13 +328,22 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
 
         final int[] indexList = new int[size];
         final int minIndex = getIndexArray( ids, indexList );
+        final int maxIndex = getMaxIndex( indexList );
 
-        this.pointBuffer.mutateIndexed( new IndexedMutator( )
+        this.pointBuffer.mutateIndexed( new SparseIndexedMutator( )
         {
             @Override
-            public int getUpdateIndex( )
+            public Ints getChangedIndices( )
             {
-                return minIndex * 2;
+                // each line has two vertices
+                IntsArray vertexList = new IntsArray( 2 * size );
+                for ( int i = 0; i < size; i++ )
+                {
+                    vertexList.append( indexList[i] * 2 );
+                    vertexList.append( indexList[i] * 2 + 1 );
+                }
+
+                return vertexList;
             }
 
             @Override
@@ -356,7 +372,7 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
                     }
                 }
             }
-        } );
+        }, minIndex * 2, maxIndex * 2 + 2 );
     }
 
     protected void mutateColors( BulkColorAccumulator accumulator )
@@ -367,7 +383,8 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
         final int size = accumulator.getSize( );
 
         final int[] indexList = new int[size];
-        getIndexArray( ids, indexList );
+        final int minIndex = getIndexArray( ids, indexList );
+        final int maxIndex = getMaxIndex( indexList );
 
         this.colorBuffer.mutate( new Mutator( )
         {
@@ -384,7 +401,7 @@ public class DynamicLineSetPainter extends GlimpseDataPainter2D
                     }
                 }
             }
-        } );
+        }, minIndex * 2, maxIndex * 2 + 2 );
     }
 
     protected int getIndex( Object id, boolean grow )
@@ -42,11 +42,12 @@ import com.metsci.glimpse.context.GlimpseBounds;
 import com.metsci.glimpse.gl.attribute.GLFloatBuffer;
 import com.metsci.glimpse.gl.attribute.GLFloatBuffer.Mutator;
 import com.metsci.glimpse.gl.attribute.GLFloatBuffer2D;
-import com.metsci.glimpse.gl.attribute.GLFloatBuffer2D.IndexedMutator;
+import com.metsci.glimpse.gl.attribute.GLFloatBuffer2D.SparseIndexedMutator;
 import com.metsci.glimpse.gl.attribute.GLVertexAttribute;
 import com.metsci.glimpse.painter.base.GlimpseDataPainter2D;
 import com.metsci.glimpse.support.color.GlimpseColor;
 import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.metsci.glimpse.util.primitives.Ints;
 import com.metsci.glimpse.util.primitives.IntsArray;
 
 /**
@@ -258,19 +259,13 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
                 data.put( color[2] );
                 data.put( color.length == 4 ? color[3] : 1.0f );
             }
-        } );
+        }, index, index + 1 );
     }
 
     protected void mutatePosition( final int index, final float posX, final float posY )
     {
-        this.pointBuffer.mutateIndexed( new IndexedMutator( )
+        this.pointBuffer.mutate( new Mutator( )
         {
-            @Override
-            public int getUpdateIndex( )
-            {
-                return index;
-            }
-
             @Override
             public void mutate( FloatBuffer data, int length )
             {
@@ -278,7 +273,7 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
                 data.put( posX );
                 data.put( posY );
             }
-        } );
+        }, index, index + 1 );
     }
     
     protected int getIndexArray( List<Object> ids, boolean grow, int[] listIndex )
@@ -296,6 +291,18 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
         return minIndex;
     }
 
+    protected int getMaxIndex( int[] listIndex )
+    {
+        int maxIndex = -1;
+
+        for ( int i = 0 ; i < listIndex.length ; i++ )
+        {
+            if ( maxIndex < listIndex[i] ) maxIndex = listIndex[i];
+        }
+
+        return maxIndex;
+    }
+
     protected void mutatePositions( BulkPointAccumulator accumulator )
     {
         final List<Object> ids = accumulator.getIds( );
@@ -305,13 +312,14 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
         
         final int[] indexList = new int[size];
         final int minIndex = getIndexArray( ids, true, indexList );
+        final int maxIndex = getMaxIndex( indexList );
 
-        this.pointBuffer.mutateIndexed( new IndexedMutator( )
+        this.pointBuffer.mutateIndexed( new SparseIndexedMutator( )
         {
             @Override
-            public int getUpdateIndex( )
+            public Ints getChangedIndices( )
             {
-                return minIndex;
+                return new IntsArray( indexList );
             }
 
             @Override
@@ -336,7 +344,7 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
                     data.put( v, i*stride+2, length );
                 }
             }
-        } );
+        }, minIndex, maxIndex + 1 );
     }
     
     protected void mutateColors( BulkColorAccumulator accumulator )
@@ -347,7 +355,8 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
         final int size = accumulator.getSize();
         
         final int[] indexList = new int[size];
-        getIndexArray( ids, false, indexList );
+        final int minIndex = getIndexArray( ids, false, indexList );
+        final int maxIndex = getMaxIndex( indexList );
         
         this.colorBuffer.mutate( new Mutator( )
         {
@@ -360,7 +369,7 @@ public class DynamicPointSetPainter extends GlimpseDataPainter2D
                     data.put( v, i*stride, length );
                 }
             }
-        } );
+        }, minIndex, maxIndex + 1 );
     }
 
     protected int getIndex( Object id, boolean grow )
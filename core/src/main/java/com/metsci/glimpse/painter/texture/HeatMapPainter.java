@@ -34,6 +34,7 @@ import com.metsci.glimpse.gl.texture.ColorTexture1D;
 import com.metsci.glimpse.support.projection.Projection;
 import com.metsci.glimpse.support.shader.SampledColorScaleShader;
 import com.metsci.glimpse.support.texture.FloatTextureProjected2D;
+import com.metsci.glimpse.support.texture.PyramidTextureProjected2D;
 import java.util.logging.Logger;
 
 /**
@@ -100,6 +101,40 @@ public class HeatMapPainter extends ShadedTexturePainter
 
     }
 
+    /**
+     * Displays the given data with a {@link PyramidTextureProjected2D}, so only the parts of the
+     * data visible on screen are sent to the GPU, at a resolution matching the screen. Suitable
+     * for grids too large to upload whole.
+     *
+     * @param data the data values, with dimensions float[sizeX][sizeY]
+     * @param projection the projection of the texture into axis coordinates
+     * @return the new texture, which is also returned by {@link #getData( )}
+     */
+    public PyramidTextureProjected2D setPyramidData( float[][] data, Projection projection )
+    {
+        PyramidTextureProjected2D texture = new PyramidTextureProjected2D( data.length, data.length == 0 ? 0 : data[0].length );
+        texture.setProjection( projection );
+        texture.setData( data );
+
+        setData( texture );
+
+        return texture;
+    }
+
+    /**
+     * @see #setPyramidData( float[][], Projection )
+     */
+    public PyramidTextureProjected2D setPyramidData( double[][] data, Projection projection )
+    {
+        PyramidTextureProjected2D texture = new PyramidTextureProjected2D( data.length, data.length == 0 ? 0 : data[0].length );
+        texture.setProjection( projection );
+        texture.setData( data );
+
+        setData( texture );
+
+        return texture;
+    }
+
     public void setColorScale( ColorTexture1D texture )
     {
         lock.lock( );
@@ -40,6 +40,7 @@ import com.metsci.glimpse.gl.shader.Pipeline;
 import com.metsci.glimpse.gl.texture.DrawableTexture;
 import com.metsci.glimpse.gl.texture.Texture;
 import com.metsci.glimpse.painter.base.GlimpsePainter2D;
+import com.metsci.glimpse.support.texture.ViewDependentTexture;
 
 /**
  * A painter which applies shaders to textures in order to display
@@ -61,10 +62,22 @@ public class ShadedTexturePainter extends GlimpsePainter2D
     // the shader pipeline
     protected Pipeline pipeline;
 
+    // repaints the painter when a ViewDependentTexture finishes loading a tile
+    protected Runnable tileListener;
+
     public ShadedTexturePainter( )
     {
         this.nonDrawableTextures = new HashSet<TextureUnit<Texture>>( );
         this.drawableTextures = new HashSet<TextureUnit<DrawableTexture>>( );
+
+        this.tileListener = new Runnable( )
+        {
+            @Override
+            public void run( )
+            {
+                notifyDirty( );
+            }
+        };
     }
 
     public void setPipeline( Pipeline pipeline )
@@ -78,6 +91,8 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void addDrawableTexture( DrawableTexture texture )
@@ -90,12 +105,20 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         lock.lock( );
         try
         {
-            this.drawableTextures.add( new TextureUnit<DrawableTexture>( textureUnit, texture ) );
+            if ( this.drawableTextures.add( new TextureUnit<DrawableTexture>( textureUnit, texture ) ) )
+            {
+                if ( texture instanceof ViewDependentTexture )
+                {
+                    ( ( ViewDependentTexture ) texture ).addTileListener( tileListener );
+                }
+            }
         }
         finally
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void removeDrawableTexture( DrawableTexture texture )
@@ -103,12 +126,17 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         lock.lock( );
         try
         {
-            this.drawableTextures.remove( new TextureUnit<DrawableTexture>( texture ) );
+            if ( this.drawableTextures.remove( new TextureUnit<DrawableTexture>( texture ) ) )
+            {
+                removeTileListener( texture );
+            }
         }
         finally
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void removeAllDrawableTextures( )
@@ -116,12 +144,19 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         lock.lock( );
         try
         {
+            for ( TextureUnit<DrawableTexture> textureUnit : drawableTextures )
+            {
+                removeTileListener( textureUnit.texture );
+            }
+
             this.drawableTextures.clear( );
         }
         finally
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void addNonDrawableTexture( Texture texture )
@@ -140,6 +175,8 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void removeNonDrawableTexture( Texture texture )
@@ -153,6 +190,8 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void removeAllNonDrawableTextures( )
@@ -166,6 +205,8 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         {
             lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     @Override
@@ -190,6 +231,7 @@ public class ShadedTexturePainter extends GlimpsePainter2D
 
                 for ( TextureUnit<DrawableTexture> textureUnit : drawableTextures )
                 {
+                    setView( textureUnit, bounds, axis );
                     draw( textureUnit, gl );
                 }
             }
@@ -204,9 +246,32 @@ public class ShadedTexturePainter extends GlimpsePainter2D
         }
     }
 
+    // textures which draw only what is visible need to know the current view
+    protected void setView( TextureUnit<DrawableTexture> textureUnit, GlimpseBounds bounds, Axis2D axis )
+    {
+        if ( textureUnit.texture instanceof ViewDependentTexture )
+        {
+            ( ( ViewDependentTexture ) textureUnit.texture ).setView( axis, bounds );
+        }
+    }
+
     protected void draw( TextureUnit<DrawableTexture> textureUnit, GL gl )
     {
         textureUnit.texture.draw( gl, textureUnit.textureUnit );
+
+        // only a limited number of tiles are uploaded per frame, so draw again for the rest
+        if ( textureUnit.texture instanceof ViewDependentTexture && ( ( ViewDependentTexture ) textureUnit.texture ).hasPendingUploads( ) )
+        {
+            notifyDirty( );
+        }
+    }
+
+    protected void removeTileListener( DrawableTexture texture )
+    {
+        if ( texture instanceof ViewDependentTexture )
+        {
+            ( ( ViewDependentTexture ) texture ).removeTileListener( tileListener );
+        }
     }
 
     protected void prepare( TextureUnit<Texture> textureUnit, GL gl )
@@ -31,7 +31,9 @@ import java.awt.Font;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -39,8 +41,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.media.opengl.GL;
@@ -52,10 +58,18 @@ import com.metsci.glimpse.context.GlimpseBounds;
 import com.metsci.glimpse.event.mouse.GlimpseMouseEvent;
 import com.metsci.glimpse.painter.base.GlimpseDataPainter2D;
 import com.metsci.glimpse.support.font.FontUtils;
+import com.metsci.glimpse.support.font.GlyphAtlasTextRenderer;
 import com.metsci.glimpse.support.selection.SpatialSelectionAxisListener;
 import com.metsci.glimpse.support.selection.SpatialSelectionListener;
 import com.metsci.glimpse.support.selection.TemporalSelectionListener;
-import com.metsci.glimpse.util.quadtree.QuadTreeXys;
+import com.metsci.glimpse.util.primitives.BooleansArray;
+import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.metsci.glimpse.util.primitives.IntsArray;
+import com.metsci.glimpse.util.primitives.LongsArray;
+import com.metsci.glimpse.util.primitives.algorithms.Sorting;
+import com.metsci.glimpse.util.primitives.sorted.SortedLongsArray;
+import com.metsci.glimpse.util.quadtree.QuadTreeTimedLongs;
+import com.metsci.glimpse.util.quadtree.QuadTreeTimedLongs.Results;
 import com.sun.opengl.util.j2d.TextRenderer;
 
 /**
@@ -75,11 +89,21 @@ public class TrackPainter extends GlimpseDataPainter2D
     public static final long SPATIAL_SELECTION_UPDATE_RATE = 50;
 
     public static final int TRACK_SIZE_ESTIMATE = 100;
+    public static final int INGEST_STRIPE_COUNT = 16;
+    public static final int SHARED_BUFFER_MIN_SIZE = 10000;
+    public static final int BYTES_PER_INT = 4;
+    // each level of detail has this many times the tolerance of the previous level
+    public static final float LOD_LEVEL_FACTOR = 4;
+    // the coarsest level of detail whose tolerance is at most this many pixels is drawn
+    public static final double LOD_PIXEL_TOLERANCE = 1.0;
     public static final int TRACK_LABEL_OFFSET_X = 8;
     public static final int TRACK_LABEL_OFFSET_Y = 8;
 
     protected int dataBufferSize = 0;
     protected FloatBuffer dataBuffer = null;
+    protected IntBuffer indexBuffer = null;
+    // client side indices of the raw vertices which join a decimated level to the ends of the selection
+    protected IntBuffer levelEndBuffer = ByteBuffer.allocateDirect( 4 * BYTES_PER_INT ).order( ByteOrder.nativeOrder( ) ).asIntBuffer( );
     protected ReentrantLock trackUpdateLock = null;
 
     // mapping from id to Track
@@ -90,8 +114,54 @@ public class TrackPainter extends GlimpseDataPainter2D
     protected Set<Track> updatedTracks;
     // mapping from id to LoadedTrack (GPU-side track information)
     protected Map<Integer, LoadedTrack> loadedTracks;
-    // spatial index on Points
-    protected QuadTreeXys<Point> spatialIndex;
+    // spatio-temporal index on posits, keyed by spatialIndexKey( trackId, pointId )
+    // (private: subclasses query it through searchIndex and the get*Range methods)
+    private QuadTreeTimedLongs spatialIndex;
+    // true if some track has been given its own time range since the last
+    // call to the global displayTimeRange (spatial queries must then check each track)
+    protected boolean perTrackTimeRanges = false;
+
+    // if true, all tracks are loaded into a single shared device buffer and drawn
+    // with one glMultiDrawArrays call per distinct set of display attributes
+    protected volatile boolean batchRendering = false;
+    // the rendering mode the device-side data is currently set up for
+    // (only accessed on the gl display() thread)
+    protected boolean loadedBatchRendering = false;
+
+    // the shared device buffer (batch rendering mode only), sizes are in vertices
+    protected int sharedBufferHandle = 0;
+    protected int sharedBufferCapacity = 0;
+    protected int sharedBufferUsed = 0;
+    // space in the shared buffer abandoned by tracks which have grown or been deleted
+    protected int sharedBufferWasted = 0;
+    protected boolean sharedBufferRebuild = false;
+
+    // draw calls for batch rendering mode, rebuilt whenever track data or settings change
+    protected List<DrawBatch> lineBatches = Collections.emptyList( );
+    protected List<DrawBatch> pointBatches = Collections.emptyList( );
+    protected List<DrawBatch> headBatches = Collections.emptyList( );
+    protected FloatBuffer headBuffer = null;
+    protected boolean batchLabelOn = false;
+
+    // tolerance (in axis units) of the finest decimated level of detail, and
+    // the number of decimated levels maintained for each track (0 disables)
+    protected float lodBaseTolerance = 0;
+    protected int lodLevelCount = 0;
+
+    // staging areas for posits added in concurrent ingest mode (null otherwise)
+    // posits for a given track always go to the same stripe, so they stay in order
+    protected IngestStripe[] ingestStripes;
+    // number of posits staged but not yet drained into tracks
+    protected final AtomicInteger ingestQueueDepth = new AtomicInteger( );
+    // set by the first change staged since the last drain, so that listeners are
+    // notified once per batch of staged changes rather than once per posit
+    protected final AtomicBoolean ingestPending = new AtomicBoolean( );
+    // changes to track attributes made in concurrent ingest mode, applied in order
+    // after the staged posits (they only touch attributes, so they commute with posits)
+    protected final Queue<TrackUpdate> stagedUpdates = new ConcurrentLinkedQueue<TrackUpdate>( );
+    // statistics for the most recent non-empty drain of the staging areas
+    protected volatile int ingestDrainCount = 0;
+    protected volatile long ingestDrainTimeNanos = 0;
 
     // the overall start and end times set by displayTimeRange
     // when new tracks are created, they inherit these time bounds
@@ -104,6 +174,10 @@ public class TrackPainter extends GlimpseDataPainter2D
     private static final Font textFont = FontUtils.getDefaultBold( 12 );
     protected TextRenderer fontRenderer;
 
+    // if true, labels are drawn from a glyph atlas with a single draw call
+    protected boolean glyphAtlasLabels = false;
+    protected GlyphAtlasTextRenderer glyphRenderer;
+
     public TrackPainter( )
     {
         this( false );
@@ -111,7 +185,29 @@ public class TrackPainter extends GlimpseDataPainter2D
 
     public TrackPainter( boolean enableSpatialIndex )
     {
-        if ( enableSpatialIndex ) this.spatialIndex = new QuadTreeXys<Point>( QUAD_TREE_BIN_MAX );
+        this( enableSpatialIndex, false );
+    }
+
+    /**
+     * @param enableSpatialIndex if true, a spatial index is maintained to support spatial queries
+     * @param enableConcurrentIngest if true, posits added via {@code addPoint} and {@code addPoints}
+     *        are staged in striped queues instead of taking the painter-wide lock, and changes made
+     *        via the per-track setters and {@code displayTimeRange} are staged in a concurrent queue.
+     *        Staged changes are applied at the start of the next frame (or by {@link #drainIngestQueues()}),
+     *        so they are not visible to queries until then. Structural changes ({@code deleteTrack},
+     *        {@code clearTrack}, {@code deleteAll}, {@code setLevelOfDetail}) and the upload of track
+     *        data during painting still take the painter-wide lock.
+     */
+    public TrackPainter( boolean enableSpatialIndex, boolean enableConcurrentIngest )
+    {
+        if ( enableSpatialIndex ) this.spatialIndex = new QuadTreeTimedLongs( QUAD_TREE_BIN_MAX );
+
+        if ( enableConcurrentIngest )
+        {
+            this.ingestStripes = new IngestStripe[INGEST_STRIPE_COUNT];
+            for ( int i = 0; i < INGEST_STRIPE_COUNT; i++ )
+                this.ingestStripes[i] = new IngestStripe( );
+        }
 
         this.temporalSelectionListeners = new CopyOnWriteArrayList<TemporalSelectionListener<Point>>( );
 
@@ -123,6 +219,88 @@ public class TrackPainter extends GlimpseDataPainter2D
         this.fontRenderer = new TextRenderer( textFont );
     }
 
+    /**
+     * If true, all tracks are loaded into a single shared device buffer and tracks with
+     * identical display attributes are drawn together with a single {@code glMultiDrawArrays}
+     * call. Head points are drawn with one call per distinct head point size. This greatly
+     * reduces the number of driver calls per frame when displaying many tracks. The change
+     * takes effect (and all tracks are reloaded onto the GPU) on the next frame.
+     */
+    public void setBatchRendering( boolean batchRendering )
+    {
+        this.batchRendering = batchRendering;
+    }
+
+    public boolean isBatchRendering( )
+    {
+        return this.batchRendering;
+    }
+
+    /**
+     * If true, track labels are drawn using a {@link GlyphAtlasTextRenderer}, which lays out
+     * each distinct label once and draws all the labels with a single OpenGL call, instead of
+     * drawing each label separately with a TextRenderer. This makes drawing labels on many
+     * thousands of tracks practical.
+     */
+    public void setGlyphAtlasLabels( boolean glyphAtlasLabels )
+    {
+        this.glyphAtlasLabels = glyphAtlasLabels;
+    }
+
+    public boolean isGlyphAtlasLabels( )
+    {
+        return this.glyphAtlasLabels;
+    }
+
+    /**
+     * <p>Maintains decimated copies of each track, used to limit the number of vertices
+     * drawn when zoomed out. Level {@code k} retains only those posits which differ from
+     * the previously retained posit by at least {@code baseTolerance * LOD_LEVEL_FACTOR^k}
+     * axis units in x or y. The levels are updated incrementally as posits are appended
+     * to a track (posits inserted out of order cause that track's levels to be rebuilt).</p>
+     *
+     * <p>Each frame, the coarsest level whose tolerance is no more than
+     * {@link #LOD_PIXEL_TOLERANCE} pixels is drawn, so the number of vertices drawn stays
+     * roughly constant regardless of track history length. Levels of detail are not used
+     * in batch rendering mode.</p>
+     *
+     * @param baseTolerance the tolerance of the finest level, in axis units
+     * @param levelCount the number of decimated levels, or 0 to always draw every posit
+     */
+    public void setLevelOfDetail( double baseTolerance, int levelCount )
+    {
+        this.trackUpdateLock.lock( );
+        try
+        {
+            this.lodBaseTolerance = ( float ) baseTolerance;
+            this.lodLevelCount = levelCount;
+
+            for ( Track track : tracks.values( ) )
+            {
+                track.createLevels( );
+            }
+
+            this.updatedTracks.addAll( tracks.values( ) );
+            this.newData = true;
+        }
+        finally
+        {
+            this.trackUpdateLock.unlock( );
+        }
+
+        notifyDirty( );
+    }
+
+    public int getLevelOfDetailCount( )
+    {
+        return this.lodLevelCount;
+    }
+
+    public double getLevelOfDetailTolerance( int level )
+    {
+        return this.lodBaseTolerance * Math.pow( LOD_LEVEL_FACTOR, level );
+    }
+
     public void addTemporalSelectionListener( TemporalSelectionListener<Point> listener )
     {
         this.temporalSelectionListeners.add( listener );
@@ -188,13 +366,16 @@ public class TrackPainter extends GlimpseDataPainter2D
         this.trackUpdateLock.lock( );
         try
         {
+            drainIngestQueues( );
+
             for ( Track track : tracks.values( ) )
             {
                 track.deletePending = true;
-                track.points.clear( );
+                track.truncate( 0 );
+                track.createLevels( );
             }
 
-            if ( this.spatialIndex != null ) this.spatialIndex = new QuadTreeXys<Point>( QUAD_TREE_BIN_MAX );
+            if ( this.spatialIndex != null ) this.spatialIndex = new QuadTreeTimedLongs( QUAD_TREE_BIN_MAX );
 
             this.updatedTracks.addAll( tracks.values( ) );
             this.newData = true;
@@ -203,6 +384,8 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void deleteTrack( int trackId )
@@ -210,17 +393,13 @@ public class TrackPainter extends GlimpseDataPainter2D
         this.trackUpdateLock.lock( );
         try
         {
+            drainIngestQueues( );
+
             if ( !tracks.containsKey( trackId ) ) return;
 
             Track track = tracks.get( trackId );
 
-            if ( this.spatialIndex != null )
-            {
-                for ( Point p : track.points )
-                {
-                    this.spatialIndex.remove( p );
-                }
-            }
+            track.removeFromSpatialIndex( );
 
             track.delete( );
 
@@ -231,6 +410,8 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void clearTrack( int trackId )
@@ -238,17 +419,13 @@ public class TrackPainter extends GlimpseDataPainter2D
         this.trackUpdateLock.lock( );
         try
         {
+            drainIngestQueues( );
+
             if ( !tracks.containsKey( trackId ) ) return;
 
             Track track = tracks.get( trackId );
 
-            if ( this.spatialIndex != null )
-            {
-                for ( Point p : track.points )
-                {
-                    this.spatialIndex.remove( p );
-                }
-            }
+            track.removeFromSpatialIndex( );
 
             track.clear( );
 
@@ -259,6 +436,8 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     public void addPoint( int trackId, int pointId, double x, double y, long time )
@@ -268,6 +447,15 @@ public class TrackPainter extends GlimpseDataPainter2D
 
     public void addPoints( int trackId, List<Point> points )
     {
+        if ( ingestStripes != null )
+        {
+            for ( Point point : points )
+            {
+                stagePoint( trackId, point.pointId, point.time, point.x, point.y );
+            }
+            return;
+        }
+
         this.trackUpdateLock.lock( );
         try
         {
@@ -282,39 +470,53 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
     }
 
-    public void setLineColor( int trackId, float[] color )
+    /**
+     * Adds a batch of posits to a track, with point ids assigned sequentially.
+     *
+     * @see #addPoints(int, int[], long[], float[], float[])
+     */
+    public void addPoints( int trackId, long[] times, float[] xs, float[] ys )
     {
-        setLineColor( trackId, color[0], color[1], color[2], color[3] );
+        addPoints( trackId, null, times, xs, ys );
     }
 
-    public void setLineColor( int trackId, float r, float g, float b, float a )
+    /**
+     * Adds a batch of posits to a track. The posits are copied directly into the
+     * track's primitive arrays, so no {@link Point} objects are created (unless
+     * the spatial index is enabled). The posits need not be sorted by time,
+     * although sorted batches which fall after the existing track data are
+     * added most efficiently.
+     *
+     * @param trackId the track to add posits to
+     * @param pointIds the point ids of the posits, or null to assign ids sequentially
+     * @param times the time of each posit
+     * @param xs the x coordinate of each posit
+     * @param ys the y coordinate of each posit
+     */
+    public void addPoints( int trackId, int[] pointIds, long[] times, float[] xs, float[] ys )
     {
-        this.trackUpdateLock.lock( );
-        try
+        int size = times.length;
+        if ( xs.length != size || ys.length != size || ( pointIds != null && pointIds.length != size ) )
         {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setLineColor( r, g, b, a );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
+            throw new IllegalArgumentException( "All posit arrays must have the same length." );
         }
-        finally
+
+        if ( ingestStripes != null )
         {
-            this.trackUpdateLock.unlock( );
+            stagePoints( trackId, pointIds, times, xs, ys );
+            return;
         }
-    }
 
-    public void setLineWidth( int trackId, float width )
-    {
         this.trackUpdateLock.lock( );
         try
         {
             Track track = getOrCreateTrack( trackId );
 
-            track.setLineWidth( width );
+            track.add( pointIds, times, xs, ys );
 
             this.updatedTracks.add( track );
             this.newData = true;
@@ -323,65 +525,78 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
     }
 
-    public void setPointColor( int trackId, float[] color )
+    public void setLineColor( int trackId, float[] color )
     {
-        setPointColor( trackId, color[0], color[1], color[2], color[3] );
+        setLineColor( trackId, color[0], color[1], color[2], color[3] );
     }
 
-    public void setPointColor( int trackId, float r, float g, float b, float a )
+    public void setLineColor( int trackId, final float r, final float g, final float b, final float a )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setPointColor( r, g, b, a );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setLineColor( r, g, b, a );
+            }
+        } );
     }
 
-    public void setPointSize( int trackId, float size )
+    public void setLineWidth( int trackId, final float width )
     {
-        this.trackUpdateLock.lock( );
-        try
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            Track track = getOrCreateTrack( trackId );
+            @Override
+            public void apply( Track track )
+            {
+                track.setLineWidth( width );
+            }
+        } );
+    }
 
-            track.setPointSize( size );
+    public void setPointColor( int trackId, float[] color )
+    {
+        setPointColor( trackId, color[0], color[1], color[2], color[3] );
+    }
 
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+    public void setPointColor( int trackId, final float r, final float g, final float b, final float a )
+    {
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setPointColor( r, g, b, a );
+            }
+        } );
     }
 
-    public void setShowPoints( int trackId, boolean show )
+    public void setPointSize( int trackId, final float size )
     {
-        this.trackUpdateLock.lock( );
-        try
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setShowPoints( show );
+            @Override
+            public void apply( Track track )
+            {
+                track.setPointSize( size );
+            }
+        } );
+    }
 
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+    public void setShowPoints( int trackId, final boolean show )
+    {
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setShowPoints( show );
+            }
+        } );
     }
 
     public void setHeadPointColor( int trackId, float[] color )
@@ -389,113 +604,77 @@ public class TrackPainter extends GlimpseDataPainter2D
         setHeadPointColor( trackId, color[0], color[1], color[2], color[3] );
     }
 
-    public void setHeadPointColor( int trackId, float r, float g, float b, float a )
+    public void setHeadPointColor( int trackId, final float r, final float g, final float b, final float a )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setHeadPointColor( r, g, b, a );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setHeadPointColor( r, g, b, a );
+            }
+        } );
     }
 
-    public void setHeadPointSize( int trackId, float size )
+    public void setHeadPointSize( int trackId, final float size )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setHeadPointSize( size );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setHeadPointSize( size );
+            }
+        } );
     }
 
-    public void setShowHeadPoint( int trackId, boolean show )
+    public void setShowHeadPoint( int trackId, final boolean show )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setShowHeadPoint( show );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setShowHeadPoint( show );
+            }
+        } );
     }
 
-    public void setShowLines( int trackId, boolean show )
+    public void setShowLines( int trackId, final boolean show )
     {
-        this.trackUpdateLock.lock( );
-        try
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setShowLines( show );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
-        {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setShowLines( show );
+            }
+        } );
     }
 
-    public void setDotted( int trackId, boolean dotted )
+    public void setDotted( int trackId, final boolean dotted )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setTrackStipple( dotted );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setTrackStipple( dotted );
+            }
+        } );
     }
 
-    public void setDotted( int trackId, int stippleFactor, short stipplePattern )
+    public void setDotted( int trackId, final int stippleFactor, final short stipplePattern )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setTrackStipple( true );
-            track.setTrackStipple( stippleFactor, stipplePattern );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setTrackStipple( true );
+                track.setTrackStipple( stippleFactor, stipplePattern );
+            }
+        } );
     }
 
     public void setLabelColor( int trackId, float[] color )
@@ -503,22 +682,16 @@ public class TrackPainter extends GlimpseDataPainter2D
         setLabelColor( trackId, color[0], color[1], color[2], color[3] );
     }
 
-    public void setLabelColor( int trackId, float r, float g, float b, float a )
+    public void setLabelColor( int trackId, final float r, final float g, final float b, final float a )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setLabelColor( r, g, b, a );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setLabelColor( r, g, b, a );
+            }
+        } );
     }
 
     public void setLabelLineColor( int trackId, float[] color )
@@ -526,77 +699,53 @@ public class TrackPainter extends GlimpseDataPainter2D
         setLabelLineColor( trackId, color[0], color[1], color[2], color[3] );
     }
 
-    public void setLabelLineColor( int trackId, float r, float g, float b, float a )
+    public void setLabelLineColor( int trackId, final float r, final float g, final float b, final float a )
     {
-        this.trackUpdateLock.lock( );
-        try
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setLabelLineColor( r, g, b, a );
+            @Override
+            public void apply( Track track )
+            {
+                track.setLabelLineColor( r, g, b, a );
+            }
+        } );
+    }
 
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
-        {
-            this.trackUpdateLock.unlock( );
-        }
-    }
-
-    public void setShowLabelLine( int trackId, boolean show )
+    public void setShowLabelLine( int trackId, final boolean show )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setShowLabelLine( show );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setShowLabelLine( show );
+            }
+        } );
     }
 
-    public void setLabel( int trackId, String label )
+    public void setLabel( int trackId, final String label )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setShowLabel( true );
-            track.setLabel( label );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setShowLabel( true );
+                track.setLabel( label );
+            }
+        } );
     }
 
-    public void setShowLabel( int trackId, boolean show )
+    public void setShowLabel( int trackId, final boolean show )
     {
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setShowLabel( show );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setShowLabel( show );
+            }
+        } );
     }
 
     public void displayTimeRange( int trackId, double startTime, double endTime )
@@ -616,24 +765,19 @@ public class TrackPainter extends GlimpseDataPainter2D
     
     public void displayTimeRange( int trackId, long startTime, long endTime, long selectedTime )
     {
-        Point startPoint = getStartPoint( startTime );
-        Point endPoint = getEndPoint( endTime );
-        Point selectedPoint = getEndPoint( selectedTime );
+        final Point startPoint = getStartPoint( startTime );
+        final Point endPoint = getEndPoint( endTime );
+        final Point selectedPoint = getEndPoint( selectedTime );
 
-        this.trackUpdateLock.lock( );
-        try
-        {
-            Track track = getOrCreateTrack( trackId );
-
-            track.setTimeRange( startPoint, endPoint, selectedPoint );
-
-            this.updatedTracks.add( track );
-            this.newData = true;
-        }
-        finally
+        updateTrack( new SingleTrackUpdate( trackId )
         {
-            this.trackUpdateLock.unlock( );
-        }
+            @Override
+            public void apply( Track track )
+            {
+                track.setTimeRange( startPoint, endPoint, selectedPoint );
+                perTrackTimeRanges = true;
+            }
+        } );
     }
 
     public void displayTimeRange( long startTime, long endTime )
@@ -643,25 +787,56 @@ public class TrackPainter extends GlimpseDataPainter2D
     
     public void displayTimeRange( long startTime, long endTime, long selectedTime )
     {
-        startTimeRange = getStartPoint( startTime );
-        endTimeRange = getEndPoint( endTime );
-        selectedTimeRange = getEndPoint( selectedTime );
+        final Point startPoint = getStartPoint( startTime );
+        final Point endPoint = getEndPoint( endTime );
+        final Point selectedPoint = getEndPoint( selectedTime );
 
-        this.trackUpdateLock.lock( );
-        try
+        updateTrack( new TrackUpdate( )
         {
-            for ( Track track : tracks.values( ) )
+            @Override
+            public void apply( )
             {
-                track.setTimeRange( startTimeRange, endTimeRange, selectedTimeRange );
+                startTimeRange = startPoint;
+                endTimeRange = endPoint;
+                selectedTimeRange = selectedPoint;
+
+                for ( Track track : tracks.values( ) )
+                {
+                    track.setTimeRange( startTimeRange, endTimeRange, selectedTimeRange );
+                }
+                perTrackTimeRanges = false;
+
+                updatedTracks.addAll( tracks.values( ) );
+                newData = true;
             }
+        } );
+    }
 
-            this.updatedTracks.addAll( tracks.values( ) );
-            this.newData = true;
+    /**
+     * Applies a change to track attributes. In concurrent ingest mode the change is
+     * staged and applied, in order with other staged changes, at the next drain of
+     * the ingest queues; otherwise it is applied immediately.
+     */
+    protected void updateTrack( TrackUpdate update )
+    {
+        if ( ingestStripes != null )
+        {
+            this.stagedUpdates.add( update );
+            notifyIngestPending( );
+            return;
+        }
+
+        this.trackUpdateLock.lock( );
+        try
+        {
+            update.apply( );
         }
         finally
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     /**
@@ -681,7 +856,7 @@ public class TrackPainter extends GlimpseDataPainter2D
             this.trackUpdateLock.lock( );
             try
             {
-                return spatialIndex.search( ( float ) minX, ( float ) maxX, ( float ) minY, ( float ) maxY );
+                return searchIndex( minX, maxX, minY, maxY, Long.MIN_VALUE, Long.MAX_VALUE );
             }
             finally
             {
@@ -695,11 +870,17 @@ public class TrackPainter extends GlimpseDataPainter2D
     }
     
     /**
-     * @see #getPixelRange(Axis2D, double, double, int, int)
+     * Like {@link #getPixelRange(Axis2D, double, double, int, int)}, but only returns Points
+     * which fall between the specified times.
+     *
+     * @see #getTimeGeoRange(double, double, double, double, double, double)
      */
     public Collection<Point> getTimePixelRange( Axis2D axis, double minTime, double maxTime, double centerX, double centerY, int pixelWidth, int pixelHeight )
     {
-        return filter( getPixelRange( axis, centerX, centerY, pixelWidth, pixelHeight ) );
+        double width = pixelWidth / axis.getAxisX( ).getPixelsPerValue( );
+        double height = pixelHeight / axis.getAxisY( ).getPixelsPerValue( );
+
+        return getTimeGeoRange( minTime, maxTime, centerX - width / 2, centerX + width / 2, centerY - height / 2, centerY + height / 2 );
     }
     
     /**
@@ -783,29 +964,24 @@ public class TrackPainter extends GlimpseDataPainter2D
         double centerX = axisX.screenPixelToValue( centerPixelX );
         double centerY = axisY.screenPixelToValue( axisY.getSizePixels( ) - centerPixelY );
         
-        Collection<Point> points = getPixelRange( axis, centerX, centerY, maxPixelDistance * 2, maxPixelDistance * 2 );
-        
-        Point minPoint = null;
-        double minDistance = 0;
-        
-        for ( Point point : points )
+        if ( spatialIndex == null ) return null;
+
+        this.trackUpdateLock.lock( );
+        try
         {
-            double pixelX = axisX.valueToScreenPixel( point.x );
-            double pixelY = axisY.getSizePixels( ) - axisY.valueToScreenPixel( point.y );
-            
-            double diffX = pixelX - centerPixelX;
-            double diffY = pixelY - centerPixelY;
-            
-            double dist = Math.sqrt( diffX * diffX + diffY * diffY );
-            
-            if ( minPoint == null || dist < minDistance )
-            {
-                minPoint = point;
-                minDistance = dist;
-            }
+            // the pick region is the square extending maxPixelDistance pixels from the cursor
+            // along each axis, and the point within it closest to the cursor is returned
+            Results results = new Results( );
+            float xScale = ( float ) axisX.getPixelsPerValue( );
+            float yScale = ( float ) axisY.getPixelsPerValue( );
+            spatialIndex.nearest( ( float ) centerX, ( float ) centerY, xScale, yScale, maxPixelDistance, Long.MIN_VALUE, Long.MAX_VALUE, results );
+
+            return results.n( ) == 0 ? null : toPoint( results, 0 );
+        }
+        finally
+        {
+            this.trackUpdateLock.unlock( );
         }
-        
-        return minPoint;
     }
 
     public Collection<Point> getTimeGeoRange( double minTime, double maxTime, double minX, double maxX, double minY, double maxY )
@@ -823,7 +999,9 @@ public class TrackPainter extends GlimpseDataPainter2D
             this.trackUpdateLock.lock( );
             try
             {
-                return filter( spatialIndex.search( ( float ) minX, ( float ) maxX, ( float ) minY, ( float ) maxY ), minTime, maxTime );
+                // the time range excludes minTime (see filter( points, minTime, maxTime ))
+                if ( minTime == Long.MAX_VALUE ) return Collections.emptyList( );
+                return filter( searchIndex( minX, maxX, minY, maxY, minTime + 1, maxTime ), minTime, maxTime );
             }
             finally
             {
@@ -847,7 +1025,23 @@ public class TrackPainter extends GlimpseDataPainter2D
             this.trackUpdateLock.lock( );
             try
             {
-                return filter( spatialIndex.search( ( float ) minX, ( float ) maxX, ( float ) minY, ( float ) maxY ) );
+                long minTime = startTimeRange.getTime( );
+                long maxTime = endTimeRange.getTime( );
+
+                if ( perTrackTimeRanges )
+                {
+                    // search the union of the track time ranges
+                    minTime = Long.MAX_VALUE;
+                    maxTime = Long.MIN_VALUE;
+                    for ( Track track : tracks.values( ) )
+                    {
+                        minTime = Math.min( minTime, track.selectionStart );
+                        maxTime = Math.max( maxTime, track.selectionEnd );
+                    }
+                }
+
+                // check each result against the time range of its own track
+                return filter( searchIndex( minX, maxX, minY, maxY, minTime, maxTime ) );
             }
             finally
             {
@@ -873,6 +1067,7 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.dataBuffer = null;
             this.dataBufferSize = 0;
+            this.indexBuffer = null;
         }
         finally
         {
@@ -890,6 +1085,33 @@ public class TrackPainter extends GlimpseDataPainter2D
         return new Point( Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0, time );
     }
 
+    // must be called while holding trackUpdateLock
+    protected Collection<Point> searchIndex( double minX, double maxX, double minY, double maxY, long minTime, long maxTime )
+    {
+        Results results = new Results( );
+        spatialIndex.search( ( float ) minX, ( float ) maxX, ( float ) minY, ( float ) maxY, minTime, maxTime, results );
+
+        int size = results.n( );
+        List<Point> points = new ArrayList<Point>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            points.add( toPoint( results, i ) );
+        }
+
+        return points;
+    }
+
+    protected static Point toPoint( Results results, int i )
+    {
+        long key = results.vs.a[i];
+        return new Point( ( int ) ( key >>> 32 ), ( int ) key, results.xs.a[i], results.ys.a[i], results.ts.a[i] );
+    }
+
+    protected static long spatialIndexKey( int trackId, int pointId )
+    {
+        return ( ( long ) trackId << 32 ) | ( pointId & 0xFFFFFFFFL );
+    }
+
     protected Collection<Point> filter( Collection<Point> points )
     {
         Collection<Point> result = new ArrayList<Point>( );
@@ -905,7 +1127,7 @@ public class TrackPainter extends GlimpseDataPainter2D
                 continue;
             }
 
-            if ( point.compareTo( track.selectionStart ) >= 0 && point.compareTo( track.selectionEnd ) < 0 )
+            if ( point.getTime( ) >= track.selectionStart && point.getTime( ) <= track.selectionEnd )
             {
                 result.add( point );
             }
@@ -933,6 +1155,12 @@ public class TrackPainter extends GlimpseDataPainter2D
 
     protected void addPoint( int trackId, Point point )
     {
+        if ( ingestStripes != null )
+        {
+            stagePoint( trackId, point.pointId, point.time, point.x, point.y );
+            return;
+        }
+
         this.trackUpdateLock.lock( );
         try
         {
@@ -947,6 +1175,164 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             this.trackUpdateLock.unlock( );
         }
+
+        notifyDirty( );
+    }
+
+    /**
+     * Returns the number of posits which have been added in concurrent ingest mode but
+     * have not yet been moved into their tracks. A steadily growing value indicates
+     * that the display thread is not keeping up with the ingest rate.
+     */
+    public int getIngestQueueDepth( )
+    {
+        return ingestQueueDepth.get( );
+    }
+
+    /**
+     * Returns the number of posits moved into tracks by the most recent (non-empty)
+     * drain of the concurrent ingest queues.
+     */
+    public int getIngestDrainCount( )
+    {
+        return ingestDrainCount;
+    }
+
+    /**
+     * Returns the time, in nanoseconds, taken by the most recent (non-empty) drain
+     * of the concurrent ingest queues.
+     */
+    public long getIngestDrainTimeNanos( )
+    {
+        return ingestDrainTimeNanos;
+    }
+
+    /**
+     * Moves all posits staged in concurrent ingest mode into their tracks, then applies
+     * any staged changes to track attributes. This is
+     * called automatically at the start of each frame, but may be called directly
+     * if queries must reflect recently added posits. Does nothing unless concurrent
+     * ingest is enabled.
+     */
+    public void drainIngestQueues( )
+    {
+        if ( ingestStripes == null ) return;
+
+        long startTime = System.nanoTime( );
+        int count = 0;
+
+        // cleared before swapping the stripes, so anything staged after the swap marks the painter dirty again
+        this.ingestPending.set( false );
+
+        this.trackUpdateLock.lock( );
+        try
+        {
+            for ( IngestStripe stripe : ingestStripes )
+            {
+                IngestBuffer buffer = stripe.swap( );
+                if ( buffer.size( ) == 0 ) continue;
+
+                count += buffer.size( );
+                applyIngestBuffer( buffer );
+                buffer.clear( );
+            }
+
+            TrackUpdate update;
+            while ( ( update = stagedUpdates.poll( ) ) != null )
+            {
+                update.apply( );
+            }
+        }
+        finally
+        {
+            this.trackUpdateLock.unlock( );
+        }
+
+        if ( count > 0 )
+        {
+            this.ingestQueueDepth.addAndGet( -count );
+            this.ingestDrainCount = count;
+            this.ingestDrainTimeNanos = System.nanoTime( ) - startTime;
+        }
+    }
+
+    protected void stagePoint( int trackId, int pointId, long time, float x, float y )
+    {
+        getIngestStripe( trackId ).add( trackId, pointId, time, x, y );
+        this.ingestQueueDepth.incrementAndGet( );
+        notifyIngestPending( );
+    }
+
+    protected void stagePoints( int trackId, int[] pointIds, long[] times, float[] xs, float[] ys )
+    {
+        getIngestStripe( trackId ).add( trackId, pointIds, times, xs, ys );
+        this.ingestQueueDepth.addAndGet( times.length );
+        notifyIngestPending( );
+    }
+
+    // notifies dirty listeners only for the first change staged since the last drain
+    protected void notifyIngestPending( )
+    {
+        if ( !ingestPending.get( ) && ingestPending.compareAndSet( false, true ) )
+        {
+            notifyDirty( );
+        }
+    }
+
+    protected IngestStripe getIngestStripe( int trackId )
+    {
+        return ingestStripes[ ( trackId & 0x7FFFFFFF ) % ingestStripes.length ];
+    }
+
+    // must be called while holding trackUpdateLock
+    protected void applyIngestBuffer( IngestBuffer buffer )
+    {
+        int size = buffer.size( );
+
+        // group the staged posits by track (the sort is stable, so posits
+        // for each track stay in the order they were staged)
+        long[] keys = new long[size];
+        int[] order = new int[size];
+        for ( int i = 0; i < size; i++ )
+        {
+            keys[i] = buffer.trackIds.a[i];
+            order[i] = i;
+        }
+
+        Sorting.mergesort( keys, order, 0, size );
+
+        int runStart = 0;
+        while ( runStart < size )
+        {
+            int runEnd = runStart + 1;
+            while ( runEnd < size && keys[runEnd] == keys[runStart] )
+                runEnd++;
+
+            int runSize = runEnd - runStart;
+            Track track = getOrCreateTrack( ( int ) keys[runStart] );
+
+            int[] pointIds = new int[runSize];
+            long[] times = new long[runSize];
+            float[] xs = new float[runSize];
+            float[] ys = new float[runSize];
+
+            for ( int i = 0; i < runSize; i++ )
+            {
+                int o = order[runStart + i];
+                // explicit ids are applied in staged order, so later auto ids never reuse them
+                pointIds[i] = buffer.autoIds.a[o] ? track.nextPointId++ : track.usePointId( buffer.pointIds.a[o] );
+                times[i] = buffer.times.a[o];
+                xs[i] = buffer.xs.a[o];
+                ys[i] = buffer.ys.a[o];
+            }
+
+            track.add( pointIds, times, xs, ys );
+            this.updatedTracks.add( track );
+
+            runStart = runEnd;
+        }
+
+        this.newData = true;
     }
 
     // must be called while holding trackUpdateLock
@@ -957,6 +1343,7 @@ public class TrackPainter extends GlimpseDataPainter2D
         if ( track == null )
         {
             track = new Track( trackId );
+            track.createLevels( );
             track.setTimeRange( startTimeRange, endTimeRange, selectedTimeRange );
             this.tracks.put( trackId, track );
         }
@@ -973,6 +1360,14 @@ public class TrackPainter extends GlimpseDataPainter2D
         }
     }
 
+    protected void ensureIndexBufferSize( int needed )
+    {
+        if ( indexBuffer == null || indexBuffer.capacity( ) < needed )
+        {
+            indexBuffer = ByteBuffer.allocateDirect( needed * BYTES_PER_INT ).order( ByteOrder.nativeOrder( ) ).asIntBuffer( );
+        }
+    }
+
     protected void notifyTemporalSelectionListeners( Map<Integer, Point> newTrackHeads )
     {
         for ( TemporalSelectionListener<Point> listener : temporalSelectionListeners )
@@ -1000,6 +1395,13 @@ public class TrackPainter extends GlimpseDataPainter2D
         int width = bounds.getWidth( );
         int height = bounds.getHeight( );
 
+        drainIngestQueues( );
+
+        if ( this.batchRendering != this.loadedBatchRendering )
+        {
+            switchRenderingMode( gl );
+        }
+
         if ( this.newData )
         {
             this.trackUpdateLock.lock( );
@@ -1013,6 +1415,7 @@ public class TrackPainter extends GlimpseDataPainter2D
                     if ( track.isDeletePending( ) || track.isClearPending( ) )
                     {
                         LoadedTrack loaded = getOrCreateLoadedTrack( id, track );
+                        if ( loaded.sharedAllocated ) sharedBufferWasted += loaded.glBufferMaxSize;
                         loaded.dispose( gl );
                         loadedTracks.remove( id );
 
@@ -1028,219 +1431,963 @@ public class TrackPainter extends GlimpseDataPainter2D
                     LoadedTrack loaded = getOrCreateLoadedTrack( id, track );
                     loaded.loadSettings( track );
 
-                    int trackSize = track.getSize( );
-
                     if ( track.isDataInserted( ) )
                     {
-                        if ( !loaded.glBufferInitialized || loaded.glBufferMaxSize < trackSize )
+                        if ( loadedBatchRendering )
                         {
-                            // if the track doesn't have a gl buffer or it is too small we must
-                            // copy all the track's data into a new, larger buffer
-
-                            // if this is the first time we have allocated memory for this track
-                            // don't allocate any extra, it may never get added to
-                            // however, once a track has been updated once, we assume it is likely
-                            // to be updated again and give it extra memory
-                            if ( loaded.glBufferInitialized )
-                            {
-                                gl.glDeleteBuffers( 1, new int[] { loaded.glBufferHandle }, 0 );
-                                loaded.glBufferMaxSize = Math.max( ( int ) ( loaded.glBufferMaxSize * 1.5 ), trackSize );
-                            }
-                            else
-                            {
-                                loaded.glBufferMaxSize = trackSize;
-                            }
-
-                            // copy all the track data into a host buffer
-                            ensureDataBufferSize( loaded.glBufferMaxSize );
-                            dataBuffer.rewind( );
-                            track.loadIntoBuffer( dataBuffer, 0, trackSize );
-
-                            // create a new device buffer handle
-                            int[] bufferHandle = new int[1];
-                            gl.glGenBuffers( 1, bufferHandle, 0 );
-                            loaded.glBufferHandle = bufferHandle[0];
-
-                            loaded.glBufferInitialized = true;
-
-                            // copy data from the host buffer into the device buffer
-                            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, loaded.glBufferHandle );
-                            gl.glBufferData( GL.GL_ARRAY_BUFFER, loaded.glBufferMaxSize * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ), GL.GL_DYNAMIC_DRAW );
+                            loadTrackShared( gl, track, loaded );
                         }
                         else
                         {
-                            // there is enough empty space in the device buffer to accommodate all the new data
+                            loadTrack( gl, track, loaded );
+                        }
+                    }
 
-                            int insertOffset = track.getInsertOffset( );
-                            int insertCount = track.getInsertCount( );
+                    if ( !loadedBatchRendering )
+                    {
+                        loadLevels( gl, track, loaded );
+                    }
 
-                            // copy all the new track data into a host buffer
-                            ensureDataBufferSize( insertCount );
-                            dataBuffer.rewind( );
-                            track.loadIntoBuffer( dataBuffer, insertOffset, trackSize );
+                    track.reset( );
+                }
 
-                            // update the device buffer with the new data
-                            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, loaded.glBufferHandle );
-                            gl.glBufferSubData( GL.GL_ARRAY_BUFFER, insertOffset * 2 * BYTES_PER_FLOAT, insertCount * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ) );
-                        }
+                if ( loadedBatchRendering )
+                {
+                    // compact the shared buffer once more than a third of it is
+                    // taken up by space abandoned by grown or deleted tracks
+                    if ( sharedBufferRebuild || sharedBufferWasted > sharedBufferUsed / 3 )
+                    {
+                        rebuildSharedBuffer( gl );
                     }
 
-                    track.reset( );
-                }
+                    buildDrawBatches( );
+                }
+
+                this.updatedTracks.clear( );
+                this.newData = false;
+            }
+            finally
+            {
+                this.trackUpdateLock.unlock( );
+            }
+
+            glHandleError( gl );
+        }
+
+        if ( loadedTracks.isEmpty( ) ) return;
+
+        boolean labelOn;
+        if ( loadedBatchRendering )
+        {
+            labelOn = paintTracksBatched( gl );
+        }
+        else
+        {
+            labelOn = paintTracks( gl, chooseLevelOfDetail( axis ) );
+        }
+
+        // don't bother iterating through all the tracks again if none have labels turned on
+        if ( labelOn && fontRenderer != null )
+        {
+            paintLabels( gl, axis, width, height );
+        }
+    }
+
+    // copies new track data into the track's own device buffer
+    protected void loadTrack( GL gl, Track track, LoadedTrack loaded )
+    {
+        int trackSize = track.getSize( );
+
+        if ( !loaded.glBufferInitialized || loaded.glBufferMaxSize < trackSize )
+        {
+            // if the track doesn't have a gl buffer or it is too small we must
+            // copy all the track's data into a new, larger buffer
+
+            // if this is the first time we have allocated memory for this track
+            // don't allocate any extra, it may never get added to
+            // however, once a track has been updated once, we assume it is likely
+            // to be updated again and give it extra memory
+            if ( loaded.glBufferInitialized )
+            {
+                gl.glDeleteBuffers( 1, new int[] { loaded.glBufferHandle }, 0 );
+                loaded.glBufferMaxSize = Math.max( ( int ) ( loaded.glBufferMaxSize * 1.5 ), trackSize );
+            }
+            else
+            {
+                loaded.glBufferMaxSize = trackSize;
+            }
+
+            // copy all the track data into a host buffer
+            ensureDataBufferSize( loaded.glBufferMaxSize );
+            dataBuffer.rewind( );
+            track.loadIntoBuffer( dataBuffer, 0, trackSize );
+
+            // create a new device buffer handle
+            int[] bufferHandle = new int[1];
+            gl.glGenBuffers( 1, bufferHandle, 0 );
+            loaded.glBufferHandle = bufferHandle[0];
+
+            loaded.glBufferInitialized = true;
+
+            // copy data from the host buffer into the device buffer
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, loaded.glBufferHandle );
+            gl.glBufferData( GL.GL_ARRAY_BUFFER, loaded.glBufferMaxSize * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ), GL.GL_DYNAMIC_DRAW );
+        }
+        else
+        {
+            // there is enough empty space in the device buffer to accommodate all the new data
+
+            int insertOffset = track.getInsertOffset( );
+            int insertCount = track.getInsertCount( );
+
+            // copy all the new track data into a host buffer
+            ensureDataBufferSize( insertCount );
+            dataBuffer.rewind( );
+            track.loadIntoBuffer( dataBuffer, insertOffset, trackSize );
+
+            // update the device buffer with the new data
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, loaded.glBufferHandle );
+            gl.glBufferSubData( GL.GL_ARRAY_BUFFER, insertOffset * 2 * BYTES_PER_FLOAT, insertCount * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ) );
+        }
+    }
+
+    // copies changed decimated levels of the track into their device index buffers
+    protected void loadLevels( GL gl, Track track, LoadedTrack loaded )
+    {
+        DecimatedLevel[] levels = track.levels;
+
+        int levelCount = levels == null ? 0 : levels.length;
+        int loadedCount = loaded.levels == null ? 0 : loaded.levels.length;
+
+        if ( levelCount != loadedCount )
+        {
+            loaded.disposeLevels( gl );
+            loaded.levels = levelCount == 0 ? null : new LoadedLevel[levelCount];
+            for ( int k = 0; k < levelCount; k++ )
+            {
+                loaded.levels[k] = new LoadedLevel( );
+                levels[k].markDirty( 0 );
+            }
+        }
+
+        for ( int k = 0; k < levelCount; k++ )
+        {
+            DecimatedLevel level = levels[k];
+            if ( !level.dirty ) continue;
+
+            LoadedLevel loadedLevel = loaded.levels[k];
+            IntsArray indices = level.indices;
+
+            // keep a host copy of the indices for selecting the displayed time range
+            int dirtyFrom = Math.min( level.dirtyFrom, loadedLevel.indices.n );
+            loadedLevel.indices.n = dirtyFrom;
+            loadedLevel.indices.append( indices, dirtyFrom, indices.n );
+
+            if ( loadedLevel.glBufferHandle == 0 || loadedLevel.glBufferMaxSize < indices.n )
+            {
+                if ( loadedLevel.glBufferHandle == 0 )
+                {
+                    int[] bufferHandle = new int[1];
+                    gl.glGenBuffers( 1, bufferHandle, 0 );
+                    loadedLevel.glBufferHandle = bufferHandle[0];
+                }
+
+                loadedLevel.glBufferMaxSize = Math.max( ( int ) ( loadedLevel.glBufferMaxSize * 1.5 ), indices.n );
+
+                ensureIndexBufferSize( loadedLevel.glBufferMaxSize );
+                indexBuffer.rewind( );
+                indexBuffer.put( indices.a, 0, indices.n );
+
+                gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, loadedLevel.glBufferHandle );
+                gl.glBufferData( GL.GL_ELEMENT_ARRAY_BUFFER, loadedLevel.glBufferMaxSize * BYTES_PER_INT, indexBuffer.rewind( ), GL.GL_DYNAMIC_DRAW );
+            }
+            else if ( dirtyFrom < indices.n )
+            {
+                int count = indices.n - dirtyFrom;
+
+                ensureIndexBufferSize( count );
+                indexBuffer.rewind( );
+                indexBuffer.put( indices.a, dirtyFrom, count );
+
+                gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, loadedLevel.glBufferHandle );
+                gl.glBufferSubData( GL.GL_ELEMENT_ARRAY_BUFFER, dirtyFrom * BYTES_PER_INT, count * BYTES_PER_INT, indexBuffer.rewind( ) );
+            }
+
+            level.dirty = false;
+        }
+
+        gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+    }
+
+    // returns the coarsest decimated level which is fine enough for the current
+    // axis scale, or -1 if every posit should be drawn
+    protected int chooseLevelOfDetail( Axis2D axis )
+    {
+        if ( lodLevelCount == 0 ) return -1;
+
+        double pixelsPerValue = Math.max( axis.getAxisX( ).getPixelsPerValue( ), axis.getAxisY( ).getPixelsPerValue( ) );
+        double tolerance = LOD_PIXEL_TOLERANCE / pixelsPerValue;
+
+        int level = -1;
+        for ( int k = 0; k < lodLevelCount; k++ )
+        {
+            if ( getLevelOfDetailTolerance( k ) <= tolerance ) level = k;
+        }
+
+        return level;
+    }
+
+    // copies new track data into the track's range of the shared device buffer,
+    // allocating a new range (or scheduling a rebuild of the shared buffer) if necessary
+    protected void loadTrackShared( GL gl, Track track, LoadedTrack loaded )
+    {
+        int trackSize = track.getSize( );
+
+        if ( !loaded.sharedAllocated || loaded.glBufferMaxSize < trackSize )
+        {
+            // the same growth policy as loadTrack( ), the old range is abandoned
+            if ( loaded.sharedAllocated )
+            {
+                sharedBufferWasted += loaded.glBufferMaxSize;
+                loaded.glBufferMaxSize = Math.max( ( int ) ( loaded.glBufferMaxSize * 1.5 ), trackSize );
+            }
+            else
+            {
+                loaded.glBufferMaxSize = trackSize;
+            }
+
+            loaded.sharedAllocated = true;
+
+            // if the shared buffer is full, all tracks will be reloaded into a new buffer
+            if ( sharedBufferRebuild || sharedBufferHandle == 0 || sharedBufferUsed + loaded.glBufferMaxSize > sharedBufferCapacity )
+            {
+                sharedBufferRebuild = true;
+                return;
+            }
+
+            loaded.glBufferOffset = sharedBufferUsed;
+            sharedBufferUsed += loaded.glBufferMaxSize;
+
+            ensureDataBufferSize( trackSize );
+            dataBuffer.rewind( );
+            track.loadIntoBuffer( dataBuffer, 0, trackSize );
+
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, sharedBufferHandle );
+            gl.glBufferSubData( GL.GL_ARRAY_BUFFER, loaded.glBufferOffset * 2 * BYTES_PER_FLOAT, trackSize * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ) );
+        }
+        else if ( !sharedBufferRebuild )
+        {
+            int insertOffset = track.getInsertOffset( );
+            int insertCount = track.getInsertCount( );
+
+            ensureDataBufferSize( insertCount );
+            dataBuffer.rewind( );
+            track.loadIntoBuffer( dataBuffer, insertOffset, trackSize );
+
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, sharedBufferHandle );
+            gl.glBufferSubData( GL.GL_ARRAY_BUFFER, ( loaded.glBufferOffset + insertOffset ) * 2 * BYTES_PER_FLOAT, insertCount * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ) );
+        }
+    }
+
+    // must be called while holding trackUpdateLock
+    protected void rebuildSharedBuffer( GL gl )
+    {
+        // lay out all tracks contiguously, keeping their current capacities
+        int used = 0;
+        for ( LoadedTrack loaded : loadedTracks.values( ) )
+        {
+            Track track = tracks.get( loaded.trackId );
+            if ( track == null ) continue;
+
+            loaded.glBufferMaxSize = Math.max( loaded.glBufferMaxSize, track.getSize( ) );
+            loaded.glBufferOffset = used;
+            loaded.sharedAllocated = true;
+            used += loaded.glBufferMaxSize;
+        }
+
+        // leave room for new tracks and growth before the next rebuild
+        int capacity = Math.max( ( int ) ( used * 1.5 ), SHARED_BUFFER_MIN_SIZE );
+
+        ensureDataBufferSize( capacity );
+        for ( LoadedTrack loaded : loadedTracks.values( ) )
+        {
+            Track track = tracks.get( loaded.trackId );
+            if ( track == null ) continue;
+
+            dataBuffer.position( loaded.glBufferOffset * 2 );
+            track.loadIntoBuffer( dataBuffer, 0, track.getSize( ) );
+        }
+
+        if ( sharedBufferHandle == 0 )
+        {
+            int[] bufferHandle = new int[1];
+            gl.glGenBuffers( 1, bufferHandle, 0 );
+            sharedBufferHandle = bufferHandle[0];
+        }
+
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, sharedBufferHandle );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, capacity * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ), GL.GL_DYNAMIC_DRAW );
+
+        sharedBufferCapacity = capacity;
+        sharedBufferUsed = used;
+        sharedBufferWasted = 0;
+        sharedBufferRebuild = false;
+    }
+
+    // groups tracks with identical display attributes so that each group
+    // can be drawn with a single call, must be called while holding trackUpdateLock
+    protected void buildDrawBatches( )
+    {
+        Map<DrawStyle, DrawBatch> lines = new HashMap<DrawStyle, DrawBatch>( );
+        Map<DrawStyle, DrawBatch> points = new HashMap<DrawStyle, DrawBatch>( );
+        Map<Float, List<LoadedTrack>> heads = new HashMap<Float, List<LoadedTrack>>( );
+        int headCount = 0;
+
+        batchLabelOn = false;
+
+        for ( LoadedTrack loaded : loadedTracks.values( ) )
+        {
+            if ( !loaded.sharedAllocated ) continue;
+
+            if ( loaded.labelOn ) batchLabelOn = true;
+
+            if ( loaded.glSelectedSize == 0 ) continue;
+
+            int first = loaded.glBufferOffset + loaded.glSelectedOffset;
+            int count = loaded.glSelectedSize;
+
+            if ( loaded.linesOn )
+            {
+                DrawStyle style = new DrawStyle( loaded.lineColor, loaded.lineWidth, loaded.stippleOn, loaded.stippleFactor, loaded.stipplePattern );
+                getOrCreateDrawBatch( lines, style ).add( first, count );
+            }
+
+            if ( loaded.pointsOn )
+            {
+                DrawStyle style = new DrawStyle( loaded.pointColor, loaded.pointSize, false, 0, ( short ) 0 );
+                getOrCreateDrawBatch( points, style ).add( first, count );
+            }
+
+            if ( loaded.headPointOn )
+            {
+                List<LoadedTrack> list = heads.get( loaded.headPointSize );
+                if ( list == null )
+                {
+                    list = new ArrayList<LoadedTrack>( );
+                    heads.put( loaded.headPointSize, list );
+                }
+
+                list.add( loaded );
+                headCount++;
+            }
+        }
+
+        lineBatches = new ArrayList<DrawBatch>( lines.values( ) );
+        pointBatches = new ArrayList<DrawBatch>( points.values( ) );
+
+        // head points are drawn from a host-side array of interleaved x, y, r, g, b, a values
+        if ( headBuffer == null || headBuffer.capacity( ) < headCount * 6 )
+        {
+            headBuffer = ByteBuffer.allocateDirect( headCount * 6 * BYTES_PER_FLOAT ).order( ByteOrder.nativeOrder( ) ).asFloatBuffer( );
+        }
+
+        headBuffer.clear( );
+        headBatches = new ArrayList<DrawBatch>( heads.size( ) );
+        for ( Map.Entry<Float, List<LoadedTrack>> entry : heads.entrySet( ) )
+        {
+            DrawBatch batch = new DrawBatch( new DrawStyle( null, entry.getKey( ), false, 0, ( short ) 0 ) );
+            batch.add( headBuffer.position( ) / 6, entry.getValue( ).size( ) );
+
+            for ( LoadedTrack loaded : entry.getValue( ) )
+            {
+                headBuffer.put( ( float ) loaded.headPosX ).put( ( float ) loaded.headPosY ).put( loaded.headPointColor );
+            }
+
+            headBatches.add( batch );
+        }
+    }
+
+    protected DrawBatch getOrCreateDrawBatch( Map<DrawStyle, DrawBatch> batches, DrawStyle style )
+    {
+        DrawBatch batch = batches.get( style );
+        if ( batch == null )
+        {
+            batch = new DrawBatch( style );
+            batches.put( style, batch );
+        }
+
+        return batch;
+    }
+
+    // discards all device-side track data and schedules every track to be reloaded
+    protected void switchRenderingMode( GL gl )
+    {
+        this.trackUpdateLock.lock( );
+        try
+        {
+            for ( LoadedTrack loaded : loadedTracks.values( ) )
+            {
+                loaded.dispose( gl );
+            }
+
+            loadedTracks.clear( );
+            disposeSharedBuffer( gl );
+
+            // reload every track into the new device-side layout
+            for ( Track track : tracks.values( ) )
+            {
+                if ( track.getSize( ) > 0 ) track.markInserted( 0 );
+            }
+
+            this.updatedTracks.addAll( tracks.values( ) );
+            this.newData = true;
+
+            this.loadedBatchRendering = this.batchRendering;
+        }
+        finally
+        {
+            this.trackUpdateLock.unlock( );
+        }
+    }
+
+    protected void disposeSharedBuffer( GL gl )
+    {
+        if ( sharedBufferHandle != 0 )
+        {
+            gl.glDeleteBuffers( 1, new int[] { sharedBufferHandle }, 0 );
+        }
+
+        sharedBufferHandle = 0;
+        sharedBufferCapacity = 0;
+        sharedBufferUsed = 0;
+        sharedBufferWasted = 0;
+        sharedBufferRebuild = false;
+
+        lineBatches = Collections.emptyList( );
+        pointBatches = Collections.emptyList( );
+        headBatches = Collections.emptyList( );
+        batchLabelOn = false;
+    }
+
+    // draws each track from its own device buffer (using the given decimated level, if any),
+    // returns true if any track has its label turned on
+    protected boolean paintTracks( GL gl, int level )
+    {
+        gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+
+        boolean labelOn = false;
+
+        for ( LoadedTrack loaded : loadedTracks.values( ) )
+        {
+            if ( !loaded.glBufferInitialized ) continue;
+
+            int glOffset = loaded.glSelectedOffset;
+            int glSize = loaded.glSelectedSize;
+
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, loaded.glBufferHandle );
+            gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+
+            // the first and last selected raw vertices, which are drawn whether or not the level retains them
+            int rawFirst = glOffset;
+            int rawLast = glOffset + glSize - 1;
+
+            // find the range of the decimated level which falls in the selected time range
+            LoadedLevel lod = loaded.getLevel( level );
+            if ( lod != null )
+            {
+                int first = lod.indexAtOrAfter( glOffset );
+                glSize = lod.indexAtOrAfter( glOffset + glSize ) - first;
+                glOffset = first;
+
+                gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, lod.glBufferHandle );
+            }
+
+            if ( loaded.linesOn )
+            {
+                gl.glColor4fv( loaded.lineColor, 0 );
+                gl.glLineWidth( loaded.lineWidth );
+
+                if ( loaded.stippleOn )
+                {
+                    gl.glEnable( GL.GL_LINE_STIPPLE );
+                    gl.glLineStipple( loaded.stippleFactor, loaded.stipplePattern );
+                }
+
+                drawRange( gl, GL.GL_LINE_STRIP, lod, glOffset, glSize );
+                if ( lod != null ) drawLevelEnds( gl, GL.GL_LINES, lod, glOffset, glSize, rawFirst, rawLast );
+
+                if ( loaded.stippleOn )
+                {
+                    gl.glDisable( GL.GL_LINE_STIPPLE );
+                }
+            }
+
+            if ( loaded.pointsOn )
+            {
+                gl.glColor4fv( loaded.pointColor, 0 );
+                gl.glPointSize( loaded.pointSize );
+                drawRange( gl, GL.GL_POINTS, lod, glOffset, glSize );
+                if ( lod != null ) drawLevelEnds( gl, GL.GL_POINTS, lod, glOffset, glSize, rawFirst, rawLast );
+            }
+
+            if ( lod != null )
+            {
+                gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+            }
+
+            if ( loaded.headPointOn )
+            {
+                gl.glColor4fv( loaded.headPointColor, 0 );
+                gl.glPointSize( loaded.headPointSize );
+                gl.glBegin( GL.GL_POINTS );
+                try
+                {
+                    gl.glVertex2d( loaded.headPosX, loaded.headPosY );
+                }
+                finally
+                {
+                    gl.glEnd( );
+                }
+            }
+
+            if ( loaded.labelOn ) labelOn = true;
+        }
+
+        return labelOn;
+    }
+
+    // draws a range of vertices, or a range of a decimated level's indices if lod is non-null
+    protected void drawRange( GL gl, int mode, LoadedLevel lod, int offset, int size )
+    {
+        if ( lod == null )
+        {
+            gl.glDrawArrays( mode, offset, size );
+        }
+        else
+        {
+            gl.glDrawElements( mode, size, GL.GL_UNSIGNED_INT, offset * BYTES_PER_INT );
+        }
+    }
+
+    // a decimated level need not retain the first and last selected raw vertices, so the ends of the
+    // selection are drawn from the raw vertices: as the two segments joining them to the first and
+    // last retained vertices in the selection (GL_LINES), or as two points (GL_POINTS)
+    protected void drawLevelEnds( GL gl, int mode, LoadedLevel lod, int offset, int size, int rawFirst, int rawLast )
+    {
+        if ( rawLast < rawFirst ) return;
+
+        levelEndBuffer.clear( );
+        levelEndBuffer.put( rawFirst );
+
+        if ( mode == GL.GL_LINES )
+        {
+            if ( size > 0 )
+            {
+                levelEndBuffer.put( lod.indices.a[offset] );
+                levelEndBuffer.put( lod.indices.a[offset + size - 1] );
+            }
+            else
+            {
+                levelEndBuffer.put( rawLast );
+                levelEndBuffer.put( rawLast );
+            }
+        }
+
+        levelEndBuffer.put( rawLast );
+        levelEndBuffer.flip( );
+
+        // the indices are client side, so the level's index buffer must not be bound while they are drawn
+        gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+        gl.glDrawElements( mode, levelEndBuffer.remaining( ), GL.GL_UNSIGNED_INT, levelEndBuffer );
+        gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, lod.glBufferHandle );
+    }
+
+    // draws all tracks from the shared device buffer, one call per distinct
+    // combination of display attributes, returns true if any track has its label turned on
+    protected boolean paintTracksBatched( GL gl )
+    {
+        if ( sharedBufferHandle == 0 ) return false;
+
+        gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, sharedBufferHandle );
+        gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+
+        for ( DrawBatch batch : lineBatches )
+        {
+            DrawStyle style = batch.style;
+
+            gl.glColor4fv( style.color, 0 );
+            gl.glLineWidth( style.size );
+
+            if ( style.stippleOn )
+            {
+                gl.glEnable( GL.GL_LINE_STIPPLE );
+                gl.glLineStipple( style.stippleFactor, style.stipplePattern );
+            }
+
+            gl.glMultiDrawArrays( GL.GL_LINE_STRIP, batch.firsts.a, 0, batch.counts.a, 0, batch.firsts.n );
+
+            if ( style.stippleOn )
+            {
+                gl.glDisable( GL.GL_LINE_STIPPLE );
+            }
+        }
+
+        for ( DrawBatch batch : pointBatches )
+        {
+            gl.glColor4fv( batch.style.color, 0 );
+            gl.glPointSize( batch.style.size );
+            gl.glMultiDrawArrays( GL.GL_POINTS, batch.firsts.a, 0, batch.counts.a, 0, batch.firsts.n );
+        }
+
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+
+        if ( !headBatches.isEmpty( ) )
+        {
+            gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+            try
+            {
+                headBuffer.position( 0 );
+                gl.glVertexPointer( 2, GL.GL_FLOAT, 6 * BYTES_PER_FLOAT, headBuffer );
+                headBuffer.position( 2 );
+                gl.glColorPointer( 4, GL.GL_FLOAT, 6 * BYTES_PER_FLOAT, headBuffer );
+                headBuffer.position( 0 );
+
+                for ( DrawBatch batch : headBatches )
+                {
+                    gl.glPointSize( batch.style.size );
+                    gl.glDrawArrays( GL.GL_POINTS, batch.firsts.a[0], batch.counts.a[0] );
+                }
+            }
+            finally
+            {
+                gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+            }
+        }
+
+        return batchLabelOn;
+    }
+
+    protected void paintLabels( GL gl, Axis2D axis, int width, int height )
+    {
+        if ( glyphAtlasLabels )
+        {
+            paintGlyphAtlasLabels( axis, width, height );
+        }
+        else
+        {
+            fontRenderer.beginRendering( width, height );
+            try
+            {
+                for ( LoadedTrack loaded : loadedTracks.values( ) )
+                {
+                    if ( loaded.labelOn && loaded.label != null )
+                    {
+                        int posX = axis.getAxisX( ).valueToScreenPixel( loaded.headPosX );
+                        int posY = axis.getAxisY( ).valueToScreenPixel( loaded.headPosY );
+                        fontRenderer.setColor( loaded.labelColor );
+                        fontRenderer.draw( loaded.label, posX + TRACK_LABEL_OFFSET_X, posY + TRACK_LABEL_OFFSET_Y );
+                    }
+                }
+            }
+            finally
+            {
+                fontRenderer.endRendering( );
+            }
+        }
+
+        gl.glMatrixMode( GL.GL_PROJECTION );
+        gl.glLoadIdentity( );
+        gl.glOrtho( 0, width, 0, height, -1, 1 );
+        gl.glMatrixMode( GL.GL_MODELVIEW );
+        gl.glLoadIdentity( );
+
+        // all the label lines are drawn in a single begin/end pair
+        gl.glBegin( GL.GL_LINES );
+        try
+        {
+            for ( LoadedTrack loaded : loadedTracks.values( ) )
+            {
+                if ( loaded.labelOn && loaded.labelLineOn && loaded.label != null )
+                {
+                    int posX = axis.getAxisX( ).valueToScreenPixel( loaded.headPosX );
+                    int posY = axis.getAxisY( ).valueToScreenPixel( loaded.headPosY );
+
+                    gl.glColor3fv( loaded.labelLineColor, 0 );
+                    gl.glVertex2i( posX, posY );
+                    gl.glVertex2i( posX + TRACK_LABEL_OFFSET_X, posY + TRACK_LABEL_OFFSET_Y );
+                }
+            }
+        }
+        finally
+        {
+            gl.glEnd( );
+        }
+    }
+
+    protected void paintGlyphAtlasLabels( Axis2D axis, int width, int height )
+    {
+        if ( glyphRenderer == null )
+        {
+            glyphRenderer = new GlyphAtlasTextRenderer( textFont );
+        }
+
+        glyphRenderer.beginRendering( width, height );
+        try
+        {
+            Color color = null;
+            for ( LoadedTrack loaded : loadedTracks.values( ) )
+            {
+                if ( loaded.labelOn && loaded.label != null )
+                {
+                    int posX = axis.getAxisX( ).valueToScreenPixel( loaded.headPosX );
+                    int posY = axis.getAxisY( ).valueToScreenPixel( loaded.headPosY );
+
+                    if ( loaded.labelColor != color )
+                    {
+                        color = loaded.labelColor;
+                        glyphRenderer.setColor( color );
+                    }
+
+                    glyphRenderer.draw( loaded.label, posX + TRACK_LABEL_OFFSET_X, posY + TRACK_LABEL_OFFSET_Y );
+                }
+            }
+        }
+        finally
+        {
+            glyphRenderer.endRendering( );
+        }
+    }
+
+    @Override
+    public void dispose( GLContext context )
+    {
+        GL gl = context.getGL( );
+
+        this.trackUpdateLock.lock( );
+        try
+        {
+            for ( LoadedTrack track : loadedTracks.values( ) )
+            {
+                track.dispose( gl );
+            }
+
+            disposeSharedBuffer( gl );
+        }
+        finally
+        {
+            this.trackUpdateLock.unlock( );
+        }
+
+        if ( fontRenderer != null )
+        {
+            fontRenderer.dispose( );
+            fontRenderer = null;
+        }
+
+        if ( glyphRenderer != null )
+        {
+            glyphRenderer.dispose( );
+            glyphRenderer = null;
+        }
+    }
+
+    ////////////////////////////////////////
+    ///// Internal Data Structures     /////
+    ///// not intended for use outside /////
+    ///// of TrackPainter              /////
+    ////////////////////////////////////////
+
+    // Display attributes shared by all the tracks drawn by a single DrawBatch
+    private static class DrawStyle
+    {
+        float[] color;
+        // line width or point size
+        float size;
+        boolean stippleOn;
+        int stippleFactor;
+        short stipplePattern;
+
+        public DrawStyle( float[] color, float size, boolean stippleOn, int stippleFactor, short stipplePattern )
+        {
+            this.color = color == null ? null : color.clone( );
+            this.size = size;
+            this.stippleOn = stippleOn;
+            this.stippleFactor = stippleFactor;
+            this.stipplePattern = stipplePattern;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( o == null ) return false;
+            if ( o == this ) return true;
+            if ( o.getClass( ) != this.getClass( ) ) return false;
+            DrawStyle p = ( DrawStyle ) o;
+            return Arrays.equals( p.color, color ) && p.size == size && p.stippleOn == stippleOn && p.stippleFactor == stippleFactor && p.stipplePattern == stipplePattern;
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            final int prime = 227;
+            int result = 1;
+            result = prime * result + Arrays.hashCode( color );
+            result = prime * result + Float.floatToIntBits( size );
+            result = prime * result + ( stippleOn ? stippleFactor : 0 );
+            result = prime * result + ( stippleOn ? stipplePattern : 0 );
+            return result;
+        }
+    }
 
-                this.updatedTracks.clear( );
-                this.newData = false;
-            }
-            finally
-            {
-                this.trackUpdateLock.unlock( );
-            }
+    // The vertex ranges of the shared device buffer to draw with a given style
+    private static class DrawBatch
+    {
+        DrawStyle style;
+        IntsArray firsts = new IntsArray( );
+        IntsArray counts = new IntsArray( );
 
-            glHandleError( gl );
+        public DrawBatch( DrawStyle style )
+        {
+            this.style = style;
         }
 
-        if ( loadedTracks.isEmpty( ) ) return;
+        public void add( int first, int count )
+        {
+            firsts.append( first );
+            counts.append( count );
+        }
+    }
 
-        gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+    // A change to track attributes, applied while holding trackUpdateLock.
+    protected abstract class TrackUpdate
+    {
+        public abstract void apply( );
+    }
 
-        boolean labelOn = false;
+    // A change to the attributes of a single track, created if necessary.
+    protected abstract class SingleTrackUpdate extends TrackUpdate
+    {
+        protected final int trackId;
 
-        for ( LoadedTrack loaded : loadedTracks.values( ) )
+        public SingleTrackUpdate( int trackId )
         {
-            if ( !loaded.glBufferInitialized ) continue;
-
-            int glOffset = loaded.glSelectedOffset;
-            int glSize = loaded.glSelectedSize;
+            this.trackId = trackId;
+        }
 
-            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, loaded.glBufferHandle );
-            gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+        @Override
+        public void apply( )
+        {
+            Track track = getOrCreateTrack( trackId );
 
-            if ( loaded.linesOn )
-            {
-                gl.glColor4fv( loaded.lineColor, 0 );
-                gl.glLineWidth( loaded.lineWidth );
+            apply( track );
 
-                if ( loaded.stippleOn )
-                {
-                    gl.glEnable( GL.GL_LINE_STIPPLE );
-                    gl.glLineStipple( loaded.stippleFactor, loaded.stipplePattern );
-                }
+            updatedTracks.add( track );
+            newData = true;
+        }
 
-                gl.glDrawArrays( GL.GL_LINE_STRIP, glOffset, glSize );
+        public abstract void apply( Track track );
+    }
 
-                if ( loaded.stippleOn )
-                {
-                    gl.glDisable( GL.GL_LINE_STIPPLE );
-                }
-            }
+    // Posits staged by producer threads in concurrent ingest mode. Producers
+    // only ever take the stripe lock, the display thread swaps the filled
+    // buffer for an empty one and applies it while holding trackUpdateLock.
+    private static class IngestStripe
+    {
+        final ReentrantLock lock = new ReentrantLock( );
+        IngestBuffer active = new IngestBuffer( );
+        IngestBuffer spare = new IngestBuffer( );
 
-            if ( loaded.pointsOn )
+        public void add( int trackId, int pointId, long time, float x, float y )
+        {
+            lock.lock( );
+            try
             {
-                gl.glColor4fv( loaded.pointColor, 0 );
-                gl.glPointSize( loaded.pointSize );
-                gl.glDrawArrays( GL.GL_POINTS, glOffset, glSize );
+                active.add( trackId, pointId, false, time, x, y );
             }
-
-            if ( loaded.headPointOn )
+            finally
             {
-                gl.glColor4fv( loaded.headPointColor, 0 );
-                gl.glPointSize( loaded.headPointSize );
-                gl.glBegin( GL.GL_POINTS );
-                try
-                {
-                    gl.glVertex2d( loaded.headPosX, loaded.headPosY );
-                }
-                finally
-                {
-                    gl.glEnd( );
-                }
+                lock.unlock( );
             }
-
-            if ( loaded.labelOn ) labelOn = true;
         }
 
-        // don't bother iterating through all the tracks again if none have labels turned on
-        if ( labelOn && fontRenderer != null )
+        public void add( int trackId, int[] pointIds, long[] times, float[] xs, float[] ys )
         {
-            fontRenderer.beginRendering( width, height );
+            lock.lock( );
             try
             {
-                for ( LoadedTrack loaded : loadedTracks.values( ) )
+                for ( int i = 0; i < times.length; i++ )
                 {
-                    if ( loaded.labelOn && loaded.label != null )
+                    if ( pointIds == null )
                     {
-                        int posX = axis.getAxisX( ).valueToScreenPixel( loaded.headPosX );
-                        int posY = axis.getAxisY( ).valueToScreenPixel( loaded.headPosY );
-                        fontRenderer.setColor( loaded.labelColor );
-                        fontRenderer.draw( loaded.label, posX + TRACK_LABEL_OFFSET_X, posY + TRACK_LABEL_OFFSET_Y );
+                        active.add( trackId, 0, true, times[i], xs[i], ys[i] );
+                    }
+                    else
+                    {
+                        active.add( trackId, pointIds[i], false, times[i], xs[i], ys[i] );
                     }
                 }
             }
             finally
             {
-                fontRenderer.endRendering( );
+                lock.unlock( );
             }
+        }
 
-            gl.glMatrixMode( GL.GL_PROJECTION );
-            gl.glLoadIdentity( );
-            gl.glOrtho( 0, width, 0, height, -1, 1 );
-            gl.glMatrixMode( GL.GL_MODELVIEW );
-            gl.glLoadIdentity( );
-
-            for ( LoadedTrack loaded : loadedTracks.values( ) )
+        // the returned buffer must be cleared before the next call to swap( )
+        public IngestBuffer swap( )
+        {
+            lock.lock( );
+            try
             {
-                if ( loaded.labelOn && loaded.labelLineOn && loaded.label != null )
-                {
-                    int posX = axis.getAxisX( ).valueToScreenPixel( loaded.headPosX );
-                    int posY = axis.getAxisY( ).valueToScreenPixel( loaded.headPosY );
-
-                    gl.glColor3fv( loaded.labelLineColor, 0 );
-                    gl.glBegin( GL.GL_LINES );
-                    try
-                    {
-                        gl.glVertex2i( posX, posY );
-                        gl.glVertex2i( posX + TRACK_LABEL_OFFSET_X, posY + TRACK_LABEL_OFFSET_Y );
-                    }
-                    finally
-                    {
-                        gl.glEnd( );
-                    }
-                }
+                IngestBuffer filled = active;
+                active = spare;
+                spare = filled;
+                return filled;
+            }
+            finally
+            {
+                lock.unlock( );
             }
         }
     }
 
-    @Override
-    public void dispose( GLContext context )
+    private static class IngestBuffer
     {
-        GL gl = context.getGL( );
+        IntsArray trackIds = new IntsArray( );
+        IntsArray pointIds = new IntsArray( );
+        // true if the posit should be assigned the next sequential point id for its track
+        BooleansArray autoIds = new BooleansArray( );
+        LongsArray times = new LongsArray( );
+        FloatsArray xs = new FloatsArray( );
+        FloatsArray ys = new FloatsArray( );
 
-        this.trackUpdateLock.lock( );
-        try
+        public void add( int trackId, int pointId, boolean autoId, long time, float x, float y )
         {
-            for ( LoadedTrack track : loadedTracks.values( ) )
-            {
-                track.dispose( gl );
-            }
+            trackIds.append( trackId );
+            pointIds.append( pointId );
+            autoIds.append( autoId );
+            times.append( time );
+            xs.append( x );
+            ys.append( y );
         }
-        finally
+
+        public int size( )
         {
-            this.trackUpdateLock.unlock( );
+            return trackIds.n;
         }
 
-        if ( fontRenderer != null )
+        public void clear( )
         {
-            fontRenderer.dispose( );
-            fontRenderer = null;
+            trackIds.n = 0;
+            pointIds.n = 0;
+            autoIds.n = 0;
+            times.n = 0;
+            xs.n = 0;
+            ys.n = 0;
         }
     }
 
-    ////////////////////////////////////////
-    ///// Internal Data Structures     /////
-    ///// not intended for use outside /////
-    ///// of TrackPainter              /////
-    ////////////////////////////////////////
-
     // A Track modified only on the gl display() thread
     // (so no locking is required when calling its methods
     // and accessing its data)
@@ -1275,6 +2422,15 @@ public class TrackPainter extends GlimpseDataPainter2D
         float[] headPointColor = new float[4];
         boolean headPointOn;
 
+        // device-side copies of the track's decimated levels (null if none)
+        LoadedLevel[] levels;
+
+        // true if this track has been allocated space in the shared device buffer
+        // (batch rendering mode only)
+        boolean sharedAllocated = false;
+        // the offset (in vertices) of this track's data in the shared device buffer
+        int glBufferOffset;
+
         boolean glBufferInitialized = false;
         // a reference to the device buffer for this track
         int glBufferHandle;
@@ -1362,12 +2518,126 @@ public class TrackPainter extends GlimpseDataPainter2D
             return prime + trackId;
         }
 
+        public LoadedLevel getLevel( int level )
+        {
+            if ( levels == null || level < 0 || level >= levels.length ) return null;
+
+            return levels[level];
+        }
+
+        public void disposeLevels( GL gl )
+        {
+            if ( levels == null ) return;
+
+            for ( LoadedLevel level : levels )
+            {
+                if ( level.glBufferHandle != 0 )
+                {
+                    gl.glDeleteBuffers( 1, new int[] { level.glBufferHandle }, 0 );
+                }
+            }
+
+            levels = null;
+        }
+
         public void dispose( GL gl )
         {
             if ( glBufferInitialized )
             {
                 gl.glDeleteBuffers( 1, new int[] { glBufferHandle }, 0 );
             }
+
+            disposeLevels( gl );
+        }
+    }
+
+    // A decimated level of a track stored as a device index buffer
+    // into the track's vertices (only accessed on the gl display() thread)
+    private static class LoadedLevel
+    {
+        int glBufferHandle = 0;
+        int glBufferMaxSize = 0;
+        // host copy of the index buffer
+        IntsArray indices = new IntsArray( );
+
+        // the position in the index buffer of the first index at or after the given vertex index
+        public int indexAtOrAfter( int vertexIndex )
+        {
+            int i = Arrays.binarySearch( indices.a, 0, indices.n, vertexIndex );
+            return i < 0 ? -( i + 1 ) : i;
+        }
+    }
+
+    // A decimated copy of a track: the indices of those posits which differ from the
+    // previously retained posit by at least tolerance in x or y, plus the last posit of
+    // the track (so that the line always reaches the track head). Modified only while
+    // holding trackUpdateLock.
+    private static class DecimatedLevel
+    {
+        float tolerance;
+        IntsArray indices = new IntsArray( );
+        // true if the last index is the last posit of the track, retained only because it
+        // is the last (it is replaced when more posits are appended)
+        boolean tailRetained = false;
+        // true if indices has changed since it was last copied to the device,
+        // in which case all indices from dirtyFrom on must be copied
+        boolean dirty = false;
+        int dirtyFrom = 0;
+
+        public DecimatedLevel( float tolerance )
+        {
+            this.tolerance = tolerance;
+        }
+
+        public void markDirty( int from )
+        {
+            if ( !dirty || from < dirtyFrom )
+            {
+                dirtyFrom = from;
+                dirty = true;
+            }
+        }
+
+        public void clear( )
+        {
+            indices.n = 0;
+            tailRetained = false;
+            markDirty( 0 );
+        }
+
+        // considers the posits on [from,to) for retention, they must follow any posits already
+        // considered, and posit to-1 must be the last posit of the track
+        public void append( float[] xs, float[] ys, int from, int to )
+        {
+            if ( from >= to ) return;
+
+            // the previous last posit is no longer the last, so decimate from the posit before it
+            if ( tailRetained )
+            {
+                indices.n--;
+                tailRetained = false;
+            }
+
+            int sizeBefore = indices.n;
+
+            for ( int i = from; i < to; i++ )
+            {
+                if ( indices.n > 0 )
+                {
+                    int last = indices.a[indices.n - 1];
+                    if ( Math.abs( xs[i] - xs[last] ) < tolerance && Math.abs( ys[i] - ys[last] ) < tolerance ) continue;
+                }
+
+                indices.append( i );
+            }
+
+            if ( indices.a[indices.n - 1] != to - 1 )
+            {
+                indices.append( to - 1 );
+                tailRetained = true;
+            }
+
+            markDirty( sizeBefore );
         }
     }
 
@@ -1378,8 +2648,16 @@ public class TrackPainter extends GlimpseDataPainter2D
     {
         // the unique identifier of the track
         int trackId;
-        // the points making up the track
-        List<Point> points;
+        // the posits making up the track, stored column-wise and
+        // sorted by time (then by point id)
+        SortedLongsArray times;
+        FloatsArray xs;
+        FloatsArray ys;
+        IntsArray pointIds;
+        // point id assigned to the next posit added without an explicit id
+        int nextPointId = 0;
+        // decimated copies of the track, from finest to coarsest (null if level of detail is disabled)
+        DecimatedLevel[] levels;
         // the lowest index of the last change made to the track
         // when the track data is copied to a device buffer, all
         // data from here to the end of the track must be copied
@@ -1396,10 +2674,11 @@ public class TrackPainter extends GlimpseDataPainter2D
         // the number of points in the points list to display
         int selectedSize;
 
-        Point selectionStart;
-        Point selectionEnd;
-        Point selectionCurrent;
+        long selectionStart = Long.MIN_VALUE;
+        long selectionEnd = Long.MAX_VALUE;
+        long selectionCurrent = Long.MAX_VALUE;
 
+        // only (re)created when the selected head posit changes
         Point trackHead;
 
         // track display attributes
@@ -1429,25 +2708,26 @@ public class TrackPainter extends GlimpseDataPainter2D
         public Track( int trackId )
         {
             this.trackId = trackId;
-            this.points = new ArrayList<Point>( TRACK_SIZE_ESTIMATE );
+            this.times = new SortedLongsArray( new long[TRACK_SIZE_ESTIMATE], 0 );
+            this.xs = new FloatsArray( new float[TRACK_SIZE_ESTIMATE], 0 );
+            this.ys = new FloatsArray( new float[TRACK_SIZE_ESTIMATE], 0 );
+            this.pointIds = new IntsArray( new int[TRACK_SIZE_ESTIMATE], 0 );
         }
 
         public void setTimeRange( Point startPoint, Point endPoint, Point selectedPoint )
         {
-            selectionStart = startPoint;
-            selectionEnd = endPoint;
-            selectionCurrent = selectedPoint;
+            selectionStart = startPoint.getTime( );
+            selectionEnd = endPoint.getTime( );
+            selectionCurrent = selectedPoint.getTime( );
 
             checkTimeRange( );
         }
 
         public void checkTimeRange( )
         {
-            if ( selectionStart == null || selectionEnd == null || selectionCurrent == null ) return;
-
-            int startIndex = firstIndexAfter( selectionStart );
-            int endIndex = firstIndexBefore( selectionEnd );
-            int selectedIndex = firstIndexBefore( selectionCurrent );
+            int startIndex = times.indexAtOrAfter( selectionStart );
+            int endIndex = times.indexAtOrBefore( selectionEnd );
+            int selectedIndex = times.indexAtOrBefore( selectionCurrent );
 
             Point previousTrackHead = trackHead;
 
@@ -1467,15 +2747,29 @@ public class TrackPainter extends GlimpseDataPainter2D
 
                 if ( selectedIndex > endIndex ) selectedIndex = endIndex;
                 if ( selectedIndex < startIndex ) selectedIndex = startIndex;
-                
-                trackHead = points.get( selectedIndex );
-                headPosX = trackHead.getX( );
-                headPosY = trackHead.getY( );
 
-                if ( !trackHead.equals( previousTrackHead ) ) notifyTemporalSelectionListeners( Collections.singletonMap( trackId, trackHead ) );
+                if ( !isPointAt( previousTrackHead, selectedIndex ) )
+                {
+                    trackHead = getPoint( selectedIndex );
+                    headPosX = trackHead.getX( );
+                    headPosY = trackHead.getY( );
+
+                    notifyTemporalSelectionListeners( Collections.singletonMap( trackId, trackHead ) );
+                }
             }
         }
 
+        // true if the given point refers to the posit at index i
+        protected boolean isPointAt( Point point, int i )
+        {
+            return point != null && point.time == times.a[i] && point.pointId == pointIds.a[i] && point.x == xs.a[i] && point.y == ys.a[i];
+        }
+
+        public Point getPoint( int i )
+        {
+            return new Point( trackId, pointIds.a[i], xs.a[i], ys.a[i], times.a[i] );
+        }
+
         public void setHeadPointColor( float r, float g, float b, float a )
         {
             headPointColor[0] = r;
@@ -1573,51 +2867,184 @@ public class TrackPainter extends GlimpseDataPainter2D
         {
             if ( _points == null || _points.size( ) == 0 ) return;
 
-            List<Point> sortedPoints = new ArrayList<Point>( _points );
-            Collections.sort( sortedPoints );
-            Point firstPoint = sortedPoints.get( 0 );
+            int size = _points.size( );
+            int[] _pointIds = new int[size];
+            long[] _times = new long[size];
+            float[] _xs = new float[size];
+            float[] _ys = new float[size];
 
-            // add the point to the temporal and spatial indexes
-            int index = firstIndexAfter( firstPoint );
+            for ( int i = 0; i < size; i++ )
+            {
+                Point point = _points.get( i );
+                _pointIds[i] = point.pointId;
+                _times[i] = point.time;
+                _xs[i] = point.x;
+                _ys[i] = point.y;
+            }
+
+            add( _pointIds, _times, _xs, _ys );
+        }
+
+        /**
+         * Adds a batch of posits to the track. The arrays must all have the same length.
+         * If {@code _pointIds} is null, point ids are assigned sequentially.
+         */
+        public void add( int[] _pointIds, long[] _times, float[] _xs, float[] _ys )
+        {
+            int size = _times.length;
+            if ( size == 0 ) return;
 
-            if ( index == points.size( ) )
+            if ( _pointIds == null )
             {
-                points.addAll( index, sortedPoints );
+                _pointIds = new int[size];
+                for ( int i = 0; i < size; i++ )
+                    _pointIds[i] = nextPointId++;
             }
             else
             {
-                for ( Point point : sortedPoints )
+                for ( int i = 0; i < size; i++ )
+                    usePointId( _pointIds[i] );
+            }
+
+            // sort the new posits by time (then by point id)
+            int[] order = sortOrder( _pointIds, _times );
+
+            // posits after the insertion point of the earliest new posit must be merged
+            // with the new posits, those before it are left untouched
+            int first = order[0];
+            int index = firstIndexAfter( _times[first], _pointIds[first] );
+            int tailSize = getSize( ) - index;
+
+            long[] tailTimes = times.copyOf( index, tailSize );
+            float[] tailXs = xs.copyOf( index, tailSize );
+            float[] tailYs = ys.copyOf( index, tailSize );
+            int[] tailPointIds = pointIds.copyOf( index, tailSize );
+
+            truncate( index );
+
+            int newSize = index + tailSize + size;
+            times.ensureCapacity( newSize );
+            xs.ensureCapacity( newSize );
+            ys.ensureCapacity( newSize );
+            pointIds.ensureCapacity( newSize );
+
+            long[] t = times.a;
+            float[] x = xs.a;
+            float[] y = ys.a;
+            int[] id = pointIds.a;
+
+            int k = index;
+            int i = 0;
+            int j = 0;
+            while ( i < size || j < tailSize )
+            {
+                boolean takeNew = j >= tailSize || ( i < size && compare( _times[order[i]], _pointIds[order[i]], tailTimes[j], tailPointIds[j] ) < 0 );
+
+                if ( takeNew )
+                {
+                    int o = order[i++];
+                    t[k] = _times[o];
+                    x[k] = _xs[o];
+                    y[k] = _ys[o];
+                    id[k] = _pointIds[o];
+                }
+                else
                 {
-                    index = firstIndexAfter( firstPoint );
-                    points.add( index, point );
+                    t[k] = tailTimes[j];
+                    x[k] = tailXs[j];
+                    y[k] = tailYs[j];
+                    id[k] = tailPointIds[j];
+                    j++;
                 }
+
+                k++;
             }
 
+            times.n = k;
+            xs.n = k;
+            ys.n = k;
+            pointIds.n = k;
+
             if ( spatialIndex != null )
             {
-                for ( Point point : _points )
-                    spatialIndex.add( point );
+                for ( int o = 0; o < size; o++ )
+                    spatialIndex.add( spatialIndexKey( trackId, _pointIds[o] ), _xs[o], _ys[o], _times[o] );
             }
 
-            // determine if the new point resides inside the selected time range
+            updateLevels( index, index + tailSize );
+
+            // determine if the new posits reside inside the selected time range
             checkTimeRange( );
 
             // set flag indicating this track contains new data
-            insertIndex = 0;
-            dataInserted = true;
+            markInserted( index );
+        }
+
+        /**
+         * Records that an explicit point id is in use, so that the point ids assigned
+         * to posits added without one do not collide with it.
+         */
+        public int usePointId( int pointId )
+        {
+            if ( pointId >= nextPointId && pointId != Integer.MAX_VALUE ) nextPointId = pointId + 1;
+            return pointId;
         }
 
         public void add( Point point )
         {
+            usePointId( point.pointId );
+
             // add the point to the temporal and spatial indexes
-            int index = firstIndexAfter( point );
-            points.add( index, point );
-            if ( spatialIndex != null ) spatialIndex.add( point );
+            int index = firstIndexAfter( point.time, point.pointId );
+            times.insert( index, point.time );
+            xs.insert( index, point.x );
+            ys.insert( index, point.y );
+            pointIds.insert( index, point.pointId );
+            if ( spatialIndex != null ) spatialIndex.add( spatialIndexKey( trackId, point.pointId ), point.x, point.y, point.time );
+            updateLevels( index, getSize( ) - 1 );
 
             // determine if the new point resides inside the selected time range
             checkTimeRange( );
 
             // set flag indicating this track contains new data
+            markInserted( index );
+        }
+
+        // (re)creates the decimated levels according to the painter's level of detail settings
+        public void createLevels( )
+        {
+            if ( lodLevelCount == 0 )
+            {
+                levels = null;
+                return;
+            }
+
+            levels = new DecimatedLevel[lodLevelCount];
+            for ( int k = 0; k < lodLevelCount; k++ )
+            {
+                levels[k] = new DecimatedLevel( ( float ) getLevelOfDetailTolerance( k ) );
+                levels[k].append( xs.a, ys.a, 0, getSize( ) );
+                levels[k].markDirty( 0 );
+            }
+        }
+
+        // updates the decimated levels after posits have been inserted at index,
+        // oldSize is the size of the track before the insertion
+        protected void updateLevels( int index, int oldSize )
+        {
+            if ( levels == null ) return;
+
+            for ( DecimatedLevel level : levels )
+            {
+                // posits appended to the end of the track can be decimated incrementally,
+                // anything else shifts existing indices so the level is rebuilt
+                if ( index < oldSize ) level.clear( );
+                level.append( xs.a, ys.a, index < oldSize ? 0 : oldSize, getSize( ) );
+            }
+        }
+
+        protected void markInserted( int index )
+        {
             if ( !dataInserted || index < insertIndex )
             {
                 insertIndex = index;
@@ -1625,6 +3052,56 @@ public class TrackPainter extends GlimpseDataPainter2D
             }
         }
 
+        // returns the indices of the given posits in (time, point id) order
+        protected int[] sortOrder( int[] _pointIds, long[] _times )
+        {
+            int size = _times.length;
+
+            int[] order = new int[size];
+            for ( int i = 0; i < size; i++ )
+                order[i] = i;
+
+            boolean sorted = true;
+            for ( int i = 1; i < size && sorted; i++ )
+                sorted = compare( _times[i - 1], _pointIds[i - 1], _times[i], _pointIds[i] ) <= 0;
+
+            if ( sorted ) return order;
+
+            // stable sort by time, then order posits with identical times by point id
+            // (runs of identical times are expected to be short)
+            long[] keys = _times.clone( );
+            Sorting.mergesort( keys, order, 0, size );
+
+            for ( int i = 1; i < size; i++ )
+            {
+                for ( int j = i; j > 0 && keys[j - 1] == keys[j] && _pointIds[order[j - 1]] > _pointIds[order[j]]; j-- )
+                {
+                    int temp = order[j];
+                    order[j] = order[j - 1];
+                    order[j - 1] = temp;
+                }
+            }
+
+            return order;
+        }
+
+        protected int compare( long time1, int pointId1, long time2, int pointId2 )
+        {
+            if ( time1 != time2 ) return time1 < time2 ? -1 : 1;
+            if ( pointId1 != pointId2 ) return pointId1 < pointId2 ? -1 : 1;
+            return 0;
+        }
+
+        public void removeFromSpatialIndex( )
+        {
+            if ( spatialIndex == null ) return;
+
+            for ( int i = 0; i < getSize( ); i++ )
+            {
+                spatialIndex.remove( spatialIndexKey( trackId, pointIds.a[i] ), xs.a[i], ys.a[i], times.a[i] );
+            }
+        }
+
         public void delete( )
         {
             deletePending = true;
@@ -1637,22 +3114,26 @@ public class TrackPainter extends GlimpseDataPainter2D
 
             dataInserted = false;
             trackHead = null;
-            points.clear( );
+            truncate( 0 );
+            createLevels( );
 
             checkTimeRange( );
         }
 
-        public int firstIndexAfter( Point point )
+        public void truncate( int size )
         {
-            int index = Collections.binarySearch( points, point );
-            if ( index < 0 ) index = - ( index + 1 );
-            return index;
+            times.n = size;
+            xs.n = size;
+            ys.n = size;
+            pointIds.n = size;
         }
 
-        public int firstIndexBefore( Point point )
+        // index of the first posit at or after the given time and point id
+        public int firstIndexAfter( long time, int pointId )
         {
-            int index = Collections.binarySearch( points, point );
-            if ( index < 0 ) index = - ( index + 1 ) - 1;
+            int index = times.indexAtOrAfter( time );
+            while ( index < times.n && times.a[index] == time && pointIds.a[index] < pointId )
+                index++;
             return index;
         }
 
@@ -1690,7 +3171,7 @@ public class TrackPainter extends GlimpseDataPainter2D
 
         public int getSize( )
         {
-            return points.size( );
+            return times.n;
         }
 
         public Point getTrackHead( )
@@ -1700,9 +3181,12 @@ public class TrackPainter extends GlimpseDataPainter2D
 
         public void loadIntoBuffer( FloatBuffer buffer, int offset, int size )
         {
+            float[] x = xs.a;
+            float[] y = ys.a;
+
             for ( int i = offset; i < size; i++ )
             {
-                points.get( i ).loadIntoBuffer( buffer );
+                buffer.put( x[i] ).put( y[i] );
             }
         }
 
@@ -106,6 +106,15 @@ public class Event
     protected double minTimeSpan = 0;
 
     protected List<EventConstraint> constraints;
+
+    // label measurements cached by getLabelBounds( ) and getDisplayText( )
+    protected TextRenderer labelTextRenderer;
+    protected String labelBoundsText;
+    protected Rectangle2D labelBounds;
+    protected String displayText;
+    protected Rectangle2D displayTextBounds;
+    protected double displayTextMinSpace;
+    protected double displayTextMaxSpace;
     
     /**
      * Indicates how text which is too large to fit in the Event box should be shortened.
@@ -257,7 +266,28 @@ public class Event
         this.constraints.remove( constraint );
     }
 
+    /**
+     * Paints this Event immediately. {@link EventPainter} normally collects the geometry of
+     * all the Events in a row with {@link #paint( EventBatch, Axis1D, EventPainter, Event, int, int, int, int )}
+     * and draws them together instead (see {@link EventPainter#setBatchRendering( boolean )}).
+     */
     public void paint( GL gl, Axis1D axis, EventPainter painter, Event next, int width, int height, int sizeMin, int sizeMax )
+    {
+        EventBatch batch = painter.getImmediateBatch( );
+        batch.reset( axis.getMin( ), painter.isHorizontal( ) );
+
+        paint( batch, axis, painter, next, width, height, sizeMin, sizeMax );
+
+        batch.drawImmediate( gl, painter.getTextureAtlas( ), painter.getTextRenderer( ), width, height );
+    }
+
+    /**
+     * Adds the box, border, icon, and label for this Event to a batch. The batch must be
+     * reset with an origin near the axis min (the box is clipped to the axis bounds).
+     *
+     * @param next the next Event in the same row, or null
+     */
+    public void paint( EventBatch batch, Axis1D axis, EventPainter painter, Event next, int width, int height, int sizeMin, int sizeMax )
     {
         int size = sizeMax - sizeMin;
         double sizeCenter = sizeMin + size / 2.0;
@@ -298,85 +328,22 @@ public class Event
         double nextStartValue = next != null ? epoch.fromTimeStamp( next.getStartTime( ) ) : axis.getMax( );
         int nextStartPixel = next != null ? axis.valueToScreenPixel( nextStartValue ) : width;
 
+        float[] background = backgroundColor != null ? backgroundColor : painter.getBackgroundColor( );
+        float[] border = borderColor != null ? borderColor : painter.getBorderColor( );
+
         if ( painter.isHorizontal( ) )
         {   
             if ( !offEdgeMin && !offEdgeMax )
             {
-                if ( showBackground )
-                {
-                    GlimpseColor.glColor( gl, backgroundColor != null ? backgroundColor : painter.getBackgroundColor( ) );
-                    gl.glBegin( GL.GL_QUADS );
-                    try
-                    {
-                        gl.glVertex2d( timeMin, sizeMin );
-                        gl.glVertex2d( timeMin, sizeMax );
-                        gl.glVertex2d( timeMax, sizeMax );
-                        gl.glVertex2d( timeMax, sizeMin );
-                    }
-                    finally
-                    {
-                        gl.glEnd( );
-                    }
-                }
-    
-                if ( showBorder )
-                {
-                    GlimpseColor.glColor( gl, borderColor != null ? borderColor : painter.getBorderColor( ) );
-                    gl.glLineWidth( borderThickness );
-                    gl.glBegin( GL.GL_LINE_LOOP );
-                    try
-                    {
-                        gl.glVertex2d( timeMin, sizeMin );
-                        gl.glVertex2d( timeMin, sizeMax );
-                        gl.glVertex2d( timeMax, sizeMax );
-                        gl.glVertex2d( timeMax, sizeMin );
-                    }
-                    finally
-                    {
-                        gl.glEnd( );
-                    }
-                }
+                batch.addBox( showBackground ? background : null, showBorder ? border : null, borderThickness, timeMin, timeMax, sizeMin, sizeMax );
             }
             else
             {
-                if ( showBackground )
-                {
-                    GlimpseColor.glColor( gl, backgroundColor != null ? backgroundColor : painter.getBackgroundColor( ) );
-                    gl.glBegin( GL.GL_POLYGON );
-                    try
-                    {
-                        gl.glVertex2d( arrowBaseMin, sizeMax );
-                        gl.glVertex2d( arrowBaseMax, sizeMax );
-                        gl.glVertex2d( timeMax, sizeCenter );
-                        gl.glVertex2d( arrowBaseMax, sizeMin );
-                        gl.glVertex2d( arrowBaseMin, sizeMin );
-                        gl.glVertex2d( timeMin, sizeCenter );
-                    }
-                    finally
-                    {
-                        gl.glEnd( );
-                    }
-                }
-                
-                if ( showBorder )
-                {
-                    GlimpseColor.glColor( gl, borderColor != null ? borderColor : painter.getBorderColor( ) );
-                    gl.glLineWidth( borderThickness );
-                    gl.glBegin( GL.GL_LINE_LOOP );
-                    try
-                    {
-                        gl.glVertex2d( arrowBaseMin, sizeMax );
-                        gl.glVertex2d( arrowBaseMax, sizeMax );
-                        gl.glVertex2d( timeMax, sizeCenter );
-                        gl.glVertex2d( arrowBaseMax, sizeMin );
-                        gl.glVertex2d( arrowBaseMin, sizeMin );
-                        gl.glVertex2d( timeMin, sizeCenter );
-                    }
-                    finally
-                    {
-                        gl.glEnd( );
-                    }
-                }
+                double[] times = new double[] { arrowBaseMin, arrowBaseMax, timeMax, arrowBaseMax, arrowBaseMin, timeMin };
+                double[] sizes = new double[] { sizeMax, sizeMax, sizeCenter, sizeMin, sizeMin, sizeCenter };
+
+                if ( showBackground ) batch.addFill( background, times, sizes, times.length );
+                if ( showBorder ) batch.addOutline( border, borderThickness, times, sizes, times.length );
             }
 
             isIconVisible = showIcon && iconId != null && !isIconOverlapping( size, buffer, remainingSpaceX, pixelX, nextStartPixel );
@@ -387,19 +354,10 @@ public class Event
                 iconStartTime = epoch.toTimeStamp( valueX );
                 iconEndTime = iconStartTime.add( size / axis.getPixelsPerValue( ) );
 
-                TextureAtlas atlas = painter.getTextureAtlas( );
-                atlas.beginRendering( );
-                try
-                {
-                    ImageData iconData = atlas.getImageData( iconId );
-                    double iconScale = size / ( double ) iconData.getHeight( );
+                ImageData iconData = painter.getTextureAtlas( ).getImageData( iconId );
+                double iconScale = size / ( double ) iconData.getHeight( );
 
-                    atlas.drawImageAxisX( gl, iconId, axis, valueX, sizeMin, iconScale, iconScale, 0, iconData.getHeight( ) );
-                }
-                finally
-                {
-                    atlas.endRendering( );
-                }
+                batch.addIcon( iconData, axis.getPixelsPerValue( ), valueX, sizeMin, iconScale, iconScale, 0, iconData.getHeight( ) );
 
                 remainingSpaceX -= size + buffer;
                 pixelX += size + buffer;
@@ -408,7 +366,7 @@ public class Event
             if ( showLabel )
             {
                 TextRenderer textRenderer = painter.getTextRenderer( );
-                Rectangle2D labelBounds = textRenderer.getBounds( label );
+                Rectangle2D labelBounds = getLabelBounds( textRenderer );
     
                 boolean isTextOverfull = isTextOverfull( size, buffer, remainingSpaceX, pixelX, nextStartPixel, labelBounds );
                 boolean isTextIntersecting = isTextIntersecting( size, buffer, remainingSpaceX, pixelX, nextStartPixel, labelBounds );
@@ -424,46 +382,40 @@ public class Event
                     
                     if ( labelBounds.getWidth( ) > availableSpace && textRenderingMode != ShowAll )
                     {
-                        displayText = calculateDisplayText( textRenderer, displayText, availableSpace );
-                        displayBounds = textRenderer.getBounds( displayText );
+                        displayText = getDisplayText( textRenderer, availableSpace );
+                        displayBounds = displayTextBounds;
                     }
                     
                     double valueX = axis.screenPixelToValue( pixelX );
                     textStartTime = epoch.toTimeStamp( valueX );
                     textEndTime = textStartTime.add( displayBounds.getWidth( ) / axis.getPixelsPerValue( ) );
     
+                    float[] color;
+
                     // use this event's text color if it has been set
                     if ( textColor != null )
                     {
-                        GlimpseColor.setColor( textRenderer, textColor );
+                        color = textColor;
                     }
                     // otherwise, use the default no background color if the background is not showing
                     // and if a color has not been explicitly set for the EventPainter
                     else if ( !painter.textColorSet && !showBackground )
                     {
-                        GlimpseColor.setColor( textRenderer, painter.textColorNoBackground );
+                        color = painter.textColorNoBackground;
                     }
                     // otherwise use the EventPainter's default text color
                     else
                     {
-                        GlimpseColor.setColor( textRenderer, painter.textColor );
+                        color = painter.textColor;
                     }
                     
-                    textRenderer.beginRendering( width, height );
-                    try
-                    {
-                        // use the labelBounds for the height (if the text shortening removed a character which
-                        // hangs below the line, we don't want the text position to move)
-                        int pixelY = ( int ) ( size / 2.0 - labelBounds.getHeight( ) * 0.3 + sizeMin );
-                        textRenderer.draw( displayText, pixelX, pixelY );
-    
-                        remainingSpaceX -= displayBounds.getWidth( ) + buffer;
-                        pixelX += displayBounds.getWidth( ) + buffer;
-                    }
-                    finally
-                    {
-                        textRenderer.endRendering( );
-                    }
+                    // use the labelBounds for the height (if the text shortening removed a character which
+                    // hangs below the line, we don't want the text position to move)
+                    int pixelY = ( int ) ( size / 2.0 - labelBounds.getHeight( ) * 0.3 + sizeMin );
+                    batch.addLabel( displayText, pixelX, pixelY, color );
+
+                    remainingSpaceX -= displayBounds.getWidth( ) + buffer;
+                    pixelX += displayBounds.getWidth( ) + buffer;
                 }
             }
             else
@@ -475,35 +427,66 @@ public class Event
         {
             //TODO handle drawing text and icons in HORIZONTAL orientation
 
-            GlimpseColor.glColor( gl, backgroundColor != null ? backgroundColor : painter.getBackgroundColor( ) );
-            gl.glBegin( GL.GL_QUADS );
-            try
-            {
-                gl.glVertex2d( sizeMin, timeMin );
-                gl.glVertex2d( sizeMax, timeMin );
-                gl.glVertex2d( sizeMax, timeMax );
-                gl.glVertex2d( sizeMin, timeMax );
-            }
-            finally
-            {
-                gl.glEnd( );
-            }
+            batch.addBox( background, border, borderThickness, timeMin, timeMax, sizeMin, sizeMax );
+        }
+    }
 
-            GlimpseColor.glColor( gl, borderColor != null ? borderColor : painter.getBorderColor( ) );
-            gl.glLineWidth( borderThickness );
-            gl.glBegin( GL.GL_LINE_LOOP );
-            try
-            {
-                gl.glVertex2d( sizeMin, timeMin );
-                gl.glVertex2d( sizeMax, timeMin );
-                gl.glVertex2d( sizeMax, timeMax );
-                gl.glVertex2d( sizeMin, timeMax );
-            }
-            finally
+    /**
+     * @return the bounds of the full label text, which are cached until the label or font changes
+     */
+    protected Rectangle2D getLabelBounds( TextRenderer textRenderer )
+    {
+        if ( textRenderer != labelTextRenderer || label != labelBoundsText )
+        {
+            labelTextRenderer = textRenderer;
+            labelBoundsText = label;
+            labelBounds = textRenderer.getBounds( label );
+            displayText = null;
+        }
+
+        return labelBounds;
+    }
+
+    /**
+     * Like {@link #calculateDisplayText( TextRenderer, String, double )} for the label, but
+     * remembers the range of available space for which the result is unchanged, so that
+     * the text only needs to be measured again when the zoom level changes enough to
+     * show more or fewer characters. The bounds of the result are left in displayTextBounds.
+     */
+    protected String getDisplayText( TextRenderer textRenderer, double availableSpace )
+    {
+        getLabelBounds( textRenderer );
+
+        if ( displayText != null && availableSpace > displayTextMinSpace && availableSpace <= displayTextMaxSpace )
+        {
+            return displayText;
+        }
+
+        // the shortest width among the longer candidates, all of which did not fit
+        double maxSpace = Double.POSITIVE_INFINITY;
+
+        for ( int endIndex = label.length( ); endIndex >= 0; endIndex-- )
+        {
+            String subText = label.substring( 0, endIndex ) + "...";
+            Rectangle2D bounds = textRenderer.getBounds( subText );
+
+            if ( bounds.getWidth( ) < availableSpace )
             {
-                gl.glEnd( );
+                displayText = subText;
+                displayTextBounds = bounds;
+                displayTextMinSpace = bounds.getWidth( );
+                displayTextMaxSpace = maxSpace;
+                return displayText;
             }
+
+            maxSpace = Math.min( maxSpace, bounds.getWidth( ) );
         }
+
+        displayText = "";
+        displayTextBounds = textRenderer.getBounds( displayText );
+        displayTextMinSpace = Double.NEGATIVE_INFINITY;
+        displayTextMaxSpace = maxSpace;
+        return displayText;
     }
     
     protected String calculateDisplayText( TextRenderer textRenderer, String fullText, double availableSpace )
@@ -688,6 +671,7 @@ public class Event
     public void setLabel( String name )
     {
         this.label = name;
+        appearanceChanged( );
     }
     
     /**
@@ -706,6 +690,7 @@ public class Event
     public void setName( String name )
     {
         this.label = name;
+        appearanceChanged( );
     }
 
     /**
@@ -727,6 +712,7 @@ public class Event
     public void setIconId( Object iconId )
     {
         this.iconId = iconId;
+        appearanceChanged( );
     }
 
     /**
@@ -735,6 +721,7 @@ public class Event
     public void setBorderThickness( float thickness )
     {
         this.borderThickness = thickness;
+        appearanceChanged( );
     }
     
     /**
@@ -761,6 +748,7 @@ public class Event
     public void setBackgroundColor( float[] backgroundColor )
     {
         this.backgroundColor = backgroundColor;
+        appearanceChanged( );
     }
 
     /**
@@ -778,6 +766,7 @@ public class Event
     public void setBorderColor( float[] borderColor )
     {
         this.borderColor = borderColor;
+        appearanceChanged( );
     }
 
     /**
@@ -795,6 +784,15 @@ public class Event
     public void setLabelColor( float[] textColor )
     {
         this.textColor = textColor;
+        appearanceChanged( );
+    }
+
+    /**
+     * Notifies the EventPainter displaying this Event (if any) that it must be repainted.
+     */
+    protected void appearanceChanged( )
+    {
+        if ( info != null ) info.getEventPainter( ).invalidate( this );
     }
 
     /**
@@ -976,6 +974,7 @@ public class Event
     public void setShowLabel( boolean showName )
     {
         this.showLabel = showName;
+        appearanceChanged( );
     }
 
     /**
@@ -987,6 +986,7 @@ public class Event
     public void setOverlapMode( OverlapRenderingMode mode )
     {
         this.overlapRenderingMode = mode;
+        appearanceChanged( );
     }
     
     /**
@@ -1004,6 +1004,13 @@ public class Event
      * @param mode
      */
     public void setTextRenderingMode( TextRenderingMode mode )
+    {
+        setTextRenderingMode0( mode );
+        appearanceChanged( );
+    }
+
+    // sets the mode without notifying the EventPainter, for Events which are about to be added to it
+    protected void setTextRenderingMode0( TextRenderingMode mode )
     {
         this.textRenderingMode = mode;
     }
@@ -1039,6 +1046,7 @@ public class Event
     public void setShowIcon( boolean showIcon )
     {
         this.showIcon = showIcon;
+        appearanceChanged( );
     }
 
     /**
@@ -1055,6 +1063,7 @@ public class Event
     public void setShowBackground( boolean showBorder )
     {
         this.showBackground = showBorder;
+        appearanceChanged( );
     }
     
     /**
@@ -1071,6 +1080,7 @@ public class Event
     public void setShowBorder( boolean showBorder )
     {
         this.showBorder = showBorder;
+        appearanceChanged( );
     }
 
     /**
@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.plot.timeline.event;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.opengl.GL;
+
+import com.metsci.glimpse.support.atlas.TextureAtlas;
+import com.metsci.glimpse.support.atlas.support.ImageData;
+import com.metsci.glimpse.support.color.GlimpseColor;
+import com.metsci.glimpse.support.font.GlyphAtlasTextRenderer;
+import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.sun.opengl.util.BufferUtil;
+import com.sun.opengl.util.j2d.TextRenderer;
+import com.sun.opengl.util.texture.TextureCoords;
+
+/**
+ * Collects the geometry of many {@link Event}s (filled boxes, borders, icons, and labels)
+ * so that it can be drawn with a handful of OpenGL calls, instead of a handful per Event.
+ * {@link EventPainter} keeps one EventBatch per row and only rebuilds it when the events
+ * in the row, or the axis, change.<p>
+ *
+ * Geometry is specified in time (axis) and size (pixel) coordinates, which are mapped to
+ * x and y according to the orientation of the timeline. Time coordinates are stored relative
+ * to an origin (usually the minimum of the axis when the batch is built) so that they keep
+ * their precision as floats.<p>
+ *
+ * Fills are drawn first, then borders, then icons, then labels. Labels are drawn with a
+ * TextRenderer, or may be queued on a {@link GlyphAtlasTextRenderer} shared by many batches.
+ *
+ * @author agent
+ */
+public class EventBatch
+{
+    protected static final int BYTES_PER_FLOAT = 4;
+
+    protected boolean isHorizontal;
+    protected double origin;
+
+    // GL_TRIANGLES: x,y per vertex and r,g,b,a per vertex
+    protected FloatsArray fillVertices;
+    protected FloatsArray fillColors;
+
+    // GL_LINES: x,y per vertex and r,g,b,a per vertex, in runs of equal line width
+    protected FloatsArray lineVertices;
+    protected FloatsArray lineColors;
+    protected FloatsArray lineWidths;
+    protected List<int[]> lineRuns;
+
+    // GL_QUADS: x,y per vertex and s,t per vertex
+    protected FloatsArray iconVertices;
+    protected FloatsArray iconTexCoords;
+
+    protected List<Label> labels;
+    protected int labelCount;
+
+    // device buffers: fill vertices, fill colors, line vertices, line colors, icon vertices, icon tex coords
+    protected int[] handles;
+    protected boolean glAllocated;
+    protected boolean newData;
+    protected FloatBuffer uploadBuffer;
+
+    // scratch space for vertex positions
+    protected double[] scratchX = new double[8];
+    protected double[] scratchY = new double[8];
+
+    public EventBatch( )
+    {
+        this.fillVertices = new FloatsArray( );
+        this.fillColors = new FloatsArray( );
+        this.lineVertices = new FloatsArray( );
+        this.lineColors = new FloatsArray( );
+        this.lineWidths = new FloatsArray( );
+        this.lineRuns = new ArrayList<int[]>( );
+        this.iconVertices = new FloatsArray( );
+        this.iconTexCoords = new FloatsArray( );
+        this.labels = new ArrayList<Label>( );
+    }
+
+    /**
+     * Removes all geometry from the batch.
+     *
+     * @param origin subtracted from all time coordinates
+     * @param isHorizontal if true, time is along the x axis; otherwise, time is along the y axis
+     */
+    public void reset( double origin, boolean isHorizontal )
+    {
+        this.origin = origin;
+        this.isHorizontal = isHorizontal;
+
+        this.fillVertices.n = 0;
+        this.fillColors.n = 0;
+        this.lineVertices.n = 0;
+        this.lineColors.n = 0;
+        this.lineWidths.n = 0;
+        this.lineRuns.clear( );
+        this.iconVertices.n = 0;
+        this.iconTexCoords.n = 0;
+        this.labelCount = 0;
+
+        this.newData = true;
+    }
+
+    public double getOrigin( )
+    {
+        return origin;
+    }
+
+    public boolean isEmpty( )
+    {
+        return fillVertices.n == 0 && lineVertices.n == 0 && iconVertices.n == 0 && labelCount == 0;
+    }
+
+    /**
+     * Adds a filled convex polygon.
+     */
+    public void addFill( float[] color, double[] times, double[] sizes, int n )
+    {
+        for ( int i = 1; i < n - 1; i++ )
+        {
+            putVertex( fillVertices, times[0], sizes[0] );
+            putVertex( fillVertices, times[i], sizes[i] );
+            putVertex( fillVertices, times[i + 1], sizes[i + 1] );
+
+            fillColors.append( color, 0, 4 );
+            fillColors.append( color, 0, 4 );
+            fillColors.append( color, 0, 4 );
+        }
+    }
+
+    /**
+     * Adds a closed polygon outline.
+     */
+    public void addOutline( float[] color, float lineWidth, double[] times, double[] sizes, int n )
+    {
+        for ( int i = 0; i < n; i++ )
+        {
+            int j = i + 1 < n ? i + 1 : 0;
+
+            putVertex( lineVertices, times[i], sizes[i] );
+            putVertex( lineVertices, times[j], sizes[j] );
+
+            lineColors.append( color, 0, 4 );
+            lineColors.append( color, 0, 4 );
+        }
+
+        // consecutive outlines with the same width are drawn with one call
+        int vertexCount = 2 * n;
+        int last = lineRuns.size( ) - 1;
+        if ( last >= 0 && lineWidths.a[last] == lineWidth )
+        {
+            lineRuns.get( last )[1] += vertexCount;
+        }
+        else
+        {
+            lineWidths.append( lineWidth );
+            lineRuns.add( new int[] { lineVertices.n / 2 - vertexCount, vertexCount } );
+        }
+    }
+
+    /**
+     * Adds a filled and/or outlined rectangle spanning [timeMin,timeMax] by [sizeMin,sizeMax].
+     *
+     * @param fillColor the fill color, or null for no fill
+     * @param borderColor the outline color, or null for no outline
+     */
+    public void addBox( float[] fillColor, float[] borderColor, float lineWidth, double timeMin, double timeMax, double sizeMin, double sizeMax )
+    {
+        scratchX[0] = timeMin;
+        scratchY[0] = sizeMin;
+        scratchX[1] = timeMin;
+        scratchY[1] = sizeMax;
+        scratchX[2] = timeMax;
+        scratchY[2] = sizeMax;
+        scratchX[3] = timeMax;
+        scratchY[3] = sizeMin;
+
+        if ( fillColor != null ) addFill( fillColor, scratchX, scratchY, 4 );
+        if ( borderColor != null ) addOutline( borderColor, lineWidth, scratchX, scratchY, 4 );
+    }
+
+    /**
+     * Adds an image from a {@link TextureAtlas}, positioned as by
+     * {@link TextureAtlas#drawImageAxisX( GL, Object, com.metsci.glimpse.axis.Axis1D, double, double, double, double, int, int )}.
+     */
+    public void addIcon( ImageData data, double pixelsPerValue, double positionX, double positionY, double scaleX, double scaleY, int centerX, int centerY )
+    {
+        double valuesPerPixel = 1.0 / pixelsPerValue;
+
+        int width = data.getBufferedWidth( );
+        int height = data.getBufferedHeight( );
+        TextureCoords texCoords = data.getTextureCoordinates( );
+
+        double minX = positionX - ( centerX + data.getBufferX( ) ) * valuesPerPixel * scaleX;
+        double minY = positionY - ( height - centerY - data.getBufferY( ) ) * scaleY;
+
+        double maxX = minX + width * valuesPerPixel * scaleX;
+        double maxY = minY + height * scaleY;
+
+        putVertex( iconVertices, minX, minY );
+        putVertex( iconVertices, maxX, minY );
+        putVertex( iconVertices, maxX, maxY );
+        putVertex( iconVertices, minX, maxY );
+
+        iconTexCoords.append( texCoords.left( ) );
+        iconTexCoords.append( texCoords.bottom( ) );
+        iconTexCoords.append( texCoords.right( ) );
+        iconTexCoords.append( texCoords.bottom( ) );
+        iconTexCoords.append( texCoords.right( ) );
+        iconTexCoords.append( texCoords.top( ) );
+        iconTexCoords.append( texCoords.left( ) );
+        iconTexCoords.append( texCoords.top( ) );
+    }
+
+    /**
+     * Adds a label, positioned in pixel coordinates.
+     */
+    public void addLabel( String text, int pixelX, int pixelY, float[] color )
+    {
+        Label label;
+        if ( labelCount < labels.size( ) )
+        {
+            label = labels.get( labelCount );
+        }
+        else
+        {
+            label = new Label( );
+            labels.add( label );
+        }
+
+        label.text = text;
+        label.pixelX = pixelX;
+        label.pixelY = pixelY;
+        label.color = color;
+
+        labelCount++;
+    }
+
+    // time and size are mapped to x and y according to the orientation
+    protected void putVertex( FloatsArray vertices, double time, double size )
+    {
+        float t = ( float ) ( time - origin );
+        float s = ( float ) size;
+
+        if ( isHorizontal )
+        {
+            vertices.append( t );
+            vertices.append( s );
+        }
+        else
+        {
+            vertices.append( s );
+            vertices.append( t );
+        }
+    }
+
+    /**
+     * Draws the batch using vertex buffer objects, which are only updated when the
+     * batch has changed since it was last drawn.
+     */
+    public void draw( GL gl, TextureAtlas atlas, TextRenderer textRenderer, int width, int height )
+    {
+        drawGeometry( gl, atlas );
+        drawLabels( textRenderer, width, height );
+    }
+
+    /**
+     * Draws the fills, borders, and icons of the batch using vertex buffer objects, but
+     * not its labels.
+     *
+     * @see #drawLabels( GlyphAtlasTextRenderer )
+     */
+    public void drawGeometry( GL gl, TextureAtlas atlas )
+    {
+        if ( !glAllocated )
+        {
+            handles = new int[6];
+            gl.glGenBuffers( handles.length, handles, 0 );
+            glAllocated = true;
+        }
+
+        if ( newData )
+        {
+            upload( gl, handles[0], fillVertices );
+            upload( gl, handles[1], fillColors );
+            upload( gl, handles[2], lineVertices );
+            upload( gl, handles[3], lineColors );
+            upload( gl, handles[4], iconVertices );
+            upload( gl, handles[5], iconTexCoords );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+
+            newData = false;
+        }
+
+        gl.glMatrixMode( GL.GL_MODELVIEW );
+        gl.glPushMatrix( );
+        try
+        {
+            translate( gl );
+
+            gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+            gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+            try
+            {
+                if ( fillVertices.n > 0 )
+                {
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[1] );
+                    gl.glColorPointer( 4, GL.GL_FLOAT, 0, 0 );
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[0] );
+                    gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+                    gl.glDrawArrays( GL.GL_TRIANGLES, 0, fillVertices.n / 2 );
+                }
+
+                if ( lineVertices.n > 0 )
+                {
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[3] );
+                    gl.glColorPointer( 4, GL.GL_FLOAT, 0, 0 );
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[2] );
+                    gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+
+                    for ( int i = 0; i < lineRuns.size( ); i++ )
+                    {
+                        int[] run = lineRuns.get( i );
+                        gl.glLineWidth( lineWidths.a[i] );
+                        gl.glDrawArrays( GL.GL_LINES, run[0], run[1] );
+                    }
+                }
+            }
+            finally
+            {
+                gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+                gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+                gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+            }
+
+            if ( iconVertices.n > 0 )
+            {
+                atlas.beginRendering( );
+                try
+                {
+                    gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+                    gl.glEnableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[5] );
+                    gl.glTexCoordPointer( 2, GL.GL_FLOAT, 0, 0 );
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[4] );
+                    gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+                    gl.glDrawArrays( GL.GL_QUADS, 0, iconVertices.n / 2 );
+
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+                }
+                finally
+                {
+                    atlas.endRendering( );
+                }
+            }
+        }
+        finally
+        {
+            gl.glPopMatrix( );
+        }
+    }
+
+    /**
+     * Draws the batch in immediate mode, without allocating any OpenGL resources.
+     */
+    public void drawImmediate( GL gl, TextureAtlas atlas, TextRenderer textRenderer, int width, int height )
+    {
+        gl.glMatrixMode( GL.GL_MODELVIEW );
+        gl.glPushMatrix( );
+        try
+        {
+            translate( gl );
+
+            if ( fillVertices.n > 0 )
+            {
+                gl.glBegin( GL.GL_TRIANGLES );
+                try
+                {
+                    for ( int i = 0; i < fillVertices.n / 2; i++ )
+                    {
+                        gl.glColor4fv( fillColors.a, 4 * i );
+                        gl.glVertex2f( fillVertices.a[2 * i], fillVertices.a[2 * i + 1] );
+                    }
+                }
+                finally
+                {
+                    gl.glEnd( );
+                }
+            }
+
+            for ( int r = 0; r < lineRuns.size( ); r++ )
+            {
+                int[] run = lineRuns.get( r );
+
+                gl.glLineWidth( lineWidths.a[r] );
+                gl.glBegin( GL.GL_LINES );
+                try
+                {
+                    for ( int i = run[0]; i < run[0] + run[1]; i++ )
+                    {
+                        gl.glColor4fv( lineColors.a, 4 * i );
+                        gl.glVertex2f( lineVertices.a[2 * i], lineVertices.a[2 * i + 1] );
+                    }
+                }
+                finally
+                {
+                    gl.glEnd( );
+                }
+            }
+
+            if ( iconVertices.n > 0 )
+            {
+                atlas.beginRendering( );
+                try
+                {
+                    gl.glBegin( GL.GL_QUADS );
+                    try
+                    {
+                        for ( int i = 0; i < iconVertices.n / 2; i++ )
+                        {
+                            gl.glTexCoord2f( iconTexCoords.a[2 * i], iconTexCoords.a[2 * i + 1] );
+                            gl.glVertex2f( iconVertices.a[2 * i], iconVertices.a[2 * i + 1] );
+                        }
+                    }
+                    finally
+                    {
+                        gl.glEnd( );
+                    }
+                }
+                finally
+                {
+                    atlas.endRendering( );
+                }
+            }
+        }
+        finally
+        {
+            gl.glPopMatrix( );
+        }
+
+        drawLabels( textRenderer, width, height );
+    }
+
+    protected void drawLabels( TextRenderer textRenderer, int width, int height )
+    {
+        if ( labelCount == 0 ) return;
+
+        textRenderer.beginRendering( width, height );
+        try
+        {
+            float[] color = null;
+            for ( int i = 0; i < labelCount; i++ )
+            {
+                Label label = labels.get( i );
+
+                if ( label.color != color )
+                {
+                    color = label.color;
+                    GlimpseColor.setColor( textRenderer, color );
+                }
+
+                textRenderer.draw( label.text, label.pixelX, label.pixelY );
+            }
+        }
+        finally
+        {
+            textRenderer.endRendering( );
+        }
+    }
+
+    /**
+     * Queues the labels of the batch on a GlyphAtlasTextRenderer, which must be between calls
+     * to beginRendering( ) and endRendering( ). This allows the labels of many batches to be
+     * drawn together.
+     */
+    public void drawLabels( GlyphAtlasTextRenderer textRenderer )
+    {
+        float[] color = null;
+        for ( int i = 0; i < labelCount; i++ )
+        {
+            Label label = labels.get( i );
+
+            if ( label.color != color )
+            {
+                color = label.color;
+                textRenderer.setColor( color );
+            }
+
+            textRenderer.draw( label.text, label.pixelX, label.pixelY );
+        }
+    }
+
+    protected void translate( GL gl )
+    {
+        if ( isHorizontal )
+        {
+            gl.glTranslated( origin, 0, 0 );
+        }
+        else
+        {
+            gl.glTranslated( 0, origin, 0 );
+        }
+    }
+
+    protected void upload( GL gl, int handle, FloatsArray values )
+    {
+        if ( values.n == 0 ) return;
+
+        if ( uploadBuffer == null || uploadBuffer.capacity( ) < values.n )
+        {
+            uploadBuffer = BufferUtil.newFloatBuffer( values.n );
+        }
+
+        uploadBuffer.clear( );
+        uploadBuffer.put( values.a, 0, values.n );
+        uploadBuffer.flip( );
+
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handle );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, values.n * BYTES_PER_FLOAT, uploadBuffer, GL.GL_DYNAMIC_DRAW );
+    }
+
+    public void dispose( GL gl )
+    {
+        if ( glAllocated )
+        {
+            gl.glDeleteBuffers( handles.length, handles, 0 );
+            glAllocated = false;
+            newData = true;
+        }
+    }
+
+    protected static class Label
+    {
+        protected String text;
+        protected int pixelX;
+        protected int pixelY;
+        protected float[] color;
+    }
+}
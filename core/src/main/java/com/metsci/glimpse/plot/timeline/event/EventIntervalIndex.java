@@ -0,0 +1,588 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.plot.timeline.event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.metsci.glimpse.util.primitives.IntsArray;
+
+/**
+ * <p>An index of {@link Event} time spans supporting fast, allocation free queries for
+ * all events which contain a time, overlap a time window, or lie inside a time window.</p>
+ *
+ * <p>Each added Event is assigned an integer handle, and queries append the handles of
+ * matching events to a caller supplied {@link IntsArray}, which may be reused between
+ * queries. Handles are stable until the Event is removed, after which they may be reused.
+ * Events are identified by {@link Event#equals(Object)}, so adding an Event which is already
+ * present simply updates its time span.</p>
+ *
+ * <p>Times are stored as posix milliseconds and all query bounds are inclusive. Query results
+ * are ordered by start time, with events having the same start time in the order they were
+ * added.</p>
+ *
+ * <p>Internally, events are kept in a list of small blocks sorted by start time. Each block
+ * tracks the latest end time of its events, and a running maximum of those allows queries
+ * to skip straight to the first block which could contain a match.</p>
+ *
+ * @author agent
+ */
+public class EventIntervalIndex
+{
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    protected final int blockSize;
+
+    // per handle storage
+    protected Event[] events;
+    protected long[] handleStarts;
+    protected long[] handleEnds;
+    protected int handleCount;
+    protected IntsArray freeHandles;
+    protected Map<Event, Integer> handles;
+
+    // blocks sorted by start time
+    protected Block[] blocks;
+    protected int blockCount;
+
+    // running maximum of block end times, valid for blocks before prefixValidCount
+    // (updated lazily by queries, so that concurrent read-only queries are safe)
+    protected long[] prefixMaxEnd;
+    protected volatile int prefixValidCount;
+
+    protected int size;
+
+    public EventIntervalIndex( )
+    {
+        this( DEFAULT_BLOCK_SIZE );
+    }
+
+    public EventIntervalIndex( int blockSize )
+    {
+        if ( blockSize < 2 ) throw new IllegalArgumentException( "Block size must be at least 2: " + blockSize );
+
+        this.blockSize = blockSize;
+        this.handles = new HashMap<Event, Integer>( );
+        this.freeHandles = new IntsArray( );
+        this.clear( );
+    }
+
+    public void clear( )
+    {
+        this.events = new Event[16];
+        this.handleStarts = new long[16];
+        this.handleEnds = new long[16];
+        this.handleCount = 0;
+        this.freeHandles.n = 0;
+        this.handles.clear( );
+
+        this.blocks = new Block[4];
+        this.prefixMaxEnd = new long[4];
+        this.blockCount = 0;
+        this.prefixValidCount = 0;
+
+        this.size = 0;
+    }
+
+    /**
+     * Adds the Event (or updates its time span, if it is already present).
+     *
+     * @return the handle of the Event
+     */
+    public int add( Event event )
+    {
+        remove( event );
+
+        long start = event.getStartTime( ).toPosixMillis( );
+        long end = event.getEndTime( ).toPosixMillis( );
+
+        int handle = newHandle( );
+        events[handle] = event;
+        handleStarts[handle] = start;
+        handleEnds[handle] = end;
+        handles.put( event, handle );
+
+        insert( handle, start, end );
+        size++;
+
+        return handle;
+    }
+
+    /**
+     * @return true if the Event was present
+     */
+    public boolean remove( Event event )
+    {
+        Integer handle = handles.remove( event );
+        if ( handle == null ) return false;
+
+        int h = handle;
+        delete( h, handleStarts[h] );
+
+        events[h] = null;
+        freeHandles.append( h );
+        size--;
+
+        return true;
+    }
+
+    public boolean contains( Event event )
+    {
+        return handles.containsKey( event );
+    }
+
+    /**
+     * @return the handle of the Event, or -1 if it is not present
+     */
+    public int getHandle( Event event )
+    {
+        Integer handle = handles.get( event );
+        return handle == null ? -1 : handle;
+    }
+
+    public Event getEvent( int handle )
+    {
+        return events[handle];
+    }
+
+    public long getStart( int handle )
+    {
+        return handleStarts[handle];
+    }
+
+    public long getEnd( int handle )
+    {
+        return handleEnds[handle];
+    }
+
+    /**
+     * @return the latest end time of any Event, or Long.MIN_VALUE if there are none
+     */
+    public long getMaxEnd( )
+    {
+        if ( blockCount == 0 ) return Long.MIN_VALUE;
+        if ( prefixValidCount < blockCount ) updatePrefix( );
+
+        return prefixMaxEnd[blockCount - 1];
+    }
+
+    public int size( )
+    {
+        return size;
+    }
+
+    public boolean isEmpty( )
+    {
+        return size == 0;
+    }
+
+    /**
+     * Finds all Events which contain the provided time.
+     *
+     * @param result cleared, then filled with the handles of matching events
+     * @return the number of matching events
+     */
+    public int getContaining( long time, IntsArray result )
+    {
+        return getOverlapping( time, time, result );
+    }
+
+    /**
+     * Finds all Events whose time span overlaps [min,max], so that
+     * event start &lt;= max and event end &gt;= min.
+     *
+     * @param result cleared, then filled with the handles of matching events
+     * @return the number of matching events
+     */
+    public int getOverlapping( long min, long max, IntsArray result )
+    {
+        result.n = 0;
+
+        for ( int b = firstBlockEndingAtOrAfter( min ); b < blockCount; b++ )
+        {
+            Block block = blocks[b];
+
+            if ( block.starts[0] > max ) break;
+            if ( block.maxEnd < min ) continue;
+
+            for ( int i = 0; i < block.n; i++ )
+            {
+                if ( block.starts[i] > max ) break;
+                if ( block.ends[i] >= min ) result.append( block.handles[i] );
+            }
+        }
+
+        return result.n;
+    }
+
+    /**
+     * @return true if any Event's time span overlaps [min,max]
+     */
+    public boolean hasOverlapping( long min, long max )
+    {
+        for ( int b = firstBlockEndingAtOrAfter( min ); b < blockCount; b++ )
+        {
+            Block block = blocks[b];
+
+            if ( block.starts[0] > max ) break;
+            if ( block.maxEnd < min ) continue;
+
+            for ( int i = 0; i < block.n; i++ )
+            {
+                if ( block.starts[i] > max ) break;
+                if ( block.ends[i] >= min ) return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds all Events whose time span lies within [min,max], so that
+     * event start &gt;= min and event end &lt;= max.
+     *
+     * @param result cleared, then filled with the handles of matching events
+     * @return the number of matching events
+     */
+    public int getInterior( long min, long max, IntsArray result )
+    {
+        result.n = 0;
+
+        for ( int b = firstBlockWithStartAtOrAfter( min ); b < blockCount; b++ )
+        {
+            Block block = blocks[b];
+
+            if ( block.starts[0] > max ) break;
+
+            for ( int i = 0; i < block.n; i++ )
+            {
+                if ( block.starts[i] > max ) break;
+                if ( block.starts[i] >= min && block.ends[i] <= max ) result.append( block.handles[i] );
+            }
+        }
+
+        return result.n;
+    }
+
+    /**
+     * Appends the handles of all Events, in start time order.
+     *
+     * @param result cleared, then filled with the handles of all events
+     * @return the number of events
+     */
+    public int getAll( IntsArray result )
+    {
+        result.n = 0;
+
+        for ( int b = 0; b < blockCount; b++ )
+        {
+            Block block = blocks[b];
+            result.append( block.handles, 0, block.n );
+        }
+
+        return result.n;
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // Handles                                                          //
+    //////////////////////////////////////////////////////////////////////
+
+    protected int newHandle( )
+    {
+        if ( freeHandles.n > 0 )
+        {
+            return freeHandles.a[--freeHandles.n];
+        }
+
+        if ( handleCount == events.length )
+        {
+            int capacity = 2 * events.length;
+
+            Event[] newEvents = new Event[capacity];
+            System.arraycopy( events, 0, newEvents, 0, handleCount );
+            events = newEvents;
+
+            long[] newStarts = new long[capacity];
+            System.arraycopy( handleStarts, 0, newStarts, 0, handleCount );
+            handleStarts = newStarts;
+
+            long[] newEnds = new long[capacity];
+            System.arraycopy( handleEnds, 0, newEnds, 0, handleCount );
+            handleEnds = newEnds;
+        }
+
+        return handleCount++;
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // Blocks                                                           //
+    //////////////////////////////////////////////////////////////////////
+
+    protected void insert( int handle, long start, long end )
+    {
+        if ( blockCount == 0 )
+        {
+            insertBlock( 0, new Block( blockSize ) );
+        }
+
+        // the last block whose first start is <= start (or the first block), so that
+        // the new entry goes after all existing entries with the same start time
+        int b = Math.max( 0, lastBlockStartingAtOrBefore( start ) );
+        Block block = blocks[b];
+        invalidatePrefix( b );
+
+        if ( block.n == blockSize )
+        {
+            Block split = block.split( );
+            insertBlock( b + 1, split );
+
+            if ( split.starts[0] <= start )
+            {
+                b = b + 1;
+                block = split;
+            }
+        }
+
+        block.insert( upperBound( block.starts, block.n, start ), handle, start, end );
+    }
+
+    protected void delete( int handle, long start )
+    {
+        // entries with the same start time may span several blocks
+        for ( int b = firstBlockWithStartAtOrAfter( start ); b < blockCount; b++ )
+        {
+            Block block = blocks[b];
+            if ( block.starts[0] > start ) break;
+
+            for ( int i = lowerBound( block.starts, block.n, start ); i < block.n && block.starts[i] == start; i++ )
+            {
+                if ( block.handles[i] == handle )
+                {
+                    block.remove( i );
+
+                    if ( block.n == 0 )
+                    {
+                        removeBlock( b );
+                    }
+
+                    invalidatePrefix( b );
+                    return;
+                }
+            }
+        }
+
+        throw new IllegalStateException( "Index is inconsistent: handle " + handle + " not found" );
+    }
+
+    protected void insertBlock( int b, Block block )
+    {
+        if ( blockCount == blocks.length )
+        {
+            Block[] newBlocks = new Block[2 * blocks.length];
+            System.arraycopy( blocks, 0, newBlocks, 0, blockCount );
+            blocks = newBlocks;
+            prefixMaxEnd = new long[newBlocks.length];
+            prefixValidCount = 0;
+        }
+
+        System.arraycopy( blocks, b, blocks, b + 1, blockCount - b );
+        blocks[b] = block;
+        blockCount++;
+    }
+
+    protected void removeBlock( int b )
+    {
+        System.arraycopy( blocks, b + 1, blocks, b, blockCount - b - 1 );
+        blocks[--blockCount] = null;
+    }
+
+    protected void invalidatePrefix( int b )
+    {
+        prefixValidCount = Math.min( prefixValidCount, b );
+    }
+
+    protected synchronized void updatePrefix( )
+    {
+        long max = prefixValidCount == 0 ? Long.MIN_VALUE : prefixMaxEnd[prefixValidCount - 1];
+        for ( int b = prefixValidCount; b < blockCount; b++ )
+        {
+            max = Math.max( max, blocks[b].maxEnd );
+            prefixMaxEnd[b] = max;
+        }
+
+        prefixValidCount = blockCount;
+    }
+
+    // index of the first block which could contain an event ending at or after time
+    protected int firstBlockEndingAtOrAfter( long time )
+    {
+        if ( prefixValidCount < blockCount ) updatePrefix( );
+
+        // prefixMaxEnd is non-decreasing, so no earlier block has any event ending at or after time
+        int low = 0;
+        int high = blockCount;
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if ( prefixMaxEnd[mid] < time ) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    // index of the first block containing an event starting at or after start
+    protected int firstBlockWithStartAtOrAfter( long start )
+    {
+        int low = 0;
+        int high = blockCount;
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            Block block = blocks[mid];
+            if ( block.starts[block.n - 1] < start ) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    // index of the last block whose first start is <= start, or -1 if there is none
+    protected int lastBlockStartingAtOrBefore( long start )
+    {
+        int low = 0;
+        int high = blockCount;
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if ( blocks[mid].starts[0] <= start ) low = mid + 1;
+            else high = mid;
+        }
+
+        return low - 1;
+    }
+
+    // index of the first value > key
+    protected static int upperBound( long[] values, int n, long key )
+    {
+        int low = 0;
+        int high = n;
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if ( values[mid] <= key ) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    // index of the first value >= key
+    protected static int lowerBound( long[] values, int n, long key )
+    {
+        int low = 0;
+        int high = n;
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if ( values[mid] < key ) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    protected static class Block
+    {
+        protected int[] handles;
+        protected long[] starts;
+        protected long[] ends;
+        protected int n;
+        protected long maxEnd;
+
+        public Block( int capacity )
+        {
+            this.handles = new int[capacity];
+            this.starts = new long[capacity];
+            this.ends = new long[capacity];
+            this.maxEnd = Long.MIN_VALUE;
+        }
+
+        public void insert( int i, int handle, long start, long end )
+        {
+            System.arraycopy( handles, i, handles, i + 1, n - i );
+            System.arraycopy( starts, i, starts, i + 1, n - i );
+            System.arraycopy( ends, i, ends, i + 1, n - i );
+
+            handles[i] = handle;
+            starts[i] = start;
+            ends[i] = end;
+            n++;
+
+            maxEnd = Math.max( maxEnd, end );
+        }
+
+        public void remove( int i )
+        {
+            long end = ends[i];
+
+            System.arraycopy( handles, i + 1, handles, i, n - i - 1 );
+            System.arraycopy( starts, i + 1, starts, i, n - i - 1 );
+            System.arraycopy( ends, i + 1, ends, i, n - i - 1 );
+            n--;
+
+            if ( end == maxEnd ) updateMaxEnd( );
+        }
+
+        // moves the upper half of this block's entries into a new block
+        public Block split( )
+        {
+            int half = n / 2;
+
+            Block block = new Block( handles.length );
+            block.n = n - half;
+            System.arraycopy( handles, half, block.handles, 0, block.n );
+            System.arraycopy( starts, half, block.starts, 0, block.n );
+            System.arraycopy( ends, half, block.ends, 0, block.n );
+            block.updateMaxEnd( );
+
+            n = half;
+            updateMaxEnd( );
+
+            return block;
+        }
+
+        protected void updateMaxEnd( )
+        {
+            maxEnd = Long.MIN_VALUE;
+            for ( int i = 0; i < n; i++ )
+            {
+                maxEnd = Math.max( maxEnd, ends[i] );
+            }
+        }
+    }
+}
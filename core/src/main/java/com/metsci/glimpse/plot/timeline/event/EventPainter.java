@@ -36,17 +36,20 @@ import java.awt.Font;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.SortedMap;
 
 import javax.media.opengl.GL;
+import javax.media.opengl.GLContext;
 
-import com.google.common.collect.SetMultimap;
 import com.metsci.glimpse.axis.Axis1D;
 import com.metsci.glimpse.context.GlimpseBounds;
 import com.metsci.glimpse.event.mouse.GlimpseMouseEvent;
@@ -55,10 +58,13 @@ import com.metsci.glimpse.plot.timeline.data.Epoch;
 import com.metsci.glimpse.plot.timeline.data.EventSelection;
 import com.metsci.glimpse.plot.timeline.data.EventSelection.Location;
 import com.metsci.glimpse.support.atlas.TextureAtlas;
+import com.metsci.glimpse.support.atlas.support.TextureAtlasUpdateListener;
 import com.metsci.glimpse.support.color.GlimpseColor;
 import com.metsci.glimpse.support.font.FontUtils;
+import com.metsci.glimpse.support.font.GlyphAtlasTextRenderer;
 import com.metsci.glimpse.support.settings.AbstractLookAndFeel;
 import com.metsci.glimpse.support.settings.LookAndFeel;
+import com.metsci.glimpse.util.primitives.IntsArray;
 import com.metsci.glimpse.util.units.time.TimeStamp;
 import com.sun.opengl.util.j2d.TextRenderer;
 
@@ -86,9 +92,30 @@ public class EventPainter extends GlimpseDataPainter1D
     protected double prevMin;
     protected double prevMax;
 
+    // if true, the geometry of each row is kept in an EventBatch and only rebuilt when necessary
+    protected boolean batchRendering = true;
+    protected EventBatch immediateBatch;
+
+    // whether each Event class overrides paint( GL, ... ) without overriding paint( EventBatch, ... )
+    protected Map<Class<?>, Boolean> immediatePaintClasses;
+
+    // the axis and bounds the row batches were built for
+    protected boolean geometryDirty = true;
+    protected double builtMin;
+    protected double builtMax;
+    protected int builtWidth;
+    protected int builtHeight;
+
+    // batches of removed rows, whose OpenGL resources are released on the next paint
+    protected List<EventBatch> disposedBatches;
+
     protected TextRenderer textRenderer;
     protected boolean fontSet = false;
 
+    // if true (and batchRendering is true), labels are drawn from a glyph atlas in one call
+    protected boolean glyphAtlasText = false;
+    protected GlyphAtlasTextRenderer glyphRenderer;
+
     protected volatile Font newFont = null;
     protected volatile boolean antialias = false;
 
@@ -104,40 +131,73 @@ public class EventPainter extends GlimpseDataPainter1D
     protected class Row
     {
         int index;
-        IntervalSortedMultimap events;
-        // sorted by event start time
-        SortedMap<TimeStamp, Collection<Event>> visibleEvents;
+        EventIntervalIndex events;
+        // handles of visible events, sorted by event start time
+        IntsArray visibleEvents;
+        // reusable query result buffer
+        IntsArray queryEvents;
+
+        // geometry of the visible events, and the row position it was built for
+        EventBatch batch;
+        boolean batchDirty;
+        int batchSizeMin;
+        int batchSizeMax;
 
         public Row( int index )
         {
             this.index = index;
-            this.events = new IntervalSortedMultimap( );
+            this.events = new EventIntervalIndex( );
+            this.visibleEvents = new IntsArray( );
+            this.queryEvents = new IntsArray( );
+            this.batch = new EventBatch( );
+            this.batchDirty = true;
         }
 
         public void addEvent( Event event )
         {
-            this.events.addEvent( event );
+            this.events.add( event );
+            this.batchDirty = true;
             rowMap.put( event.getId( ), this );
         }
 
         public void removeEvent( Event event )
         {
-            this.events.removeEvent( event );
+            this.events.remove( event );
+            this.batchDirty = true;
             rowMap.remove( event.getId( ) );
         }
 
-        public void calculateVisibleEvents( TimeStamp min, TimeStamp max )
+        public void calculateVisibleEvents( long min, long max )
         {
-            SetMultimap<TimeStamp, Event> visibleMap = this.events.getMap( min, true, max, true );
-            this.visibleEvents = ( SortedMap<TimeStamp, Collection<Event>> ) visibleMap.asMap( );
+            this.events.getOverlapping( min, max, this.visibleEvents );
         }
 
         public Set<Event> getOverlappingEvents( Event event )
         {
-            return this.events.get( event.getStartTime( ), false, event.getEndTime( ), false );
+            int count = getOverlappingEvents0( event );
+
+            Set<Event> set = new LinkedHashSet<Event>( );
+            for ( int i = 0; i < count; i++ )
+            {
+                set.add( this.events.getEvent( this.queryEvents.a[i] ) );
+            }
+
+            return set;
+        }
+
+        public boolean hasOverlappingEvents( Event event )
+        {
+            // exclusive of the event's start and end times
+            return this.events.hasOverlapping( event.getStartTime( ).toPosixMillis( ) + 1, event.getEndTime( ).toPosixMillis( ) - 1 );
+        }
+
+        // fills queryEvents with the handles of the events overlapping (exclusive of the start and end times) the given event
+        protected int getOverlappingEvents0( Event event )
+        {
+            return this.events.getOverlapping( event.getStartTime( ).toPosixMillis( ) + 1, event.getEndTime( ).toPosixMillis( ) - 1, this.queryEvents );
         }
 
-        public IntervalSortedMultimap getMap( )
+        public EventIntervalIndex getEventIndex( )
         {
             return this.events;
         }
@@ -175,6 +235,80 @@ public class EventPainter extends GlimpseDataPainter1D
         this.isHorizontal = isHorizontal;
 
         this.newFont = FontUtils.getDefaultPlain( 12 );
+
+        this.immediateBatch = new EventBatch( );
+        this.disposedBatches = new ArrayList<EventBatch>( );
+        this.immediatePaintClasses = new HashMap<Class<?>, Boolean>( );
+
+        if ( atlas != null )
+        {
+            // icon texture coordinates captured in the row batches are no longer valid
+            atlas.addListener( new TextureAtlasUpdateListener( )
+            {
+                @Override
+                public void reorganized( )
+                {
+                    geometryDirty = true;
+                }
+            } );
+        }
+    }
+
+    public boolean isBatchRendering( )
+    {
+        return this.batchRendering;
+    }
+
+    /**
+     * If true (the default), the boxes, borders, icons, and labels of all the visible Events in
+     * each row are collected into an {@link EventBatch} and drawn with a few OpenGL calls. The
+     * batch for a row is only rebuilt when its Events change or the axis moves.<p>
+     *
+     * If false, {@link Event#paint( GL, Axis1D, EventPainter, Event, int, int, int, int )} is
+     * called for each visible Event on every frame.<p>
+     *
+     * Rows containing a visible Event whose class overrides
+     * {@link Event#paint( GL, Axis1D, EventPainter, Event, int, int, int, int )} (but not
+     * {@link Event#paint( EventBatch, Axis1D, EventPainter, Event, int, int, int, int )}) are
+     * always painted the non-batched way, so that the override is honored.
+     */
+    public void setBatchRendering( boolean batchRendering )
+    {
+        this.batchRendering = batchRendering;
+        this.geometryDirty = true;
+        notifyDirty( );
+    }
+
+    public boolean isGlyphAtlasText( )
+    {
+        return this.glyphAtlasText;
+    }
+
+    /**
+     * If true, and batch rendering is enabled, the labels of all the rows are drawn together
+     * by a {@link GlyphAtlasTextRenderer} using a single OpenGL call, instead of by the
+     * TextRenderer one string at a time. Label sizes are still measured with the TextRenderer.
+     */
+    public void setGlyphAtlasText( boolean glyphAtlasText )
+    {
+        this.glyphAtlasText = glyphAtlasText;
+        notifyDirty( );
+    }
+
+    /**
+     * Indicates that the appearance of an Event (its label, colors, icon, etc.) has changed
+     * and its row must be redrawn.
+     */
+    public void invalidate( Event event )
+    {
+        Row row = this.rowMap.get( event.getId( ) );
+        if ( row != null ) row.batchDirty = true;
+        notifyDirty( );
+    }
+
+    protected EventBatch getImmediateBatch( )
+    {
+        return this.immediateBatch;
     }
 
     public boolean isStackOverlappingEvents( )
@@ -198,6 +332,7 @@ public class EventPainter extends GlimpseDataPainter1D
         this.rebuildRows0( );
         this.visibleEventsDirty = true;
         this.plot.updateSize( );   
+        notifyDirty( );
     }
 
     public int getRowSize( )
@@ -224,6 +359,8 @@ public class EventPainter extends GlimpseDataPainter1D
     {
         this.backgroundColor = backgroundColor;
         this.backgroundColorSet = true;
+        this.geometryDirty = true;
+        notifyDirty( );
     }
 
     public float[] getBorderColor( )
@@ -235,6 +372,8 @@ public class EventPainter extends GlimpseDataPainter1D
     {
         this.borderColor = borderColor;
         this.borderColorSet = true;
+        this.geometryDirty = true;
+        notifyDirty( );
     }
 
     public float[] getTextColor( )
@@ -246,6 +385,8 @@ public class EventPainter extends GlimpseDataPainter1D
     {
         this.textColor = textColor;
         this.textColorSet = true;
+        this.geometryDirty = true;
+        notifyDirty( );
     }
 
     public void addEvent( Event event )
@@ -259,6 +400,39 @@ public class EventPainter extends GlimpseDataPainter1D
         this.addEvent0( event );
         this.visibleEventsDirty = true;
         this.plot.updateSize( );
+        notifyDirty( );
+    }
+
+    /**
+     * Adds many Events at once. When overlapping events are stacked, the new Events are
+     * placed in start time order by a single greedy pass (see {@link #packEvents0( List )}),
+     * rather than searching every row for each Event. If several of the Events share an id,
+     * only the last of them is added.
+     */
+    public void addEvents( Collection<? extends Event> events )
+    {
+        Map<Object, Event> added = new LinkedHashMap<Object, Event>( );
+
+        for ( Event event : events )
+        {
+            if ( event == null ) continue;
+
+            added.put( event.getId( ), event );
+        }
+
+        for ( Event event : added.values( ) )
+        {
+            // remove the event if it already exists
+            Event oldEvent = this.eventMap.get( event.getId( ) );
+            if ( oldEvent != null ) this.removeEvent0( oldEvent );
+
+            this.eventMap.put( event.getId( ), event );
+        }
+
+        this.packEvents0( new ArrayList<Event>( added.values( ) ) );
+        this.visibleEventsDirty = true;
+        this.plot.updateSize( );
+        notifyDirty( );
     }
 
     public Event removeEvent( Object id )
@@ -270,6 +444,7 @@ public class EventPainter extends GlimpseDataPainter1D
             this.removeEvent0( event );
             this.visibleEventsDirty = true;
             this.plot.updateSize( );
+            notifyDirty( );
         }
 
         return event;
@@ -300,6 +475,7 @@ public class EventPainter extends GlimpseDataPainter1D
         this.newFont = font;
         this.antialias = antialias;
         this.fontSet = true;
+        notifyDirty( );
         return this;
     }
 
@@ -325,8 +501,8 @@ public class EventPainter extends GlimpseDataPainter1D
             Epoch epoch = getEpoch( );
 
             TimeStamp time = epoch.toTimeStamp( valueX );
-            TimeStamp timeStart = epoch.toTimeStamp( valueX - bufferX );
-            TimeStamp timeEnd = epoch.toTimeStamp( valueX + bufferX );
+            long timeStart = epoch.toTimeStamp( valueX - bufferX ).toPosixMillis( );
+            long timeEnd = epoch.toTimeStamp( valueX + bufferX ).toPosixMillis( );
 
             int rowIndex = ( int ) Math.floor( valueY / ( double ) ( getRowSize( ) + getRowBufferSize( ) ) );
             rowIndex = plot.getRowCount( ) - 1 - rowIndex;
@@ -334,8 +510,16 @@ public class EventPainter extends GlimpseDataPainter1D
             if ( rowIndex >= 0 && rowIndex < rows.size( ) )
             {
                 Row row = rows.get( rowIndex );
-                Set<Event> events = row.getMap( ).get( timeStart, timeEnd );
-                Set<EventSelection> eventSelections = createEventSelection( axis, events, time );
+
+                // events overlapping [timeStart,timeEnd)
+                IntsArray handles = row.queryEvents;
+                row.getEventIndex( ).getOverlapping( timeStart, timeEnd - 1, handles );
+
+                Set<EventSelection> eventSelections = new HashSet<EventSelection>( );
+                for ( int i = 0; i < handles.n; i++ )
+                {
+                    eventSelections.add( createEventSelection( axis, row.getEventIndex( ).getEvent( handles.a[i] ), time ) );
+                }
                 return eventSelections;
             }
         }
@@ -389,12 +573,105 @@ public class EventPainter extends GlimpseDataPainter1D
 
     protected void rebuildRows0( )
     {
+        for ( Row row : rows )
+        {
+            disposedBatches.add( row.batch );
+        }
+
         rows.clear( );
         rowMap.clear( );
 
-        for ( Event event : eventMap.values( ) )
+        packEvents0( new ArrayList<Event>( eventMap.values( ) ) );
+    }
+
+    /**
+     * Places new Events into rows without moving any Events which have already been placed.
+     * Fixed row Events are placed first. The rest are sorted by start time and each is put
+     * in the row whose events end earliest, if it is free, using a priority queue of rows
+     * keyed by their latest end time. Otherwise the first row with a free gap for the Event
+     * is used (see {@link #getFirstFreeRow( Event )}), and only then is a new row created.
+     * Starting from empty rows (where no such gaps exist), this takes O(n log n) time and
+     * produces the fewest possible rows.
+     */
+    protected void packEvents0( List<Event> events )
+    {
+        if ( !shouldStack )
         {
-            addEvent0( event );
+            for ( Event event : events )
+            {
+                addEvent0( event );
+            }
+
+            return;
+        }
+
+        List<Event> floating = new ArrayList<Event>( events.size( ) );
+        for ( Event event : events )
+        {
+            if ( event.isFixedRow( ) )
+            {
+                addEvent0( event );
+            }
+            else
+            {
+                floating.add( event );
+            }
+        }
+
+        Collections.sort( floating, Event.getStartTimeComparator( ) );
+
+        // rows ordered by the latest end time of their events (then by index, to prefer lower rows)
+        PriorityQueue<Row> queue = new PriorityQueue<Row>( Math.max( 1, rows.size( ) ), new Comparator<Row>( )
+        {
+            @Override
+            public int compare( Row o1, Row o2 )
+            {
+                long end1 = o1.events.getMaxEnd( );
+                long end2 = o2.events.getMaxEnd( );
+
+                if ( end1 < end2 ) return -1;
+                if ( end1 > end2 ) return 1;
+                return o1.index - o2.index;
+            }
+        } );
+        queue.addAll( rows );
+
+        // rows which held events before this pass may have gaps that later events fit in
+        // (rows created during the pass never do, because events are placed in start order)
+        boolean mayHaveGaps = !rows.isEmpty( );
+
+        int max = plot.getRowMaxCount( );
+
+        for ( Event event : floating )
+        {
+            long start = event.getStartTime( ).toPosixMillis( );
+
+            Row row = queue.peek( );
+            if ( row != null && row.events.getMaxEnd( ) <= start )
+            {
+                // every event in the row ends before this one starts
+                queue.poll( );
+            }
+            else if ( mayHaveGaps && ( row = getFirstFreeRow( event ) ) != null )
+            {
+                // an existing row has a gap which fits this event
+                queue.remove( row );
+            }
+            else if ( rows.size( ) < max )
+            {
+                row = new Row( rows.size( ) );
+                rows.add( row );
+            }
+            else
+            {
+                // all rows are in use, accept some overlap
+                row = getRowWithLeastOverlaps( event );
+                queue.remove( row );
+            }
+
+            // the row's end time changes, so it must be reinserted
+            row.addEvent( event );
+            queue.add( row );
         }
     }
 
@@ -416,6 +693,7 @@ public class EventPainter extends GlimpseDataPainter1D
 
         this.visibleEventsDirty = true;
         this.plot.updateSize( );
+        notifyDirty( );
     }
 
     public int getRow( Object eventId )
@@ -512,7 +790,7 @@ public class EventPainter extends GlimpseDataPainter1D
         {
             if ( rows.get( i ).isEmpty( ) )
             {
-                rows.remove( i );
+                disposedBatches.add( rows.remove( i ).batch );
             }
             else
             {
@@ -554,7 +832,7 @@ public class EventPainter extends GlimpseDataPainter1D
     protected void moveEventIfRoom0( Event event, Row fromRow, Row toRow )
     {
         // move the event if there is room for it and it hasn't explicitly requested its current row
-        if ( !event.isFixedRow( ) && toRow.getOverlappingEvents( event ).isEmpty( ) )
+        if ( !event.isFixedRow( ) && !toRow.hasOverlappingEvents( event ) )
         {
             fromRow.removeEvent( event );
             toRow.addEvent( event );
@@ -567,7 +845,9 @@ public class EventPainter extends GlimpseDataPainter1D
         Row row = null;
         if ( shouldStack && !event.isFixedRow( ) )
         {
-            row = getRowWithLeastOverlaps( event );
+            row = getFirstFreeRow( event );
+
+            if ( row == null ) row = getRowWithLeastOverlaps( event );
 
             // put the event into the non-overlapping spot we've found for it
             row.addEvent( event );
@@ -591,6 +871,26 @@ public class EventPainter extends GlimpseDataPainter1D
         return row;
     }
     
+    // the first row with no events overlapping the given event, or null if there is none
+    protected Row getFirstFreeRow( Event event )
+    {
+        long start = event.getStartTime( ).toPosixMillis( );
+
+        int size = rows.size( );
+        for ( int i = 0; i < size; i++ )
+        {
+            Row candidate = rows.get( i );
+
+            // checking the row's latest end time first makes appending at the live edge cheap
+            if ( candidate.events.getMaxEnd( ) <= start || !candidate.hasOverlappingEvents( event ) )
+            {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
     // If plot.getMaxRowCount() is large, we'll always be able to simply
     // make a new row (which will have no overlaps. If we're constrained
     // regarding the number of rows we can create, we may have to accept
@@ -641,9 +941,10 @@ public class EventPainter extends GlimpseDataPainter1D
         // of the total duration of either event
         double minOverlap1 = event.getDuration( ) / OVERLAP_HEURISTIC;
         
-        Set<Event> events = candidate.getOverlappingEvents( event );
-        for ( Event overlapEvent : events )
+        int count = candidate.getOverlappingEvents0( event );
+        for ( int i = 0; i < count; i++ )
         {
+            Event overlapEvent = candidate.getEventIndex( ).getEvent( candidate.queryEvents.a[i] );
             double minOverlap = Math.max( minOverlap1, overlapEvent.getDuration( ) / OVERLAP_HEURISTIC);
             double overlap = event.getOverlapTime( overlapEvent );
             
@@ -657,11 +958,17 @@ public class EventPainter extends GlimpseDataPainter1D
     {
         Epoch epoch = getEpoch( );
 
+        long minMillis = epoch.toTimeStamp( min ).toPosixMillis( );
+        long maxMillis = epoch.toTimeStamp( max ).toPosixMillis( );
+
         for ( Row row : rows )
         {
-            row.calculateVisibleEvents( epoch.toTimeStamp( min ), epoch.toTimeStamp( max ) );
+            row.calculateVisibleEvents( minMillis, maxMillis );
         }
 
+        this.prevMin = min;
+        this.prevMax = max;
+
         this.visibleEventsDirty = false;
     }
 
@@ -675,7 +982,10 @@ public class EventPainter extends GlimpseDataPainter1D
         {
             if ( textRenderer != null ) textRenderer.dispose( );
             textRenderer = new TextRenderer( newFont, antialias, false );
+            if ( glyphRenderer != null ) glyphRenderer.dispose( );
+            glyphRenderer = null;
             newFont = null;
+            geometryDirty = true;
         }
 
         if ( textRenderer == null ) return;
@@ -691,36 +1001,199 @@ public class EventPainter extends GlimpseDataPainter1D
         int sizeMin = buffer;
         int sizeMax = buffer + rowSize;
 
+        for ( EventBatch batch : disposedBatches )
+        {
+            batch.dispose( gl );
+        }
+        disposedBatches.clear( );
+
+        boolean useGlyphAtlas = batchRendering && glyphAtlasText;
+        if ( useGlyphAtlas && glyphRenderer == null )
+        {
+            glyphRenderer = new GlyphAtlasTextRenderer( textRenderer.getFont( ), antialias );
+        }
+
+        // apply pending icon changes before deciding what to rebuild, since they may reorganize
+        // the atlas (invalidating the icon texture coordinates held by every row batch)
+        if ( batchRendering && atlas != null )
+        {
+            atlas.beginRendering( );
+            atlas.endRendering( );
+        }
+
+        boolean rebuildAll = geometryDirty || axis.getMin( ) != builtMin || axis.getMax( ) != builtMax || width != builtWidth || height != builtHeight;
+
+        // cleared before drawing, so that a reorganization of the atlas during this frame
+        // causes all the rows to be rebuilt on the next frame
+        geometryDirty = false;
+
         int size = rows.size( );
         for ( int i = 0; i < size; i++ )
         {
             Row row = rows.get( i );
 
-            Event prev = null;
-            for ( Collection<Event> eventsAtTime : row.visibleEvents.values( ) )
+            if ( !batchRendering || isImmediatePaint( row ) )
+            {
+                paintRow( gl, axis, row, width, height, sizeMin, sizeMax );
+            }
+            else
             {
-                for ( Event event : eventsAtTime )
+                if ( rebuildAll || row.batchDirty || row.batchSizeMin != sizeMin || row.batchSizeMax != sizeMax )
                 {
-                    if ( prev != null )
-                    {
-                        prev.paint( gl, axis, this, event, width, height, sizeMin, sizeMax );
-                    }
+                    buildRow( axis, row, width, height, sizeMin, sizeMax );
+                }
 
-                    prev = event;
+                if ( useGlyphAtlas )
+                {
+                    row.batch.drawGeometry( gl, atlas );
+                }
+                else
+                {
+                    row.batch.draw( gl, atlas, textRenderer, width, height );
                 }
             }
 
-            // paint last event
+            sizeMin = sizeMax + buffer;
+            sizeMax = sizeMax + buffer + rowSize;
+        }
+
+        if ( useGlyphAtlas )
+        {
+            glyphRenderer.beginRendering( width, height );
+            try
+            {
+                for ( int i = 0; i < size; i++ )
+                {
+                    rows.get( i ).batch.drawLabels( glyphRenderer );
+                }
+            }
+            finally
+            {
+                glyphRenderer.endRendering( );
+            }
+        }
+
+        builtMin = axis.getMin( );
+        builtMax = axis.getMax( );
+        builtWidth = width;
+        builtHeight = height;
+    }
+
+    // true if any visible event in the row must be painted with Event.paint( GL, ... )
+    protected boolean isImmediatePaint( Row row )
+    {
+        IntsArray visibleEvents = row.visibleEvents;
+        for ( int j = 0; j < visibleEvents.n; j++ )
+        {
+            if ( isImmediatePaint( row.events.getEvent( visibleEvents.a[j] ).getClass( ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // checked once per class: Event subclasses written before batch rendering existed override
+    // paint( GL, ... ), which the batched path would otherwise silently skip
+    protected boolean isImmediatePaint( Class<?> eventClass )
+    {
+        Boolean immediate = immediatePaintClasses.get( eventClass );
+        if ( immediate == null )
+        {
+            try
+            {
+                Class<?> glPaint = eventClass.getMethod( "paint", GL.class, Axis1D.class, EventPainter.class, Event.class, int.class, int.class, int.class, int.class ).getDeclaringClass( );
+                Class<?> batchPaint = eventClass.getMethod( "paint", EventBatch.class, Axis1D.class, EventPainter.class, Event.class, int.class, int.class, int.class, int.class ).getDeclaringClass( );
+
+                // immediate if paint( GL, ... ) is overridden more specifically than paint( EventBatch, ... )
+                immediate = glPaint != Event.class && !glPaint.isAssignableFrom( batchPaint );
+            }
+            catch ( NoSuchMethodException e )
+            {
+                immediate = false;
+            }
+
+            immediatePaintClasses.put( eventClass, immediate );
+        }
+
+        return immediate;
+    }
+
+    // paints each visible event in the row immediately
+    protected void paintRow( GL gl, Axis1D axis, Row row, int width, int height, int sizeMin, int sizeMax )
+    {
+        Event prev = null;
+        IntsArray visibleEvents = row.visibleEvents;
+        for ( int j = 0; j < visibleEvents.n; j++ )
+        {
+            Event event = row.events.getEvent( visibleEvents.a[j] );
+
             if ( prev != null )
             {
-                prev.paint( gl, axis, this, null, width, height, sizeMin, sizeMax );
+                prev.paint( gl, axis, this, event, width, height, sizeMin, sizeMax );
             }
 
-            sizeMin = sizeMax + buffer;
-            sizeMax = sizeMax + buffer + rowSize;
+            prev = event;
+        }
+
+        // paint last event
+        if ( prev != null )
+        {
+            prev.paint( gl, axis, this, null, width, height, sizeMin, sizeMax );
         }
     }
 
+    // collects the geometry of the visible events in the row into its batch
+    protected void buildRow( Axis1D axis, Row row, int width, int height, int sizeMin, int sizeMax )
+    {
+        EventBatch batch = row.batch;
+        batch.reset( axis.getMin( ), isHorizontal );
+
+        Event prev = null;
+        IntsArray visibleEvents = row.visibleEvents;
+        for ( int j = 0; j < visibleEvents.n; j++ )
+        {
+            Event event = row.events.getEvent( visibleEvents.a[j] );
+
+            if ( prev != null )
+            {
+                prev.paint( batch, axis, this, event, width, height, sizeMin, sizeMax );
+            }
+
+            prev = event;
+        }
+
+        if ( prev != null )
+        {
+            prev.paint( batch, axis, this, null, width, height, sizeMin, sizeMax );
+        }
+
+        row.batchDirty = false;
+        row.batchSizeMin = sizeMin;
+        row.batchSizeMax = sizeMax;
+    }
+
+    @Override
+    protected void dispose( GLContext context )
+    {
+        GL gl = context.getGL( );
+
+        for ( Row row : rows )
+        {
+            row.batch.dispose( gl );
+        }
+
+        for ( EventBatch batch : disposedBatches )
+        {
+            batch.dispose( gl );
+        }
+        disposedBatches.clear( );
+
+        if ( textRenderer != null ) textRenderer.dispose( );
+        if ( glyphRenderer != null ) glyphRenderer.dispose( );
+    }
+
     @Override
     public void setLookAndFeel( LookAndFeel laf )
     {
@@ -736,6 +1209,7 @@ public class EventPainter extends GlimpseDataPainter1D
             textColor = laf.getColor( AbstractLookAndFeel.AXIS_TEXT_COLOR );
             textColorNoBackground = laf.getColor( AbstractLookAndFeel.AXIS_TEXT_COLOR );
             textColorSet = false;
+            geometryDirty = true;
         }
 
         if ( !borderColorSet )
@@ -32,6 +32,7 @@ import static com.metsci.glimpse.plot.timeline.data.EventSelection.Location.Star
 import static com.metsci.glimpse.plot.timeline.event.Event.TextRenderingMode.Ellipsis;
 
 import java.awt.Font;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -531,6 +532,11 @@ public class EventPlotInfo extends TimePlotInfoWrapper implements TimePlotInfo
         this.setSize( rowCount * this.rowSize + ( rowCount + 1 ) * this.eventPadding );
     }
 
+    public EventPainter getEventPainter( )
+    {
+        return this.eventPainter;
+    }
+
     public TextureAtlas getTextureAtlas( )
     {
         return this.eventPainter.getTextureAtlas( );
@@ -598,6 +604,22 @@ public class EventPlotInfo extends TimePlotInfoWrapper implements TimePlotInfo
         this.eventPainter.addEvent( event );
     }
 
+    /**
+     * Adds many Events at once. This is much faster than adding them one at a time when
+     * overlapping events are stacked (see {@link #setStackOverlappingEvents(boolean)}).
+     */
+    public void addEvents( Collection<? extends Event> events )
+    {
+        for ( Event event : events )
+        {
+            // the painter is notified once, when the Events are added
+            event.setEventPlotInfo( this );
+            event.setTextRenderingMode0( textRenderingMode );
+        }
+
+        this.eventPainter.addEvents( events );
+    }
+
     public void removeEvent( Event event )
     {
         event.setEventPlotInfo( null );
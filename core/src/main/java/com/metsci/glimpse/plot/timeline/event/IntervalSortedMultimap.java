@@ -27,18 +27,15 @@
 package com.metsci.glimpse.plot.timeline.event;
 
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 import com.google.common.base.Supplier;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
-import com.google.common.collect.Sets;
+import com.metsci.glimpse.util.primitives.IntsArray;
 import com.metsci.glimpse.util.units.time.TimeStamp;
-import com.metsci.glimpse.util.units.time.TimeStampPosixMillisInt64;
 
 /**
  * <p>A data structure for storing {@link Event} objects. IntervalSortedMultimap
@@ -52,55 +49,68 @@ import com.metsci.glimpse.util.units.time.TimeStampPosixMillisInt64;
  * the same start and end {@link TimeStamp}. However, two Events with different ids
  * may have the same start and end TimeStamp.</p> 
  * 
+ * <p>The returned Sets are convenient but allocated per query. Performance sensitive
+ * callers should use the variants which take an {@link IntsArray}, which fill a caller
+ * supplied (and reusable) buffer with event handles (see {@link EventIntervalIndex#getEvent(int)}).</p>
+ * 
+ * <p>Concurrent queries are safe, as long as no Events are added or removed meanwhile.</p>
+ * 
  * @author ulman
+ * @see EventIntervalIndex
  */
 public class IntervalSortedMultimap
 {
-    SetMultimap<TimeStamp, Event> startMultimap;
-    SetMultimap<TimeStamp, Event> endMultimap;
+    // scratch handle buffer for the Set returning queries, one per thread so concurrent queries don't collide
+    protected static final ThreadLocal<IntsArray> scratch = new ThreadLocal<IntsArray>( )
+    {
+        @Override
+        protected IntsArray initialValue( )
+        {
+            return new IntsArray( );
+        }
+    };
 
-    SortedMap<TimeStamp, Collection<Event>> startMap;
-    SortedMap<TimeStamp, Collection<Event>> endMap;
+    EventIntervalIndex index;
 
     public IntervalSortedMultimap( )
     {
-        this.startMultimap = buildMap( );
-        this.endMultimap = buildMap( );
-        
-        this.startMap = ( SortedMap<TimeStamp, Collection<Event>> ) startMultimap.asMap( );
-        this.endMap = ( SortedMap<TimeStamp, Collection<Event>> ) endMultimap.asMap( );
+        this.index = new EventIntervalIndex( );
     }
 
-    protected TimeStamp successor( TimeStamp t )
+    protected long successor( TimeStamp t )
     {
-        return TimeStampPosixMillisInt64.factory.fromPosixMillis( t.toPosixMillis( ) + 1 );
+        return t.toPosixMillis( ) + 1;
     }
 
-    protected TimeStamp predecessor( TimeStamp t )
+    protected long predecessor( TimeStamp t )
     {
-        return TimeStampPosixMillisInt64.factory.fromPosixMillis( t.toPosixMillis( ) - 1 );
+        return t.toPosixMillis( ) - 1;
     }
 
-    protected Set<Event> getEvents( SortedMap<TimeStamp, Collection<Event>> map )
+    // copies the query result, in start time order, into a new Set
+    protected Set<Event> getEvents( IntsArray handles )
     {
-        HashSet<Event> allEvents = new HashSet<Event>( );
-        for ( Collection<Event> c : map.values( ) )
+        Set<Event> events = new LinkedHashSet<Event>( );
+        for ( int i = 0; i < handles.n; i++ )
         {
-            allEvents.addAll( c );
+            events.add( index.getEvent( handles.a[i] ) );
         }
-        return allEvents;
+        return events;
+    }
+
+    public EventIntervalIndex getIndex( )
+    {
+        return index;
     }
 
     public void addEvent( Event event )
     {
-        startMultimap.put( event.getStartTime( ), event );
-        endMultimap.put( event.getEndTime( ), event );
+        index.add( event );
     }
 
     public void removeEvent( Event event )
     {
-        startMultimap.remove( event.getStartTime( ), event );
-        endMultimap.remove( event.getEndTime( ), event );
+        index.remove( event );
     }
 
     /**
@@ -126,16 +136,24 @@ public class IntervalSortedMultimap
      */
     public Set<Event> get( TimeStamp start, boolean startInclusive, TimeStamp end, boolean endInclusive )
     {
-        if ( !startInclusive ) start = successor( start );
-        if ( endInclusive ) end = successor( end );
-
-        SortedMap<TimeStamp, Collection<Event>> tailMap = endMap.tailMap( start );
-        SortedMap<TimeStamp, Collection<Event>> headMap = startMap.headMap( end );
+        IntsArray result = scratch.get( );
+        get( start, startInclusive, end, endInclusive, result );
+        return getEvents( result );
+    }
 
-        Set<Event> tailSet = getEvents( tailMap );
-        Set<Event> headSet = getEvents( headMap );
+    /**
+     * Like {@link #get(TimeStamp, boolean, TimeStamp, boolean)}, but fills result with the handles of
+     * the matching Events, in start time order, instead of allocating a Set.
+     *
+     * @return the number of matching Events
+     * @see EventIntervalIndex#getEvent(int)
+     */
+    public int get( TimeStamp start, boolean startInclusive, TimeStamp end, boolean endInclusive, IntsArray result )
+    {
+        long min = startInclusive ? start.toPosixMillis( ) : successor( start );
+        long max = endInclusive ? end.toPosixMillis( ) : predecessor( end );
 
-        return Sets.intersection( headSet, tailSet );
+        return index.getOverlapping( min, max, result );
     }
     
     public SetMultimap<TimeStamp, Event> getMap( TimeStamp start, boolean startInclusive, TimeStamp end, boolean endInclusive )
@@ -170,27 +188,34 @@ public class IntervalSortedMultimap
      */
     public Set<Event> getInterior( TimeStamp start, boolean startInclusive, TimeStamp end, boolean endInclusive )
     {
-        if ( !startInclusive ) start = successor( start );
-        if ( endInclusive ) end = successor( end );
-
-        SortedMap<TimeStamp, Collection<Event>> tailMap = endMap.headMap( end );
-        SortedMap<TimeStamp, Collection<Event>> headMap = startMap.tailMap( start );
+        IntsArray result = scratch.get( );
+        getInterior( start, startInclusive, end, endInclusive, result );
+        return getEvents( result );
+    }
 
-        Set<Event> tailSet = getEvents( tailMap );
-        Set<Event> headSet = getEvents( headMap );
+    /**
+     * Like {@link #getInterior(TimeStamp, boolean, TimeStamp, boolean)}, but fills result with the handles
+     * of the matching Events, in start time order, instead of allocating a Set.
+     *
+     * @return the number of matching Events
+     * @see EventIntervalIndex#getEvent(int)
+     */
+    public int getInterior( TimeStamp start, boolean startInclusive, TimeStamp end, boolean endInclusive, IntsArray result )
+    {
+        long min = startInclusive ? start.toPosixMillis( ) : successor( start );
+        long max = endInclusive ? end.toPosixMillis( ) : predecessor( end );
 
-        return Sets.intersection( headSet, tailSet );
+        return index.getInterior( min, max, result );
     }
     
     public boolean isEmpty( )
     {
-        return size( ) == 0;
+        return index.isEmpty( );
     }
     
     public int size( )
     {
-        // startMap and endMap should always be the same size
-        return startMap.size( );
+        return index.size( );
     }
     
     public static void main( String[] args )
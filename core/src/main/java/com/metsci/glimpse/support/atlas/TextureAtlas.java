@@ -65,6 +65,7 @@ import javax.media.opengl.glu.GLU;
 
 import com.metsci.glimpse.axis.Axis1D;
 import com.metsci.glimpse.axis.Axis2D;
+import com.metsci.glimpse.support.atlas.support.ImageAlphaMask;
 import com.metsci.glimpse.support.atlas.support.ImageData;
 import com.metsci.glimpse.support.atlas.support.ImageDataExternal;
 import com.metsci.glimpse.support.atlas.support.ImageDataInternal;
@@ -376,6 +377,40 @@ public class TextureAtlas
         }
     }
 
+    /**
+     * Returns a downsampled copy of the alpha channel of an image in the TextureAtlas, suitable
+     * for testing whether a location on an icon is transparent without reading back the OpenGL
+     * texture. The mask is created (by re-running the image's ImageDrawer) the first time it is
+     * requested and cached until the image is deleted.
+     *
+     * @param id the unique identifier for the image
+     * @return the alpha mask, or null if the image was not loaded with an ImageDrawer
+     */
+    public ImageAlphaMask getAlphaMask( Object id )
+    {
+        ImageDataInternal data;
+
+        this.lock.lock( );
+        try
+        {
+            data = getImageDataInternal( id );
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+
+        ImageAlphaMask mask = data.getAlphaMask( );
+        if ( mask == null && data.getImageDrawer( ) != null )
+        {
+            // build outside the lock, if two threads race they build identical masks
+            mask = new ImageAlphaMask( data.getWidth( ), data.getHeight( ), data.getImageDrawer( ) );
+            data.setAlphaMask( mask );
+        }
+
+        return mask;
+    }
+
     //////////////////////////////////////////////////////////////
     ///                Image Rendering Methods                 ///
     //////////////////////////////////////////////////////////////
@@ -716,7 +751,7 @@ public class TextureAtlas
         // leave one pixel around the edge to prevent bleeding into adjacent images
         // this makes the width and height 2 larger and means the actual origin of the
         // image is one pixel away from the edge of the rectangle
-        ImageDataInternal imageData = new ImageDataInternal( id, centerX, centerY, 1, 1, width, height );
+        ImageDataInternal imageData = new ImageDataInternal( id, centerX, centerY, 1, 1, width, height, data.getImageDrawer( ) );
         rect = new Rect( 0, 0, imageData.getBufferedWidth( ), imageData.getBufferedHeight( ), imageData );
 
         // store the image location in the texture atlas packer and in
@@ -68,9 +68,13 @@ import com.metsci.glimpse.support.atlas.TextureAtlas;
 import com.metsci.glimpse.support.atlas.shader.TextureAtlasIconShaderFragment;
 import com.metsci.glimpse.support.atlas.shader.TextureAtlasIconShaderGeometry;
 import com.metsci.glimpse.support.atlas.shader.TextureAtlasIconShaderVertex;
+import com.metsci.glimpse.support.atlas.support.ImageAlphaMask;
 import com.metsci.glimpse.support.atlas.support.ImageData;
 import com.metsci.glimpse.support.atlas.support.TextureAtlasUpdateListener;
 import com.metsci.glimpse.support.selection.SpatialSelectionListener;
+import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.metsci.glimpse.util.primitives.IntsArray;
+import com.metsci.glimpse.util.quadtree.QuadTreeInts;
 import com.sun.opengl.util.BufferUtil;
 import com.sun.opengl.util.texture.TextureCoords;
 
@@ -85,14 +89,16 @@ import com.sun.opengl.util.texture.TextureCoords;
 //      to VRAM again. Either GLFloatBuffer needs to be smarter and use glSubBuffer or we
 //      need to do things manually with FloatBuffers.
 //
-//TODO: Picking could also be done without OpenGL using the quadtree that GLFloatBuffer2D
-//      provides. However, this might be slower and take up more memory with lots of icons.
-//      It also doesn't easily handle not picking on transparent parts of icons.
+//NOTE: Picking can also be done without OpenGL (see setCpuPicking( boolean ) and the pickIcons( )
+//      methods). Each icon group then keeps a host-side copy of its icon placements and a quadtree
+//      over them, which takes up more memory with lots of icons. Transparent parts of icons are
+//      handled using a downsampled alpha mask from the TextureAtlas.
 //
 //TODO: The problem with the current color-based picking approach is that it really only handles
 //      picks at one location at a time (we could draw to a larger offscreen buffer,
 //      or draw multiple times for each pick/click, not sure which would be faster).
 //      Most of the complications spring from the possibility of painter retargeting.
+//      CPU picking does not have this limitation.
 public class IconPainter extends GlimpseDataPainter2D
 {
     private static final Logger logger = Logger.getLogger( IconPainter.class.getName( ) );
@@ -104,6 +110,8 @@ public class IconPainter extends GlimpseDataPainter2D
     private static final int WIDTH_BUFFER = 5;
     private static final int HEIGHT_BUFFER = 5;
 
+    private static final int CPU_PICK_BUCKET_SIZE = 100;
+
     protected int initialGroupSize;
 
     // shader fields
@@ -137,6 +145,11 @@ public class IconPainter extends GlimpseDataPainter2D
     protected List<SpatialSelectionListener<PickResult>> pickListeners;
     protected Executor pickNotificationThread;
 
+    // fields related to cpu picking support
+    protected boolean cpuPicking = false;
+    protected boolean cpuPickAlphaTest = true;
+    protected float globalScale = 1.0f;
+
     protected ReentrantLock lock;
 
     //@formatter:off
@@ -264,7 +277,163 @@ public class IconPainter extends GlimpseDataPainter2D
      */
     public void setGlobalScale( float scale )
     {
-        this.geometryShader.setGlobalScale( scale );
+        this.lock.lock( );
+        try
+        {
+            this.globalScale = scale;
+            this.geometryShader.setGlobalScale( scale );
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+
+        notifyDirty( );
+    }
+
+    /**
+     * If true, the mouse picks enabled with {@link #setPickingEnabled(GlimpseLayout)} are resolved
+     * on the CPU using a quadtree of icon positions and the size, scale and rotation of each icon,
+     * instead of by painting the icons again into an offscreen pick buffer. This avoids a second
+     * pass over every icon on the GPU each frame, at the cost of keeping a copy of the icon
+     * placements (and a quadtree over them) in memory for each icon group.
+     *
+     * @param cpuPicking whether mouse picks should be resolved on the CPU
+     */
+    public void setCpuPicking( boolean cpuPicking )
+    {
+        this.lock.lock( );
+        try
+        {
+            this.cpuPicking = cpuPicking;
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+    }
+
+    public boolean isCpuPicking( )
+    {
+        this.lock.lock( );
+        try
+        {
+            return this.cpuPicking;
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+    }
+
+    /**
+     * If true (the default), CPU picks ignore transparent parts of icons by testing against a
+     * downsampled alpha mask of each TextureAtlas image (see {@link TextureAtlas#getAlphaMask(Object)}).
+     * If false, any location within the rectangular bounds of an icon is a hit. Rectangle picks
+     * always use the rectangular icon bounds.
+     */
+    public void setCpuPickAlphaTest( boolean alphaTest )
+    {
+        this.lock.lock( );
+        try
+        {
+            this.cpuPickAlphaTest = alphaTest;
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+    }
+
+    public boolean isCpuPickAlphaTest( )
+    {
+        this.lock.lock( );
+        try
+        {
+            return this.cpuPickAlphaTest;
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+    }
+
+    /**
+     * @see #pickIcons( Axis2D, float[], float[], float )
+     */
+    public Set<PickResult> pickIcons( Axis2D axis, float x, float y )
+    {
+        return pickIcons( axis, new float[] { x }, new float[] { y }, Math.max( WIDTH_BUFFER, HEIGHT_BUFFER ) );
+    }
+
+    /**
+     * Finds the icons which are drawn at any of the provided locations (in axis coordinates), without
+     * using OpenGL. An icon is picked if some (non-transparent, see {@link #setCpuPickAlphaTest(boolean)})
+     * part of it lies within pixelRadius pixels of a location. Only visible icon groups are searched.
+     *
+     * The first time an icon group is picked on the CPU, a copy of its icon placements is made and
+     * indexed. The index is kept up to date as icons are added.
+     *
+     * The returned PickResults have a null GlimpseTargetStack.
+     *
+     * @param axis the axis the icons are painted on, used to convert between pixels and axis units
+     * @param x the x coordinates of the pick locations
+     * @param y the y coordinates of the pick locations
+     * @param pixelRadius the pick tolerance in pixels
+     */
+    public Set<PickResult> pickIcons( Axis2D axis, float[] x, float[] y, float pixelRadius )
+    {
+        if ( x.length != y.length ) throw new IllegalArgumentException( String.format( "Size of x and y arrays must be identical. Found: %d and %d.", x.length, y.length ) );
+
+        this.lock.lock( );
+        try
+        {
+            Set<PickResult> pickedIcons = new HashSet<PickResult>( );
+
+            for ( IconGroup group : iconGroupMap.values( ) )
+            {
+                if ( !group.isVisible( ) ) continue;
+
+                cpuPick( group, axis, x, y, pixelRadius, null, pickedIcons );
+            }
+
+            return pickedIcons;
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
+    }
+
+    /**
+     * Finds the icons which overlap the provided rectangle (in axis coordinates), without using OpenGL.
+     * The rotated rectangular bounds of each icon are tested against the rectangle (transparent parts
+     * of icons are not excluded). Only visible icon groups are searched.
+     *
+     * The returned PickResults have a null GlimpseTargetStack.
+     *
+     * @see #pickIcons( Axis2D, float[], float[], float )
+     */
+    public Set<PickResult> pickIcons( Axis2D axis, float minX, float maxX, float minY, float maxY )
+    {
+        this.lock.lock( );
+        try
+        {
+            Set<PickResult> pickedIcons = new HashSet<PickResult>( );
+
+            for ( IconGroup group : iconGroupMap.values( ) )
+            {
+                if ( !group.isVisible( ) ) continue;
+
+                cpuPick( group, axis, minX, maxX, minY, maxY, null, pickedIcons );
+            }
+
+            return pickedIcons;
+        }
+        finally
+        {
+            this.lock.unlock( );
+        }
     }
 
     /**
@@ -403,6 +572,8 @@ public class IconPainter extends GlimpseDataPainter2D
         {
             this.lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
 //    /**
@@ -430,6 +601,8 @@ public class IconPainter extends GlimpseDataPainter2D
         {
             this.lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     /**
@@ -449,6 +622,8 @@ public class IconPainter extends GlimpseDataPainter2D
         {
             this.lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     /**
@@ -469,6 +644,8 @@ public class IconPainter extends GlimpseDataPainter2D
         {
             this.lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     /**
@@ -485,6 +662,7 @@ public class IconPainter extends GlimpseDataPainter2D
             if ( group == null ) return;
 
             group.dispose( );
+            notifyDirty( );
 
             TextureAtlas atlas = group.atlas;
             Set<IconGroup> groups = this.iconGroupsByAtlas.get( atlas );
@@ -523,6 +701,8 @@ public class IconPainter extends GlimpseDataPainter2D
         {
             this.lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     /**
@@ -557,6 +737,8 @@ public class IconPainter extends GlimpseDataPainter2D
         {
             this.lock.unlock( );
         }
+
+        notifyDirty( );
     }
 
     @Override
@@ -576,7 +758,11 @@ public class IconPainter extends GlimpseDataPainter2D
             // dispose of any buffers queued for deletion
             disposeOldBuffers( gl );
 
-            if ( this.pickSupportEnabled )
+            if ( this.pickSupportEnabled && this.cpuPicking )
+            {
+                cpuPickTo( context, bounds, axis );
+            }
+            else if ( this.pickSupportEnabled )
             {
                 // allocate the offscreen pick buffer if it does not exist
                 if ( this.pickFrameBuffer == null )
@@ -748,6 +934,229 @@ public class IconPainter extends GlimpseDataPainter2D
         notifySpatialSelectionListeners( pickedIcons );
     }
 
+    protected void cpuPickTo( GlimpseContext context, GlimpseBounds bounds, Axis2D axis )
+    {
+        // check whether mouse has moved since last draw
+        if ( this.pickMouseEvent == null ) return;
+
+        Set<PickResult> pickedIcons = new HashSet<PickResult>( );
+
+        GlimpseTargetStack stack = TargetStackUtil.newTargetStack( context.getTargetStack( ) );
+
+        float[] x = new float[] { ( float ) axis.getAxisX( ).screenPixelToValue( this.pickMouseEvent.getX( ) ) };
+        float[] y = new float[] { ( float ) axis.getAxisY( ).screenPixelToValue( bounds.getHeight( ) - this.pickMouseEvent.getY( ) ) };
+
+        for ( Set<IconGroup> groups : this.iconGroupsByAtlas.values( ) )
+        {
+            for ( IconGroup group : groups )
+            {
+                if ( !group.isVisible( ) ) continue;
+
+                cpuPick( group, axis, x, y, Math.max( WIDTH_BUFFER, HEIGHT_BUFFER ), stack, pickedIcons );
+            }
+        }
+
+        notifySpatialSelectionListeners( pickedIcons );
+    }
+
+    // finds icons in the group with some part within pixelRadius pixels of any of the x/y points
+    protected void cpuPick( IconGroup group, Axis2D axis, float[] x, float[] y, float pixelRadius, GlimpseTargetStack stack, Set<PickResult> resultSet )
+    {
+        if ( group.getCurrentSize( ) == 0 ) return;
+
+        QuadTreeInts index = group.getPlacementIndex( );
+        float[] placements = group.placementValues.a;
+
+        float ppvX = ( float ) axis.getAxisX( ).getPixelsPerValue( );
+        float ppvY = ( float ) axis.getAxisY( ).getPixelsPerValue( );
+
+        // pad the search by the largest distance from an icon anchor to the corner of its icon
+        float margin = group.maxIconRadius * globalScale + pixelRadius;
+        float marginX = margin / ppvX;
+        float marginY = margin / ppvY;
+
+        Map<Object, ImageData> imageDataCache = new HashMap<Object, ImageData>( );
+        Map<Object, ImageAlphaMask> alphaMaskCache = new HashMap<Object, ImageAlphaMask>( );
+
+        IntsArray candidates = new IntsArray( );
+        for ( int p = 0; p < x.length; p++ )
+        {
+            candidates.n = 0;
+            index.search( x[p] - marginX, x[p] + marginX, y[p] - marginY, y[p] + marginY, candidates );
+
+            for ( int c = 0; c < candidates.n; c++ )
+            {
+                int i = candidates.a[c];
+
+                float scale = globalScale * placements[i * 4 + 3];
+                if ( scale <= 0 ) continue;
+
+                float rotation = placements[i * 4 + 2];
+                float sin = ( float ) Math.sin( rotation );
+                float cos = ( float ) Math.cos( rotation );
+
+                // pixel offset of the pick location from the icon anchor
+                float dx = ( x[p] - placements[i * 4] ) * ppvX;
+                float dy = ( y[p] - placements[i * 4 + 1] ) * ppvY;
+
+                // undo the rotation and scaling applied by the geometry shader
+                float lx = ( dx * cos + dy * sin ) / scale;
+                float ly = ( -dx * sin + dy * cos ) / scale;
+                float r = pixelRadius / scale;
+
+                Object iconId = group.getIconId( i );
+                ImageData imageData = getImageData( group, iconId, imageDataCache );
+
+                // pick location relative to the lower left corner of the (buffered) icon quad
+                float u = lx + imageData.getCenterX( ) + imageData.getBufferX( );
+                float v = ly + imageData.getCenterY( ) + imageData.getBufferY( );
+
+                if ( u + r < 0 || u - r > imageData.getBufferedWidth( ) || v + r < 0 || v - r > imageData.getBufferedHeight( ) ) continue;
+
+                if ( cpuPickAlphaTest )
+                {
+                    ImageAlphaMask mask = getAlphaMask( group, iconId, alphaMaskCache );
+                    if ( mask != null )
+                    {
+                        float mx = u - imageData.getBufferX( );
+                        float my = v - imageData.getBufferY( );
+                        if ( !mask.isOpaque( mx - r, mx + r, my - r, my + r ) ) continue;
+                    }
+                }
+
+                resultSet.add( new PickResult( group.getId( ), iconId, i, stack ) );
+            }
+        }
+    }
+
+    // finds icons in the group whose rotated quad overlaps the provided rectangle
+    protected void cpuPick( IconGroup group, Axis2D axis, float minX, float maxX, float minY, float maxY, GlimpseTargetStack stack, Set<PickResult> resultSet )
+    {
+        if ( group.getCurrentSize( ) == 0 ) return;
+
+        QuadTreeInts index = group.getPlacementIndex( );
+        float[] placements = group.placementValues.a;
+
+        float ppvX = ( float ) axis.getAxisX( ).getPixelsPerValue( );
+        float ppvY = ( float ) axis.getAxisY( ).getPixelsPerValue( );
+
+        float margin = group.maxIconRadius * globalScale;
+        float marginX = margin / ppvX;
+        float marginY = margin / ppvY;
+
+        Map<Object, ImageData> imageDataCache = new HashMap<Object, ImageData>( );
+
+        IntsArray candidates = new IntsArray( );
+        index.search( minX - marginX, maxX + marginX, minY - marginY, maxY + marginY, candidates );
+
+        float[] rectX = new float[4];
+        float[] rectY = new float[4];
+
+        for ( int c = 0; c < candidates.n; c++ )
+        {
+            int i = candidates.a[c];
+
+            float scale = globalScale * placements[i * 4 + 3];
+            if ( scale <= 0 ) continue;
+
+            float rotation = placements[i * 4 + 2];
+            float sin = ( float ) Math.sin( rotation );
+            float cos = ( float ) Math.cos( rotation );
+
+            Object iconId = group.getIconId( i );
+            ImageData imageData = getImageData( group, iconId, imageDataCache );
+
+            // extent of the icon quad in scaled pixels, along its own (rotated) axes
+            float uMin = -scale * ( imageData.getCenterX( ) + imageData.getBufferX( ) );
+            float uMax = uMin + scale * imageData.getBufferedWidth( );
+            float vMin = -scale * ( imageData.getCenterY( ) + imageData.getBufferY( ) );
+            float vMax = vMin + scale * imageData.getBufferedHeight( );
+
+            // corners of the pick rectangle in pixels relative to the icon anchor
+            float x0 = ( minX - placements[i * 4] ) * ppvX;
+            float x1 = ( maxX - placements[i * 4] ) * ppvX;
+            float y0 = ( minY - placements[i * 4 + 1] ) * ppvY;
+            float y1 = ( maxY - placements[i * 4 + 1] ) * ppvY;
+
+            rectX[0] = x0; rectY[0] = y0;
+            rectX[1] = x1; rectY[1] = y0;
+            rectX[2] = x0; rectY[2] = y1;
+            rectX[3] = x1; rectY[3] = y1;
+
+            // separating axis test, first along the icon axes
+            if ( separated( rectX, rectY, cos, sin, uMin, uMax ) ) continue;
+            if ( separated( rectX, rectY, -sin, cos, vMin, vMax ) ) continue;
+
+            // then along the screen axes, using the rotated icon corners
+            float cxMin = Float.POSITIVE_INFINITY, cxMax = Float.NEGATIVE_INFINITY;
+            float cyMin = Float.POSITIVE_INFINITY, cyMax = Float.NEGATIVE_INFINITY;
+            for ( int k = 0; k < 4; k++ )
+            {
+                float u = ( k & 1 ) == 0 ? uMin : uMax;
+                float v = ( k & 2 ) == 0 ? vMin : vMax;
+                float cx = u * cos - v * sin;
+                float cy = u * sin + v * cos;
+                cxMin = Math.min( cxMin, cx );
+                cxMax = Math.max( cxMax, cx );
+                cyMin = Math.min( cyMin, cy );
+                cyMax = Math.max( cyMax, cy );
+            }
+
+            if ( cxMax < Math.min( x0, x1 ) || cxMin > Math.max( x0, x1 ) ) continue;
+            if ( cyMax < Math.min( y0, y1 ) || cyMin > Math.max( y0, y1 ) ) continue;
+
+            resultSet.add( new PickResult( group.getId( ), iconId, i, stack ) );
+        }
+    }
+
+    // true if the projections of the points onto the axis (axisX,axisY) all fall outside [min,max]
+    protected static boolean separated( float[] x, float[] y, float axisX, float axisY, float min, float max )
+    {
+        float pMin = Float.POSITIVE_INFINITY;
+        float pMax = Float.NEGATIVE_INFINITY;
+        for ( int k = 0; k < x.length; k++ )
+        {
+            float p = x[k] * axisX + y[k] * axisY;
+            pMin = Math.min( pMin, p );
+            pMax = Math.max( pMax, p );
+        }
+
+        return pMax < min || pMin > max;
+    }
+
+    // looking up image data in the atlas involves acquiring a lock, and the same
+    // icon is usually repeated many times, so remember the results for each pick
+    protected ImageData getImageData( IconGroup group, Object iconId, Map<Object, ImageData> cache )
+    {
+        ImageData imageData = cache.get( iconId );
+        if ( imageData == null )
+        {
+            imageData = group.getAtlas( ).getImageData( iconId );
+            cache.put( iconId, imageData );
+        }
+
+        return imageData;
+    }
+
+    protected ImageAlphaMask getAlphaMask( IconGroup group, Object iconId, Map<Object, ImageAlphaMask> cache )
+    {
+        if ( cache.containsKey( iconId ) ) return cache.get( iconId );
+
+        ImageAlphaMask mask = group.getAtlas( ).getAlphaMask( iconId );
+        cache.put( iconId, mask );
+        return mask;
+    }
+
+    // the largest distance in pixels (before scaling) from the anchor of the image to a corner of its quad
+    protected static float getIconRadius( ImageData imageData )
+    {
+        float offsetX = imageData.getCenterX( ) + imageData.getBufferX( );
+        float offsetY = imageData.getCenterY( ) + imageData.getBufferY( );
+        float dx = Math.max( Math.abs( offsetX ), Math.abs( imageData.getBufferedWidth( ) - offsetX ) );
+        float dy = Math.max( Math.abs( offsetY ), Math.abs( imageData.getBufferedHeight( ) - offsetY ) );
+        return ( float ) Math.sqrt( dx * dx + dy * dy );
+    }
+
     // set the frame buffer background to transparent (which we will interpret
     // as no icon picked)
     protected void resetPickFrameBuffer( GLContext glContext )
@@ -995,6 +1404,8 @@ public class IconPainter extends GlimpseDataPainter2D
                 group.iconIds.add( iconId );
             }
 
+            group.indexPlacements( currentSize - size, currentSize, getIconRadius( imageData ) );
+
             group.pixelCoordsValues.mutate( new Mutator( )
             {
                 @Override
@@ -1016,7 +1427,7 @@ public class IconPainter extends GlimpseDataPainter2D
                         data.put( offsetY );
                     }
                 }
-            } );
+            }, currentSize - size, currentSize );
 
             group.texCoordsValues.mutate( new Mutator( )
             {
@@ -1033,7 +1444,7 @@ public class IconPainter extends GlimpseDataPainter2D
                         data.put( texData.bottom( ) );
                     }
                 }
-            } );
+            }, currentSize - size, currentSize );
 
             group.pickColorValues.mutate( new GLByteBuffer.Mutator( )
             {
@@ -1060,7 +1471,7 @@ public class IconPainter extends GlimpseDataPainter2D
                         data.put( r ).put( g ).put( b );
                     }
                 }
-            } );
+            }, currentSize - size, currentSize );
         }
     }
 
@@ -1093,13 +1504,13 @@ public class IconPainter extends GlimpseDataPainter2D
 
         public void addPlacementValues( final IconGroup group )
         {
+            final int currentSize = group.getCurrentSize( );
+
             group.iconPlacementValues.mutate( new Mutator( )
             {
                 @Override
                 public void mutate( FloatBuffer data, int length )
                 {
-                    int currentSize = group.getCurrentSize( );
-
                     data.limit( currentSize * length );
                     data.position( ( currentSize - size ) * length );
                     for ( int i = 0; i < size; i++ )
@@ -1110,7 +1521,7 @@ public class IconPainter extends GlimpseDataPainter2D
                         data.put( scale[i] );
                     }
                 }
-            } );
+            }, currentSize - size, currentSize );
         }
     }
 
@@ -1136,18 +1547,18 @@ public class IconPainter extends GlimpseDataPainter2D
 
         public void addPlacementValues( final IconGroup group )
         {
+            final int currentSize = group.getCurrentSize( );
+
             group.iconPlacementValues.mutate( new Mutator( )
             {
                 @Override
                 public void mutate( FloatBuffer data, int length )
                 {
-                    int currentSize = group.getCurrentSize( );
-
                     data.limit( currentSize * length );
                     data.position( ( currentSize - size ) * length );
                     data.put( positions, 0, size * length );
                 }
-            } );
+            }, currentSize - size, currentSize );
         }
     }
 
@@ -1172,13 +1583,13 @@ public class IconPainter extends GlimpseDataPainter2D
 
         public void addPlacementValues( final IconGroup group )
         {
+            final int currentSize = group.getCurrentSize( );
+
             group.iconPlacementValues.mutate( new Mutator( )
             {
                 @Override
                 public void mutate( FloatBuffer data, int length )
                 {
-                    int currentSize = group.getCurrentSize( );
-
                     data.limit( currentSize * length );
                     data.position( ( currentSize - vertexCount ) * length );
 
@@ -1188,7 +1599,7 @@ public class IconPainter extends GlimpseDataPainter2D
                     data.put( positions );
                     positions.limit( limit );
                 }
-            } );
+            }, currentSize - vertexCount, currentSize );
         }
     }
 
@@ -1212,6 +1623,15 @@ public class IconPainter extends GlimpseDataPainter2D
 
         private Collection<AddIcons> addQueue;
 
+        // host-side copy of iconPlacementValues and a quadtree over it, used for
+        // cpu picking and created the first time the group is picked on the cpu
+        private FloatsArray placementValues;
+        private QuadTreeInts placementIndex;
+
+        // the largest distance from an icon anchor to a corner of its quad, in
+        // pixels with icon scale (but not global scale) applied
+        private float maxIconRadius;
+
         public IconGroup( Object id, TextureAtlas atlas, int initialIconSpace )
         {
             this.id = id;
@@ -1282,6 +1702,65 @@ public class IconPainter extends GlimpseDataPainter2D
             return this.pickColorValues;
         }
 
+        public QuadTreeInts getPlacementIndex( )
+        {
+            if ( this.placementIndex == null )
+            {
+                this.placementValues = new FloatsArray( );
+                this.placementIndex = new QuadTreeInts( CPU_PICK_BUCKET_SIZE )
+                {
+                    @Override
+                    protected final float x( int i )
+                    {
+                        return placementValues.a[i * 4];
+                    }
+
+                    @Override
+                    protected final float y( int i )
+                    {
+                        return placementValues.a[i * 4 + 1];
+                    }
+                };
+
+                // index the icons which were added before cpu picking was first used,
+                // in runs of the same icon (which usually occur many times in a row)
+                int runStart = 0;
+                for ( int i = 1; i <= this.currentSize; i++ )
+                {
+                    Object iconId = this.iconIds.get( runStart );
+                    if ( i == this.currentSize || !iconId.equals( this.iconIds.get( i ) ) )
+                    {
+                        indexPlacements( runStart, i, getIconRadius( this.atlas.getImageData( iconId ) ) );
+                        runStart = i;
+                    }
+                }
+            }
+
+            return this.placementIndex;
+        }
+
+        // copies the placements of icons in [from,to) into the cpu picking index (if it exists)
+        public void indexPlacements( int from, int to, float radius )
+        {
+            if ( this.placementIndex == null || from >= to ) return;
+
+            // copy the placements without touching the buffer's limit or dirty range
+            int length = 4;
+            this.placementValues.n = from * length;
+            this.placementValues.prepForAppend( ( to - from ) * length );
+            this.iconPlacementValues.get( from, to, this.placementValues.a, from * length );
+
+            for ( int i = from; i < to; i++ )
+            {
+                this.maxIconRadius = Math.max( this.maxIconRadius, radius * Math.abs( this.placementValues.a[i * length + 3] ) );
+            }
+
+            for ( int i = from; i < to; i++ )
+            {
+                this.placementIndex.add( i );
+            }
+        }
+
         public void addIcons( Object iconId, float[] positionX, float[] positionY, float rotation[], float[] scale )
         {
             this.addQueue.add( new AddIconsSeparate( iconId, positionX, positionY, rotation, scale ) );
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.support.atlas.support;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * A coarse, CPU-side copy of the alpha channel of an image in a TextureAtlas. The image
+ * is divided into square cells (at most {@link #MAX_CELLS} along each side) and a cell is
+ * considered opaque if any pixel inside it has non-zero alpha. This errs on the side of
+ * reporting hits, which matches the color-based picking done in the fragment shader
+ * closely enough for mouse picking without keeping full resolution images in memory.
+ *
+ * Coordinates are image pixels measured from the lower left corner of the image
+ * (not including the TextureAtlas buffer), the same convention used for image centers.
+ *
+ * @author agent
+ */
+public class ImageAlphaMask
+{
+    public static final int MAX_CELLS = 32;
+
+    // the size of the image in pixels
+    private int width;
+    private int height;
+
+    // the size of a (square) mask cell in pixels
+    private int cellSize;
+
+    // the number of cells across and down the mask
+    private int cellsX;
+    private int cellsY;
+
+    // opaque flags for each cell, row major, starting from the bottom row
+    private boolean[] opaque;
+
+    public ImageAlphaMask( int width, int height, ImageDrawer drawer )
+    {
+        this.width = width;
+        this.height = height;
+
+        this.cellSize = Math.max( 1, ( Math.max( width, height ) + MAX_CELLS - 1 ) / MAX_CELLS );
+        this.cellsX = Math.max( 1, ( width + cellSize - 1 ) / cellSize );
+        this.cellsY = Math.max( 1, ( height + cellSize - 1 ) / cellSize );
+        this.opaque = new boolean[cellsX * cellsY];
+
+        if ( width <= 0 || height <= 0 ) return;
+
+        // draw the image exactly as the TextureAtlas does, but onto a private image
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+        Graphics2D g = image.createGraphics( );
+        try
+        {
+            g.setComposite( AlphaComposite.Src );
+            drawer.drawImage( g, width, height );
+        }
+        finally
+        {
+            g.dispose( );
+        }
+
+        int[] row = new int[width];
+        for ( int y = 0; y < height; y++ )
+        {
+            image.getRGB( 0, y, width, 1, row, 0, width );
+
+            // BufferedImage rows start at the top, mask rows start at the bottom
+            int cellRow = ( ( height - 1 - y ) / cellSize ) * cellsX;
+
+            for ( int x = 0; x < width; x++ )
+            {
+                if ( ( row[x] >>> 24 ) != 0 )
+                {
+                    opaque[cellRow + x / cellSize] = true;
+                }
+            }
+        }
+    }
+
+    public int getWidth( )
+    {
+        return width;
+    }
+
+    public int getHeight( )
+    {
+        return height;
+    }
+
+    public int getCellSize( )
+    {
+        return cellSize;
+    }
+
+    /**
+     * @return true if the image pixel containing (x,y) lies in an opaque cell
+     */
+    public boolean isOpaque( float x, float y )
+    {
+        return isOpaque( x, x, y, y );
+    }
+
+    /**
+     * @return true if any opaque cell overlaps the box [minX,maxX] x [minY,maxY]
+     */
+    public boolean isOpaque( float minX, float maxX, float minY, float maxY )
+    {
+        if ( maxX < 0 || minX >= width || maxY < 0 || minY >= height ) return false;
+
+        int cellMinX = Math.max( 0, ( int ) ( minX / cellSize ) );
+        int cellMaxX = Math.min( cellsX - 1, ( int ) ( maxX / cellSize ) );
+        int cellMinY = Math.max( 0, ( int ) ( minY / cellSize ) );
+        int cellMaxY = Math.min( cellsY - 1, ( int ) ( maxY / cellSize ) );
+
+        for ( int cy = cellMinY; cy <= cellMaxY; cy++ )
+        {
+            int rowStart = cy * cellsX;
+            for ( int cx = cellMinX; cx <= cellMaxX; cx++ )
+            {
+                if ( opaque[rowStart + cx] ) return true;
+            }
+        }
+
+        return false;
+    }
+}
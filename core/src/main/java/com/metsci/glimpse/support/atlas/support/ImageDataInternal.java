@@ -60,6 +60,11 @@ public class ImageDataInternal
     private int sizeY;
 
     private TextureCoords texCoords;
+
+    // the Graphics2D routine used to draw the image, kept so that a CPU-side
+    // alpha mask can be created on demand for picking
+    private ImageDrawer drawer;
+    private volatile ImageAlphaMask alphaMask;
     
     private boolean delete = false; // whether the texture is no longer needed
     
@@ -76,6 +81,13 @@ public class ImageDataInternal
         this.sizeX = width;
         this.sizeY = height;
     }
+
+    public ImageDataInternal( Object id, int centerX, int centerY, int bufferX, int bufferY, int width, int height, ImageDrawer drawer )
+    {
+        this( id, centerX, centerY, bufferX, bufferY, width, height );
+
+        this.drawer = drawer;
+    }
     
     public void setTextureCoordinates( TextureCoords textureCoordinates )
     {
@@ -142,6 +154,21 @@ public class ImageDataInternal
         return texCoords;
     }
 
+    public ImageDrawer getImageDrawer( )
+    {
+        return drawer;
+    }
+
+    public ImageAlphaMask getAlphaMask( )
+    {
+        return alphaMask;
+    }
+
+    public void setAlphaMask( ImageAlphaMask alphaMask )
+    {
+        this.alphaMask = alphaMask;
+    }
+
     public boolean isMarkedForDelete( )
     {
         return delete;
@@ -0,0 +1,651 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.support.font;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.glu.GLU;
+
+import com.metsci.glimpse.support.atlas.TextureAtlas;
+import com.metsci.glimpse.support.atlas.support.ImageData;
+import com.metsci.glimpse.support.atlas.support.ImageDrawer;
+import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.metsci.glimpse.util.primitives.IntsArray;
+import com.sun.opengl.util.BufferUtil;
+import com.sun.opengl.util.texture.TextureCoords;
+
+/**
+ * Draws text from glyphs which are rasterized once and packed into a {@link TextureAtlas},
+ * as an alternative to {@link com.sun.opengl.util.j2d.TextRenderer} when many strings are
+ * drawn each frame (track labels, event labels, etc.).<p>
+ *
+ * Strings passed to {@link #draw( String, int, int )} are laid out into glyph positions once
+ * and the layout is cached (up to a fixed number of distinct strings). Each frame, the quads
+ * for all the strings drawn between {@link #beginRendering( int, int )} and
+ * {@link #endRendering( )} are collected into a single vertex buffer and drawn with one
+ * OpenGL call, so drawing many strings costs about the same as drawing as many icons from
+ * a TextureAtlas.<p>
+ *
+ * Usage mirrors TextRenderer:
+ *
+ * <pre>
+ * renderer.beginRendering( width, height );
+ * renderer.setColor( Color.white );
+ * renderer.draw( "label", x, y );
+ * renderer.endRendering( );
+ * </pre>
+ *
+ * Glyphs are placed on integer pixel locations and drawn without interpolation, so text
+ * should be drawn unscaled in pixel space. Strings are laid out left to right, one glyph
+ * per GlyphVector glyph, without line breaks.
+ *
+ * @author agent
+ */
+public class GlyphAtlasTextRenderer
+{
+    public static final int DEFAULT_LAYOUT_CACHE_SIZE = 8192;
+
+    protected static final int BYTES_PER_FLOAT = 4;
+
+    // the glyphs which are rasterized when the renderer is created
+    protected static final char FIRST_PRELOAD_CHAR = ' ';
+    protected static final char LAST_PRELOAD_CHAR = '~';
+
+    protected Font font;
+    protected FontRenderContext frc;
+    protected boolean antialiased;
+
+    protected TextureAtlas atlas;
+    protected boolean ownsAtlas;
+
+    // glyphs rasterized so far, keyed by glyph code
+    protected Map<Integer, Glyph> glyphs;
+    protected LayoutCache layouts;
+
+    // the strings drawn since beginRendering( ): layout, pixel position, and color of each
+    protected List<Layout> drawLayouts;
+    protected IntsArray drawPositions;
+    protected FloatsArray drawColors;
+    protected int drawCount;
+
+    protected boolean inBeginEndPair;
+    protected int renderWidth;
+    protected int renderHeight;
+    protected float[] color = new float[] { 1, 1, 1, 1 };
+
+    // GL_QUADS: x,y per vertex, s,t per vertex and (premultiplied) r,g,b,a per vertex
+    protected FloatsArray vertices;
+    protected FloatsArray texCoords;
+    protected FloatsArray colors;
+
+    // device buffers: vertices, tex coords, colors
+    protected int[] handles;
+    protected boolean glAllocated;
+    protected FloatBuffer uploadBuffer;
+
+    /**
+     * Creates a renderer for the given font, with antialiasing enabled, and its own TextureAtlas.
+     */
+    public GlyphAtlasTextRenderer( Font font )
+    {
+        this( font, true );
+    }
+
+    /**
+     * Creates a renderer for the given font with its own TextureAtlas.
+     */
+    public GlyphAtlasTextRenderer( Font font, boolean antialiased )
+    {
+        this( font, antialiased, new TextureAtlas( 512, 512, false ), true );
+    }
+
+    /**
+     * Creates a renderer whose glyphs are stored in the provided TextureAtlas, which may
+     * be shared with other GlyphAtlasTextRenderers or with painters drawing icons. The
+     * atlas is not disposed with the renderer.
+     */
+    public GlyphAtlasTextRenderer( Font font, boolean antialiased, TextureAtlas atlas )
+    {
+        this( font, antialiased, atlas, false );
+    }
+
+    protected GlyphAtlasTextRenderer( Font font, boolean antialiased, TextureAtlas atlas, boolean ownsAtlas )
+    {
+        this.font = font;
+        this.antialiased = antialiased;
+        this.frc = new FontRenderContext( null, antialiased, false );
+        this.atlas = atlas;
+        this.ownsAtlas = ownsAtlas;
+
+        this.glyphs = new HashMap<Integer, Glyph>( );
+        this.layouts = new LayoutCache( DEFAULT_LAYOUT_CACHE_SIZE );
+
+        this.drawLayouts = new ArrayList<Layout>( );
+        this.drawPositions = new IntsArray( );
+        this.drawColors = new FloatsArray( );
+
+        this.vertices = new FloatsArray( );
+        this.texCoords = new FloatsArray( );
+        this.colors = new FloatsArray( );
+
+        StringBuilder preload = new StringBuilder( );
+        for ( char c = FIRST_PRELOAD_CHAR; c <= LAST_PRELOAD_CHAR; c++ )
+        {
+            preload.append( c );
+        }
+        preload( preload.toString( ) );
+    }
+
+    public Font getFont( )
+    {
+        return font;
+    }
+
+    public FontRenderContext getFontRenderContext( )
+    {
+        return frc;
+    }
+
+    public TextureAtlas getTextureAtlas( )
+    {
+        return atlas;
+    }
+
+    /**
+     * Sets the maximum number of distinct strings whose layouts are cached. The least
+     * recently drawn layouts are discarded first.
+     */
+    public void setLayoutCacheSize( int size )
+    {
+        layouts.maxSize = size;
+    }
+
+    /**
+     * Rasterizes the glyphs for the given characters into the atlas ahead of time, so that
+     * they do not have to be added to the atlas when first drawn.
+     */
+    public void preload( String chars )
+    {
+        GlyphVector gv = font.createGlyphVector( frc, chars );
+        for ( int i = 0; i < gv.getNumGlyphs( ); i++ )
+        {
+            getGlyph( gv.getGlyphCode( i ) );
+        }
+    }
+
+    /**
+     * Returns the visual bounds of the string, relative to the left end of its baseline
+     * (with y increasing downward, as in Java2D).
+     */
+    public Rectangle2D getBounds( String text )
+    {
+        Rectangle2D bounds = getLayout( text ).bounds;
+        return new Rectangle2D.Double( bounds.getX( ), bounds.getY( ), bounds.getWidth( ), bounds.getHeight( ) );
+    }
+
+    public void setColor( float r, float g, float b, float a )
+    {
+        color = new float[] { r, g, b, a };
+    }
+
+    public void setColor( float[] color )
+    {
+        setColor( color[0], color[1], color[2], color[3] );
+    }
+
+    public void setColor( Color color )
+    {
+        setColor( color.getRed( ) / 255f, color.getGreen( ) / 255f, color.getBlue( ) / 255f, color.getAlpha( ) / 255f );
+    }
+
+    /**
+     * Begins collecting strings to draw in a pixel coordinate system with its origin at the
+     * lower left of a viewport of the given size.
+     */
+    public void beginRendering( int width, int height )
+    {
+        if ( inBeginEndPair )
+        {
+            throw new IllegalStateException( "endRendering( ) must be called before beginRendering( ) is called again" );
+        }
+
+        inBeginEndPair = true;
+        renderWidth = width;
+        renderHeight = height;
+        drawCount = 0;
+        drawPositions.n = 0;
+        drawColors.n = 0;
+    }
+
+    /**
+     * Queues a string to be drawn with the left end of its baseline at the given pixel
+     * location, in the current color. Nothing is drawn until {@link #endRendering( )}.
+     */
+    public void draw( String text, int x, int y )
+    {
+        if ( !inBeginEndPair )
+        {
+            throw new IllegalStateException( "beginRendering( ) must be called before draw( )" );
+        }
+
+        Layout layout = getLayout( text );
+        if ( layout.glyphs.length == 0 ) return;
+
+        if ( drawCount < drawLayouts.size( ) )
+        {
+            drawLayouts.set( drawCount, layout );
+        }
+        else
+        {
+            drawLayouts.add( layout );
+        }
+        drawCount++;
+
+        drawPositions.append( x );
+        drawPositions.append( y );
+
+        // TextureAtlas textures use premultiplied alpha
+        float a = color[3];
+        drawColors.append( color[0] * a );
+        drawColors.append( color[1] * a );
+        drawColors.append( color[2] * a );
+        drawColors.append( a );
+    }
+
+    /**
+     * Draws all the strings queued since {@link #beginRendering( int, int )} with a single
+     * glDrawArrays call.
+     */
+    public void endRendering( )
+    {
+        if ( !inBeginEndPair )
+        {
+            throw new IllegalStateException( "beginRendering( ) must be called before endRendering( )" );
+        }
+
+        inBeginEndPair = false;
+
+        if ( drawCount == 0 ) return;
+
+        GL gl = GLU.getCurrentGL( );
+
+        gl.glMatrixMode( GL.GL_PROJECTION );
+        gl.glPushMatrix( );
+        gl.glLoadIdentity( );
+        gl.glOrtho( 0, renderWidth, 0, renderHeight, -1, 1 );
+        gl.glMatrixMode( GL.GL_MODELVIEW );
+        gl.glPushMatrix( );
+        gl.glLoadIdentity( );
+        gl.glPushAttrib( GL.GL_ENABLE_BIT );
+        gl.glDisable( GL.GL_DEPTH_TEST );
+        try
+        {
+            // adds any newly rasterized glyphs to the atlas texture (which may move existing
+            // glyphs, so texture coordinates are only read after this point)
+            atlas.beginRendering( );
+            try
+            {
+                buildQuads( );
+                drawQuads( gl );
+            }
+            finally
+            {
+                atlas.endRendering( );
+            }
+        }
+        finally
+        {
+            gl.glPopAttrib( );
+            gl.glMatrixMode( GL.GL_PROJECTION );
+            gl.glPopMatrix( );
+            gl.glMatrixMode( GL.GL_MODELVIEW );
+            gl.glPopMatrix( );
+        }
+
+        // don't hold on to layouts which may be evicted from the cache
+        for ( int i = 0; i < drawCount; i++ )
+        {
+            drawLayouts.set( i, null );
+        }
+        drawCount = 0;
+    }
+
+    /**
+     * Releases the vertex buffers (and the TextureAtlas, if this renderer created it).
+     * Must be called with the OpenGL context current.
+     */
+    public void dispose( )
+    {
+        if ( glAllocated )
+        {
+            GL gl = GLU.getCurrentGL( );
+            gl.glDeleteBuffers( handles.length, handles, 0 );
+            glAllocated = false;
+        }
+
+        if ( ownsAtlas )
+        {
+            atlas.dispose( );
+        }
+
+        glyphs.clear( );
+        layouts.clear( );
+    }
+
+    protected void buildQuads( )
+    {
+        vertices.n = 0;
+        texCoords.n = 0;
+        colors.n = 0;
+
+        for ( int i = 0; i < drawCount; i++ )
+        {
+            Layout layout = drawLayouts.get( i );
+            int x = drawPositions.a[2 * i];
+            int y = drawPositions.a[2 * i + 1];
+
+            for ( int j = 0; j < layout.glyphs.length; j++ )
+            {
+                Glyph glyph = layout.glyphs[j];
+
+                ImageData data = glyph.data;
+                if ( data == null )
+                {
+                    if ( !atlas.isImageLoaded( glyph.id ) ) continue;
+                    data = glyph.data = atlas.getImageData( glyph.id );
+                }
+
+                // glyph bounds are in Java2D coordinates (y down) relative to the pen position
+                float minX = x + layout.glyphX[j] + glyph.bounds.x - data.getBufferX( );
+                float maxY = y - layout.glyphY[j] - glyph.bounds.y + data.getBufferY( );
+                float maxX = minX + data.getBufferedWidth( );
+                float minY = maxY - data.getBufferedHeight( );
+
+                TextureCoords tex = data.getTextureCoordinates( );
+
+                vertices.append( minX );
+                vertices.append( minY );
+                texCoords.append( tex.left( ) );
+                texCoords.append( tex.bottom( ) );
+
+                vertices.append( maxX );
+                vertices.append( minY );
+                texCoords.append( tex.right( ) );
+                texCoords.append( tex.bottom( ) );
+
+                vertices.append( maxX );
+                vertices.append( maxY );
+                texCoords.append( tex.right( ) );
+                texCoords.append( tex.top( ) );
+
+                vertices.append( minX );
+                vertices.append( maxY );
+                texCoords.append( tex.left( ) );
+                texCoords.append( tex.top( ) );
+
+                for ( int k = 0; k < 4; k++ )
+                {
+                    colors.append( drawColors.a, 4 * i, 4 * i + 4 );
+                }
+            }
+        }
+    }
+
+    protected void drawQuads( GL gl )
+    {
+        if ( vertices.n == 0 ) return;
+
+        if ( !glAllocated )
+        {
+            handles = new int[3];
+            gl.glGenBuffers( handles.length, handles, 0 );
+            glAllocated = true;
+        }
+
+        upload( gl, handles[0], vertices );
+        upload( gl, handles[1], texCoords );
+        upload( gl, handles[2], colors );
+
+        gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+        gl.glEnableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+        gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+        try
+        {
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[2] );
+            gl.glColorPointer( 4, GL.GL_FLOAT, 0, 0 );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[1] );
+            gl.glTexCoordPointer( 2, GL.GL_FLOAT, 0, 0 );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handles[0] );
+            gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+            gl.glDrawArrays( GL.GL_QUADS, 0, vertices.n / 2 );
+        }
+        finally
+        {
+            gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+            gl.glDisableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+            gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+        }
+    }
+
+    protected void upload( GL gl, int handle, FloatsArray values )
+    {
+        if ( uploadBuffer == null || uploadBuffer.capacity( ) < values.n )
+        {
+            uploadBuffer = BufferUtil.newFloatBuffer( values.n );
+        }
+
+        uploadBuffer.clear( );
+        uploadBuffer.put( values.a, 0, values.n );
+        uploadBuffer.flip( );
+
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, handle );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, values.n * BYTES_PER_FLOAT, uploadBuffer, GL.GL_DYNAMIC_DRAW );
+    }
+
+    protected Layout getLayout( String text )
+    {
+        Layout layout = layouts.get( text );
+        if ( layout == null )
+        {
+            layout = layout( text );
+            layouts.put( text, layout );
+        }
+
+        return layout;
+    }
+
+    protected Layout layout( String text )
+    {
+        GlyphVector gv = font.createGlyphVector( frc, text );
+        int n = gv.getNumGlyphs( );
+
+        List<Glyph> visible = new ArrayList<Glyph>( n );
+        IntsArray positions = new IntsArray( 2 * n );
+        for ( int i = 0; i < n; i++ )
+        {
+            Glyph glyph = getGlyph( gv.getGlyphCode( i ) );
+
+            // whitespace only advances the pen
+            if ( glyph.id == null ) continue;
+
+            Point2D position = gv.getGlyphPosition( i );
+            visible.add( glyph );
+            positions.append( ( int ) Math.round( position.getX( ) ) );
+            positions.append( ( int ) Math.round( position.getY( ) ) );
+        }
+
+        Layout layout = new Layout( );
+        layout.glyphs = visible.toArray( new Glyph[visible.size( )] );
+        layout.glyphX = new int[layout.glyphs.length];
+        layout.glyphY = new int[layout.glyphs.length];
+        for ( int i = 0; i < layout.glyphs.length; i++ )
+        {
+            layout.glyphX[i] = positions.a[2 * i];
+            layout.glyphY[i] = positions.a[2 * i + 1];
+        }
+        layout.bounds = gv.getVisualBounds( );
+
+        return layout;
+    }
+
+    protected Glyph getGlyph( int code )
+    {
+        Glyph glyph = glyphs.get( code );
+        if ( glyph == null )
+        {
+            final GlyphVector gv = font.createGlyphVector( frc, new int[] { code } );
+            final Rectangle bounds = gv.getGlyphPixelBounds( 0, frc, 0, 0 );
+
+            glyph = new Glyph( );
+            glyph.bounds = bounds;
+
+            if ( !bounds.isEmpty( ) )
+            {
+                glyph.id = new GlyphKey( font, antialiased, code );
+
+                if ( !atlas.isImageLoaded( glyph.id ) )
+                {
+                    atlas.loadImage( glyph.id, bounds.width, bounds.height, -bounds.x, -bounds.y, new ImageDrawer( )
+                    {
+                        @Override
+                        public void drawImage( Graphics2D g, int width, int height )
+                        {
+                            Object hint = g.getRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING );
+                            g.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, antialiased ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF );
+                            try
+                            {
+                                g.setColor( Color.WHITE );
+                                g.drawGlyphVector( gv, -bounds.x, -bounds.y );
+                            }
+                            finally
+                            {
+                                if ( hint != null ) g.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, hint );
+                            }
+                        }
+                    } );
+                }
+            }
+
+            glyphs.put( code, glyph );
+        }
+
+        return glyph;
+    }
+
+    protected static class Glyph
+    {
+        // the atlas image id, or null if the glyph has no visible pixels
+        protected GlyphKey id;
+        // pixel bounds relative to the pen position (y down)
+        protected Rectangle bounds;
+        protected ImageData data;
+    }
+
+    protected static class Layout
+    {
+        protected Glyph[] glyphs;
+        protected int[] glyphX;
+        protected int[] glyphY;
+        protected Rectangle2D bounds;
+    }
+
+    protected static class GlyphKey
+    {
+        protected final Font font;
+        protected final boolean antialiased;
+        protected final int code;
+
+        public GlyphKey( Font font, boolean antialiased, int code )
+        {
+            this.font = font;
+            this.antialiased = antialiased;
+            this.code = code;
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + font.hashCode( );
+            result = prime * result + ( antialiased ? 1231 : 1237 );
+            result = prime * result + code;
+            return result;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( o == this ) return true;
+            if ( o == null || o.getClass( ) != getClass( ) ) return false;
+            GlyphKey other = ( GlyphKey ) o;
+            return code == other.code && antialiased == other.antialiased && font.equals( other.font );
+        }
+
+        @Override
+        public String toString( )
+        {
+            return font.getFontName( ) + " " + font.getSize( ) + " glyph " + code;
+        }
+    }
+
+    // least recently used layouts are evicted once the cache is full
+    protected static class LayoutCache extends LinkedHashMap<String, Layout>
+    {
+        private static final long serialVersionUID = 1L;
+
+        protected int maxSize;
+
+        public LayoutCache( int maxSize )
+        {
+            super( 16, 0.75f, true );
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Layout> eldest )
+        {
+            return size( ) > maxSize;
+        }
+    }
+}
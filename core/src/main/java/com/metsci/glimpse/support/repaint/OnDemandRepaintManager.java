@@ -0,0 +1,783 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.support.repaint;
+
+import static com.metsci.glimpse.util.logging.LoggerUtils.logWarning;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.metsci.glimpse.axis.Axis1D;
+import com.metsci.glimpse.axis.Axis2D;
+import com.metsci.glimpse.axis.listener.AxisListener1D;
+import com.metsci.glimpse.canvas.GlimpseCanvas;
+import com.metsci.glimpse.context.GlimpseTarget;
+import com.metsci.glimpse.layout.GlimpseAxisLayout1D;
+import com.metsci.glimpse.layout.GlimpseAxisLayout2D;
+import com.metsci.glimpse.layout.GlimpseLayout;
+import com.metsci.glimpse.painter.base.GlimpsePainter;
+import com.metsci.glimpse.painter.base.GlimpsePainterDirtyListener;
+import com.metsci.glimpse.painter.base.GlimpsePainterImpl;
+
+/**
+ * A {@link RepaintManager} which only repaints a {@link GlimpseCanvas} after it has been
+ * marked dirty, instead of repainting every canvas every {@link RepaintManager#DELAY}
+ * milliseconds. When nothing changes, no painting (and no polling) is done.<p>
+ *
+ * Canvases are marked dirty by calling {@link #markDirty( GlimpseCanvas )} or
+ * {@link #markDirty( GlimpseLayout )} after changing painter data, or automatically
+ * when an axis registered with {@link #addAxis( GlimpseCanvas, Axis1D )} (or found by
+ * {@link #addAxes( GlimpseCanvas )}) changes, or when a painter registered with
+ * {@link #addPainter( GlimpseCanvas, GlimpsePainterImpl )} (or found by
+ * {@link #addPainters( GlimpseCanvas )}) reports that it is dirty. Many marks made
+ * before the next repaint are coalesced into a single repaint, and each canvas is
+ * repainted no more often than its maximum frame rate allows.<p>
+ *
+ * As with RepaintManager, canvases are painted on the manager's thread, and
+ * {@link #asyncExec( Runnable )} and {@link #syncExec( Runnable )} run tasks on that
+ * thread between repaints.<p>
+ *
+ * Painters report changes through {@link GlimpsePainterImpl#addDirtyListener( GlimpsePainterDirtyListener )}.
+ * TrackPainter, IconPainter and EventPainter report every change made through their public
+ * methods. ShadedTexturePainter reports changes to its textures and shader pipeline, and tiles
+ * loaded in the background by a ViewDependentTexture, but not changes to the data of a
+ * texture. Every painter reports {@link GlimpsePainterImpl#setVisible( boolean )}. Otherwise
+ * (animations, texture data, other painters' setters) the canvas must be marked dirty
+ * explicitly, or it will not be redrawn.
+ *
+ * @author agent
+ */
+public class OnDemandRepaintManager extends RepaintManager
+{
+    public static final double DEFAULT_MAX_FRAME_RATE = 60.0;
+
+    public static OnDemandRepaintManager newRepaintManager( GlimpseCanvas canvas )
+    {
+        OnDemandRepaintManager manager = new OnDemandRepaintManager( );
+        manager.addGlimpseCanvas( canvas );
+        manager.start( );
+        return manager;
+    }
+
+    // guarded by lock
+    protected Map<GlimpseCanvas, CanvasState> states;
+    protected double defaultMaxFrameRate;
+
+    // the pending repaint task, and the System.nanoTime( ) it is scheduled to run at
+    protected ScheduledFuture<?> scheduledFrame;
+    protected long scheduledFrameTime;
+    protected Runnable frameRunnable;
+
+    public OnDemandRepaintManager( GlimpseCanvas canvas )
+    {
+        this( );
+
+        addGlimpseCanvas( canvas );
+    }
+
+    public OnDemandRepaintManager( )
+    {
+        super( );
+
+        this.states = new HashMap<GlimpseCanvas, CanvasState>( );
+        this.defaultMaxFrameRate = DEFAULT_MAX_FRAME_RATE;
+        this.frameRunnable = newRepaintRunnable( );
+    }
+
+    @Override
+    public void addGlimpseCanvas( GlimpseCanvas canvas )
+    {
+        lock.lock( );
+        try
+        {
+            super.addGlimpseCanvas( canvas );
+
+            if ( !states.containsKey( canvas ) )
+            {
+                CanvasState state = new CanvasState( canvas, defaultMaxFrameRate );
+                states.put( canvas, state );
+
+                // every canvas is painted at least once
+                markDirty0( state );
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    @Override
+    public void removeGlimpseCanvas( GlimpseCanvas canvas )
+    {
+        CanvasState state;
+
+        lock.lock( );
+        try
+        {
+            super.removeGlimpseCanvas( canvas );
+            state = states.remove( canvas );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+
+        if ( state != null )
+        {
+            state.removeAxisListeners( );
+            state.removePainterListeners( );
+        }
+    }
+
+    @Override
+    public void start( )
+    {
+        lock.lock( );
+        try
+        {
+            if ( !started )
+            {
+                started = true;
+                scheduleFrame0( );
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    @Override
+    public void play( )
+    {
+        lock.lock( );
+        try
+        {
+            super.play( );
+            scheduleFrame0( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Sets the maximum frame rate of every canvas (including canvases added later).
+     */
+    public void setMaxFrameRate( double framesPerSecond )
+    {
+        lock.lock( );
+        try
+        {
+            this.defaultMaxFrameRate = framesPerSecond;
+
+            for ( CanvasState state : states.values( ) )
+            {
+                state.setMaxFrameRate( framesPerSecond );
+            }
+
+            scheduleFrame0( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Sets the maximum rate at which a single canvas will be repainted, no matter how often
+     * it is marked dirty.
+     */
+    public void setMaxFrameRate( GlimpseCanvas canvas, double framesPerSecond )
+    {
+        lock.lock( );
+        try
+        {
+            getState0( canvas ).setMaxFrameRate( framesPerSecond );
+            scheduleFrame0( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Requests that the canvas be repainted. Does nothing if the canvas has not been added
+     * to this manager.
+     */
+    public void markDirty( GlimpseCanvas canvas )
+    {
+        lock.lock( );
+        try
+        {
+            CanvasState state = states.get( canvas );
+            if ( state != null ) markDirty0( state );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Requests that every canvas containing the layout (directly or as a descendant of
+     * another layout) be repainted.
+     */
+    public void markDirty( GlimpseLayout layout )
+    {
+        lock.lock( );
+        try
+        {
+            for ( CanvasState state : states.values( ) )
+            {
+                if ( contains( state.canvas, layout ) )
+                {
+                    markDirty0( state );
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Requests that every canvas be repainted.
+     */
+    public void markAllDirty( )
+    {
+        lock.lock( );
+        try
+        {
+            for ( CanvasState state : states.values( ) )
+            {
+                markDirty0( state );
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Marks the canvas dirty whenever the axis changes. The listener is removed when the
+     * canvas is removed from this manager.
+     */
+    public void addAxis( final GlimpseCanvas canvas, Axis1D axis )
+    {
+        AxisListener1D listener = new AxisListener1D( )
+        {
+            @Override
+            public void axisUpdated( Axis1D axis )
+            {
+                markDirty( canvas );
+            }
+        };
+
+        lock.lock( );
+        try
+        {
+            getState0( canvas ).addAxisListener( axis, listener );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * @see #addAxis( GlimpseCanvas, Axis1D )
+     */
+    public void addAxis( GlimpseCanvas canvas, Axis2D axis )
+    {
+        addAxis( canvas, axis.getAxisX( ) );
+        addAxis( canvas, axis.getAxisY( ) );
+    }
+
+    /**
+     * Calls {@link #addAxis( GlimpseCanvas, Axis1D )} for the axis of every
+     * {@link GlimpseAxisLayout1D} and {@link GlimpseAxisLayout2D} currently attached to the
+     * canvas. Layouts added to the canvas afterward are not included.
+     */
+    public void addAxes( GlimpseCanvas canvas )
+    {
+        List<GlimpseTarget> targets = new ArrayList<GlimpseTarget>( );
+        collectTargets( canvas, targets );
+
+        for ( GlimpseTarget target : targets )
+        {
+            if ( target instanceof GlimpseAxisLayout1D )
+            {
+                Axis1D axis = ( ( GlimpseAxisLayout1D ) target ).getAxis( );
+                if ( axis != null ) addAxis( canvas, axis );
+            }
+            else if ( target instanceof GlimpseAxisLayout2D )
+            {
+                Axis2D axis = ( ( GlimpseAxisLayout2D ) target ).getAxis( );
+                if ( axis != null ) addAxis( canvas, axis );
+            }
+        }
+    }
+
+    /**
+     * Marks the canvas dirty whenever the painter reports that it is dirty. The listener
+     * is removed when the canvas is removed from this manager.
+     */
+    public void addPainter( final GlimpseCanvas canvas, GlimpsePainterImpl painter )
+    {
+        GlimpsePainterDirtyListener listener = new GlimpsePainterDirtyListener( )
+        {
+            @Override
+            public void painterDirty( GlimpsePainter painter )
+            {
+                markDirty( canvas );
+            }
+        };
+
+        lock.lock( );
+        try
+        {
+            getState0( canvas ).addPainterListener( painter, listener );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Calls {@link #addPainter( GlimpseCanvas, GlimpsePainterImpl )} for every
+     * GlimpsePainterImpl currently attached to a layout of the canvas. Painters added to
+     * the canvas afterward are not included.
+     */
+    public void addPainters( GlimpseCanvas canvas )
+    {
+        List<GlimpseTarget> targets = new ArrayList<GlimpseTarget>( );
+        collectTargets( canvas, targets );
+
+        for ( GlimpseTarget target : targets )
+        {
+            if ( target instanceof GlimpseLayout )
+            {
+                for ( GlimpsePainter painter : ( ( GlimpseLayout ) target ).getPainters( ) )
+                {
+                    if ( painter instanceof GlimpsePainterImpl )
+                    {
+                        addPainter( canvas, ( GlimpsePainterImpl ) painter );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the repaint statistics of the canvas.
+     */
+    public CanvasStats getStats( GlimpseCanvas canvas )
+    {
+        lock.lock( );
+        try
+        {
+            return new CanvasStats( getState0( canvas ) );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public void resetStats( GlimpseCanvas canvas )
+    {
+        lock.lock( );
+        try
+        {
+            getState0( canvas ).resetStats( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    @Override
+    public Runnable newRepaintRunnable( )
+    {
+        return new FrameRunnable( );
+    }
+
+    protected CanvasState getState0( GlimpseCanvas canvas )
+    {
+        CanvasState state = states.get( canvas );
+        if ( state == null )
+        {
+            throw new IllegalArgumentException( "GlimpseCanvas has not been added to this OnDemandRepaintManager: " + canvas );
+        }
+
+        return state;
+    }
+
+    protected void markDirty0( CanvasState state )
+    {
+        if ( state.dirty )
+        {
+            // coalesced into the repaint which is already pending
+            state.coalescedMarkCount++;
+            return;
+        }
+
+        state.dirty = true;
+        scheduleFrame0( );
+    }
+
+    // schedules the repaint task for the earliest time a dirty canvas may be repainted
+    // (or does nothing, if no canvases are dirty)
+    protected void scheduleFrame0( )
+    {
+        if ( !started || paused || executor.isShutdown( ) ) return;
+
+        long now = System.nanoTime( );
+
+        long delay = Long.MAX_VALUE;
+        for ( CanvasState state : states.values( ) )
+        {
+            if ( state.dirty )
+            {
+                delay = Math.min( delay, state.getFrameDelay( now ) );
+            }
+        }
+
+        if ( delay == Long.MAX_VALUE ) return;
+
+        // nanoTime values may only be compared by their difference
+        long time = now + delay;
+        if ( scheduledFrame != null )
+        {
+            if ( scheduledFrameTime - time <= 0 ) return;
+            scheduledFrame.cancel( false );
+        }
+
+        scheduledFrame = executor.schedule( frameRunnable, delay, TimeUnit.NANOSECONDS );
+        scheduledFrameTime = time;
+    }
+
+    protected static boolean contains( GlimpseTarget parent, GlimpseTarget child )
+    {
+        if ( parent == child ) return true;
+
+        List<GlimpseTarget> children = parent.getTargetChildren( );
+        if ( children == null ) return false;
+
+        for ( GlimpseTarget target : children )
+        {
+            if ( contains( target, child ) ) return true;
+        }
+
+        return false;
+    }
+
+    protected static void collectTargets( GlimpseTarget parent, List<GlimpseTarget> targets )
+    {
+        targets.add( parent );
+
+        List<GlimpseTarget> children = parent.getTargetChildren( );
+        if ( children == null ) return;
+
+        for ( GlimpseTarget target : children )
+        {
+            collectTargets( target, targets );
+        }
+    }
+
+    /**
+     * Repaints the dirty canvases whose minimum frame interval has elapsed, then schedules
+     * itself again if any canvases are still (or have since become) dirty.
+     */
+    public class FrameRunnable implements Runnable
+    {
+        protected List<CanvasState> paintList = new ArrayList<CanvasState>( );
+
+        @Override
+        public void run( )
+        {
+            paintList.clear( );
+
+            lock.lock( );
+            try
+            {
+                scheduledFrame = null;
+
+                if ( paused ) return;
+
+                long now = System.nanoTime( );
+                for ( CanvasState state : states.values( ) )
+                {
+                    if ( state.dirty && state.getFrameDelay( now ) == 0 )
+                    {
+                        // clear the flag before painting, so that changes made during
+                        // the repaint cause another repaint
+                        state.dirty = false;
+                        state.frameStarted( now );
+                        paintList.add( state );
+                    }
+                }
+            }
+            finally
+            {
+                lock.unlock( );
+            }
+
+            for ( CanvasState state : paintList )
+            {
+                paint( state );
+            }
+
+            lock.lock( );
+            try
+            {
+                scheduleFrame0( );
+            }
+            finally
+            {
+                lock.unlock( );
+            }
+        }
+
+        protected void paint( CanvasState state )
+        {
+            if ( state.canvas.isDisposed( ) ) return;
+
+            long start = System.nanoTime( );
+            try
+            {
+                state.canvas.paint( );
+            }
+            catch ( Exception e )
+            {
+                logWarning( logger, "Problem Repainting...", e );
+            }
+            long end = System.nanoTime( );
+
+            lock.lock( );
+            try
+            {
+                state.framePainted( start, end );
+            }
+            finally
+            {
+                lock.unlock( );
+            }
+        }
+    }
+
+    protected static class CanvasState
+    {
+        protected final GlimpseCanvas canvas;
+        protected boolean dirty;
+        protected long minFrameIntervalNanos;
+
+        protected boolean painted;
+        protected long lastFrameStart;
+
+        protected long frameCount;
+        protected long coalescedMarkCount;
+        protected long lastFrameTimeNanos;
+        protected long maxFrameTimeNanos;
+        protected long totalFrameTimeNanos;
+
+        protected List<Axis1D> axes;
+        protected List<AxisListener1D> axisListeners;
+
+        protected List<GlimpsePainterImpl> painters;
+        protected List<GlimpsePainterDirtyListener> painterListeners;
+
+        public CanvasState( GlimpseCanvas canvas, double maxFrameRate )
+        {
+            this.canvas = canvas;
+            this.axes = new ArrayList<Axis1D>( );
+            this.axisListeners = new ArrayList<AxisListener1D>( );
+            this.painters = new ArrayList<GlimpsePainterImpl>( );
+            this.painterListeners = new ArrayList<GlimpsePainterDirtyListener>( );
+            setMaxFrameRate( maxFrameRate );
+        }
+
+        public void setMaxFrameRate( double framesPerSecond )
+        {
+            this.minFrameIntervalNanos = framesPerSecond > 0 ? ( long ) ( 1e9 / framesPerSecond ) : 0;
+        }
+
+        // the time remaining until the canvas may be repainted
+        public long getFrameDelay( long now )
+        {
+            return painted ? Math.max( 0, minFrameIntervalNanos - ( now - lastFrameStart ) ) : 0;
+        }
+
+        public void frameStarted( long start )
+        {
+            painted = true;
+            lastFrameStart = start;
+        }
+
+        public void framePainted( long start, long end )
+        {
+            long time = end - start;
+
+            frameCount++;
+            lastFrameTimeNanos = time;
+            maxFrameTimeNanos = Math.max( maxFrameTimeNanos, time );
+            totalFrameTimeNanos += time;
+        }
+
+        public void resetStats( )
+        {
+            frameCount = 0;
+            coalescedMarkCount = 0;
+            lastFrameTimeNanos = 0;
+            maxFrameTimeNanos = 0;
+            totalFrameTimeNanos = 0;
+        }
+
+        public void addAxisListener( Axis1D axis, AxisListener1D listener )
+        {
+            axis.addAxisListener( listener );
+            axes.add( axis );
+            axisListeners.add( listener );
+        }
+
+        public void removeAxisListeners( )
+        {
+            for ( int i = 0; i < axes.size( ); i++ )
+            {
+                axes.get( i ).removeAxisListener( axisListeners.get( i ) );
+            }
+
+            axes.clear( );
+            axisListeners.clear( );
+        }
+
+        public void addPainterListener( GlimpsePainterImpl painter, GlimpsePainterDirtyListener listener )
+        {
+            painter.addDirtyListener( listener );
+            painters.add( painter );
+            painterListeners.add( listener );
+        }
+
+        public void removePainterListeners( )
+        {
+            for ( int i = 0; i < painters.size( ); i++ )
+            {
+                painters.get( i ).removeDirtyListener( painterListeners.get( i ) );
+            }
+
+            painters.clear( );
+            painterListeners.clear( );
+        }
+    }
+
+    /**
+     * Repaint statistics for a single canvas, as of the time the CanvasStats was created.
+     */
+    public static class CanvasStats
+    {
+        protected final boolean dirty;
+        protected final long frameCount;
+        protected final long coalescedMarkCount;
+        protected final long lastFrameTimeNanos;
+        protected final long maxFrameTimeNanos;
+        protected final long totalFrameTimeNanos;
+
+        protected CanvasStats( CanvasState state )
+        {
+            this.dirty = state.dirty;
+            this.frameCount = state.frameCount;
+            this.coalescedMarkCount = state.coalescedMarkCount;
+            this.lastFrameTimeNanos = state.lastFrameTimeNanos;
+            this.maxFrameTimeNanos = state.maxFrameTimeNanos;
+            this.totalFrameTimeNanos = state.totalFrameTimeNanos;
+        }
+
+        /**
+         * @return whether a repaint of the canvas is pending
+         */
+        public boolean isDirty( )
+        {
+            return dirty;
+        }
+
+        /**
+         * @return the number of times the canvas has been painted
+         */
+        public long getFrameCount( )
+        {
+            return frameCount;
+        }
+
+        /**
+         * @return the number of times the canvas was marked dirty while a repaint was
+         *         already pending (such marks are folded into the pending repaint, so this
+         *         is not a count of dropped frames)
+         */
+        public long getCoalescedMarkCount( )
+        {
+            return coalescedMarkCount;
+        }
+
+        public long getLastFrameTimeNanos( )
+        {
+            return lastFrameTimeNanos;
+        }
+
+        public long getMaxFrameTimeNanos( )
+        {
+            return maxFrameTimeNanos;
+        }
+
+        public long getTotalFrameTimeNanos( )
+        {
+            return totalFrameTimeNanos;
+        }
+
+        public double getAverageFrameTimeNanos( )
+        {
+            return frameCount == 0 ? 0 : totalFrameTimeNanos / ( double ) frameCount;
+        }
+
+        @Override
+        public String toString( )
+        {
+            return String.format( "frames: %d coalesced marks: %d last: %.2f ms avg: %.2f ms max: %.2f ms", frameCount, coalescedMarkCount, lastFrameTimeNanos / 1e6, getAverageFrameTimeNanos( ) / 1e6, maxFrameTimeNanos / 1e6 );
+        }
+    }
+}
@@ -42,7 +42,7 @@ import javax.media.opengl.GL;
  * @author ulman
  *
  */
-public class ByteTextureProjected2D extends TextureProjected2D
+public class ByteTextureProjected2D extends StreamingTextureProjected2D
 {
     private static final Logger logger = Logger.getLogger( ShortTextureProjected2D.class.getName( ) );
 
@@ -86,6 +86,22 @@ public class ByteTextureProjected2D extends TextureProjected2D
         gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, 0 );
     }
 
+    @Override
+    protected void prepare_setStreamData( GL gl, int i )
+    {
+        gl.glPixelStorei( GL.GL_UNPACK_ALIGNMENT, 1 );
+        gl.glPixelStorei( GL.GL_UNPACK_SKIP_PIXELS, texStartsX[i] );
+        gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, dataSizeX );
+
+        // skip rows using the offset into the pixel unpack buffer (see prepare_setPixelStore)
+        long offset = ( long ) texStartsY[i] * dataSizeX;
+
+        gl.glTexSubImage2D( GL.GL_TEXTURE_2D, 0, 0, 0, texSizesX[i], texSizesY[i], GL.GL_LUMINANCE_INTEGER_EXT, GL.GL_BYTE, offset );
+
+        gl.glPixelStorei( GL.GL_UNPACK_SKIP_PIXELS, 0 );
+        gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, 0 );
+    }
+
     @Override
     protected int getRequiredCapacityBytes( )
     {
@@ -76,6 +76,18 @@ public class ColorTextureProjected2D extends FloatTextureProjected2D
         return dataSizeX * dataSizeY * FLOATS_PER_PIXEL * BYTES_PER_FLOAT;
     }
 
+    @Override
+    protected int getPixelFormat( )
+    {
+        return GL.GL_RGBA;
+    }
+
+    @Override
+    protected int getFloatsPerPixel( )
+    {
+        return FLOATS_PER_PIXEL;
+    }
+
     @Override
     protected Buffer prepare_setPixelStore( GL gl, int i )
     {
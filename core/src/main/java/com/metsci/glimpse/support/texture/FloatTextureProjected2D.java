@@ -43,7 +43,7 @@ import java.util.logging.Logger;
  * @author ulman
  *
  */
-public class FloatTextureProjected2D extends TextureProjected2D
+public class FloatTextureProjected2D extends StreamingTextureProjected2D
 {
     private static final Logger logger = Logger.getLogger( FloatTextureProjected2D.class.getName( ) );
 
@@ -87,6 +87,67 @@ public class FloatTextureProjected2D extends TextureProjected2D
         gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, 0 );
     }
 
+    @Override
+    protected void prepare_setDataRegion( GL gl, int minX, int minY, int maxX, int maxY )
+    {
+        int floatsPerPixel = getFloatsPerPixel( );
+
+        gl.glPixelStorei( GL.GL_UNPACK_ALIGNMENT, 1 );
+        gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, dataSizeX );
+
+        for ( int i = 0; i < numTextures; i++ )
+        {
+            if ( !intersectsTexture( i, minX, minY, maxX, maxY ) ) continue;
+
+            int x0 = Math.max( minX, texStartsX[i] );
+            int y0 = Math.max( minY, texStartsY[i] );
+            int x1 = Math.min( maxX, texStartsX[i] + texSizesX[i] );
+            int y1 = Math.min( maxY, texStartsY[i] + texSizesY[i] );
+
+            gl.glBindTexture( getGLTextureDim( NUM_DIMENSIONS ), textureHandles[i] );
+            gl.glPixelStorei( GL.GL_UNPACK_SKIP_PIXELS, x0 );
+
+            // skip rows using the buffer position (see prepare_setPixelStore)
+            Buffer positionedBuffer = data.asFloatBuffer( ).position( y0 * dataSizeX * floatsPerPixel );
+
+            gl.glTexSubImage2D( GL.GL_TEXTURE_2D, 0, x0 - texStartsX[i], y0 - texStartsY[i], x1 - x0, y1 - y0, getPixelFormat( ), GL.GL_FLOAT, positionedBuffer );
+        }
+
+        gl.glPixelStorei( GL.GL_UNPACK_SKIP_PIXELS, 0 );
+        gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, 0 );
+    }
+
+    @Override
+    protected void prepare_setStreamData( GL gl, int i )
+    {
+        int floatsPerPixel = getFloatsPerPixel( );
+
+        gl.glPixelStorei( GL.GL_UNPACK_ALIGNMENT, 1 );
+        gl.glPixelStorei( GL.GL_UNPACK_SKIP_PIXELS, texStartsX[i] );
+        gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, dataSizeX );
+
+        // skip rows using the offset into the pixel unpack buffer (see prepare_setPixelStore)
+        long offset = ( long ) texStartsY[i] * dataSizeX * floatsPerPixel * BYTES_PER_FLOAT;
+
+        gl.glTexSubImage2D( GL.GL_TEXTURE_2D, 0, 0, 0, texSizesX[i], texSizesY[i], getPixelFormat( ), GL.GL_FLOAT, offset );
+
+        gl.glPixelStorei( GL.GL_UNPACK_SKIP_PIXELS, 0 );
+        gl.glPixelStorei( GL.GL_UNPACK_ROW_LENGTH, 0 );
+    }
+
+    /**
+     * @return the pixel format of the data buffer (as passed to glTexSubImage2D)
+     */
+    protected int getPixelFormat( )
+    {
+        return GL.GL_LUMINANCE;
+    }
+
+    protected int getFloatsPerPixel( )
+    {
+        return 1;
+    }
+
     @Override
     protected int getRequiredCapacityBytes( )
     {
@@ -157,6 +218,55 @@ public class FloatTextureProjected2D extends TextureProjected2D
         }
     }
 
+    /**
+     * Like {@link #mutate(MutatorFloat2D)}, but the mutator promises to modify only the
+     * given rectangle of texels, so only the affected parts of the OpenGL textures are
+     * updated. In scrolling mode, y indices refer to rows of the data buffer (see
+     * {@link #getStorageRow(int)}).
+     */
+    public void mutate( MutatorFloat2D mutator, int x0, int y0, int width, int height )
+    {
+        lock.lock( );
+        try
+        {
+            data.rewind( );
+            mutator.mutate( data.asFloatBuffer( ), dataSizeX, dataSizeY );
+            makeDirty( x0, y0, width, height );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Discards the lowest row of the texture, moves every other row down by one, and
+     * sets the highest row to the given values. In scrolling mode (see {@link #setScrolling(boolean)})
+     * no data is actually moved, and only the new row is uploaded.
+     *
+     * @param row the new row, of length dataSizeX (times the number of floats per texel)
+     */
+    public void appendRow( float[] row )
+    {
+        lock.lock( );
+        try
+        {
+            int rowFloats = dataSizeX * getFloatsPerPixel( );
+            if ( row.length != rowFloats ) throw new IllegalArgumentException( String.format( "Row must contain %d values. Found: %d.", rowFloats, row.length ) );
+
+            int storageRow = scrollRow( );
+
+            data.rewind( );
+            FloatBuffer floatData = data.asFloatBuffer( );
+            floatData.position( storageRow * rowFloats );
+            floatData.put( row );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
     public static interface MutatorFloat2D
     {
         public void mutate( FloatBuffer data, int dataSizeX, int dataSizeY );
@@ -0,0 +1,1472 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.support.texture;
+
+import static com.metsci.glimpse.gl.util.GLUtils.*;
+import static com.metsci.glimpse.util.logging.LoggerUtils.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLContext;
+
+import com.metsci.glimpse.axis.Axis2D;
+import com.metsci.glimpse.context.GlimpseBounds;
+import com.sun.opengl.util.BufferUtil;
+
+/**
+ * A float texture for grids which are too large to hand to the GPU at full resolution.
+ * The data is reduced into a pyramid of levels, each half the size of the one below,
+ * and each level is split into tiles of {@link #getTileSize( )} texels.<p>
+ *
+ * Each frame, the level whose texels best match the screen resolution is chosen, and
+ * only the tiles of that level which intersect the view are drawn. Missing tiles are
+ * requested from a background loader thread, and the nearest resident coarser tile is
+ * drawn in their place until they arrive. Resident tiles are evicted in least recently
+ * used order once their total size exceeds {@link #getByteBudget( )}.<p>
+ *
+ * The view is supplied by {@link #setView( Axis2D, GlimpseBounds )}, which
+ * {@link com.metsci.glimpse.painter.texture.ShadedTexturePainter} calls before each draw.
+ * Without a view, the whole texture is drawn at the coarsest level.<p>
+ *
+ * Scrolling and streaming modes are not supported: {@link #setScrolling( boolean )} and
+ * {@link #setStreaming( boolean )} throw an IllegalStateException if asked to enable them.
+ *
+ * @author agent
+ */
+public class PyramidTextureProjected2D extends FloatTextureProjected2D implements ViewDependentTexture
+{
+    private static final Logger logger = Logger.getLogger( PyramidTextureProjected2D.class.getName( ) );
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+    public static final long DEFAULT_BYTE_BUDGET = 256L * 1024 * 1024;
+    public static final int DEFAULT_UPLOADS_PER_FRAME = 8;
+
+    protected static final int TILE_CACHE_MAGIC = 0x54494C45;
+
+    /**
+     * How 2x2 blocks of texels are combined into one texel of the next level. NaN values are ignored.
+     */
+    public static enum Reduction
+    {
+        MIN, MAX, MEAN;
+    }
+
+    protected int requestedTileSize;
+    protected int tileSize;
+    protected int maxLevel;
+    protected Reduction reduction;
+
+    // incremented whenever the tile layout or the reduction changes, which discards all tiles and levels
+    protected int layoutVersion;
+
+    // tiles resident on the GPU, in least recently used order
+    protected LinkedHashMap<TileKey, Tile> tiles;
+    protected long residentBytes;
+    protected long byteBudget;
+    protected int uploadsPerFrame;
+
+    // tiles which have been requested from the loader, guarded by synchronizing on requests
+    protected Map<TileKey, TileRequest> requests;
+    protected long requestSeq;
+    protected ConcurrentLinkedQueue<TileData> results;
+    protected final Collection<Runnable> tileListeners = new CopyOnWriteArrayList<Runnable>( );
+
+    protected Thread loaderThread;
+    protected volatile boolean loaderRunning;
+    protected volatile long pyramidFrame;
+
+    // reduced copies of the data (level 0 is the data buffer itself), only accessed by the loader thread
+    protected float[][] levels;
+    protected int levelsVersion = -1;
+
+    // region of the data changed since the levels were last updated: [minX,maxX) by [minY,maxY), or null
+    protected int[] levelsDirtyRegion;
+
+    // the view from the most recent call to setView
+    protected boolean viewValid;
+    protected double viewMinX;
+    protected double viewMaxX;
+    protected double viewMinY;
+    protected double viewMaxY;
+    protected int viewWidth;
+    protected int viewHeight;
+
+    protected File tileCacheDirectory;
+    protected String tileCacheKey;
+    protected volatile boolean tileCacheValid;
+
+    public PyramidTextureProjected2D( int dataSizeX, int dataSizeY )
+    {
+        this( dataSizeX, dataSizeY, DEFAULT_TILE_SIZE, Reduction.MEAN );
+    }
+
+    public PyramidTextureProjected2D( int dataSizeX, int dataSizeY, int tileSize, Reduction reduction )
+    {
+        super( dataSizeX, dataSizeY, false );
+
+        if ( tileSize < 1 ) throw new IllegalArgumentException( "Tile size must be positive: " + tileSize );
+
+        this.requestedTileSize = tileSize;
+        this.reduction = reduction;
+        this.byteBudget = DEFAULT_BYTE_BUDGET;
+        this.uploadsPerFrame = DEFAULT_UPLOADS_PER_FRAME;
+
+        this.tiles = new LinkedHashMap<TileKey, Tile>( 16, 0.75f, true );
+        this.requests = new LinkedHashMap<TileKey, TileRequest>( );
+        this.results = new ConcurrentLinkedQueue<TileData>( );
+    }
+
+    /**
+     * Sets the view used to choose the level and tiles drawn by the next call to draw( ).
+     */
+    @Override
+    public void setView( Axis2D axis, GlimpseBounds bounds )
+    {
+        setView( axis.getMinX( ), axis.getMaxX( ), axis.getMinY( ), axis.getMaxY( ), bounds.getWidth( ), bounds.getHeight( ) );
+    }
+
+    public void setView( double minX, double maxX, double minY, double maxY, int widthPixels, int heightPixels )
+    {
+        lock.lock( );
+        try
+        {
+            this.viewMinX = minX;
+            this.viewMaxX = maxX;
+            this.viewMinY = minY;
+            this.viewMaxY = maxY;
+            this.viewWidth = widthPixels;
+            this.viewHeight = heightPixels;
+            this.viewValid = maxX > minX && maxY > minY && widthPixels > 0 && heightPixels > 0;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public void setReduction( Reduction reduction )
+    {
+        lock.lock( );
+        try
+        {
+            if ( this.reduction == reduction ) return;
+
+            this.reduction = reduction;
+            this.tileCacheValid = false;
+
+            // level 0 does not depend on the reduction
+            for ( Tile tile : tiles.values( ) )
+            {
+                if ( tile.key.level > 0 ) tile.stale = true;
+            }
+
+            resetLayout( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public Reduction getReduction( )
+    {
+        return reduction;
+    }
+
+    /**
+     * Sets the maximum total size of the tiles kept on the GPU. Tiles needed for the current
+     * frame are never evicted, so the budget may be exceeded if the view requires it.
+     */
+    public void setByteBudget( long byteBudget )
+    {
+        this.byteBudget = byteBudget;
+    }
+
+    public long getByteBudget( )
+    {
+        return byteBudget;
+    }
+
+    /**
+     * Sets the maximum number of loaded tiles uploaded to the GPU per frame, which bounds
+     * the time spent in draw( ) while tiles are paged in.
+     */
+    public void setUploadsPerFrame( int uploadsPerFrame )
+    {
+        this.uploadsPerFrame = uploadsPerFrame;
+    }
+
+    public int getUploadsPerFrame( )
+    {
+        return uploadsPerFrame;
+    }
+
+    /**
+     * Reduced tiles are read from, and written to, the given directory (which is created if
+     * necessary), so that they need not be recomputed when the same data is displayed again.
+     * Cached tiles are identified by a checksum of the current data, which is computed by this
+     * call, so one directory may be shared by many data sets. Any later change to the data
+     * disables the cache.
+     *
+     * @param directory the cache directory, or null to disable the cache
+     * @see #setTileCache( File, String )
+     */
+    public void setTileCache( File directory )
+    {
+        lock.lock( );
+        try
+        {
+            setTileCache0( directory, directory == null ? null : computeDataChecksum( ) );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Like {@link #setTileCache( File )}, but cached tiles are identified by the given key
+     * instead of by a checksum of the data, which avoids reading all of the data. The caller
+     * is responsible for choosing a key which is unique to the current data (for instance,
+     * the name and version of the data source).
+     *
+     * @param directory the cache directory, or null to disable the cache
+     * @param dataKey identifies the current data
+     */
+    public void setTileCache( File directory, String dataKey )
+    {
+        lock.lock( );
+        try
+        {
+            setTileCache0( directory, directory == null ? null : dataKey.replaceAll( "[^A-Za-z0-9.-]", "_" ) );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    // must be called while holding lock
+    protected void setTileCache0( File directory, String dataKey )
+    {
+        this.tileCacheDirectory = directory;
+        this.tileCacheKey = dataKey;
+        this.tileCacheValid = directory != null && ( directory.isDirectory( ) || directory.mkdirs( ) );
+    }
+
+    // must be called while holding lock
+    protected String computeDataChecksum( )
+    {
+        CRC32 crc = new CRC32( );
+
+        ByteBuffer bytes = data.duplicate( );
+        bytes.clear( ).limit( getRequiredCapacityBytes( ) );
+
+        byte[] chunk = new byte[65536];
+        while ( bytes.hasRemaining( ) )
+        {
+            int length = Math.min( chunk.length, bytes.remaining( ) );
+            bytes.get( chunk, 0, length );
+            crc.update( chunk, 0, length );
+        }
+
+        return String.format( "crc%08x", crc.getValue( ) );
+    }
+
+    public File getTileCache( )
+    {
+        return tileCacheDirectory;
+    }
+
+    /**
+     * @return the tile size in texels (which may be smaller than requested if it exceeds
+     *         the maximum OpenGL texture size)
+     */
+    public int getTileSize( )
+    {
+        return tileSize > 0 ? tileSize : requestedTileSize;
+    }
+
+    public int getLevelCount( )
+    {
+        lock.lock( );
+        try
+        {
+            return computeMaxLevel( getTileSize( ) ) + 1;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public long getResidentBytes( )
+    {
+        return residentBytes;
+    }
+
+    public int getResidentTileCount( )
+    {
+        lock.lock( );
+        try
+        {
+            return tiles.size( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public int getPendingTileCount( )
+    {
+        synchronized ( requests )
+        {
+            return requests.size( );
+        }
+    }
+
+    /**
+     * @return whether loaded tiles are waiting to be uploaded by the next call to draw( )
+     */
+    @Override
+    public boolean hasPendingUploads( )
+    {
+        return !results.isEmpty( );
+    }
+
+    /**
+     * Registers a listener which is run (on the loader thread) whenever a tile has been loaded
+     * and the texture must be drawn again to display it.
+     */
+    @Override
+    public void addTileListener( Runnable listener )
+    {
+        tileListeners.add( listener );
+    }
+
+    @Override
+    public void removeTileListener( Runnable listener )
+    {
+        tileListeners.remove( listener );
+    }
+
+    @Override
+    public void makeDirty( )
+    {
+        super.makeDirty( );
+        tileCacheValid = false;
+    }
+
+    @Override
+    public void makeDirty( int x0, int y0, int width, int height )
+    {
+        super.makeDirty( x0, y0, width, height );
+        tileCacheValid = false;
+    }
+
+    /**
+     * Scrolling is not supported, because tiles are uploaded from the reduced levels and there is
+     * no single texture to scroll. {@link #isScrolling( )} always returns false.
+     *
+     * @throws IllegalStateException if scrolling is true
+     */
+    @Override
+    public void setScrolling( boolean scrolling )
+    {
+        if ( scrolling ) throw new IllegalStateException( "PyramidTextureProjected2D does not support scrolling" );
+    }
+
+    /**
+     * Streaming is not supported, because tiles are uploaded from the reduced levels and frames
+     * cannot be copied straight into the texture. Producers should call {@link #setData( float[][] )}
+     * instead. {@link #isStreaming( )} always returns false.
+     *
+     * @throws IllegalStateException if streaming is true
+     */
+    @Override
+    public void setStreaming( boolean streaming )
+    {
+        if ( streaming ) throw new IllegalStateException( "PyramidTextureProjected2D does not support streaming uploads" );
+    }
+
+    @Override
+    public boolean prepare( GL gl, int texUnit )
+    {
+        lock.lock( );
+        try
+        {
+            gl.glActiveTexture( getGLTextureUnit( texUnit ) );
+
+            prepare_glState( gl );
+
+            // set up the tile layout on first use, and after the texture is resized
+            if ( !glAllocated )
+            {
+                maxTextureSize = getMaxGLTextureSize( gl );
+                tileSize = Math.min( requestedTileSize, maxTextureSize );
+                maxLevel = computeMaxLevel( tileSize );
+
+                deleteTiles( gl );
+                resetLayout( );
+
+                glAllocated = true;
+                dirty = false;
+                dirtyRegion = false;
+            }
+
+            if ( dirty )
+            {
+                invalidate( 0, 0, dataSizeX, dataSizeY );
+                dirty = false;
+                dirtyRegion = false;
+            }
+            else if ( dirtyRegion )
+            {
+                invalidate( dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY );
+                dirtyRegion = false;
+            }
+
+            if ( projectionDirty || texCoordsDirty )
+            {
+                if ( projection != null )
+                {
+                    for ( Tile tile : tiles.values( ) )
+                    {
+                        prepare_setTileCoords( gl, tile );
+                    }
+                }
+
+                projectionDirty = false;
+                texCoordsDirty = false;
+            }
+
+            prepare_uploadTiles( gl );
+
+            return true;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    @Override
+    public void draw( GL gl, int texUnit )
+    {
+        prepare( gl, texUnit );
+
+        List<Tile> drawTiles = new ArrayList<Tile>( );
+
+        lock.lock( );
+        try
+        {
+            if ( projection == null || dataSizeX == 0 || dataSizeY == 0 ) return;
+
+            pyramidFrame++;
+
+            collectTiles( maxLevel, 0, 0, chooseLevel( ), drawTiles );
+
+            evictTiles( gl );
+
+            gl.glTexEnvf( GL.GL_TEXTURE_ENV, GL.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE );
+            gl.glPolygonMode( GL.GL_FRONT, GL.GL_FILL );
+
+            gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+            gl.glEnableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+
+            try
+            {
+                for ( Tile tile : drawTiles )
+                {
+                    gl.glBindTexture( getGLTextureDim( NUM_DIMENSIONS ), tile.textureHandle );
+
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, tile.vertexCoordHandle );
+                    gl.glVertexPointer( floatsPerVertex, GL.GL_FLOAT, 0, 0 );
+
+                    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, tile.texCoordHandle );
+                    gl.glTexCoordPointer( 2, GL.GL_FLOAT, 0, 0 );
+
+                    gl.glDrawArrays( GL.GL_QUADS, 0, VERTICES_PER_QUAD * tile.quadCount );
+                }
+            }
+            finally
+            {
+                gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+                gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+                gl.glDisableClientState( GL.GL_TEXTURE_COORD_ARRAY );
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    @Override
+    public void dispose( GLContext context )
+    {
+        stopLoader( );
+
+        lock.lock( );
+        try
+        {
+            deleteTiles( context.getGL( ) );
+            results.clear( );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+
+        super.dispose( context );
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // Tile selection (must be called while holding lock)               //
+    //////////////////////////////////////////////////////////////////////
+
+    protected int computeMaxLevel( int tileSize )
+    {
+        int level = 0;
+        while ( getLevelSize( dataSizeX, level ) > tileSize || getLevelSize( dataSizeY, level ) > tileSize )
+        {
+            level++;
+        }
+
+        return level;
+    }
+
+    protected static int getLevelSize( int dataSize, int level )
+    {
+        return ( int ) ( ( dataSize + ( 1L << level ) - 1 ) >> level );
+    }
+
+    /**
+     * @return the finest level whose texels are no smaller than the screen pixels
+     */
+    protected int chooseLevel( )
+    {
+        if ( !viewValid ) return maxLevel;
+
+        float[] bounds = getTileBounds( new TileKey( maxLevel, 0, 0 ) );
+
+        double pixelsX = ( bounds[1] - bounds[0] ) / ( viewMaxX - viewMinX ) * viewWidth;
+        double pixelsY = ( bounds[3] - bounds[2] ) / ( viewMaxY - viewMinY ) * viewHeight;
+
+        double texelsPerPixel = Math.max( dataSizeX / pixelsX, dataSizeY / pixelsY );
+        if ( !( texelsPerPixel > 1 ) ) return 0;
+
+        int level = ( int ) Math.floor( Math.log( texelsPerPixel ) / Math.log( 2 ) );
+        return Math.min( level, maxLevel );
+    }
+
+    /**
+     * Adds the resident tiles needed to draw the given tile at the target level, coarsest first,
+     * and requests any which are missing.
+     *
+     * @return true if the added tiles completely cover the visible part of the given tile
+     */
+    protected boolean collectTiles( int level, int tileX, int tileY, int targetLevel, List<Tile> drawTiles )
+    {
+        TileKey key = new TileKey( level, tileX, tileY );
+
+        if ( viewValid && !isVisible( key ) ) return true;
+
+        Tile tile = tiles.get( key );
+        if ( tile != null ) tile.lastFrame = pyramidFrame;
+
+        if ( level <= targetLevel )
+        {
+            if ( tile == null || tile.stale ) requestTile( key );
+            if ( tile != null ) drawTiles.add( tile );
+
+            return tile != null;
+        }
+
+        int index = drawTiles.size( );
+        boolean covered = true;
+
+        int childLevel = level - 1;
+        int childSizeX = getLevelSize( dataSizeX, childLevel );
+        int childSizeY = getLevelSize( dataSizeY, childLevel );
+
+        for ( int x = 2 * tileX; x <= 2 * tileX + 1 && x * tileSize < childSizeX; x++ )
+        {
+            for ( int y = 2 * tileY; y <= 2 * tileY + 1 && y * tileSize < childSizeY; y++ )
+            {
+                covered &= collectTiles( childLevel, x, y, targetLevel, drawTiles );
+            }
+        }
+
+        if ( covered ) return true;
+
+        // draw this tile underneath its children until they have all been loaded
+        // (requested after the children so that the loader, which works newest first, loads it first)
+        if ( tile == null || tile.stale ) requestTile( key );
+        if ( tile != null ) drawTiles.add( index, tile );
+
+        return tile != null;
+    }
+
+    protected boolean isVisible( TileKey key )
+    {
+        float[] bounds = getTileBounds( key );
+        return bounds[0] <= viewMaxX && bounds[1] >= viewMinX && bounds[2] <= viewMaxY && bounds[3] >= viewMinY;
+    }
+
+    /**
+     * @return the bounding box of the tile in vertex coordinates: { minX, maxX, minY, maxY },
+     *         estimated from its corners, edge midpoints and center
+     */
+    protected float[] getTileBounds( TileKey key )
+    {
+        int[] range = getDataRange( key );
+
+        float[] bounds = new float[] { Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        float[] temp = new float[2];
+
+        for ( int i = 0; i <= 2; i++ )
+        {
+            double fracX = ( range[0] + ( range[2] - range[0] ) * i / 2.0 ) / dataSizeX;
+
+            for ( int j = 0; j <= 2; j++ )
+            {
+                double fracY = ( range[1] + ( range[3] - range[1] ) * j / 2.0 ) / dataSizeY;
+
+                projection.getVertexXY( fracX, fracY, temp );
+                bounds[0] = Math.min( bounds[0], temp[0] );
+                bounds[1] = Math.max( bounds[1], temp[0] );
+                bounds[2] = Math.min( bounds[2], temp[1] );
+                bounds[3] = Math.max( bounds[3], temp[1] );
+            }
+        }
+
+        return bounds;
+    }
+
+    /**
+     * @return the region of the data covered by the tile: { minX, minY, maxX, maxY } (exclusive max)
+     */
+    protected int[] getDataRange( TileKey key )
+    {
+        int level = key.level;
+        long minX = ( long ) key.x * tileSize << level;
+        long minY = ( long ) key.y * tileSize << level;
+        long maxX = Math.min( ( long ) ( key.x + 1 ) * tileSize << level, dataSizeX );
+        long maxY = Math.min( ( long ) ( key.y + 1 ) * tileSize << level, dataSizeY );
+
+        return new int[] { ( int ) minX, ( int ) minY, ( int ) maxX, ( int ) maxY };
+    }
+
+    protected void requestTile( TileKey key )
+    {
+        synchronized ( requests )
+        {
+            TileRequest request = requests.get( key );
+
+            if ( request == null )
+            {
+                requests.put( key, new TileRequest( key, ++requestSeq, layoutVersion, pyramidFrame ) );
+            }
+            else
+            {
+                request.frame = pyramidFrame;
+                request.seq = request.loading ? request.seq : ++requestSeq;
+            }
+
+            requests.notifyAll( );
+        }
+
+        startLoader( );
+    }
+
+    // the layout (tile size, reduction, or data size) changed, so all levels and outstanding requests are discarded
+    protected void resetLayout( )
+    {
+        layoutVersion++;
+        levelsDirtyRegion = null;
+
+        synchronized ( requests )
+        {
+            requests.clear( );
+        }
+    }
+
+    // the given region of the data changed
+    protected void invalidate( int minX, int minY, int maxX, int maxY )
+    {
+        if ( levelsDirtyRegion == null )
+        {
+            levelsDirtyRegion = new int[] { minX, minY, maxX, maxY };
+        }
+        else
+        {
+            levelsDirtyRegion[0] = Math.min( levelsDirtyRegion[0], minX );
+            levelsDirtyRegion[1] = Math.min( levelsDirtyRegion[1], minY );
+            levelsDirtyRegion[2] = Math.max( levelsDirtyRegion[2], maxX );
+            levelsDirtyRegion[3] = Math.max( levelsDirtyRegion[3], maxY );
+        }
+
+        // stale tiles are still drawn until their replacements arrive
+        for ( Tile tile : tiles.values( ) )
+        {
+            if ( intersects( tile.key, minX, minY, maxX, maxY ) ) tile.stale = true;
+        }
+
+        // tiles being loaded may already have read the old data
+        synchronized ( requests )
+        {
+            Iterator<TileRequest> iter = requests.values( ).iterator( );
+            while ( iter.hasNext( ) )
+            {
+                if ( intersects( iter.next( ).key, minX, minY, maxX, maxY ) ) iter.remove( );
+            }
+        }
+    }
+
+    protected boolean intersects( TileKey key, int minX, int minY, int maxX, int maxY )
+    {
+        int[] range = getDataRange( key );
+        return minX < range[2] && maxX > range[0] && minY < range[3] && maxY > range[1];
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // GPU tiles (must be called while holding lock)                    //
+    //////////////////////////////////////////////////////////////////////
+
+    protected void prepare_uploadTiles( GL gl )
+    {
+        int uploads = 0;
+
+        TileData data;
+        while ( uploads < uploadsPerFrame && ( data = results.poll( ) ) != null )
+        {
+            synchronized ( requests )
+            {
+                TileRequest request = requests.get( data.key );
+
+                // the request was superseded by a change to the data
+                if ( request == null || request.seq != data.seq ) continue;
+
+                requests.remove( data.key );
+            }
+
+            prepare_uploadTile( gl, data );
+            uploads++;
+        }
+    }
+
+    protected void prepare_uploadTile( GL gl, TileData data )
+    {
+        Tile tile = tiles.get( data.key );
+
+        if ( tile == null )
+        {
+            int[] handles = new int[2];
+
+            tile = new Tile( data.key );
+            gl.glGenTextures( 1, handles, 0 );
+            tile.textureHandle = handles[0];
+            gl.glGenBuffers( 2, handles, 0 );
+            tile.vertexCoordHandle = handles[0];
+            tile.texCoordHandle = handles[1];
+            tile.lastFrame = pyramidFrame;
+
+            tiles.put( data.key, tile );
+        }
+        else
+        {
+            residentBytes -= tile.bytes;
+        }
+
+        gl.glBindTexture( getGLTextureDim( NUM_DIMENSIONS ), tile.textureHandle );
+        prepare_setTexParameters( gl );
+
+        gl.glPixelStorei( GL.GL_UNPACK_ALIGNMENT, 1 );
+        gl.glTexImage2D( GL.GL_TEXTURE_2D, 0, GL.GL_LUMINANCE32F_ARB, data.sizeX, data.sizeY, 0, GL.GL_LUMINANCE, GL.GL_FLOAT, data.buffer.rewind( ) );
+
+        tile.sizeX = data.sizeX;
+        tile.sizeY = data.sizeY;
+        tile.bytes = ( long ) data.sizeX * data.sizeY * BYTES_PER_FLOAT;
+        tile.stale = false;
+        residentBytes += tile.bytes;
+
+        if ( projection != null ) prepare_setTileCoords( gl, tile );
+    }
+
+    protected void prepare_setTileCoords( GL gl, Tile tile )
+    {
+        int[] range = getDataRange( tile.key );
+
+        int quadCountX = projection.getSizeX( range[2] - range[0] );
+        int quadCountY = projection.getSizeY( range[3] - range[1] );
+        int quadCount = quadCountX * quadCountY;
+
+        int vertexFloats = quadCount * VERTICES_PER_QUAD * floatsPerVertex;
+        int texFloats = quadCount * VERTICES_PER_QUAD * 2;
+
+        if ( coordBuffer == null || coordBuffer.capacity( ) < Math.max( vertexFloats, texFloats ) )
+        {
+            coordBuffer = BufferUtil.newFloatBuffer( Math.max( vertexFloats, texFloats ) );
+        }
+
+        float[] temp = new float[floatsPerVertex];
+
+        coordBuffer.rewind( );
+        for ( int x = 0; x < quadCountX; x++ )
+        {
+            for ( int y = 0; y < quadCountY; y++ )
+            {
+                putTileVertexCoords( range, x / ( double ) quadCountX, y / ( double ) quadCountY, temp );
+                putTileVertexCoords( range, ( x + 1 ) / ( double ) quadCountX, y / ( double ) quadCountY, temp );
+                putTileVertexCoords( range, ( x + 1 ) / ( double ) quadCountX, ( y + 1 ) / ( double ) quadCountY, temp );
+                putTileVertexCoords( range, x / ( double ) quadCountX, ( y + 1 ) / ( double ) quadCountY, temp );
+            }
+        }
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, tile.vertexCoordHandle );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, vertexFloats * BYTES_PER_FLOAT, coordBuffer.rewind( ), GL.GL_STATIC_DRAW );
+
+        coordBuffer.rewind( );
+        for ( int x = 0; x < quadCountX; x++ )
+        {
+            for ( int y = 0; y < quadCountY; y++ )
+            {
+                coordBuffer.put( ( float ) ( x / ( double ) quadCountX ) ).put( ( float ) ( y / ( double ) quadCountY ) );
+                coordBuffer.put( ( float ) ( ( x + 1 ) / ( double ) quadCountX ) ).put( ( float ) ( y / ( double ) quadCountY ) );
+                coordBuffer.put( ( float ) ( ( x + 1 ) / ( double ) quadCountX ) ).put( ( float ) ( ( y + 1 ) / ( double ) quadCountY ) );
+                coordBuffer.put( ( float ) ( x / ( double ) quadCountX ) ).put( ( float ) ( ( y + 1 ) / ( double ) quadCountY ) );
+            }
+        }
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, tile.texCoordHandle );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, texFloats * BYTES_PER_FLOAT, coordBuffer.rewind( ), GL.GL_STATIC_DRAW );
+
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+
+        tile.quadCount = quadCount;
+    }
+
+    protected void putTileVertexCoords( int[] range, double tileFracX, double tileFracY, float[] temp )
+    {
+        double dataFracX = ( range[0] + ( range[2] - range[0] ) * tileFracX ) / dataSizeX;
+        double dataFracY = ( range[1] + ( range[3] - range[1] ) * tileFracY ) / dataSizeY;
+
+        projection.getVertexXY( dataFracX, dataFracY, temp );
+        coordBuffer.put( temp[0] ).put( temp[1] );
+    }
+
+    // evicts least recently used tiles (other than those needed for the current frame) until within budget
+    protected void evictTiles( GL gl )
+    {
+        Iterator<Tile> iter = tiles.values( ).iterator( );
+        while ( residentBytes > byteBudget && iter.hasNext( ) )
+        {
+            Tile tile = iter.next( );
+
+            // tiles are in access order, so every remaining tile was used this frame
+            if ( tile.lastFrame == pyramidFrame ) break;
+
+            deleteTile( gl, tile );
+            iter.remove( );
+        }
+    }
+
+    protected void deleteTiles( GL gl )
+    {
+        for ( Tile tile : tiles.values( ) )
+        {
+            deleteTile( gl, tile );
+        }
+
+        tiles.clear( );
+        residentBytes = 0;
+    }
+
+    protected void deleteTile( GL gl, Tile tile )
+    {
+        gl.glDeleteTextures( 1, new int[] { tile.textureHandle }, 0 );
+        gl.glDeleteBuffers( 2, new int[] { tile.vertexCoordHandle, tile.texCoordHandle }, 0 );
+        residentBytes -= tile.bytes;
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // Background loading                                               //
+    //////////////////////////////////////////////////////////////////////
+
+    protected void startLoader( )
+    {
+        if ( loaderRunning ) return;
+
+        loaderRunning = true;
+        loaderThread = new Thread( new TileLoader( ), "PyramidTextureLoader" );
+        loaderThread.setDaemon( true );
+        loaderThread.start( );
+    }
+
+    protected void stopLoader( )
+    {
+        synchronized ( requests )
+        {
+            loaderRunning = false;
+            requests.notifyAll( );
+        }
+    }
+
+    protected class TileLoader implements Runnable
+    {
+        @Override
+        public void run( )
+        {
+            while ( true )
+            {
+                TileRequest request = null;
+
+                synchronized ( requests )
+                {
+                    while ( loaderRunning && ( request = nextRequest( ) ) == null )
+                    {
+                        try
+                        {
+                            requests.wait( );
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            return;
+                        }
+                    }
+
+                    if ( !loaderRunning ) return;
+
+                    request.loading = true;
+                }
+
+                try
+                {
+                    TileData data = load( request );
+                    if ( data != null )
+                    {
+                        results.add( data );
+
+                        for ( Runnable listener : tileListeners )
+                        {
+                            listener.run( );
+                        }
+                    }
+                }
+                catch ( Exception e )
+                {
+                    logWarning( logger, "Unable to load tile %s.", e, request.key );
+
+                    synchronized ( requests )
+                    {
+                        if ( requests.get( request.key ) == request ) requests.remove( request.key );
+                    }
+                }
+            }
+        }
+
+        // must be called while synchronized on requests
+        // drops requests for tiles which are no longer in view, and returns the most recently requested of the rest
+        protected TileRequest nextRequest( )
+        {
+            TileRequest newest = null;
+
+            Iterator<TileRequest> iter = requests.values( ).iterator( );
+            while ( iter.hasNext( ) )
+            {
+                TileRequest request = iter.next( );
+                if ( request.loading ) continue;
+
+                if ( request.frame < pyramidFrame - 1 )
+                {
+                    iter.remove( );
+                }
+                else if ( newest == null || request.seq > newest.seq )
+                {
+                    newest = request;
+                }
+            }
+
+            return newest;
+        }
+    }
+
+    /**
+     * Reads the texels of the requested tile. Called on the loader thread.
+     *
+     * @return the tile data, or null if the layout changed while it was being read
+     */
+    protected TileData load( TileRequest request ) throws IOException
+    {
+        TileKey key = request.key;
+
+        int[] region;
+        int[] range;
+        int levelSizeX;
+        int levelSizeY;
+
+        lock.lock( );
+        try
+        {
+            if ( request.layoutVersion != layoutVersion ) return null;
+
+            if ( levelsVersion != layoutVersion )
+            {
+                levels = new float[maxLevel + 1][];
+                levelsVersion = layoutVersion;
+                levelsDirtyRegion = null;
+            }
+
+            region = levelsDirtyRegion;
+            levelsDirtyRegion = null;
+
+            range = getDataRange( key );
+            levelSizeX = getLevelSize( dataSizeX, key.level );
+            levelSizeY = getLevelSize( dataSizeY, key.level );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+
+        if ( region != null && !updateLevels( region, request.layoutVersion ) ) return null;
+
+        int minX = key.x * tileSize;
+        int minY = key.y * tileSize;
+        int sizeX = Math.min( tileSize, levelSizeX - minX );
+        int sizeY = Math.min( tileSize, levelSizeY - minY );
+
+        FloatBuffer buffer = BufferUtil.newFloatBuffer( sizeX * sizeY );
+
+        if ( key.level == 0 )
+        {
+            lock.lock( );
+            try
+            {
+                if ( request.layoutVersion != layoutVersion ) return null;
+
+                FloatBuffer source = data.asFloatBuffer( );
+                for ( int y = range[1]; y < range[3]; y++ )
+                {
+                    int start = y * dataSizeX + range[0];
+                    source.limit( start + sizeX ).position( start );
+                    buffer.put( source );
+                }
+            }
+            finally
+            {
+                lock.unlock( );
+            }
+        }
+        else if ( !readCachedTile( key, sizeX, sizeY, buffer ) )
+        {
+            if ( !buildLevel( key.level, request.layoutVersion ) ) return null;
+
+            float[] level = levels[key.level];
+            for ( int y = minY; y < minY + sizeY; y++ )
+            {
+                buffer.put( level, y * levelSizeX + minX, sizeX );
+            }
+
+            writeCachedTile( key, sizeX, sizeY, buffer );
+        }
+
+        return new TileData( key, request.seq, sizeX, sizeY, buffer );
+    }
+
+    // loader thread only: builds the given level (and any levels below it) if necessary
+    protected boolean buildLevel( int level, int version )
+    {
+        if ( level == 0 || levels[level] != null ) return true;
+
+        if ( !buildLevel( level - 1, version ) ) return false;
+
+        int sizeX;
+        int sizeY;
+
+        lock.lock( );
+        try
+        {
+            if ( version != layoutVersion ) return false;
+
+            sizeX = getLevelSize( dataSizeX, level );
+            sizeY = getLevelSize( dataSizeY, level );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+
+        float[] values = new float[sizeX * sizeY];
+        if ( !reduce( level, values, 0, 0, sizeX, sizeY, version ) ) return false;
+
+        levels[level] = values;
+        return true;
+    }
+
+    // loader thread only: recomputes the part of every built level covering the changed region of the data
+    protected boolean updateLevels( int[] region, int version )
+    {
+        int minX = region[0];
+        int minY = region[1];
+        int maxX = region[2];
+        int maxY = region[3];
+
+        for ( int level = 1; level < levels.length; level++ )
+        {
+            minX = minX >> 1;
+            minY = minY >> 1;
+            maxX = ( maxX + 1 ) >> 1;
+            maxY = ( maxY + 1 ) >> 1;
+
+            // levels are built bottom up, so no higher level has been built either
+            if ( levels[level] == null ) break;
+
+            if ( !reduce( level, levels[level], minX, minY, maxX, maxY, version ) )
+            {
+                // leave the levels to be rebuilt from scratch
+                levelsVersion = -1;
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes the region [minX,maxX) by [minY,maxY) of the given level from the level below it.
+     * Level 0 is read from the data buffer a band of rows at a time, so that the lock is never
+     * held for long.
+     */
+    protected boolean reduce( int level, float[] values, int minX, int minY, int maxX, int maxY, int version )
+    {
+        int srcSizeX;
+        int srcSizeY;
+        int sizeX;
+
+        lock.lock( );
+        try
+        {
+            if ( version != layoutVersion ) return false;
+
+            srcSizeX = getLevelSize( dataSizeX, level - 1 );
+            srcSizeY = getLevelSize( dataSizeY, level - 1 );
+            sizeX = getLevelSize( dataSizeX, level );
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+
+        float[] source = level == 1 ? null : levels[level - 1];
+
+        int srcMinX = 2 * minX;
+        int srcMaxX = Math.min( 2 * maxX, srcSizeX );
+        int srcWidth = srcMaxX - srcMinX;
+
+        float[] row0 = new float[srcWidth];
+        float[] row1 = new float[srcWidth];
+
+        final int band = 64;
+
+        for ( int bandMinY = minY; bandMinY < maxY; bandMinY += band )
+        {
+            int bandMaxY = Math.min( bandMinY + band, maxY );
+
+            if ( source == null ) lock.lock( );
+            try
+            {
+                if ( source == null && version != layoutVersion ) return false;
+
+                FloatBuffer base = source == null ? data.asFloatBuffer( ) : null;
+
+                for ( int y = bandMinY; y < bandMaxY; y++ )
+                {
+                    int srcY0 = 2 * y;
+                    int srcY1 = Math.min( 2 * y + 1, srcSizeY - 1 );
+                    boolean hasRow1 = srcY1 != srcY0;
+
+                    if ( source == null )
+                    {
+                        base.position( srcY0 * srcSizeX + srcMinX );
+                        base.get( row0, 0, srcWidth );
+
+                        if ( hasRow1 )
+                        {
+                            base.position( srcY1 * srcSizeX + srcMinX );
+                            base.get( row1, 0, srcWidth );
+                        }
+                    }
+                    else
+                    {
+                        System.arraycopy( source, srcY0 * srcSizeX + srcMinX, row0, 0, srcWidth );
+                        if ( hasRow1 ) System.arraycopy( source, srcY1 * srcSizeX + srcMinX, row1, 0, srcWidth );
+                    }
+
+                    int offset = y * sizeX;
+                    for ( int x = minX; x < maxX; x++ )
+                    {
+                        int i0 = 2 * x - srcMinX;
+                        int i1 = i0 + 1 < srcWidth ? i0 + 1 : -1;
+
+                        values[offset + x] = combine( row0[i0], i1 >= 0 ? row0[i1] : Float.NaN, hasRow1 ? row1[i0] : Float.NaN, hasRow1 && i1 >= 0 ? row1[i1] : Float.NaN );
+                    }
+                }
+            }
+            finally
+            {
+                if ( source == null ) lock.unlock( );
+            }
+        }
+
+        return true;
+    }
+
+    protected float combine( float a, float b, float c, float d )
+    {
+        switch ( reduction )
+        {
+            case MIN:
+                return min( min( a, b ), min( c, d ) );
+            case MAX:
+                return max( max( a, b ), max( c, d ) );
+            default:
+                float sum = 0;
+                int count = 0;
+                if ( a == a ) { sum += a; count++; }
+                if ( b == b ) { sum += b; count++; }
+                if ( c == c ) { sum += c; count++; }
+                if ( d == d ) { sum += d; count++; }
+                return count == 0 ? Float.NaN : sum / count;
+        }
+    }
+
+    // like Math.min, but NaN values are ignored rather than propagated
+    protected static float min( float a, float b )
+    {
+        if ( a != a ) return b;
+        if ( b != b ) return a;
+        return a < b ? a : b;
+    }
+
+    protected static float max( float a, float b )
+    {
+        if ( a != a ) return b;
+        if ( b != b ) return a;
+        return a > b ? a : b;
+    }
+
+    protected File getCachedTileFile( TileKey key )
+    {
+        return new File( tileCacheDirectory, String.format( "%s_%dx%d_%s_%d_%d_%d_%d.tile", tileCacheKey, dataSizeX, dataSizeY, reduction, tileSize, key.level, key.x, key.y ) );
+    }
+
+    protected boolean readCachedTile( TileKey key, int sizeX, int sizeY, FloatBuffer buffer )
+    {
+        if ( !tileCacheValid ) return false;
+
+        File file = getCachedTileFile( key );
+        if ( !file.isFile( ) ) return false;
+
+        try
+        {
+            FileChannel channel = new FileInputStream( file ).getChannel( );
+            try
+            {
+                ByteBuffer bytes = ByteBuffer.allocate( ( int ) channel.size( ) ).order( ByteOrder.BIG_ENDIAN );
+                while ( bytes.hasRemaining( ) && channel.read( bytes ) >= 0 );
+                bytes.flip( );
+
+                if ( bytes.remaining( ) != 12 + sizeX * sizeY * BYTES_PER_FLOAT ) return false;
+                if ( bytes.getInt( ) != TILE_CACHE_MAGIC || bytes.getInt( ) != sizeX || bytes.getInt( ) != sizeY ) return false;
+
+                buffer.put( bytes.asFloatBuffer( ) );
+                return true;
+            }
+            finally
+            {
+                channel.close( );
+            }
+        }
+        catch ( IOException e )
+        {
+            logWarning( logger, "Unable to read cached tile %s.", e, file );
+            buffer.clear( );
+            return false;
+        }
+    }
+
+    protected void writeCachedTile( TileKey key, int sizeX, int sizeY, FloatBuffer buffer ) throws IOException
+    {
+        if ( !tileCacheValid ) return;
+
+        ByteBuffer bytes = ByteBuffer.allocate( 12 + sizeX * sizeY * BYTES_PER_FLOAT ).order( ByteOrder.BIG_ENDIAN );
+        bytes.putInt( TILE_CACHE_MAGIC ).putInt( sizeX ).putInt( sizeY );
+        bytes.asFloatBuffer( ).put( ( FloatBuffer ) buffer.duplicate( ).flip( ) );
+        bytes.rewind( );
+
+        // write to a temporary file, so that a partially written tile is never read
+        File file = getCachedTileFile( key );
+        File tempFile = new File( file.getParentFile( ), file.getName( ) + ".tmp" );
+
+        FileChannel channel = new FileOutputStream( tempFile ).getChannel( );
+        try
+        {
+            while ( bytes.hasRemaining( ) )
+                channel.write( bytes );
+        }
+        finally
+        {
+            channel.close( );
+        }
+
+        if ( !tempFile.renameTo( file ) )
+        {
+            tempFile.delete( );
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // Helper classes                                                   //
+    //////////////////////////////////////////////////////////////////////
+
+    protected static class TileKey
+    {
+        protected final int level;
+        protected final int x;
+        protected final int y;
+
+        public TileKey( int level, int x, int y )
+        {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + level;
+            result = prime * result + x;
+            result = prime * result + y;
+            return result;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( o == this ) return true;
+            if ( !( o instanceof TileKey ) ) return false;
+            TileKey other = ( TileKey ) o;
+            return other.level == level && other.x == x && other.y == y;
+        }
+
+        @Override
+        public String toString( )
+        {
+            return "[ " + level + ", " + x + ", " + y + " ]";
+        }
+    }
+
+    // a tile resident on the GPU
+    protected static class Tile
+    {
+        protected TileKey key;
+        protected int textureHandle;
+        protected int vertexCoordHandle;
+        protected int texCoordHandle;
+        protected int quadCount;
+        protected int sizeX;
+        protected int sizeY;
+        protected long bytes;
+        protected long lastFrame;
+
+        // the data under this tile has changed, and a replacement has been requested
+        protected boolean stale;
+
+        public Tile( TileKey key )
+        {
+            this.key = key;
+        }
+    }
+
+    protected static class TileRequest
+    {
+        protected TileKey key;
+        protected long seq;
+        protected int layoutVersion;
+        protected long frame;
+        protected boolean loading;
+
+        public TileRequest( TileKey key, long seq, int layoutVersion, long frame )
+        {
+            this.key = key;
+            this.seq = seq;
+            this.layoutVersion = layoutVersion;
+            this.frame = frame;
+        }
+    }
+
+    // the texels of a tile, loaded by the loader thread and waiting to be uploaded
+    protected static class TileData
+    {
+        protected TileKey key;
+        protected long seq;
+        protected int sizeX;
+        protected int sizeY;
+        protected FloatBuffer buffer;
+
+        public TileData( TileKey key, long seq, int sizeX, int sizeY, FloatBuffer buffer )
+        {
+            this.key = key;
+            this.seq = seq;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.support.texture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by {@link StreamingTextureProjected2D}, for textures which support asynchronous
+ * streaming uploads (see {@link TextureProjected2D#setStreaming(boolean)}). The upload itself
+ * is done on the display thread by the texture; producers only deal with the data.
+ *
+ * @author agent
+ */
+public interface StreamingTexture
+{
+    /**
+     * @see TextureProjected2D#setStreaming(boolean)
+     */
+    void setStreaming( boolean streaming );
+
+    boolean isStreaming( );
+
+    /**
+     * @see TextureProjected2D#beginStreamingUpdate()
+     */
+    ByteBuffer beginStreamingUpdate( );
+
+    /**
+     * @see TextureProjected2D#endStreamingUpdate(ByteBuffer)
+     */
+    void endStreamingUpdate( ByteBuffer buffer );
+}
@@ -31,6 +31,7 @@ import static com.metsci.glimpse.gl.util.GLUtils.getGLTextureUnit;
 import static java.util.logging.Level.WARNING;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
@@ -49,6 +50,15 @@ public abstract class TextureProjected2D implements DrawableTexture
     public static final int VERTICES_PER_QUAD = 4;
     public static final int BYTES_PER_FLOAT = 4;
 
+    // number of pixel unpack buffers cycled through in streaming mode
+    public static final int STREAM_BUFFER_COUNT = 2;
+
+    // states of a streaming pixel unpack buffer
+    protected static final int STREAM_FREE = 0;
+    protected static final int STREAM_MAPPED = 1;
+    protected static final int STREAM_WRITING = 2;
+    protected static final int STREAM_FILLED = 3;
+
     private static final Logger logger = Logger.getLogger( TextureProjected2D.class.getName( ) );
 
     // projection defining the mapping from texel (texture index) to vertex coordinate
@@ -99,8 +109,51 @@ public abstract class TextureProjected2D implements DrawableTexture
 
     protected boolean dirty;
 
+    // region of data changed since the last upload: [dirtyMinX,dirtyMaxX) by [dirtyMinY,dirtyMaxY)
+    // (only meaningful if dirtyRegion is true, and superseded by dirty)
+    protected boolean dirtyRegion;
+    protected int dirtyMinX;
+    protected int dirtyMinY;
+    protected int dirtyMaxX;
+    protected int dirtyMaxY;
+
     protected boolean projectionDirty;
 
+    // true if only the texture coordinates (not the vertex coordinates) must be recalculated
+    protected boolean texCoordsDirty;
+
+    // in scrolling mode, data is a ring buffer of rows: row y of the logical
+    // texture is stored in row ( y + scrollOffset ) % dataSizeY of data
+    protected boolean scrolling;
+    protected int scrollOffset;
+
+    // in streaming mode, producers write complete frames into mapped pixel unpack buffers
+    // (see beginStreamingUpdate), which are copied into a second set of textures by the
+    // GPU and swapped in on the following frame
+    protected volatile boolean streaming;
+    protected int[] streamBufferHandles;
+    protected ByteBuffer[] streamBuffers;
+    protected int[] streamStates;
+    // size in bytes of each buffer when it was mapped (frames of the wrong size are dropped)
+    protected int[] streamSizes;
+    // order in which the streaming buffers were filled (to find the newest frame)
+    protected long[] streamFillSeqs;
+    protected long[] streamFillFrames;
+    protected long streamFillSeq;
+    // textures which receive streamed data, swapped with textureHandles once filled
+    protected int[] backTextureHandles;
+    protected boolean backTexturesPending;
+    protected long backTexturesFillFrame;
+    protected long frameCount;
+
+    // streaming statistics
+    protected volatile long streamedBytes;
+    protected volatile long streamedFrames;
+    protected volatile long droppedFrames;
+    protected volatile long streamStartNanos;
+    protected volatile long streamLastNanos;
+    protected volatile long streamLatencyFrames;
+
     protected int dataSizeX;
     protected int dataSizeY;
 
@@ -157,7 +210,7 @@ public abstract class TextureProjected2D implements DrawableTexture
         {
             if ( indexX < 0 || indexY < 0 || indexX >= dataSizeX || indexY >= dataSizeY ) return 0.0f;
 
-            return getData( indexY * dataSizeX + indexX );
+            return getData( getStorageRow( indexY ) * dataSizeX + indexX );
         }
         finally
         {
@@ -176,10 +229,139 @@ public abstract class TextureProjected2D implements DrawableTexture
         this.dirty = true;
     }
 
+    /**
+     * Indicates that only the given rectangle of texels has changed. On the next call to
+     * prepare( ), only the parts of the OpenGL textures covering the (accumulated) changed
+     * region are updated. Coordinates are indices into the data buffer, so in scrolling mode
+     * they refer to storage rows (see {@link #getStorageRow(int)}).
+     */
+    public void makeDirty( int x0, int y0, int width, int height )
+    {
+        lock.lock( );
+        try
+        {
+            int x1 = Math.min( x0 + width, dataSizeX );
+            int y1 = Math.min( y0 + height, dataSizeY );
+            x0 = Math.max( x0, 0 );
+            y0 = Math.max( y0, 0 );
+            if ( x1 <= x0 || y1 <= y0 ) return;
+
+            if ( dirtyRegion )
+            {
+                dirtyMinX = Math.min( dirtyMinX, x0 );
+                dirtyMinY = Math.min( dirtyMinY, y0 );
+                dirtyMaxX = Math.max( dirtyMaxX, x1 );
+                dirtyMaxY = Math.max( dirtyMaxY, y1 );
+            }
+            else
+            {
+                dirtyMinX = x0;
+                dirtyMinY = y0;
+                dirtyMaxX = x1;
+                dirtyMaxY = y1;
+                dirtyRegion = true;
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
     @Override
     public boolean isDirty( )
     {
-        return dirty || projectionDirty;
+        return dirty || dirtyRegion || projectionDirty || texCoordsDirty;
+    }
+
+    /**
+     * <p>In scrolling mode, the data buffer is treated as a ring buffer of rows, for waterfall
+     * style displays where a new row is appended (and the oldest discarded) on each update.
+     * Appending a row then only requires uploading that row plus updating the texture
+     * coordinates, instead of shifting and re-uploading the whole texture.</p>
+     *
+     * <p>The ring buffer only works if the texture fits in a single OpenGL texture in the y
+     * dimension. If it does not, rows are shifted back into order before every upload.</p>
+     */
+    public void setScrolling( boolean scrolling )
+    {
+        lock.lock( );
+        try
+        {
+            if ( this.scrolling == scrolling ) return;
+
+            if ( !scrolling ) unrollScroll( );
+
+            this.scrolling = scrolling;
+
+            // wrap mode must be updated
+            makeDirty( );
+            texCoordsDirty = true;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public boolean isScrolling( )
+    {
+        return scrolling;
+    }
+
+    /**
+     * @return the row of the data buffer which stores the given row of the texture
+     *         (these differ only in scrolling mode)
+     */
+    public int getStorageRow( int row )
+    {
+        return scrollOffset == 0 ? row : ( row + scrollOffset ) % dataSizeY;
+    }
+
+    // must be called while holding lock
+    // discards the lowest row and returns the storage row which should receive the new highest row
+    protected int scrollRow( )
+    {
+        if ( scrolling )
+        {
+            int row = scrollOffset;
+            scrollOffset = ( scrollOffset + 1 ) % dataSizeY;
+            texCoordsDirty = true;
+            makeDirty( 0, row, dataSizeX, 1 );
+            return row;
+        }
+        else
+        {
+            // shift every row down by one (moving the old lowest row to the top, where it will be overwritten)
+            scrollOffset = 1;
+            unrollScroll( );
+            return dataSizeY - 1;
+        }
+    }
+
+    // must be called while holding lock
+    // rearranges the ring buffer so that rows are stored in order
+    protected void unrollScroll( )
+    {
+        if ( scrollOffset == 0 ) return;
+
+        int rowBytes = getRequiredCapacityBytes( ) / dataSizeY;
+        int headBytes = scrollOffset * rowBytes;
+        int tailBytes = ( dataSizeY - scrollOffset ) * rowBytes;
+
+        byte[] rows = new byte[headBytes + tailBytes];
+        data.clear( );
+        data.position( headBytes );
+        data.get( rows, 0, tailBytes );
+        data.position( 0 );
+        data.get( rows, tailBytes, headBytes );
+        data.position( 0 );
+        data.put( rows );
+        data.rewind( );
+
+        scrollOffset = 0;
+        makeDirty( );
+        texCoordsDirty = true;
     }
 
     @Override
@@ -211,6 +393,7 @@ public abstract class TextureProjected2D implements DrawableTexture
         {
             if ( !glAllocated )
             {
+                disposeStreaming( gl, false );
                 allocate_calcSizes( gl );
                 allocate_genTextureHandles( gl );
                 allocate_genBuffers( gl );
@@ -220,17 +403,42 @@ public abstract class TextureProjected2D implements DrawableTexture
 
             prepare_glState( gl );
 
+            if ( glAllocated && scrolling && textureCountY > 1 )
+            {
+                unrollScroll( );
+            }
+
+            if ( glAllocated && streaming )
+            {
+                prepare_stream( gl );
+            }
+            else if ( streamBufferHandles != null || backTextureHandles != null )
+            {
+                disposeStreaming( gl, false );
+            }
+
             if ( glAllocated && dirty )
             {
                 prepare_setData( gl );
                 dirty = false;
+                dirtyRegion = false;
+            }
+            else if ( glAllocated && dirtyRegion )
+            {
+                prepare_setDataRegion( gl, dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY );
+                dirtyRegion = false;
             }
 
             if ( glAllocated && projectionDirty )
             {
                 prepare_setCoords( gl );
                 projectionDirty = false;
-
+                texCoordsDirty = false;
+            }
+            else if ( glAllocated && texCoordsDirty )
+            {
+                prepare_setTexCoords( gl );
+                texCoordsDirty = false;
             }
 
             return !isDirty( );
@@ -292,6 +500,318 @@ public abstract class TextureProjected2D implements DrawableTexture
         if ( vertexCoordHandles != null ) gl.glDeleteBuffers( numTextures, vertexCoordHandles, 0 );
 
         if ( texCoordHandles != null ) gl.glDeleteBuffers( numTextures, texCoordHandles, 0 );
+
+        disposeStreaming( gl, true );
+    }
+
+    /**
+     * <p>Enables or disables asynchronous streaming uploads. In streaming mode, a producer thread
+     * calls {@link #beginStreamingUpdate()} to obtain a buffer mapped from a pixel unpack buffer,
+     * writes a complete frame of data into it (in the same layout as the data buffer), and calls
+     * {@link #endStreamingUpdate(ByteBuffer)}. The display thread then starts a GPU-side copy into
+     * a second set of textures, and swaps them in on the following frame, so it never blocks
+     * on the transfer and the producer never holds the texture lock while writing.</p>
+     *
+     * <p>Streamed frames are not copied into the host data buffer, so {@code getDataValue( )}
+     * does not reflect them. Producers must not be writing into a streaming buffer when the
+     * texture is disposed. Streaming is only supported by subclasses of
+     * {@link StreamingTextureProjected2D}.</p>
+     */
+    public void setStreaming( boolean streaming )
+    {
+        if ( streaming && !( this instanceof StreamingTextureProjected2D ) ) throw new UnsupportedOperationException( getClass( ).getSimpleName( ) + " does not support streaming uploads" );
+
+        lock.lock( );
+        try
+        {
+            this.streaming = streaming;
+            this.streamedBytes = 0;
+            this.streamedFrames = 0;
+            this.droppedFrames = 0;
+            this.streamStartNanos = 0;
+            this.streamLastNanos = 0;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    public boolean isStreaming( )
+    {
+        return streaming;
+    }
+
+    /**
+     * Returns a buffer which the caller may fill with a complete frame of texture data (in the
+     * same layout as the data buffer, starting at position zero) without holding any locks.
+     * The caller must pass the buffer to {@link #endStreamingUpdate(ByteBuffer)} when done.
+     *
+     * @return a mapped buffer, or null if none is available yet (buffers are mapped by the
+     *         display thread, so at most one frame's worth of buffers become available per frame)
+     */
+    public ByteBuffer beginStreamingUpdate( )
+    {
+        lock.lock( );
+        try
+        {
+            if ( !streaming || streamStates == null ) return null;
+
+            for ( int k = 0; k < streamStates.length; k++ )
+            {
+                if ( streamStates[k] == STREAM_MAPPED )
+                {
+                    streamStates[k] = STREAM_WRITING;
+                    return streamBuffers[k];
+                }
+            }
+
+            return null;
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #beginStreamingUpdate()} back to the display thread.
+     * If the texture was resized or reallocated in the meantime, the frame is discarded.
+     */
+    public void endStreamingUpdate( ByteBuffer buffer )
+    {
+        lock.lock( );
+        try
+        {
+            if ( streamStates == null ) return;
+
+            for ( int k = 0; k < streamStates.length; k++ )
+            {
+                if ( streamStates[k] == STREAM_WRITING && streamBuffers[k] == buffer )
+                {
+                    streamStates[k] = STREAM_FILLED;
+                    streamFillSeqs[k] = streamFillSeq++;
+                    streamFillFrames[k] = frameCount;
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock( );
+        }
+    }
+
+    /**
+     * @return the average rate (in bytes per second) at which streamed frames have been
+     *         handed to the GPU since streaming was enabled
+     */
+    public double getStreamingBytesPerSecond( )
+    {
+        long elapsed = streamLastNanos - streamStartNanos;
+        return elapsed <= 0 ? 0 : streamedBytes * 1e9 / elapsed;
+    }
+
+    public long getStreamedBytes( )
+    {
+        return streamedBytes;
+    }
+
+    public long getStreamedFrames( )
+    {
+        return streamedFrames;
+    }
+
+    /**
+     * @return the number of streamed frames which were superseded by a newer frame before
+     *         they could be uploaded
+     */
+    public long getDroppedFrames( )
+    {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of displayed frames between the most recently displayed streamed
+     *         frame being handed to {@link #endStreamingUpdate(ByteBuffer)} and it becoming visible
+     */
+    public long getStreamingLatencyFrames( )
+    {
+        return streamLatencyFrames;
+    }
+
+    // must be called while holding lock
+    protected void prepare_stream( GL gl )
+    {
+        if ( streamBufferHandles == null ) allocate_streamBuffers( gl );
+        if ( backTextureHandles == null ) allocate_backTextures( gl );
+
+        frameCount++;
+
+        // textures filled during the previous frame are (almost certainly) ready
+        if ( backTexturesPending )
+        {
+            int[] swap = textureHandles;
+            textureHandles = backTextureHandles;
+            backTextureHandles = swap;
+            backTexturesPending = false;
+            streamLatencyFrames = frameCount - backTexturesFillFrame;
+        }
+
+        // start copying the newest filled buffer into the back textures, dropping older ones
+        int newest = -1;
+        for ( int k = 0; k < STREAM_BUFFER_COUNT; k++ )
+        {
+            if ( streamStates[k] != STREAM_FILLED ) continue;
+            if ( newest < 0 || streamFillSeqs[k] > streamFillSeqs[newest] ) newest = k;
+        }
+
+        if ( newest >= 0 )
+        {
+            for ( int k = 0; k < STREAM_BUFFER_COUNT; k++ )
+            {
+                if ( streamStates[k] != STREAM_FILLED ) continue;
+
+                gl.glBindBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB, streamBufferHandles[k] );
+                boolean intact = gl.glUnmapBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB );
+                streamStates[k] = STREAM_FREE;
+                streamBuffers[k] = null;
+
+                if ( k != newest || !intact || streamSizes[k] != getRequiredCapacityBytes( ) )
+                {
+                    droppedFrames++;
+                    continue;
+                }
+
+                for ( int i = 0; i < numTextures; i++ )
+                {
+                    gl.glBindTexture( getGLTextureDim( NUM_DIMENSIONS ), backTextureHandles[i] );
+                    ( ( StreamingTextureProjected2D ) this ).prepare_setStreamData( gl, i );
+                }
+
+                long now = System.nanoTime( );
+                if ( streamStartNanos == 0 ) streamStartNanos = now;
+                streamLastNanos = now;
+                streamedBytes += getRequiredCapacityBytes( );
+                streamedFrames++;
+
+                backTexturesPending = true;
+                backTexturesFillFrame = streamFillFrames[k];
+            }
+        }
+
+        // make a buffer available to producers, unless one already is
+        boolean mapped = false;
+        for ( int k = 0; k < STREAM_BUFFER_COUNT; k++ )
+        {
+            if ( streamStates[k] == STREAM_MAPPED || streamStates[k] == STREAM_WRITING ) mapped = true;
+        }
+
+        for ( int k = 0; k < STREAM_BUFFER_COUNT && !mapped; k++ )
+        {
+            if ( streamStates[k] != STREAM_FREE ) continue;
+
+            // respecifying the storage lets the driver hand out fresh memory instead
+            // of waiting for any transfer still reading from the old storage
+            gl.glBindBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB, streamBufferHandles[k] );
+            gl.glBufferData( GL.GL_PIXEL_UNPACK_BUFFER_ARB, getRequiredCapacityBytes( ), null, GL.GL_STREAM_DRAW );
+            ByteBuffer buffer = gl.glMapBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB, GL.GL_WRITE_ONLY );
+            if ( buffer == null ) break;
+
+            streamBuffers[k] = buffer.order( ByteOrder.nativeOrder( ) );
+            streamSizes[k] = getRequiredCapacityBytes( );
+            streamStates[k] = STREAM_MAPPED;
+            mapped = true;
+        }
+
+        gl.glBindBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB, 0 );
+    }
+
+    // must be called while holding lock
+    protected void allocate_streamBuffers( GL gl )
+    {
+        streamBufferHandles = new int[STREAM_BUFFER_COUNT];
+        gl.glGenBuffers( STREAM_BUFFER_COUNT, streamBufferHandles, 0 );
+
+        streamBuffers = new ByteBuffer[STREAM_BUFFER_COUNT];
+        streamStates = new int[STREAM_BUFFER_COUNT];
+        streamSizes = new int[STREAM_BUFFER_COUNT];
+        streamFillSeqs = new long[STREAM_BUFFER_COUNT];
+        streamFillFrames = new long[STREAM_BUFFER_COUNT];
+    }
+
+    // must be called while holding lock
+    protected void allocate_backTextures( GL gl )
+    {
+        backTextureHandles = new int[numTextures];
+        gl.glGenTextures( numTextures, backTextureHandles, 0 );
+
+        // give the back textures the same format and contents as the front textures
+        int[] front = textureHandles;
+        textureHandles = backTextureHandles;
+        prepare_setData( gl );
+        textureHandles = front;
+        backTexturesPending = false;
+    }
+
+    // must be called while holding lock (or from dispose)
+    // a buffer being written by a producer is only deleted if force is true, otherwise
+    // the buffers are kept until the producer is finished (and its frame is dropped)
+    protected void disposeStreaming( GL gl, boolean force )
+    {
+        if ( backTextureHandles != null )
+        {
+            gl.glDeleteTextures( backTextureHandles.length, backTextureHandles, 0 );
+            backTextureHandles = null;
+            backTexturesPending = false;
+        }
+
+        if ( streamBufferHandles == null ) return;
+
+        boolean writing = false;
+        for ( int k = 0; k < STREAM_BUFFER_COUNT; k++ )
+        {
+            if ( streamStates[k] == STREAM_WRITING )
+            {
+                writing = true;
+            }
+            else if ( streamStates[k] != STREAM_FREE )
+            {
+                gl.glBindBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB, streamBufferHandles[k] );
+                gl.glUnmapBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB );
+                streamStates[k] = STREAM_FREE;
+                streamBuffers[k] = null;
+            }
+        }
+        gl.glBindBuffer( GL.GL_PIXEL_UNPACK_BUFFER_ARB, 0 );
+
+        if ( !writing || force )
+        {
+            // deleting a mapped buffer also unmaps it
+            gl.glDeleteBuffers( STREAM_BUFFER_COUNT, streamBufferHandles, 0 );
+            streamBufferHandles = null;
+            streamBuffers = null;
+            streamStates = null;
+            streamSizes = null;
+        }
+    }
+
+    /**
+     * Uploads the region [minX,maxX) by [minY,maxY) of data. Subclasses which can update
+     * part of a texture (using glTexSubImage2D) should override this; by default, all
+     * the data is uploaded.
+     */
+    protected void prepare_setDataRegion( GL gl, int minX, int minY, int maxX, int maxY )
+    {
+        prepare_setData( gl );
+    }
+
+    /**
+     * @return true if the ith OpenGL texture overlaps the region [minX,maxX) by [minY,maxY) of data
+     */
+    protected boolean intersectsTexture( int i, int minX, int minY, int maxX, int maxY )
+    {
+        return minX < texStartsX[i] + texSizesX[i] && maxX > texStartsX[i] && minY < texStartsY[i] + texSizesY[i] && maxY > texStartsY[i];
     }
 
     protected void prepare_glState( GL gl )
@@ -402,11 +922,22 @@ public abstract class TextureProjected2D implements DrawableTexture
             putVerticesCoords( i, texStartsX[i], texStartsY[i], texSizesX[i], texSizesY[i], temp );
             gl.glBindBuffer( GL.GL_ARRAY_BUFFER, vertexCoordHandles[i] );
             gl.glBufferData( GL.GL_ARRAY_BUFFER, projectFloats * BYTES_PER_FLOAT, coordBuffer.rewind( ), GL.GL_STATIC_DRAW );
+        }
+
+        prepare_setTexCoords( gl );
+    }
+
+    protected void prepare_setTexCoords( GL gl )
+    {
+        for ( int i = 0; i < numTextures; i++ )
+        {
+            int texFloats = texQuadCounts[i] * VERTICES_PER_QUAD * 2;
+            if ( coordBuffer == null || coordBuffer.capacity( ) < texFloats ) coordBuffer = BufferUtil.newFloatBuffer( texFloats );
 
             coordBuffer.rewind( );
             putVerticesTexCoords( i, texStartsX[i], texStartsY[i], texSizesX[i], texSizesY[i] );
             gl.glBindBuffer( GL.GL_ARRAY_BUFFER, texCoordHandles[i] );
-            gl.glBufferData( GL.GL_ARRAY_BUFFER, projectFloats * BYTES_PER_FLOAT, coordBuffer.rewind( ), GL.GL_STATIC_DRAW );
+            gl.glBufferData( GL.GL_ARRAY_BUFFER, texFloats * BYTES_PER_FLOAT, coordBuffer.rewind( ), GL.GL_STATIC_DRAW );
         }
     }
 
@@ -475,6 +1006,10 @@ public abstract class TextureProjected2D implements DrawableTexture
 
     protected void putVertexTexCoords( int texIndex, double texFracX, double texFracY )
     {
+        // in scrolling mode there is only one texture in the y dimension, and the
+        // texture wraps, so shifting the texture coordinates rotates the rows into order
+        if ( scrollOffset != 0 ) texFracY += scrollOffset / ( double ) dataSizeY;
+
         coordBuffer.put( ( float ) texFracX ).put( ( float ) texFracY );
     }
 
@@ -484,7 +1019,7 @@ public abstract class TextureProjected2D implements DrawableTexture
         gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST );
 
         gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP );
-        gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP );
+        gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, scrolling ? GL.GL_REPEAT : GL.GL_CLAMP );
     }
 
     protected ByteBuffer newByteBuffer( )
@@ -535,6 +1070,7 @@ public abstract class TextureProjected2D implements DrawableTexture
             this.dataSizeY = dataSizeY;
 
             this.glAllocated = false;
+            this.scrollOffset = 0;
 
             if ( this.data == null || this.data.capacity( ) < getRequiredCapacityBytes( ) ) this.data = newByteBuffer( );
 
@@ -30,7 +30,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.NavigableSet;
 import java.util.TreeSet;
 
@@ -38,8 +41,10 @@ import com.metsci.glimpse.axis.Axis2D;
 import com.metsci.glimpse.support.projection.Projection;
 import com.metsci.glimpse.support.projection.LatLonProjection;
 import com.metsci.glimpse.support.texture.FloatTextureProjected2D;
+import com.metsci.glimpse.support.texture.PyramidTextureProjected2D;
 import com.metsci.glimpse.util.geo.LatLonGeo;
 import com.metsci.glimpse.util.geo.projection.GeoProjection;
+import com.metsci.glimpse.util.primitives.FloatsArray;
 import com.metsci.glimpse.util.vector.Vector2d;
 
 /**
@@ -58,6 +63,10 @@ public class BathymetryData
 
     protected GeoProjection projection;
 
+    // depths indexed as grid[y][x], with y increasing with latitude
+    protected float[][] grid;
+
+    // built from grid on first use
     protected double[][] data;
 
     public BathymetryData( InputStream in, GeoProjection projection ) throws IOException
@@ -67,7 +76,7 @@ public class BathymetryData
         read( in, projection );
     }
 
-    private static class Row
+    protected static class Row
     {
         public float centerLat;
         public float centerLon;
@@ -81,13 +90,85 @@ public class BathymetryData
         }
     }
 
+    /**
+     * Reads lines of the form: longitude latitude depth. Most bathymetry files are regular grids
+     * written one latitude row at a time, which are streamed directly into the depth grid. If
+     * the samples turn out not to lie on such a grid, the samples read so far are handed to
+     * {@link #readScattered(BufferedReader, NavigableSet)}, which sorts all samples into a grid.
+     */
     protected void read( InputStream in, GeoProjection tp ) throws IOException
     {
         BufferedReader reader = new BufferedReader( new InputStreamReader( in ) );
 
+        GridReader gridReader = new GridReader( );
+        float[] tokens = new float[3];
+
+        String line = null;
+
+        while ( ( line = reader.readLine( ) ) != null )
+        {
+            if ( !parseLine( line, tokens ) ) continue;
+
+            float lon = tokens[0];
+            float lat = tokens[1];
+            float depth = tokens[2];
+
+            if ( !gridReader.add( lon, lat, depth ) )
+            {
+                NavigableSet<Row> rows = newRowSet( );
+                gridReader.addTo( rows );
+                rows.add( new Row( lat, lon, depth ) );
+
+                readScattered( reader, rows );
+                return;
+            }
+        }
+
+        if ( !gridReader.build( ) )
+        {
+            NavigableSet<Row> rows = newRowSet( );
+            gridReader.addTo( rows );
+
+            readScattered( reader, rows );
+        }
+    }
+
+    /**
+     * Parses the first three whitespace separated values of a line.
+     *
+     * @return false if the line is blank
+     */
+    protected static boolean parseLine( String line, float[] tokens )
+    {
+        int length = line.length( );
+        int index = 0;
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            while ( index < length && line.charAt( index ) <= ' ' )
+                index++;
+
+            if ( index == length )
+            {
+                if ( i == 0 ) return false;
+                throw new NumberFormatException( "Expected longitude, latitude, and depth: " + line );
+            }
+
+            int start = index;
+            while ( index < length && line.charAt( index ) > ' ' )
+                index++;
+
+            tokens[i] = Float.parseFloat( line.substring( start, index ) );
+        }
+
+        return true;
+    }
+
+    protected static NavigableSet<Row> newRowSet( )
+    {
         // create a sorted set to store all the rows from the data input file of the form:
         // latitude longitude depth
-        NavigableSet<Row> rows = new TreeSet<Row>( new Comparator<Row>( )
+        return new TreeSet<Row>( new Comparator<Row>( )
         {
             @Override
             public int compare( Row o1, Row o2 )
@@ -96,21 +177,19 @@ public class BathymetryData
                 return ( latComparison != 0 ? latComparison : Double.compare( o1.centerLon, o2.centerLon ) );
             }
         } );
+    }
 
-        // read lines from the input stream into the set
+    protected void readScattered( BufferedReader reader, NavigableSet<Row> rows ) throws IOException
+    {
+        // read the remaining lines from the input stream into the set
         String line = null;
+        float[] tokens = new float[3];
 
         while ( ( line = reader.readLine( ) ) != null )
         {
-            if ( line.trim( ).isEmpty( ) ) continue;
-
-            String[] tokens = line.trim( ).split( "[ ]+" );
-
-            float lon = Float.parseFloat( tokens[0] );
-            float lat = Float.parseFloat( tokens[1] );
-            float depth = Float.parseFloat( tokens[2] );
+            if ( !parseLine( line, tokens ) ) continue;
 
-            rows.add( new Row( lat, lon, depth ) );
+            rows.add( new Row( tokens[1], tokens[0], tokens[2] ) );
         }
 
         // create a set with only unique latitudes (in sorted order)
@@ -171,7 +250,7 @@ public class BathymetryData
         startLon = uniqueLongitudes.first( ).centerLon - 0.5 * widthStep;
         startLat = uniqueLatitudes.first( ).centerLat - 0.5 * heightStep;
 
-        data = new double[imageWidth][imageHeight];
+        grid = new float[imageHeight][imageWidth];
 
         for ( Row row : rows )
         {
@@ -184,7 +263,186 @@ public class BathymetryData
             if ( y < 0 ) y = 0;
             if ( y >= imageHeight ) y = imageHeight - 1;
 
-            data[x][y] = row.depth;
+            grid[y][x] = row.depth;
+        }
+    }
+
+    /**
+     * Streams samples of a regular grid, written one latitude row at a time, directly into
+     * per-row depth arrays. The first row establishes the longitudes of the grid columns,
+     * and the first two rows establish the latitude step.
+     */
+    protected class GridReader
+    {
+        // allowed deviation from the regular grid, as a fraction of the grid step
+        protected static final double TOLERANCE = 0.01;
+
+        protected FloatsArray firstLons = new FloatsArray( );
+        protected FloatsArray firstDepths = new FloatsArray( );
+        protected float firstLat;
+
+        protected int width = -1;
+        protected double lonStep;
+        protected double latStep;
+
+        protected List<float[]> rows = new ArrayList<float[]>( );
+        protected FloatsArray lats = new FloatsArray( );
+
+        protected float[] row;
+        protected float rowLat;
+        protected int column;
+
+        /**
+         * @return false if the sample does not continue a regular grid
+         */
+        public boolean add( float lon, float lat, float depth )
+        {
+            if ( width < 0 )
+            {
+                if ( firstLons.isEmpty( ) || lat == firstLat )
+                {
+                    firstLat = lat;
+                    firstLons.append( lon );
+                    firstDepths.append( depth );
+                    return true;
+                }
+
+                if ( !finishFirstRow( ) ) return false;
+            }
+
+            if ( column == 0 )
+            {
+                int index = rows.size( );
+
+                if ( index == 1 )
+                {
+                    latStep = lat - firstLat;
+                }
+                else if ( Math.abs( lat - ( firstLat + index * latStep ) ) > TOLERANCE * Math.abs( latStep ) )
+                {
+                    return false;
+                }
+
+                row = new float[width];
+                rowLat = lat;
+            }
+            else if ( lat != rowLat )
+            {
+                return false;
+            }
+
+            if ( Math.abs( lon - firstLons.a[column] ) > TOLERANCE * Math.abs( lonStep ) ) return false;
+
+            row[column++] = depth;
+
+            if ( column == width )
+            {
+                rows.add( row );
+                lats.append( rowLat );
+                row = null;
+                column = 0;
+            }
+
+            return true;
+        }
+
+        protected boolean finishFirstRow( )
+        {
+            int n = firstLons.n;
+            if ( n < 2 ) return false;
+
+            double step = ( firstLons.a[n - 1] - firstLons.a[0] ) / ( double ) ( n - 1 );
+            if ( step == 0 ) return false;
+
+            for ( int i = 0; i < n; i++ )
+            {
+                if ( Math.abs( firstLons.a[i] - ( firstLons.a[0] + i * step ) ) > TOLERANCE * Math.abs( step ) ) return false;
+            }
+
+            width = n;
+            lonStep = step;
+            rows.add( firstDepths.copyOf( ) );
+            lats.append( firstLat );
+            firstDepths = null;
+
+            return true;
+        }
+
+        /**
+         * Adds every sample read so far to the given set.
+         */
+        public void addTo( NavigableSet<Row> set )
+        {
+            if ( width < 0 )
+            {
+                for ( int i = 0; i < firstLons.n; i++ )
+                {
+                    set.add( new Row( firstLat, firstLons.a[i], firstDepths.a[i] ) );
+                }
+
+                return;
+            }
+
+            for ( int r = 0; r < rows.size( ); r++ )
+            {
+                float[] depths = rows.get( r );
+                for ( int i = 0; i < width; i++ )
+                {
+                    set.add( new Row( lats.a[r], firstLons.a[i], depths[i] ) );
+                }
+            }
+
+            for ( int i = 0; i < column; i++ )
+            {
+                set.add( new Row( rowLat, firstLons.a[i], row[i] ) );
+            }
+        }
+
+        /**
+         * Copies the grid into the fields of the enclosing BathymetryData.
+         *
+         * @return false if the samples did not form a complete grid
+         */
+        public boolean build( )
+        {
+            if ( width < 0 && !finishFirstRow( ) ) return false;
+            if ( rows.size( ) < 2 || column != 0 ) return false;
+
+            int height = rows.size( );
+
+            // store rows and columns in order of increasing latitude and longitude
+            if ( latStep < 0 ) Collections.reverse( rows );
+
+            if ( lonStep < 0 )
+            {
+                for ( float[] depths : rows )
+                {
+                    for ( int i = 0, j = width - 1; i < j; i++, j-- )
+                    {
+                        float temp = depths[i];
+                        depths[i] = depths[j];
+                        depths[j] = temp;
+                    }
+                }
+            }
+
+            double minLon = Math.min( firstLons.a[0], firstLons.a[width - 1] );
+            double maxLon = Math.max( firstLons.a[0], firstLons.a[width - 1] );
+            double minLat = Math.min( lats.a[0], lats.a[height - 1] );
+            double maxLat = Math.max( lats.a[0], lats.a[height - 1] );
+
+            imageWidth = width;
+            imageHeight = height;
+
+            widthStep = ( maxLon - minLon ) / ( width - 1 );
+            heightStep = ( maxLat - minLat ) / ( height - 1 );
+
+            startLon = minLon - 0.5 * widthStep;
+            startLat = minLat - 0.5 * heightStep;
+
+            grid = rows.toArray( new float[height][] );
+
+            return true;
         }
     }
 
@@ -196,7 +454,21 @@ public class BathymetryData
         Projection projection = getProjection( );
 
         texture.setProjection( projection );
-        texture.setData( data );
+        texture.setData( grid, true );
+
+        return texture;
+    }
+
+    /**
+     * Like {@link #getTexture( )}, but only the parts of the grid visible on screen are sent to
+     * the GPU, at a resolution matching the screen. Suitable for grids too large to upload whole.
+     */
+    public PyramidTextureProjected2D getPyramidTexture( )
+    {
+        PyramidTextureProjected2D texture = new PyramidTextureProjected2D( imageWidth, imageHeight );
+
+        texture.setProjection( getProjection( ) );
+        texture.setData( grid, true );
 
         return texture;
     }
@@ -280,8 +552,42 @@ public class BathymetryData
         return Math.max( swCorner.getY( ), neCorner.getY( ) );
     }
 
+    /**
+     * @return the depths indexed as data[x][y]. The array is built (and retained) on the
+     *         first call, and requires twice the memory of {@link #getGrid( )}.
+     */
     public double[][] getData( )
     {
+        if ( data == null )
+        {
+            double[][] data = new double[imageWidth][imageHeight];
+
+            for ( int y = 0; y < imageHeight; y++ )
+            {
+                float[] row = grid[y];
+                for ( int x = 0; x < imageWidth; x++ )
+                {
+                    data[x][y] = row[x];
+                }
+            }
+
+            this.data = data;
+        }
+
         return data;
     }
+
+    /**
+     * @return the depths indexed as grid[y][x], with y increasing with latitude
+     *         and x increasing with longitude
+     */
+    public float[][] getGrid( )
+    {
+        return grid;
+    }
+
+    public float getDepth( int x, int y )
+    {
+        return grid[y][x];
+    }
 }
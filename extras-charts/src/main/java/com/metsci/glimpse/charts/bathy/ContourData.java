@@ -26,7 +26,11 @@
  */
 package com.metsci.glimpse.charts.bathy;
 
+import static com.metsci.glimpse.util.logging.LoggerUtils.*;
+
 import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
 
 import com.metsci.glimpse.util.geo.projection.GeoProjection;
 
@@ -35,29 +39,39 @@ import com.metsci.glimpse.util.geo.projection.GeoProjection;
  */
 public class ContourData
 {
-    private RecordVertices contours;
+    private static final Logger logger = Logger.getLogger( ContourData.class.getName( ) );
+
+    private TiledContourGenerator contours;
+    private boolean complete;
 
     public ContourData( BathymetryData bathymetryData, GeoProjection tp, double[] levels )
     {
         // sort the levels array
         Arrays.sort( levels );
 
-        contours = new RecordVertices( tp );
+        contours = new TiledContourGenerator( bathymetryData.getGrid( ), getLongitudes( bathymetryData ), getLatitudes( bathymetryData ), tp, TiledContourGenerator.DEFAULT_TILE_SIZE );
 
         try
         {
-            Conrec contourCalculator = new Conrec( contours );
-            double[][] bathyData = bathymetryData.getData( );
-            int sizeX = bathyData.length;
-            int sizeY = bathyData[0].length;
-            contourCalculator.contour( bathyData, 0, sizeX - 1, 0, sizeY - 1, getLongitudes( bathymetryData ), getLatitudes( bathymetryData ), levels.length, levels );
+            contours.contour( levels );
+            complete = true;
         }
-        catch ( Exception e1 )
+        catch ( InterruptedException e )
         {
-            e1.printStackTrace( );
+            logWarning( logger, "Interrupted while contouring, contours will be incomplete.", e );
+            Thread.currentThread( ).interrupt( );
         }
     }
 
+    /**
+     * @return false if the constructing thread was interrupted before all tiles were contoured,
+     *         in which case the contours are incomplete
+     */
+    public boolean isComplete( )
+    {
+        return complete;
+    }
+
     public float[] getCoordsX( )
     {
         return contours.getCoordsX( );
@@ -68,35 +82,21 @@ public class ContourData
         return contours.getCoordsY( );
     }
 
-    protected double[] getLatitudes( BathymetryData bathymetryDataSet )
+    /**
+     * @return the contour segments joined into polylines
+     */
+    public List<ContourLine> getContourLines( )
     {
-        double startLat = bathymetryDataSet.getStartLat( );
-        double heightStep = bathymetryDataSet.getHeightStep( );
-        int imageHeight = bathymetryDataSet.getImageHeight( );
-
-        double[] latitudes = new double[imageHeight];
-
-        for ( int i = 0; i < imageHeight; i++ )
-        {
-            latitudes[i] = startLat + i * heightStep;
-        }
+        return contours.getContourLines( );
+    }
 
-        return latitudes;
+    protected double[] getLatitudes( BathymetryData bathymetryDataSet )
+    {
+        return TiledContourGenerator.getLatitudes( bathymetryDataSet );
     }
 
     protected double[] getLongitudes( BathymetryData bathymetryDataSet )
     {
-        double startLon = bathymetryDataSet.getStartLon( );
-        double widthStep = bathymetryDataSet.getWidthStep( );
-        int imageWidth = bathymetryDataSet.getImageWidth( );
-
-        double[] longitudes = new double[imageWidth];
-
-        for ( int i = 0; i < imageWidth; i++ )
-        {
-            longitudes[i] = startLon + i * widthStep;
-        }
-
-        return longitudes;
+        return TiledContourGenerator.getLongitudes( bathymetryDataSet );
     }
 }
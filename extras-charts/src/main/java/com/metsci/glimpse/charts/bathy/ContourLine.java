@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.charts.bathy;
+
+/**
+ * A single connected contour polyline, in the coordinates of a GeoProjection.
+ *
+ * @author agent
+ */
+public class ContourLine
+{
+    protected double level;
+    protected float[] coordsX;
+    protected float[] coordsY;
+
+    public ContourLine( double level, float[] coordsX, float[] coordsY )
+    {
+        this.level = level;
+        this.coordsX = coordsX;
+        this.coordsY = coordsY;
+    }
+
+    public double getLevel( )
+    {
+        return level;
+    }
+
+    public float[] getCoordsX( )
+    {
+        return coordsX;
+    }
+
+    public float[] getCoordsY( )
+    {
+        return coordsY;
+    }
+
+    public int getSize( )
+    {
+        return coordsX.length;
+    }
+
+    public boolean isClosed( )
+    {
+        int n = coordsX.length;
+        return n > 2 && coordsX[0] == coordsX[n - 1] && coordsY[0] == coordsY[n - 1];
+    }
+}
@@ -27,6 +27,12 @@
 package com.metsci.glimpse.charts.bathy;
 
 import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GLContext;
@@ -38,22 +44,54 @@ import com.metsci.glimpse.painter.base.GlimpsePainter2D;
 import com.sun.opengl.util.BufferUtil;
 
 /**
+ * Draws contour segments. Besides static data, the painter may be attached to a
+ * {@link TiledContourGenerator} as its {@link ContourListener}, in which case each
+ * tile is displayed as soon as it has been contoured.<p>
+ *
+ * Each tile occupies its own slot in the vertex buffer, with some room to grow, so when
+ * a tile is contoured again only that tile is uploaded. The buffer is only rebuilt when
+ * a tile is added or outgrows its slot.
+ *
  * @author ulman
  */
-public class ContourPainter extends GlimpsePainter2D
+public class ContourPainter extends GlimpsePainter2D implements ContourListener
 {
     protected float[] lineColor = new float[] { 0.5f, 0.5f, 0.5f, 0.5f };
     protected float lineWidth = 1;
 
-    protected float[] coordsX;
-    protected float[] coordsY;
+    // segment endpoints (interleaved x and y) for each tile
+    protected Map<Integer, float[]> tileData;
+
+    // tiles whose data has changed since it was last uploaded
+    protected Set<Integer> dirtyTiles;
+    protected boolean layoutDirty;
 
     protected boolean initialized;
     protected int[] bufferHandle;
 
+    // host copy of the vertex buffer, and the region of it used by each tile
     protected FloatBuffer dataBuffer;
+    protected Map<Integer, Slot> slots;
     protected int totalPointCount;
 
+    // the first vertex and vertex count of each tile, for glMultiDrawArrays
+    protected int[] drawFirsts;
+    protected int[] drawCounts;
+    protected int drawCount;
+
+    protected ReentrantLock dataBufferLock;
+    protected volatile boolean newData;
+
+    public ContourPainter( )
+    {
+        this.tileData = new TreeMap<Integer, float[]>( );
+        this.dirtyTiles = new TreeSet<Integer>( );
+        this.slots = new HashMap<Integer, Slot>( );
+        this.drawFirsts = new int[0];
+        this.drawCounts = new int[0];
+        this.dataBufferLock = new ReentrantLock( );
+    }
+
     public ContourPainter( ContourData data )
     {
         this( data.getCoordsX( ), data.getCoordsY( ) );
@@ -61,17 +99,65 @@ public class ContourPainter extends GlimpsePainter2D
 
     public ContourPainter( float[] coordsX, float[] coordsY )
     {
-        this.coordsX = coordsX;
-        this.coordsY = coordsY;
+        this( );
+        setData( coordsX, coordsY );
+    }
+
+    public void setData( float[] coordsX, float[] coordsY )
+    {
+        this.dataBufferLock.lock( );
+        try
+        {
+            this.tileData.clear( );
+            this.tileData.put( 0, interleave( coordsX, coordsY ) );
+            this.dirtyTiles.clear( );
+            this.layoutDirty = true;
+            this.newData = true;
+        }
+        finally
+        {
+            this.dataBufferLock.unlock( );
+        }
+
+        notifyDirty( );
+    }
+
+    @Override
+    public void tileContoured( int tileIndex, float[] coordsX, float[] coordsY )
+    {
+        this.dataBufferLock.lock( );
+        try
+        {
+            this.tileData.put( tileIndex, interleave( coordsX, coordsY ) );
+            this.dirtyTiles.add( tileIndex );
+            this.newData = true;
+        }
+        finally
+        {
+            this.dataBufferLock.unlock( );
+        }
+
+        notifyDirty( );
+    }
+
+    @Override
+    public void contoursComplete( )
+    {
+        // each tile is already displayed as it arrives
+    }
 
+    protected static float[] interleave( float[] coordsX, float[] coordsY )
+    {
         int size = Math.min( coordsX.length, coordsY.length );
-        this.totalPointCount = size;
-        this.dataBuffer = BufferUtil.newFloatBuffer( size * 2 );
+        float[] data = new float[size * 2];
 
         for ( int i = 0; i < size; i++ )
         {
-            this.dataBuffer.put( coordsX[i] ).put( coordsY[i] );
+            data[2 * i] = coordsX[i];
+            data[2 * i + 1] = coordsY[i];
         }
+
+        return data;
     }
 
     @Override
@@ -84,17 +170,39 @@ public class ContourPainter extends GlimpsePainter2D
             bufferHandle = new int[1];
             gl.glGenBuffers( 1, bufferHandle, 0 );
 
-            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferHandle[0] );
+            initialized = true;
+        }
 
-            // copy data from the host memory buffer to the device
-            gl.glBufferData( GL.GL_ARRAY_BUFFER, totalPointCount * 2 * BYTES_PER_FLOAT, dataBuffer.rewind( ), GL.GL_STATIC_DRAW );
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferHandle[0] );
 
-            glHandleError( gl );
+        if ( newData )
+        {
+            this.dataBufferLock.lock( );
+            try
+            {
+                if ( layoutDirty || !fitsSlots( ) )
+                {
+                    uploadAll( gl );
+                }
+                else
+                {
+                    uploadDirtyTiles( gl );
+                }
 
-            initialized = true;
+                glHandleError( gl );
+
+                dirtyTiles.clear( );
+                layoutDirty = false;
+                newData = false;
+            }
+            finally
+            {
+                this.dataBufferLock.unlock( );
+            }
         }
 
-        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferHandle[0] );
+        if ( totalPointCount == 0 ) return;
+
         gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
         gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
 
@@ -109,7 +217,7 @@ public class ContourPainter extends GlimpsePainter2D
         gl.glBlendFunc( GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA );
         gl.glEnable( GL.GL_BLEND );
 
-        gl.glDrawArrays( GL.GL_LINES, 0, totalPointCount );
+        gl.glMultiDrawArrays( GL.GL_LINES, drawFirsts, 0, drawCounts, 0, drawCount );
 
         gl.glDisable( GL.GL_BLEND );
         gl.glDisable( GL.GL_LINE_SMOOTH );
@@ -117,6 +225,105 @@ public class ContourPainter extends GlimpsePainter2D
         gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
     }
 
+    // must be called while holding dataBufferLock
+    protected boolean fitsSlots( )
+    {
+        for ( Integer tileIndex : dirtyTiles )
+        {
+            Slot slot = slots.get( tileIndex );
+            if ( slot == null || slot.capacity < tileData.get( tileIndex ).length ) return false;
+        }
+
+        return true;
+    }
+
+    // lays out a slot for every tile, and uploads the whole buffer
+    // must be called while holding dataBufferLock
+    protected void uploadAll( GL gl )
+    {
+        slots.clear( );
+
+        int size = 0;
+        for ( Map.Entry<Integer, float[]> entry : tileData.entrySet( ) )
+        {
+            int length = entry.getValue( ).length;
+
+            // leave room for the tile to grow when it is contoured again (a whole number of segments)
+            int capacity = length + ( length / 4 & ~3 );
+
+            slots.put( entry.getKey( ), new Slot( size, capacity ) );
+            size += capacity;
+        }
+
+        if ( dataBuffer == null || dataBuffer.capacity( ) < size )
+        {
+            dataBuffer = BufferUtil.newFloatBuffer( size );
+        }
+
+        for ( Map.Entry<Integer, float[]> entry : tileData.entrySet( ) )
+        {
+            copyToSlot( entry.getKey( ), entry.getValue( ) );
+        }
+
+        dataBuffer.clear( );
+
+        // copy data from the host memory buffer to the device
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, size * BYTES_PER_FLOAT, dataBuffer, GL.GL_DYNAMIC_DRAW );
+
+        updateDrawArrays( );
+    }
+
+    // uploads only the slots of the tiles which have changed
+    // must be called while holding dataBufferLock
+    protected void uploadDirtyTiles( GL gl )
+    {
+        for ( Integer tileIndex : dirtyTiles )
+        {
+            float[] data = tileData.get( tileIndex );
+            Slot slot = copyToSlot( tileIndex, data );
+
+            dataBuffer.limit( slot.offset + data.length ).position( slot.offset );
+            gl.glBufferSubData( GL.GL_ARRAY_BUFFER, slot.offset * BYTES_PER_FLOAT, data.length * BYTES_PER_FLOAT, dataBuffer );
+        }
+
+        dataBuffer.clear( );
+
+        updateDrawArrays( );
+    }
+
+    protected Slot copyToSlot( Integer tileIndex, float[] data )
+    {
+        Slot slot = slots.get( tileIndex );
+        slot.length = data.length;
+
+        dataBuffer.clear( ).position( slot.offset );
+        dataBuffer.put( data );
+
+        return slot;
+    }
+
+    protected void updateDrawArrays( )
+    {
+        if ( drawFirsts.length < slots.size( ) )
+        {
+            drawFirsts = new int[slots.size( )];
+            drawCounts = new int[slots.size( )];
+        }
+
+        drawCount = 0;
+        totalPointCount = 0;
+        for ( Slot slot : slots.values( ) )
+        {
+            if ( slot.length == 0 ) continue;
+
+            drawFirsts[drawCount] = slot.offset / 2;
+            drawCounts[drawCount] = slot.length / 2;
+            drawCount++;
+
+            totalPointCount += slot.length / 2;
+        }
+    }
+
     public void setLineColor( float r, float g, float b, float a )
     {
         this.lineColor[0] = r;
@@ -138,4 +345,18 @@ public class ContourPainter extends GlimpsePainter2D
             context.getGL( ).glDeleteBuffers( 1, bufferHandle, 0 );
         }
     }
+
+    // a region of the vertex buffer, in floats
+    protected static class Slot
+    {
+        protected final int offset;
+        protected final int capacity;
+        protected int length;
+
+        public Slot( int offset, int capacity )
+        {
+            this.offset = offset;
+            this.capacity = capacity;
+        }
+    }
 }
@@ -0,0 +1,745 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.charts.bathy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.metsci.glimpse.util.geo.LatLonGeo;
+import com.metsci.glimpse.util.geo.projection.GeoProjection;
+import com.metsci.glimpse.util.primitives.DoublesArray;
+import com.metsci.glimpse.util.vector.Vector2d;
+
+/**
+ * Contours a bathymetry grid by splitting it into square tiles which are run through
+ * {@link Conrec} in parallel. Neighbouring tiles share their edge samples, so their
+ * segments meet exactly at the seams and can be joined into polylines (see
+ * {@link #getContourLines( )}).<p>
+ *
+ * The grid may be given as a double[x][y] matrix, or as a float[y][x] grid such as
+ * {@link BathymetryData#getGrid( )}. A float grid is read in place, one tile at a time, so
+ * contouring it needs no full size copy.<p>
+ *
+ * Segments are kept per tile and per level. A later call to {@link #contour( double[], ContourListener )}
+ * only computes levels which were not previously requested, and tiles which were marked
+ * with {@link #invalidate( int, int, int, int )} because their data changed.
+ *
+ * @author agent
+ */
+public class TiledContourGenerator
+{
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    protected static final LevelSegments EMPTY_SEGMENTS = new LevelSegments( new double[0], new float[0], new float[0] );
+
+    // exactly one of data (indexed data[x][y]) and grid (indexed grid[y][x]) is non-null
+    protected double[][] data;
+    protected float[][] grid;
+    protected double[] x;
+    protected double[] y;
+    protected GeoProjection projection;
+
+    protected int tileSize;
+    protected Tile[] tiles;
+
+    protected double[] levels;
+    protected List<ContourLine> lines;
+
+    protected int parallelism;
+    protected ExecutorService executor;
+
+    public TiledContourGenerator( BathymetryData bathymetryData, GeoProjection projection )
+    {
+        this( bathymetryData.getGrid( ), getLongitudes( bathymetryData ), getLatitudes( bathymetryData ), projection, DEFAULT_TILE_SIZE );
+    }
+
+    /**
+     * @param data  - matrix of data to contour, indexed as data[x][y]
+     * @param x     - data matrix column coordinates (longitudes)
+     * @param y     - data matrix row coordinates (latitudes)
+     * @param projection - projection applied to the emitted coordinates
+     * @param tileSize - width and height of each tile, in grid cells
+     */
+    public TiledContourGenerator( double[][] data, double[] x, double[] y, GeoProjection projection, int tileSize )
+    {
+        this( data, null, data.length, data.length == 0 ? 0 : data[0].length, x, y, projection, tileSize );
+    }
+
+    /**
+     * @param grid  - grid of data to contour, indexed as grid[y][x]
+     * @param x     - grid column coordinates (longitudes)
+     * @param y     - grid row coordinates (latitudes)
+     * @param projection - projection applied to the emitted coordinates
+     * @param tileSize - width and height of each tile, in grid cells
+     */
+    public TiledContourGenerator( float[][] grid, double[] x, double[] y, GeoProjection projection, int tileSize )
+    {
+        this( null, grid, grid.length == 0 ? 0 : grid[0].length, grid.length, x, y, projection, tileSize );
+    }
+
+    protected TiledContourGenerator( double[][] data, float[][] grid, int sizeX, int sizeY, double[] x, double[] y, GeoProjection projection, int tileSize )
+    {
+        if ( tileSize < 1 ) throw new IllegalArgumentException( "Tile size must be positive: " + tileSize );
+
+        this.data = data;
+        this.grid = grid;
+        this.x = x;
+        this.y = y;
+        this.projection = projection;
+        this.tileSize = tileSize;
+        this.levels = new double[0];
+        this.parallelism = Runtime.getRuntime( ).availableProcessors( );
+
+        int cellsX = sizeX - 1;
+        int cellsY = sizeY - 1;
+
+        int tilesX = cellsX > 0 ? ( cellsX + tileSize - 1 ) / tileSize : 0;
+        int tilesY = cellsY > 0 ? ( cellsY + tileSize - 1 ) / tileSize : 0;
+
+        this.tiles = new Tile[tilesX * tilesY];
+
+        for ( int ty = 0; ty < tilesY; ty++ )
+        {
+            for ( int tx = 0; tx < tilesX; tx++ )
+            {
+                int minI = tx * tileSize;
+                int minJ = ty * tileSize;
+                int maxI = Math.min( minI + tileSize, cellsX );
+                int maxJ = Math.min( minJ + tileSize, cellsY );
+
+                int index = ty * tilesX + tx;
+                tiles[index] = new Tile( index, minI, maxI, minJ, maxJ );
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads used to contour tiles when no executor has been provided.
+     * Defaults to the number of available processors.
+     */
+    public void setParallelism( int parallelism )
+    {
+        if ( parallelism < 1 ) throw new IllegalArgumentException( "Parallelism must be positive: " + parallelism );
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism( )
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets the executor used to contour tiles. If null (the default), a pool of {@link #getParallelism( )}
+     * threads is created for each call to {@link #contour( double[], ContourListener )}.
+     */
+    public void setExecutor( ExecutorService executor )
+    {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor( )
+    {
+        return executor;
+    }
+
+    public int getTileSize( )
+    {
+        return tileSize;
+    }
+
+    public int getTileCount( )
+    {
+        return tiles.length;
+    }
+
+    public synchronized double[] getLevels( )
+    {
+        return levels.clone( );
+    }
+
+    /**
+     * Marks every tile as needing to be recomputed on the next call to {@link #contour( double[], ContourListener )}.
+     */
+    public synchronized void invalidate( )
+    {
+        for ( Tile tile : tiles )
+        {
+            tile.dirty = true;
+        }
+    }
+
+    /**
+     * Marks the tiles containing any of the given grid samples (inclusive index bounds) as needing
+     * to be recomputed. Should be called after the contents of the data matrix are modified.
+     */
+    public synchronized void invalidate( int minI, int maxI, int minJ, int maxJ )
+    {
+        for ( Tile tile : tiles )
+        {
+            if ( tile.minI <= maxI && minI <= tile.maxI && tile.minJ <= maxJ && minJ <= tile.maxJ )
+            {
+                tile.dirty = true;
+            }
+        }
+    }
+
+    public void contour( double[] levels ) throws InterruptedException
+    {
+        contour( levels, null );
+    }
+
+    /**
+     * Computes contours for the given levels. Only tiles whose data or level set changed since the
+     * previous call are recomputed. The listener (which may be null) is notified on the calling
+     * thread as each of those tiles finishes.
+     */
+    public synchronized void contour( double[] levels, ContourListener listener ) throws InterruptedException
+    {
+        final double[] sortedLevels = levels.clone( );
+        Arrays.sort( sortedLevels );
+
+        this.levels = sortedLevels;
+        this.lines = null;
+
+        ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool( parallelism );
+        try
+        {
+            CompletionService<Tile> completion = new ExecutorCompletionService<Tile>( pool );
+
+            int submitted = 0;
+            for ( final Tile tile : tiles )
+            {
+                if ( !tile.needsUpdate( sortedLevels ) ) continue;
+
+                completion.submit( new Callable<Tile>( )
+                {
+                    @Override
+                    public Tile call( ) throws Exception
+                    {
+                        tile.update( sortedLevels );
+                        return tile;
+                    }
+                } );
+
+                submitted++;
+            }
+
+            for ( int i = 0; i < submitted; i++ )
+            {
+                Tile tile = completion.take( ).get( );
+
+                if ( listener != null ) listener.tileContoured( tile.index, tile.coordsX, tile.coordsY );
+            }
+
+            if ( listener != null ) listener.contoursComplete( );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new RuntimeException( "Unable to contour tile.", e.getCause( ) );
+        }
+        finally
+        {
+            if ( pool != executor ) pool.shutdown( );
+        }
+    }
+
+    /**
+     * @return the x coordinates of all contour segments, as consecutive endpoint pairs
+     */
+    public synchronized float[] getCoordsX( )
+    {
+        int size = 0;
+        for ( Tile tile : tiles )
+            size += tile.coordsX.length;
+
+        float[] coords = new float[size];
+        int offset = 0;
+        for ( Tile tile : tiles )
+        {
+            System.arraycopy( tile.coordsX, 0, coords, offset, tile.coordsX.length );
+            offset += tile.coordsX.length;
+        }
+
+        return coords;
+    }
+
+    /**
+     * @return the y coordinates of all contour segments, as consecutive endpoint pairs
+     */
+    public synchronized float[] getCoordsY( )
+    {
+        int size = 0;
+        for ( Tile tile : tiles )
+            size += tile.coordsY.length;
+
+        float[] coords = new float[size];
+        int offset = 0;
+        for ( Tile tile : tiles )
+        {
+            System.arraycopy( tile.coordsY, 0, coords, offset, tile.coordsY.length );
+            offset += tile.coordsY.length;
+        }
+
+        return coords;
+    }
+
+    /**
+     * Joins the segments of all tiles into polylines, one or more per level. The result is
+     * cached until the next call to {@link #contour( double[], ContourListener )}.
+     */
+    public synchronized List<ContourLine> getContourLines( )
+    {
+        if ( lines == null )
+        {
+            lines = new ArrayList<ContourLine>( );
+
+            for ( double level : levels )
+            {
+                stitch( level, lines );
+            }
+        }
+
+        return lines;
+    }
+
+    protected void stitch( double level, List<ContourLine> lines )
+    {
+        int size = 0;
+        for ( Tile tile : tiles )
+        {
+            LevelSegments segments = tile.segments.get( level );
+            if ( segments != null ) size += segments.grid.length;
+        }
+
+        double[] points = new double[size];
+        int offset = 0;
+        for ( Tile tile : tiles )
+        {
+            LevelSegments segments = tile.segments.get( level );
+            if ( segments == null ) continue;
+
+            System.arraycopy( segments.grid, 0, points, offset, segments.grid.length );
+            offset += segments.grid.length;
+        }
+
+        // endpoint e is the (e % 2) end of segment (e / 2), at points[2*e], points[2*e+1]
+        int numEndpoints = size / 2;
+        int numSegments = numEndpoints / 2;
+
+        // endpoints at the same vertex are chained together through next
+        Vertex[] vertices = new Vertex[numEndpoints];
+        Map<Vertex, Integer> first = new HashMap<Vertex, Integer>( numEndpoints );
+        int[] next = new int[numEndpoints];
+
+        for ( int e = 0; e < numEndpoints; e++ )
+        {
+            Vertex vertex = new Vertex( points[2 * e], points[2 * e + 1] );
+            Integer head = first.put( vertex, e );
+            next[e] = head == null ? -1 : head;
+            vertices[e] = vertex;
+        }
+
+        // degenerate segments are never part of a line
+        boolean[] used = new boolean[numSegments];
+        for ( int s = 0; s < numSegments; s++ )
+        {
+            used[s] = vertices[2 * s].equals( vertices[2 * s + 1] );
+        }
+
+        DoublesArray forward = new DoublesArray( );
+        DoublesArray backward = new DoublesArray( );
+
+        for ( int s = 0; s < numSegments; s++ )
+        {
+            if ( used[s] ) continue;
+            used[s] = true;
+
+            forward.n = 0;
+            backward.n = 0;
+
+            forward.append( points, 4 * s, 4 * s + 4 );
+
+            for ( int e = 2 * s + 1;; )
+            {
+                int partner = findPartner( e, vertices, first, next, used );
+                if ( partner < 0 ) break;
+
+                used[partner / 2] = true;
+                e = partner ^ 1;
+                forward.append( points, 2 * e, 2 * e + 2 );
+            }
+
+            for ( int e = 2 * s;; )
+            {
+                int partner = findPartner( e, vertices, first, next, used );
+                if ( partner < 0 ) break;
+
+                used[partner / 2] = true;
+                e = partner ^ 1;
+                backward.append( points, 2 * e, 2 * e + 2 );
+            }
+
+            int numPoints = ( backward.n + forward.n ) / 2;
+            float[] coordsX = new float[numPoints];
+            float[] coordsY = new float[numPoints];
+
+            int p = 0;
+            for ( int i = backward.n - 2; i >= 0; i -= 2, p++ )
+            {
+                Vector2d vertex = project( backward.a[i], backward.a[i + 1] );
+                coordsX[p] = ( float ) vertex.getX( );
+                coordsY[p] = ( float ) vertex.getY( );
+            }
+
+            for ( int i = 0; i < forward.n; i += 2, p++ )
+            {
+                Vector2d vertex = project( forward.a[i], forward.a[i + 1] );
+                coordsX[p] = ( float ) vertex.getX( );
+                coordsY[p] = ( float ) vertex.getY( );
+            }
+
+            lines.add( new ContourLine( level, coordsX, coordsY ) );
+        }
+    }
+
+    protected static int findPartner( int e, Vertex[] vertices, Map<Vertex, Integer> first, int[] next, boolean[] used )
+    {
+        for ( int f = first.get( vertices[e] ); f >= 0; f = next[f] )
+        {
+            if ( !used[f / 2] ) return f;
+        }
+
+        return -1;
+    }
+
+    protected Vector2d project( double lon, double lat )
+    {
+        return projection.project( LatLonGeo.fromDeg( lat, lon ) );
+    }
+
+    public static double[] getLatitudes( BathymetryData bathymetryDataSet )
+    {
+        double startLat = bathymetryDataSet.getStartLat( );
+        double heightStep = bathymetryDataSet.getHeightStep( );
+        int imageHeight = bathymetryDataSet.getImageHeight( );
+
+        double[] latitudes = new double[imageHeight];
+
+        for ( int i = 0; i < imageHeight; i++ )
+        {
+            latitudes[i] = startLat + i * heightStep;
+        }
+
+        return latitudes;
+    }
+
+    public static double[] getLongitudes( BathymetryData bathymetryDataSet )
+    {
+        double startLon = bathymetryDataSet.getStartLon( );
+        double widthStep = bathymetryDataSet.getWidthStep( );
+        int imageWidth = bathymetryDataSet.getImageWidth( );
+
+        double[] longitudes = new double[imageWidth];
+
+        for ( int i = 0; i < imageWidth; i++ )
+        {
+            longitudes[i] = startLon + i * widthStep;
+        }
+
+        return longitudes;
+    }
+
+    protected class Tile
+    {
+        protected int index;
+
+        // inclusive sample index bounds
+        protected int minI;
+        protected int maxI;
+        protected int minJ;
+        protected int maxJ;
+
+        protected double minValue;
+        protected double maxValue;
+
+        protected boolean dirty;
+        protected double[] levels;
+        protected Map<Double, LevelSegments> segments;
+
+        protected float[] coordsX;
+        protected float[] coordsY;
+
+        public Tile( int index, int minI, int maxI, int minJ, int maxJ )
+        {
+            this.index = index;
+            this.minI = minI;
+            this.maxI = maxI;
+            this.minJ = minJ;
+            this.maxJ = maxJ;
+
+            this.dirty = true;
+            this.levels = new double[0];
+            this.segments = new HashMap<Double, LevelSegments>( );
+
+            this.coordsX = new float[0];
+            this.coordsY = new float[0];
+        }
+
+        public boolean needsUpdate( double[] levels )
+        {
+            return dirty || !Arrays.equals( this.levels, levels );
+        }
+
+        public void update( double[] levels ) throws Exception
+        {
+            if ( dirty )
+            {
+                updateRange( );
+                segments.clear( );
+                dirty = false;
+            }
+
+            // drop levels which are no longer requested
+            Set<Double> levelSet = new HashSet<Double>( );
+            for ( double level : levels )
+                levelSet.add( level );
+
+            Iterator<Double> iter = segments.keySet( ).iterator( );
+            while ( iter.hasNext( ) )
+            {
+                if ( !levelSet.contains( iter.next( ) ) ) iter.remove( );
+            }
+
+            // only levels within the data range of this tile produce segments
+            DoublesArray missing = new DoublesArray( );
+            for ( double level : levels )
+            {
+                if ( segments.containsKey( level ) ) continue;
+
+                if ( level >= minValue && level <= maxValue )
+                    missing.append( level );
+                else
+                    segments.put( level, EMPTY_SEGMENTS );
+            }
+
+            if ( !missing.isEmpty( ) )
+            {
+                SegmentRecorder recorder = new SegmentRecorder( );
+                if ( data != null )
+                {
+                    new Conrec( recorder ).contour( data, minI, maxI, minJ, maxJ, x, y, missing.n, missing.a );
+                }
+                else
+                {
+                    // Conrec needs a double[x][y] matrix, so copy just this tile's samples
+                    double[][] tileData = getTileData( );
+                    double[] tileX = Arrays.copyOfRange( x, minI, maxI + 1 );
+                    double[] tileY = Arrays.copyOfRange( y, minJ, maxJ + 1 );
+                    new Conrec( recorder ).contour( tileData, 0, maxI - minI, 0, maxJ - minJ, tileX, tileY, missing.n, missing.a );
+                }
+
+                for ( int i = 0; i < missing.n; i++ )
+                {
+                    segments.put( missing.a[i], recorder.getSegments( missing.a[i] ) );
+                }
+            }
+
+            this.levels = levels;
+
+            int size = 0;
+            for ( LevelSegments level : segments.values( ) )
+                size += level.coordsX.length;
+
+            float[] coordsX = new float[size];
+            float[] coordsY = new float[size];
+
+            int offset = 0;
+            for ( LevelSegments level : segments.values( ) )
+            {
+                System.arraycopy( level.coordsX, 0, coordsX, offset, level.coordsX.length );
+                System.arraycopy( level.coordsY, 0, coordsY, offset, level.coordsY.length );
+                offset += level.coordsX.length;
+            }
+
+            this.coordsX = coordsX;
+            this.coordsY = coordsY;
+        }
+
+        // the samples of this tile (including its shared edges), indexed as tileData[x][y]
+        protected double[][] getTileData( )
+        {
+            double[][] tileData = new double[maxI - minI + 1][maxJ - minJ + 1];
+
+            for ( int j = minJ; j <= maxJ; j++ )
+            {
+                float[] row = grid[j];
+                for ( int i = minI; i <= maxI; i++ )
+                {
+                    tileData[i - minI][j - minJ] = row[i];
+                }
+            }
+
+            return tileData;
+        }
+
+        protected void updateRange( )
+        {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+
+            if ( data != null )
+            {
+                for ( int i = minI; i <= maxI; i++ )
+                {
+                    double[] column = data[i];
+                    for ( int j = minJ; j <= maxJ; j++ )
+                    {
+                        double value = column[j];
+                        if ( value < min ) min = value;
+                        if ( value > max ) max = value;
+                    }
+                }
+            }
+            else
+            {
+                for ( int j = minJ; j <= maxJ; j++ )
+                {
+                    float[] row = grid[j];
+                    for ( int i = minI; i <= maxI; i++ )
+                    {
+                        double value = row[i];
+                        if ( value < min ) min = value;
+                        if ( value > max ) max = value;
+                    }
+                }
+            }
+
+            this.minValue = min;
+            this.maxValue = max;
+        }
+    }
+
+    protected class SegmentRecorder implements Render
+    {
+        protected Map<Double, DoublesArray> segments = new HashMap<Double, DoublesArray>( );
+
+        @Override
+        public void drawContour( double startX, double startY, double endX, double endY, double contourLevel )
+        {
+            DoublesArray level = segments.get( contourLevel );
+            if ( level == null )
+            {
+                level = new DoublesArray( );
+                segments.put( contourLevel, level );
+            }
+
+            level.prepForAppend( 4 );
+            level.a[level.n - 4] = startX;
+            level.a[level.n - 3] = startY;
+            level.a[level.n - 2] = endX;
+            level.a[level.n - 1] = endY;
+        }
+
+        public LevelSegments getSegments( double contourLevel )
+        {
+            DoublesArray level = segments.get( contourLevel );
+            if ( level == null ) return EMPTY_SEGMENTS;
+
+            int numPoints = level.n / 2;
+            float[] coordsX = new float[numPoints];
+            float[] coordsY = new float[numPoints];
+
+            for ( int i = 0; i < numPoints; i++ )
+            {
+                Vector2d vertex = project( level.a[2 * i], level.a[2 * i + 1] );
+                coordsX[i] = ( float ) vertex.getX( );
+                coordsY[i] = ( float ) vertex.getY( );
+            }
+
+            return new LevelSegments( level.copyOf( ), coordsX, coordsY );
+        }
+    }
+
+    /**
+     * The segments of one level within one tile, both in grid (lon/lat) coordinates,
+     * which are used for stitching, and in projected coordinates.
+     */
+    protected static class LevelSegments
+    {
+        protected double[] grid;
+        protected float[] coordsX;
+        protected float[] coordsY;
+
+        public LevelSegments( double[] grid, float[] coordsX, float[] coordsY )
+        {
+            this.grid = grid;
+            this.coordsX = coordsX;
+            this.coordsY = coordsY;
+        }
+    }
+
+    protected static class Vertex
+    {
+        protected double x;
+        protected double y;
+
+        public Vertex( double x, double y )
+        {
+            // adding zero turns -0.0 into 0.0, keeping hashCode consistent with equals
+            this.x = x + 0.0;
+            this.y = y + 0.0;
+        }
+
+        @Override
+        public int hashCode( )
+        {
+            long bits = Double.doubleToLongBits( x ) * 31 + Double.doubleToLongBits( y );
+            return ( int ) ( bits ^ ( bits >>> 32 ) );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( o == this ) return true;
+            if ( !( o instanceof Vertex ) ) return false;
+            Vertex v = ( Vertex ) o;
+            return v.x == x && v.y == y;
+        }
+    }
+}
@@ -56,6 +56,7 @@ public class DsplParser
     protected boolean failOnError = true;
     protected boolean noNetworkMode = true;
     protected boolean cacheMode = false;
+    protected boolean lazyCacheMode = false;
 
     protected File cacheLocation = null;
 
@@ -89,6 +90,20 @@ public class DsplParser
         cacheMode = mode;
     }
 
+    public boolean isLazyCacheMode( )
+    {
+        return lazyCacheMode;
+    }
+
+    /**
+     * If true, cached tables are memory-mapped and their columns decoded only when first accessed.
+     * Only takes effect when cache mode is enabled.
+     */
+    public void setLazyCacheMode( boolean mode )
+    {
+        lazyCacheMode = mode;
+    }
+
     public void setCacheDirectory( String directory )
     {
         cacheLocation = new File( directory );
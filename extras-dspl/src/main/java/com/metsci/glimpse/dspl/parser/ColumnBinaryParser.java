@@ -29,9 +29,11 @@ package com.metsci.glimpse.dspl.parser;
 import static com.metsci.glimpse.dspl.parser.util.ParserUtils.*;
 import static com.metsci.glimpse.util.GeneralUtils.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
@@ -46,6 +48,7 @@ import javax.xml.bind.JAXBException;
 
 import com.metsci.glimpse.dspl.parser.SimpleBinaryParser.HeaderInformation;
 import com.metsci.glimpse.dspl.parser.column.CompactInternStringTableColumn;
+import com.metsci.glimpse.dspl.parser.column.AbstractTableColumn;
 import com.metsci.glimpse.dspl.parser.column.CompactStringTableColumn;
 import com.metsci.glimpse.dspl.parser.column.SimpleTableColumn;
 import com.metsci.glimpse.dspl.parser.column.SliceColumnType;
@@ -64,12 +67,22 @@ import com.metsci.glimpse.dspl.schema.Slice;
 import com.metsci.glimpse.dspl.schema.Table.Column;
 import com.metsci.glimpse.dspl.util.DsplException;
 import com.metsci.glimpse.dspl.util.DsplHelper;
+import com.metsci.glimpse.util.io.datapipe.MappedDataPipe;
 import com.metsci.glimpse.util.io.datapipe.ReadableDataChannel;
+import com.metsci.glimpse.util.io.datapipe.ReadableDataPipe;
 import com.metsci.glimpse.util.io.datapipe.WritableDataChannel;
 
+/**
+ * Reads and writes a simple column-oriented binary table format, used for cached copies of slow-to-parse tables.
+ *
+ * Files begin with a header (magic number, column and row counts, and column ids) followed by each column's data
+ * in turn. Files written with {@link #MAGIC_INDEXED} also end with a directory of column offsets, which allows
+ * {@link #parseLazy(Slice, File)} to map the file and decode only the columns which are actually accessed.
+ */
 public class ColumnBinaryParser implements TableParser, TableWriter
 {
     public static final int MAGIC = 0x1234CDEF;
+    public static final int MAGIC_INDEXED = 0x1234CDF0;
     public static final String ENCODING = "UTF-8";
 
     protected SimpleParserFactory factory;
@@ -93,7 +106,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         try
         {
             // each .bin file must start with the correct magic number identifier
-            dataChannel.writeInt( MAGIC );
+            dataChannel.writeInt( MAGIC_INDEXED );
 
             Collection<String> dimensionConceptIds = data.getDimensionColumnIds( );
             Collection<String> metricConceptIds = data.getMetricColumnIds( );
@@ -152,11 +165,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
                 }
             }
 
-            for ( int j = 0; j < numColumns; j++ )
-            {
-                TableColumn column = columnList.get( j );
-                write( column, dataChannel );
-            }
+            writeColumns( columnList, dataChannel );
         }
         finally
         {
@@ -178,7 +187,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         try
         {
             // each .bin file must start with the correct magic number identifier
-            dataChannel.writeInt( MAGIC );
+            dataChannel.writeInt( MAGIC_INDEXED );
 
             Collection<String> conceptIds = data.getColumnIds( );
 
@@ -215,11 +224,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
                 }
             }
 
-            for ( int j = 0; j < numColumns; j++ )
-            {
-                TableColumn column = columnList.get( j );
-                write( column, dataChannel );
-            }
+            writeColumns( columnList, dataChannel );
         }
         finally
         {
@@ -235,6 +240,31 @@ public class ColumnBinaryParser implements TableParser, TableWriter
 
     }
 
+    /**
+     * Writes the data of each column, followed by the column directory: the offset of each column
+     * from the start of the file, then the offset of the directory itself as the last 8 bytes.
+     */
+    protected void writeColumns( List<TableColumn> columnList, WritableDataChannel dataChannel ) throws DsplException, IOException
+    {
+        int numColumns = columnList.size( );
+        long[] columnOffsets = new long[numColumns];
+
+        for ( int j = 0; j < numColumns; j++ )
+        {
+            // flush so that the byte count is exact
+            dataChannel.flushBuffer( );
+            columnOffsets[j] = dataChannel.getTotalBytesWritten( );
+
+            write( columnList.get( j ), dataChannel );
+        }
+
+        dataChannel.flushBuffer( );
+        long directoryOffset = dataChannel.getTotalBytesWritten( );
+
+        dataChannel.writeLongArray( columnOffsets );
+        dataChannel.writeLong( directoryOffset );
+    }
+
     protected void write( TableColumn column, WritableDataChannel dataChannel ) throws DsplException, IOException
     {
         String columnFormat = column.getColumn( ).getFormat( );
@@ -289,8 +319,11 @@ public class ColumnBinaryParser implements TableParser, TableWriter
     @Override
     public PropertyTableData parse( Concept concept, ReadableByteChannel byteChannel ) throws IOException, JAXBException, DsplException
     {
-        ReadableDataChannel dataChannel = new ReadableDataChannel( byteChannel );
+        return parse( concept, new ReadableDataChannel( byteChannel ) );
+    }
 
+    public PropertyTableData parse( Concept concept, ReadableDataPipe dataChannel ) throws IOException, JAXBException, DsplException
+    {
         try
         {
             BinaryTableParserInfo info = newParserInfo( concept, dataChannel );
@@ -361,8 +394,11 @@ public class ColumnBinaryParser implements TableParser, TableWriter
     @Override
     public SliceTableData parse( Slice slice, ReadableByteChannel byteChannel ) throws IOException, JAXBException, DsplException
     {
-        ReadableDataChannel dataChannel = new ReadableDataChannel( byteChannel );
+        return parse( slice, new ReadableDataChannel( byteChannel ) );
+    }
 
+    public SliceTableData parse( Slice slice, ReadableDataPipe dataChannel ) throws IOException, JAXBException, DsplException
+    {
         try
         {
             BinaryTableParserInfo info = newParserInfo( slice, dataChannel );
@@ -445,11 +481,273 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         return false;
     }
 
-    protected HeaderInformation parseFirstLine( ReadableDataChannel dataChannel ) throws IOException, JAXBException, DsplException
+    /**
+     * Maps the file and returns table data whose columns are only decoded when first accessed, so a
+     * query touching a few columns of a wide table reads only those columns' bytes. Element accessors
+     * of numeric columns read straight from the mapping without decoding the whole column.
+     *
+     * Files written before the column directory existed are parsed in full.
+     */
+    public SliceTableData parseLazy( Slice slice, File file ) throws IOException, JAXBException, DsplException
+    {
+        MappedDataPipe pipe = MappedDataPipe.open( file );
+
+        try
+        {
+            if ( !isIndexed( pipe ) ) return parse( slice, pipe );
+
+            BinaryTableParserInfo info = newParserInfo( slice, pipe );
+
+            Concept[] concepts = info.getConcepts( );
+            Column[] columns = info.getColumns( );
+            DataType[] types = info.getDataTypes( );
+            SliceColumnType[] sliceColumnTypes = info.getSliceColumnTypes( );
+            int numRows = info.getNumRows( );
+
+            ByteBuffer[] columnBytes = mapColumns( pipe, info.getNumColumns( ) );
+
+            Map<String, TableColumn> dimensionMap = new HashMap<String, TableColumn>( );
+            Map<String, TableColumn> metricMap = new HashMap<String, TableColumn>( );
+
+            for ( int i = 0; i < info.getNumColumns( ); i++ )
+            {
+                Map<String, TableColumn> map = sliceColumnTypes[i] == SliceColumnType.Dimension ? dimensionMap : metricMap;
+                map.put( columns[i].getId( ), new MappedTableColumn( columns[i], concepts[i], types[i], numRows, columnBytes[i] ) );
+            }
+
+            dimensionMap.putAll( getConstantTableColumns( slice, info, factory, SliceColumnType.Dimension, numRows ) );
+            metricMap.putAll( getConstantTableColumns( slice, info, factory, SliceColumnType.Metric, numRows ) );
+
+            return new SimpleSliceTableData( slice, dimensionMap, metricMap );
+        }
+        finally
+        {
+            // the column mappings remain valid after the channel is closed
+            pipe.close( );
+        }
+    }
+
+    /**
+     * @see #parseLazy(Slice, File)
+     */
+    public PropertyTableData parseLazy( Concept concept, File file ) throws IOException, JAXBException, DsplException
+    {
+        MappedDataPipe pipe = MappedDataPipe.open( file );
+
+        try
+        {
+            if ( !isIndexed( pipe ) ) return parse( concept, pipe );
+
+            BinaryTableParserInfo info = newParserInfo( concept, pipe );
+
+            Concept[] concepts = info.getConcepts( );
+            Column[] columns = info.getColumns( );
+            DataType[] types = info.getDataTypes( );
+            int numRows = info.getNumRows( );
+
+            ByteBuffer[] columnBytes = mapColumns( pipe, info.getNumColumns( ) );
+
+            Map<String, TableColumn> map = new HashMap<String, TableColumn>( );
+
+            for ( int i = 0; i < info.getNumColumns( ); i++ )
+            {
+                map.put( columns[i].getId( ), new MappedTableColumn( columns[i], concepts[i], types[i], numRows, columnBytes[i] ) );
+            }
+
+            map.putAll( getConstantTableColumns( concept, info, factory, numRows ) );
+
+            return new SimplePropertyTableData( concept, map );
+        }
+        finally
+        {
+            pipe.close( );
+        }
+    }
+
+    protected boolean isIndexed( MappedDataPipe pipe ) throws IOException
+    {
+        boolean indexed = pipe.size( ) >= 4 && pipe.readInt( ) == MAGIC_INDEXED;
+        pipe.position( 0 );
+        return indexed;
+    }
+
+    /**
+     * Reads the column directory at the end of the file and returns a view of each column's bytes.
+     */
+    protected ByteBuffer[] mapColumns( MappedDataPipe pipe, int numColumns ) throws IOException
+    {
+        pipe.position( pipe.size( ) - 8 );
+        long directoryOffset = pipe.readLong( );
+
+        pipe.position( directoryOffset );
+        long[] columnOffsets = pipe.readLongArray( new long[numColumns] );
+
+        ByteBuffer[] columnBytes = new ByteBuffer[numColumns];
+
+        for ( int i = 0; i < numColumns; i++ )
+        {
+            long columnEnd = i + 1 < numColumns ? columnOffsets[i + 1] : directoryOffset;
+
+            pipe.position( columnOffsets[i] );
+            columnBytes[i] = pipe.viewBytes( columnEnd - columnOffsets[i] );
+        }
+
+        return columnBytes;
+    }
+
+    /**
+     * Decodes a whole column from a view of its bytes, in the same layout {@link #write(TableColumn, WritableDataChannel)} produces.
+     */
+    protected TableColumn readColumn( Column column, Concept concept, DataType type, int numRows, ByteBuffer bytes ) throws IOException, DsplException
+    {
+        String columnFormat = column.getFormat( );
+
+        switch ( type )
+        {
+        case STRING:
+            if ( columnFormat != null && columnFormat.contentEquals( "intern" ) )
+                return readInternStringArray( bytes, column, concept, numRows );
+            else
+                return readStringArray( bytes, column, concept, numRows );
+
+        case FLOAT:
+            float[] floats = new float[numRows];
+            bytes.asFloatBuffer( ).get( floats );
+            return new SimpleTableColumn( column, concept, type, floats, numRows );
+        case INTEGER:
+            int[] ints = new int[numRows];
+            bytes.asIntBuffer( ).get( ints );
+            return new SimpleTableColumn( column, concept, type, ints, numRows );
+        case BOOLEAN:
+            boolean[] booleans = new boolean[numRows];
+            for ( int i = 0; i < numRows; i++ )
+                booleans[i] = bytes.get( i ) != 0;
+            return new SimpleTableColumn( column, concept, type, booleans, numRows );
+        case DATE:
+            long[] longs = new long[numRows];
+            bytes.asLongBuffer( ).get( longs );
+            return new SimpleTableColumn( column, concept, type, longs, numRows );
+        case CONCEPT:
+            return readStringArray( bytes, column, concept, numRows );
+        default:
+            throw new DsplException( "Unknown Type %s provided for Column %s.", type, column.getId( ) );
+        }
+    }
+
+    /**
+     * A column backed by a read-only view of its bytes in a mapped cache file. The whole column is decoded
+     * on the first call to an array accessor (or any String accessor); numeric element accessors read the
+     * mapping directly.
+     */
+    protected class MappedTableColumn extends AbstractTableColumn
+    {
+        protected ByteBuffer bytes;
+        protected TableColumn decoded;
+
+        public MappedTableColumn( Column column, Concept concept, DataType type, int size, ByteBuffer bytes )
+        {
+            super( column, concept, type, size );
+
+            this.bytes = bytes;
+        }
+
+        protected synchronized TableColumn decode( )
+        {
+            if ( decoded == null )
+            {
+                try
+                {
+                    decoded = readColumn( column, concept, type, size, bytes.duplicate( ) );
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( String.format( "Unable to read cached column %s.", column.getId( ) ), e );
+                }
+            }
+
+            return decoded;
+        }
+
+        @Override
+        public boolean isConstant( )
+        {
+            return false;
+        }
+
+        @Override
+        public String[] getStringData( )
+        {
+            return decode( ).getStringData( );
+        }
+
+        @Override
+        public int[] getIntegerData( )
+        {
+            return decode( ).getIntegerData( );
+        }
+
+        @Override
+        public float[] getFloatData( )
+        {
+            return decode( ).getFloatData( );
+        }
+
+        @Override
+        public boolean[] getBooleanData( )
+        {
+            return decode( ).getBooleanData( );
+        }
+
+        @Override
+        public long[] getDateData( )
+        {
+            return decode( ).getDateData( );
+        }
+
+        @Override
+        public String getStringData( int i )
+        {
+            return decode( ).getStringData( i );
+        }
+
+        @Override
+        public int getIntegerData( int i )
+        {
+            if ( type == DataType.INTEGER ) return bytes.getInt( i << 2 );
+
+            return decode( ).getIntegerData( i );
+        }
+
+        @Override
+        public float getFloatData( int i )
+        {
+            if ( type == DataType.FLOAT ) return bytes.getFloat( i << 2 );
+
+            return decode( ).getFloatData( i );
+        }
+
+        @Override
+        public boolean getBooleanData( int i )
+        {
+            if ( type == DataType.BOOLEAN ) return bytes.get( i ) != 0;
+
+            return decode( ).getBooleanData( i );
+        }
+
+        @Override
+        public long getDateData( int i )
+        {
+            if ( type == DataType.DATE ) return bytes.getLong( i << 3 );
+
+            return decode( ).getDateData( i );
+        }
+    }
+
+    protected HeaderInformation parseFirstLine( ReadableDataPipe dataChannel ) throws IOException, JAXBException, DsplException
     {
         int magic = dataChannel.readInt( );
 
-        if ( magic != MAGIC )
+        if ( magic != MAGIC && magic != MAGIC_INDEXED )
         {
             throw new DsplException( "File does not contain proper header code: %s", Integer.toHexString( MAGIC ) );
         }
@@ -467,7 +765,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         return new HeaderInformation( numColumns, numRowsPerColumn, headerStrings );
     }
 
-    protected BinaryTableParserInfo newParserInfo( Concept concept, ReadableDataChannel dataChannel ) throws IOException, JAXBException, DsplException
+    protected BinaryTableParserInfo newParserInfo( Concept concept, ReadableDataPipe dataChannel ) throws IOException, JAXBException, DsplException
     {
         HeaderInformation header = parseFirstLine( dataChannel );
         String[] columnIds = header.getHeaderNames( );
@@ -479,7 +777,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         return new BinaryTableParserInfo( header.getNumColumns( ), header.getNumRowsPerColumn( ), columnIds, concepts, null, columns, types, parsers );
     }
 
-    protected BinaryTableParserInfo newParserInfo( Slice slice, ReadableDataChannel dataChannel ) throws IOException, JAXBException, DsplException
+    protected BinaryTableParserInfo newParserInfo( Slice slice, ReadableDataPipe dataChannel ) throws IOException, JAXBException, DsplException
     {
         HeaderInformation header = parseFirstLine( dataChannel );
         String[] columnIds = header.getHeaderNames( );
@@ -558,15 +856,16 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         dataChannel.writeIntArray( index );
     }
 
-    protected TableColumn readInternStringArray( ReadableDataChannel dataChannel, Column column, Concept concept, String[] array ) throws IOException
+    protected TableColumn readInternStringArray( ReadableDataPipe dataChannel, Column column, Concept concept, String[] array ) throws IOException
     {
         int nUnique = dataChannel.readInt( );
 
         String[] uniqueStrings = new String[nUnique];
         for ( int i = 0; i < nUnique; i++ )
         {
+            // writeString writes an empty string the same way as null, so it is read back as null
             String string = readString( dataChannel );
-            uniqueStrings[i] = string.intern( );
+            uniqueStrings[i] = string == null ? null : string.intern( );
         }
 
         int[] indexForRow = new int[array.length];
@@ -575,7 +874,44 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         return new CompactInternStringTableColumn( column, concept, array.length, uniqueStrings, indexForRow );
     }
 
-    protected String readString( ReadableDataChannel in ) throws IOException
+    protected TableColumn readInternStringArray( ByteBuffer bytes, Column column, Concept concept, int numRows ) throws IOException
+    {
+        int nUnique = bytes.getInt( );
+
+        String[] uniqueStrings = new String[nUnique];
+        for ( int i = 0; i < nUnique; i++ )
+        {
+            // a zero size is read as null, to match readInternStringArray( ReadableDataPipe, ... )
+            int stringSize = bytes.getInt( );
+            if ( stringSize == 0 ) continue;
+
+            byte[] data = new byte[stringSize];
+            bytes.get( data );
+            uniqueStrings[i] = new String( data, ENCODING ).intern( );
+        }
+
+        int[] indexForRow = new int[numRows];
+        bytes.asIntBuffer( ).get( indexForRow );
+
+        return new CompactInternStringTableColumn( column, concept, numRows, uniqueStrings, indexForRow );
+    }
+
+    protected TableColumn readStringArray( ByteBuffer bytes, Column column, Concept concept, int numRows ) throws IOException
+    {
+        int byteCount = bytes.getInt( );
+
+        int[] stringStartIndices = new int[numRows];
+        bytes.asIntBuffer( ).get( stringStartIndices );
+        bytes.position( bytes.position( ) + 4 * numRows );
+
+        byte[] stringData = new byte[byteCount];
+        bytes.get( stringData );
+        String allStrings = new String( stringData, 0, byteCount, ENCODING );
+
+        return new CompactStringTableColumn( column, concept, numRows, allStrings, stringStartIndices );
+    }
+
+    protected String readString( ReadableDataPipe in ) throws IOException
     {
         int stringSize = in.readInt( );
         if ( stringSize == 0 ) return null;
@@ -642,7 +978,7 @@ public class ColumnBinaryParser implements TableParser, TableWriter
         }
     }
 
-    protected TableColumn readStringArray( ReadableDataChannel dataChannel, Column column, Concept concept, String[] array ) throws IOException
+    protected TableColumn readStringArray( ReadableDataPipe dataChannel, Column column, Concept concept, String[] array ) throws IOException
     {
         int byteCount = dataChannel.readInt( );
 
@@ -30,12 +30,23 @@ import static com.metsci.glimpse.dspl.parser.util.ParserUtils.*;
 import static com.metsci.glimpse.dspl.parser.util.QuoteAwareStringSplitter.*;
 import static com.metsci.glimpse.util.logging.LoggerUtils.*;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.xml.bind.JAXBException;
@@ -59,20 +70,37 @@ import com.metsci.glimpse.dspl.schema.Slice;
 import com.metsci.glimpse.dspl.schema.Table.Column;
 import com.metsci.glimpse.dspl.util.DsplException;
 import com.metsci.glimpse.dspl.util.DsplHelper;
+import com.metsci.glimpse.util.primitives.IntsArray;
 
 /**
  * The standard DSPL CSV parser capable of parsing CSV files which correspond to Google's
  * rules for CSV table files.
  *
+ * By default rows are parsed one at a time on the calling thread. If {@link #setParallelism(int)}
+ * is greater than one, the file is instead read as raw bytes and cut into chunks on line boundaries.
+ * The chunks are parsed concurrently into per-chunk column parsers, and the results are concatenated
+ * in file order. In that mode numeric and boolean tokens are parsed straight from the bytes, without
+ * intermediate Strings. Parallel parsing requires an ASCII-compatible charset (such as UTF-8) and
+ * column parsers which implement {@link CSVBytesColumnParser}; otherwise the serial parse is used.
+ *
  * @author ulman
  */
 public class CsvParser implements TableParser
 {
     public static final Logger logger = Logger.getLogger( CsvParser.class.getName( ) );
 
+    protected static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
     protected ParserFactory factory;
     protected DsplParser dsplParser;
 
+    protected Charset charset = Charset.defaultCharset( );
+    protected int parallelism = 1;
+    protected int chunkSize = DEFAULT_CHUNK_SIZE;
+    protected ExecutorService executor;
+
     public CsvParser( DsplParser dsplParser )
     {
         this.dsplParser = dsplParser;
@@ -90,6 +118,71 @@ public class CsvParser implements TableParser
         return true;
     }
 
+    /**
+     * Sets the number of chunks parsed concurrently. A value of one (the default) parses serially.
+     */
+    public void setParallelism( int parallelism )
+    {
+        if ( parallelism < 1 ) throw new IllegalArgumentException( "Parallelism must be positive: " + parallelism );
+
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism( )
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets the approximate number of bytes in each chunk handed to a parse thread.
+     */
+    public void setChunkSize( int chunkSize )
+    {
+        if ( chunkSize < 1 ) throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize( )
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the executor used to parse chunks. If null (the default), a pool of {@link #getParallelism( )}
+     * threads is created for each parse and shut down afterwards.
+     */
+    public void setExecutor( ExecutorService executor )
+    {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor( )
+    {
+        return executor;
+    }
+
+    /**
+     * Subclasses which change the per-row semantics of {@link #parse(BufferedReader, TableParserInfo)}
+     * without also overriding {@link #parseLine(byte[], int, int, TableParserInfo, CSVBytesColumnParser[], IntsArray)}
+     * should return false.
+     */
+    protected boolean isParallelSupported( )
+    {
+        return parallelism > 1 && isAsciiCompatible( charset );
+    }
+
+    /**
+     * The parallel parse splits rows and fields on raw bytes, which only works if the delimiter,
+     * line break, and quote characters are each encoded as their single ASCII byte (as in UTF-8
+     * or ISO-8859-1, but not UTF-16).
+     */
+    protected static boolean isAsciiCompatible( Charset charset )
+    {
+        String special = ",\n\r\"";
+        return Arrays.equals( special.getBytes( charset ), special.getBytes( ASCII ) );
+    }
+
     @Override
     public SliceTableData parse( Slice slice ) throws IOException, JAXBException, DsplException
     {
@@ -105,6 +198,24 @@ public class CsvParser implements TableParser
     @Override
     public SliceTableData parse( Slice slice, InputStream stream ) throws IOException, JAXBException, DsplException
     {
+        if ( isParallelSupported( ) )
+        {
+            InputStream in = new BufferedInputStream( stream );
+
+            try
+            {
+                TableParserInfo info = newParserInfo( slice, new BufferedReader( new StringReader( readFirstLine( in ) ) ) );
+
+                parseParallel( in, info );
+
+                return buildSliceTableData( slice, info, factory );
+            }
+            finally
+            {
+                in.close( );
+            }
+        }
+
         BufferedReader in = new BufferedReader( new InputStreamReader( stream ) );
 
         try
@@ -136,6 +247,24 @@ public class CsvParser implements TableParser
     @Override
     public PropertyTableData parse( Concept concept, InputStream stream ) throws IOException, JAXBException, DsplException
     {
+        if ( isParallelSupported( ) )
+        {
+            InputStream in = new BufferedInputStream( stream );
+
+            try
+            {
+                TableParserInfo info = newParserInfo( concept, new BufferedReader( new StringReader( readFirstLine( in ) ) ) );
+
+                parseParallel( in, info );
+
+                return buildPropertyTableData( concept, info, factory );
+            }
+            finally
+            {
+                in.close( );
+            }
+        }
+
         BufferedReader in = new BufferedReader( new InputStreamReader( stream ) );
 
         try
@@ -184,6 +313,257 @@ public class CsvParser implements TableParser
         }
     }
 
+    /**
+     * Parses the rows remaining in the stream concurrently, in chunks of roughly {@link #getChunkSize( )} bytes.
+     * Falls back to {@link #parse(BufferedReader, TableParserInfo)} if any column parser cannot parse bytes.
+     */
+    protected void parseParallel( InputStream in, TableParserInfo info ) throws IOException, DsplException
+    {
+        TableColumnParser[] parsers = info.getParsers( );
+
+        for ( TableColumnParser parser : parsers )
+        {
+            if ( !( parser instanceof CSVBytesColumnParser ) )
+            {
+                parse( new BufferedReader( new InputStreamReader( in, charset ) ), info );
+                return;
+            }
+        }
+
+        ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool( parallelism );
+        LinkedList<Future<CSVBytesColumnParser[]>> pending = new LinkedList<Future<CSVBytesColumnParser[]>>( );
+
+        try
+        {
+            byte[] buffer = new byte[chunkSize];
+            int n = 0;
+            boolean eof = false;
+
+            while ( !eof )
+            {
+                while ( n < buffer.length )
+                {
+                    int nRead = in.read( buffer, n, buffer.length - n );
+                    if ( nRead < 0 )
+                    {
+                        eof = true;
+                        break;
+                    }
+                    n += nRead;
+                }
+
+                int end = eof ? n : lastLineEnd( buffer, n );
+
+                if ( end == 0 && !eof )
+                {
+                    // a single line is longer than the buffer
+                    buffer = Arrays.copyOf( buffer, 2 * buffer.length );
+                    continue;
+                }
+
+                if ( end > 0 )
+                {
+                    pending.add( pool.submit( new CsvChunk( buffer, 0, end, info ) ) );
+                }
+
+                // carry the partial line at the end of this chunk over to the next one
+                byte[] next = new byte[Math.max( chunkSize, 2 * ( n - end ) )];
+                System.arraycopy( buffer, end, next, 0, n - end );
+                buffer = next;
+                n -= end;
+
+                // bound the number of unparsed chunks held in memory
+                while ( pending.size( ) > 2 * parallelism )
+                {
+                    appendChunk( parsers, pending.removeFirst( ) );
+                }
+            }
+
+            while ( !pending.isEmpty( ) )
+            {
+                appendChunk( parsers, pending.removeFirst( ) );
+            }
+        }
+        finally
+        {
+            for ( Future<CSVBytesColumnParser[]> future : pending )
+            {
+                future.cancel( true );
+            }
+
+            if ( pool != executor )
+            {
+                pool.shutdown( );
+            }
+        }
+    }
+
+    /**
+     * Parses the lines in bytes[from,to) into the given (chunk-local) column parsers.
+     * May be called concurrently for different chunks.
+     */
+    protected void parseChunk( byte[] bytes, int from, int to, TableParserInfo info, CSVBytesColumnParser[] parsers ) throws IOException, DsplException
+    {
+        IntsArray bounds = new IntsArray( 2 * parsers.length );
+
+        int lineStart = from;
+        while ( lineStart < to )
+        {
+            int lineEnd = lineStart;
+            while ( lineEnd < to && bytes[lineEnd] != '\n' && bytes[lineEnd] != '\r' )
+            {
+                lineEnd++;
+            }
+
+            parseLine( bytes, lineStart, lineEnd, info, parsers, bounds );
+
+            // like BufferedReader.readLine, treat \r\n as a single line terminator
+            lineStart = lineEnd + 1;
+            if ( lineStart < to && bytes[lineEnd] == '\r' && bytes[lineStart] == '\n' ) lineStart++;
+        }
+    }
+
+    /**
+     * Parses the line in bytes[from,to) into the given column parsers. This is the byte-level
+     * counterpart of the per-line logic in {@link #parse(BufferedReader, TableParserInfo)}.
+     *
+     * @param bounds scratch space for the token bounds
+     */
+    protected void parseLine( byte[] bytes, int from, int to, TableParserInfo info, CSVBytesColumnParser[] parsers, IntsArray bounds ) throws IOException, DsplException
+    {
+        int size = parsers.length;
+        int numTokens = splitLine( bytes, from, to, bounds );
+
+        if ( numTokens == size )
+        {
+            for ( int i = 0; i < size; i++ )
+            {
+                parsers[i].addData( bytes, bounds.a[2 * i], bounds.a[2 * i + 1] );
+            }
+        }
+        else
+        {
+            String line = new String( bytes, from, to - from, charset );
+
+            if ( dsplParser.isFailOnErrorMode( ) )
+            {
+                throw new DsplException( "Encountered row of incorrect size (expected %d found %d): [%s]", size, numTokens, line );
+            }
+            else
+            {
+                logWarning( logger, "Skipping row of incorrect size (expected %d found %d): [%s]", size, numTokens, line );
+            }
+        }
+    }
+
+    /**
+     * @return the index just past the last line terminator in buffer[0,n), or 0 if there is none
+     */
+    protected static int lastLineEnd( byte[] buffer, int n )
+    {
+        // a trailing \r might be the first half of a \r\n split across chunks
+        int i = buffer[n - 1] == '\r' ? n - 2 : n - 1;
+
+        for ( ; i >= 0; i-- )
+        {
+            if ( buffer[i] == '\n' || buffer[i] == '\r' ) return i + 1;
+        }
+
+        return 0;
+    }
+
+    protected void appendChunk( TableColumnParser[] parsers, Future<CSVBytesColumnParser[]> future ) throws IOException, DsplException
+    {
+        CSVBytesColumnParser[] chunk;
+
+        try
+        {
+            chunk = future.get( );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new InterruptedIOException( "Interrupted while parsing csv chunks" );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause( );
+            if ( cause instanceof DsplException ) throw ( DsplException ) cause;
+            if ( cause instanceof IOException ) throw ( IOException ) cause;
+            if ( cause instanceof RuntimeException ) throw ( RuntimeException ) cause;
+            if ( cause instanceof Error ) throw ( Error ) cause;
+            throw new DsplException( "Problem parsing csv chunk", cause );
+        }
+
+        for ( int i = 0; i < parsers.length; i++ )
+        {
+            ( ( CSVBytesColumnParser ) parsers[i] ).addAll( chunk[i] );
+        }
+    }
+
+    /**
+     * Reads the header line byte by byte, leaving the stream positioned at the start of the first row.
+     */
+    protected String readFirstLine( InputStream in ) throws IOException
+    {
+        IntsArray line = new IntsArray( );
+
+        int c;
+        while ( ( c = in.read( ) ) >= 0 && c != '\n' && c != '\r' )
+        {
+            line.append( c );
+        }
+
+        if ( c == '\r' )
+        {
+            in.mark( 1 );
+            if ( in.read( ) != '\n' ) in.reset( );
+        }
+
+        byte[] bytes = new byte[line.n];
+        for ( int i = 0; i < line.n; i++ )
+        {
+            bytes[i] = ( byte ) line.a[i];
+        }
+
+        return new String( bytes, charset );
+    }
+
+    protected class CsvChunk implements Callable<CSVBytesColumnParser[]>
+    {
+        protected byte[] bytes;
+        protected int from;
+        protected int to;
+        protected TableParserInfo info;
+
+        public CsvChunk( byte[] bytes, int from, int to, TableParserInfo info )
+        {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            this.info = info;
+        }
+
+        @Override
+        public CSVBytesColumnParser[] call( ) throws IOException, DsplException
+        {
+            CSVTableColumnParser[] parsers = getParsers( factory, info.getColumns( ), info.getDataTypes( ) );
+
+            CSVBytesColumnParser[] chunkParsers = new CSVBytesColumnParser[parsers.length];
+            for ( int i = 0; i < parsers.length; i++ )
+            {
+                chunkParsers[i] = ( CSVBytesColumnParser ) parsers[i];
+            }
+
+            parseChunk( bytes, from, to, info, chunkParsers );
+
+            // don't hold on to the raw bytes once they are parsed
+            bytes = null;
+
+            return chunkParsers;
+        }
+    }
+
     protected String[] parseFirstLine( BufferedReader in ) throws IOException, JAXBException
     {
         String line = in.readLine( );
@@ -222,6 +602,89 @@ public class CsvParser implements TableParser
         public void addGap( );
     }
 
+    /**
+     * A column parser which can also parse tokens directly from the bytes of a file, and
+     * so can be used by the parallel parse.
+     */
+    public interface CSVBytesColumnParser extends CSVTableColumnParser
+    {
+        public void addData( byte[] bytes, int from, int to ) throws DsplException;
+
+        /**
+         * Appends all the values of another parser of the same type, which parsed a later chunk.
+         */
+        public void addAll( CSVBytesColumnParser chunk );
+    }
+
+    /**
+     * Parses an optionally negative integer of at most 9 digits, which cannot overflow.
+     *
+     * @return the value, or Long.MIN_VALUE if the token is not of that simple form
+     */
+    protected static long parseSimpleInt( byte[] bytes, int from, int to )
+    {
+        boolean negative = bytes[from] == '-';
+        int start = negative ? from + 1 : from;
+
+        if ( to - start < 1 || to - start > 9 ) return Long.MIN_VALUE;
+
+        int value = 0;
+        for ( int i = start; i < to; i++ )
+        {
+            int digit = bytes[i] - '0';
+            if ( digit < 0 || digit > 9 ) return Long.MIN_VALUE;
+            value = 10 * value + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    protected static final float[] FLOAT_POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+    /**
+     * Parses a plain decimal such as -12.375 whose digits, ignoring the point, form an integer below 2^24
+     * with at most 10 of them after the point. Both the integer and the power of ten are then exact floats,
+     * so a single float division gives the same correctly-rounded result as Float.parseFloat.
+     *
+     * @return the value, or NaN if the token is not of that simple form
+     */
+    protected static float parseSimpleFloat( byte[] bytes, int from, int to )
+    {
+        boolean negative = bytes[from] == '-';
+        int start = negative ? from + 1 : from;
+
+        int mantissa = 0;
+        int numDigits = 0;
+        int pointIndex = -1;
+
+        for ( int i = start; i < to; i++ )
+        {
+            byte b = bytes[i];
+
+            if ( b == '.' && pointIndex < 0 )
+            {
+                pointIndex = i;
+                continue;
+            }
+
+            int digit = b - '0';
+            if ( digit < 0 || digit > 9 ) return Float.NaN;
+
+            mantissa = 10 * mantissa + digit;
+            numDigits++;
+
+            if ( mantissa >= ( 1 << 24 ) ) return Float.NaN;
+        }
+
+        if ( numDigits == 0 ) return Float.NaN;
+
+        int numFractionDigits = pointIndex < 0 ? 0 : to - pointIndex - 1;
+        if ( numFractionDigits >= FLOAT_POWERS_OF_TEN.length ) return Float.NaN;
+
+        float value = mantissa / FLOAT_POWERS_OF_TEN[numFractionDigits];
+        return negative ? -value : value;
+    }
+
     public class CSVParserFactory extends SimpleParserFactory
     {
         @Override
@@ -261,7 +724,7 @@ public class CsvParser implements TableParser
         }
     }
 
-    protected class CSVStringColumnParser extends StringColumnParser implements CSVTableColumnParser
+    protected class CSVStringColumnParser extends StringColumnParser implements CSVBytesColumnParser
     {
         @Override
         public void addData( String token )
@@ -269,6 +732,18 @@ public class CsvParser implements TableParser
             data.add( parse( token ) );
         }
 
+        @Override
+        public void addData( byte[] bytes, int from, int to )
+        {
+            data.add( new String( bytes, from, to - from, charset ) );
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            data.addAll( ( ( CSVStringColumnParser ) chunk ).data );
+        }
+
         @Override
         public void addGap( )
         {
@@ -276,8 +751,30 @@ public class CsvParser implements TableParser
         }
     }
 
-    protected class CSVIntegerColumnParser extends IntegerColumnParser implements CSVTableColumnParser
+    protected class CSVIntegerColumnParser extends IntegerColumnParser implements CSVBytesColumnParser
     {
+        @Override
+        public void addData( byte[] bytes, int from, int to ) throws DsplException
+        {
+            long value = from == to ? Long.MIN_VALUE : parseSimpleInt( bytes, from, to );
+
+            if ( value != Long.MIN_VALUE )
+            {
+                data.append( ( int ) value );
+            }
+            else
+            {
+                // empty, unusual or malformed tokens take the String path, which also handles errors
+                addData( new String( bytes, from, to - from, charset ) );
+            }
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            data.append( ( ( CSVIntegerColumnParser ) chunk ).data );
+        }
+
         @Override
         public void addData( String token ) throws DsplException
         {
@@ -314,8 +811,30 @@ public class CsvParser implements TableParser
         }
     }
 
-    protected class CSVFloatColumnParser extends FloatColumnParser implements CSVTableColumnParser
+    protected class CSVFloatColumnParser extends FloatColumnParser implements CSVBytesColumnParser
     {
+        @Override
+        public void addData( byte[] bytes, int from, int to ) throws DsplException
+        {
+            float value = from == to ? Float.NaN : parseSimpleFloat( bytes, from, to );
+
+            if ( !Float.isNaN( value ) )
+            {
+                data.append( value );
+            }
+            else
+            {
+                // empty, exponent, long or malformed tokens take the String path, which also handles errors
+                addData( new String( bytes, from, to - from, charset ) );
+            }
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            data.append( ( ( CSVFloatColumnParser ) chunk ).data );
+        }
+
         @Override
         public void addData( String token ) throws DsplException
         {
@@ -352,8 +871,28 @@ public class CsvParser implements TableParser
         }
     }
 
-    protected class CSVBooleanColumnParser extends BooleanColumnParser implements CSVTableColumnParser
+    protected class CSVBooleanColumnParser extends BooleanColumnParser implements CSVBytesColumnParser
     {
+        @Override
+        public void addData( byte[] bytes, int from, int to ) throws DsplException
+        {
+            if ( from == to )
+            {
+                addGap( );
+            }
+            else
+            {
+                // same as Boolean.parseBoolean: true ignoring case, anything else is false
+                data.append( to - from == 4 && ( bytes[from] | 0x20 ) == 't' && ( bytes[from + 1] | 0x20 ) == 'r' && ( bytes[from + 2] | 0x20 ) == 'u' && ( bytes[from + 3] | 0x20 ) == 'e' );
+            }
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            data.append( ( ( CSVBooleanColumnParser ) chunk ).data );
+        }
+
         @Override
         public void addData( String token ) throws DsplException
         {
@@ -390,37 +929,82 @@ public class CsvParser implements TableParser
         }
     }
 
-    protected class CSVDateColumnParser extends DateColumnParser implements CSVTableColumnParser
+    protected class CSVDateColumnParser extends DateColumnParser implements CSVBytesColumnParser
     {
+        // dates tend to repeat over many consecutive rows, so remember the last token parsed successfully
+        // (tokens which fail to parse are not remembered, so that each of them is reported)
+        protected byte[] lastToken;
+        protected long lastValue;
+
         public CSVDateColumnParser( Column column )
         {
             super( column );
         }
 
+        @Override
+        public void addData( byte[] bytes, int from, int to ) throws DsplException
+        {
+            if ( lastToken != null && lastToken.length == to - from && sameBytes( lastToken, bytes, from ) )
+            {
+                data.append( lastValue );
+            }
+            else if ( parseData( new String( bytes, from, to - from, charset ) ) )
+            {
+                lastToken = Arrays.copyOfRange( bytes, from, to );
+                lastValue = data.a[data.n - 1];
+            }
+        }
+
+        protected boolean sameBytes( byte[] token, byte[] bytes, int from )
+        {
+            for ( int i = 0; i < token.length; i++ )
+            {
+                if ( token[i] != bytes[from + i] ) return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            data.append( ( ( CSVDateColumnParser ) chunk ).data );
+        }
+
         @Override
         public void addData( String token ) throws DsplException
+        {
+            parseData( token );
+        }
+
+        /**
+         * Like {@link #addData(String)}, but returns true if the token was parsed as a date
+         * (false if it was empty or malformed, and a gap was added instead).
+         */
+        protected boolean parseData( String token ) throws DsplException
         {
             if ( token.isEmpty( ) )
             {
                 addGap( );
+                return false;
             }
-            else
+
+            try
             {
-                try
+                data.append( dateFormat.parseMillis( token ) );
+                return true;
+            }
+            catch ( IllegalArgumentException e )
+            {
+                if ( dsplParser.isFailOnErrorMode( ) )
                 {
-                    data.append( dateFormat.parseMillis( token ) );
+                    throw new DsplException( "Problem parsing: %s", e, token );
                 }
-                catch ( IllegalArgumentException e )
+                else
                 {
-                    if ( dsplParser.isFailOnErrorMode( ) )
-                    {
-                        throw new DsplException( "Problem parsing: %s", e, token );
-                    }
-                    else
-                    {
-                        logWarning( logger,  "Trouble parsing date: %s. Adding gap instead.", token );
-                        addGap( );
-                    }
+                    logWarning( logger,  "Trouble parsing date: %s. Adding gap instead.", token );
+                    addGap( );
+                    return false;
                 }
             }
         }
@@ -32,11 +32,14 @@ import static com.metsci.glimpse.util.logging.LoggerUtils.*;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -90,16 +93,10 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
     protected void parse( BufferedReader in, TableParserInfo info ) throws IOException, DsplException
     {
         CSVTableColumnParser[] parsers = ( CSVTableColumnParser[] ) info.getParsers( );
-        Column[] columns = info.getColumns( );
 
         int size = parsers.length;
         String line = null;
-
-        // extends the default parsing semantics to include a possible "remainder" format
-        // for the last column, indicating that that column should get all extra tokens as one string
-        String trailingFormat = columns[size - 1].getFormat( );
-        boolean allowExtraTrailingTokens = ( trailingFormat != null && trailingFormat.equals( "remainder" ) );
-        int splitLimit = allowExtraTrailingTokens ? size : Integer.MAX_VALUE;
+        int splitLimit = getSplitLimit( info );
 
         while ( ( line = in.readLine( ) ) != null )
         {
@@ -115,6 +112,69 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
         }
     }
 
+    @Override
+    protected void parseLine( byte[] bytes, int from, int to, TableParserInfo info, CSVBytesColumnParser[] parsers, IntsArray bounds ) throws IOException, DsplException
+    {
+        int size = parsers.length;
+        int numTokens = splitLine( bytes, from, to, ',', getSplitLimit( info ), bounds );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( i < numTokens )
+                parsers[i].addData( bytes, bounds.a[2 * i], bounds.a[2 * i + 1] );
+            else
+                parsers[i].addGap( );
+        }
+    }
+
+    // extends the default parsing semantics to include a possible "remainder" format
+    // for the last column, indicating that that column should get all extra tokens as one string
+    protected int getSplitLimit( TableParserInfo info )
+    {
+        Column[] columns = info.getColumns( );
+        int size = columns.length;
+
+        String trailingFormat = columns[size - 1].getFormat( );
+        boolean allowExtraTrailingTokens = ( trailingFormat != null && trailingFormat.equals( "remainder" ) );
+        return allowExtraTrailingTokens ? size : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Parses the rows of one data file into info, skipping its header line (which must be the
+     * same in all the files). Uses the parallel parse if it is enabled.
+     */
+    protected void parseRows( URL file, TableParserInfo info ) throws IOException, DsplException
+    {
+        if ( isParallelSupported( ) )
+        {
+            InputStream in = new BufferedInputStream( file.openStream( ) );
+
+            try
+            {
+                readFirstLine( in );
+                parseParallel( in, info );
+            }
+            finally
+            {
+                in.close( );
+            }
+        }
+        else
+        {
+            BufferedReader in = new BufferedReader( new InputStreamReader( file.openStream( ) ) );
+
+            try
+            {
+                in.readLine( );
+                parse( in, info );
+            }
+            finally
+            {
+                in.close( );
+            }
+        }
+    }
+
     @Override
     public SliceTableData parse( Slice slice ) throws IOException, JAXBException, DsplException
     {
@@ -135,17 +195,7 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
 
         for ( URL f : files )
         {
-            in = new BufferedReader( new InputStreamReader( f.openStream( ) ) );
-
-            try
-            {
-                in.readLine( ); // read the header line, which must be the same in all the files
-                parse( in, info );
-            }
-            finally
-            {
-                in.close( );
-            }
+            parseRows( f, info );
         }
 
         return buildSliceTableData( slice, info, factory );
@@ -171,22 +221,24 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
 
         for ( URL f : files )
         {
-            in = new BufferedReader( new InputStreamReader( f.openStream( ) ) );
-
-            try
-            {
-                in.readLine( ); // read the header line, which must be the same in all the files
-                parse( in, info );
-            }
-            finally
-            {
-                in.close( );
-            }
+            parseRows( f, info );
         }
 
         return buildPropertyTableData( concept, info, factory );
     }
 
+    @Override
+    public SliceTableData parse( Slice slice, URL file ) throws IOException, JAXBException, DsplException
+    {
+        return parse( slice, file.openStream( ) );
+    }
+
+    @Override
+    public PropertyTableData parse( Concept concept, URL file ) throws IOException, JAXBException, DsplException
+    {
+        return parse( concept, file.openStream( ) );
+    }
+
     @Override
     public List<URL> getDataFiles( Slice slice ) throws JAXBException, IOException, DsplException
     {
@@ -324,26 +376,53 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
 
             if ( intern )
             {
-                return new CSVCompactInternStringColumnParser( );
+                return new CSVCompactInternStringColumnParser( charset );
             }
             else
             {
-                return new CSVCompactStringColumnParser( );
+                return new CSVCompactStringColumnParser( charset );
             }
         }
     }
 
-    protected static class CSVCompactStringColumnParser implements CSVTableColumnParser
+    protected static class CSVCompactStringColumnParser implements CSVBytesColumnParser
     {
         protected BytesArray allStrings;
         protected IntsArray offsets;
+        protected Charset charset;
 
         public CSVCompactStringColumnParser( )
+        {
+            this( Charset.defaultCharset( ) );
+        }
+
+        public CSVCompactStringColumnParser( Charset charset )
         {
             super( );
 
             allStrings = new BytesArray( );
             offsets = new IntsArray( );
+            this.charset = charset;
+        }
+
+        @Override
+        public void addData( byte[] bytes, int from, int to )
+        {
+            addData( new String( bytes, from, to - from, charset ) );
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            CSVCompactStringColumnParser other = ( CSVCompactStringColumnParser ) chunk;
+
+            int base = allStrings.n;
+            for ( int i = 0; i < other.offsets.n; i++ )
+            {
+                offsets.append( base + other.offsets.a[i] );
+            }
+
+            allStrings.append( other.allStrings.a, 0, other.allStrings.n );
         }
 
         @Override
@@ -376,17 +455,24 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
         }
     }
 
-    protected static class CSVCompactInternStringColumnParser implements CSVTableColumnParser
+    protected static class CSVCompactInternStringColumnParser implements CSVBytesColumnParser
     {
         protected Object2IntOpenHashMap<String> indexByString;
         protected IntsArray indexByRow;
+        protected Charset charset;
 
         public CSVCompactInternStringColumnParser( )
+        {
+            this( Charset.defaultCharset( ) );
+        }
+
+        public CSVCompactInternStringColumnParser( Charset charset )
         {
             indexByString = new Object2IntOpenHashMap<String>( );
             indexByString.defaultReturnValue( -1 );
 
             indexByRow = new IntsArray( );
+            this.charset = charset;
         }
 
         @Override
@@ -394,8 +480,36 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
         {
             // We don't want to store a substring, which might hang on
             // to more characters than it needs. So make a clean copy.
-            value = new String( value );
+            indexByRow.append( intern( new String( value ) ) );
+        }
+
+        @Override
+        public void addData( byte[] bytes, int from, int to )
+        {
+            indexByRow.append( intern( new String( bytes, from, to - from, charset ) ) );
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            CSVCompactInternStringColumnParser other = ( CSVCompactInternStringColumnParser ) chunk;
+
+            // remap the chunk's unique strings once, then translate its rows
+            int[] remap = new int[other.indexByString.size( )];
+            for ( Object2IntMap.Entry<String> entry : other.indexByString.object2IntEntrySet( ) )
+            {
+                remap[entry.getIntValue( )] = intern( entry.getKey( ) );
+            }
 
+            for ( int i = 0; i < other.indexByRow.n; i++ )
+            {
+                int index = other.indexByRow.a[i];
+                indexByRow.append( index == -1 ? -1 : remap[index] );
+            }
+        }
+
+        protected int intern( String value )
+        {
             int index = indexByString.getInt( value );
             if ( index == -1 )
             {
@@ -403,7 +517,7 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
                 indexByString.put( value, index );
             }
 
-            indexByRow.append( index );
+            return index;
         }
 
         @Override
@@ -434,8 +548,9 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
         }
     }
 
-    protected class ExtendedCSVDateColumnParser extends DateColumnParser implements CSVTableColumnParser
+    protected class ExtendedCSVDateColumnParser extends DateColumnParser implements CSVBytesColumnParser
     {
+        // not thread safe, but each chunk of a parallel parse gets its own column parsers
         protected DateFormat alternateDateFormat;
 
         public ExtendedCSVDateColumnParser( Column column )
@@ -445,6 +560,18 @@ public class ExtendedCsvParser extends CsvParser implements MultipleFileTablePar
             this.alternateDateFormat = new SimpleDateFormat( format );
         }
 
+        @Override
+        public void addData( byte[] bytes, int from, int to ) throws DsplException
+        {
+            addData( new String( bytes, from, to - from, charset ) );
+        }
+
+        @Override
+        public void addAll( CSVBytesColumnParser chunk )
+        {
+            data.append( ( ( ExtendedCSVDateColumnParser ) chunk ).data );
+        }
+
         @Override
         public void addData( String token ) throws DsplException
         {
@@ -32,6 +32,8 @@ import java.util.List;
 
 import javax.xml.bind.JAXBException;
 
+import com.metsci.glimpse.dspl.parser.table.PropertyTableData;
+import com.metsci.glimpse.dspl.parser.table.SliceTableData;
 import com.metsci.glimpse.dspl.schema.Concept;
 import com.metsci.glimpse.dspl.schema.Slice;
 import com.metsci.glimpse.dspl.util.DsplException;
@@ -41,4 +43,12 @@ public interface MultipleFileTableParser extends TableParser
     public List<URL> getDataFiles( Slice slice ) throws JAXBException, IOException, DsplException;
 
     public List<URL> getDataFiles( Concept slice ) throws JAXBException, IOException, DsplException;
+
+    /**
+     * Parses the rows of a single one of the data files. Concatenating the results for each file
+     * returned by {@link #getDataFiles(Slice)}, in order, gives the same table as {@link #parse(Slice)}.
+     */
+    public SliceTableData parse( Slice slice, URL file ) throws JAXBException, IOException, DsplException;
+
+    public PropertyTableData parse( Concept concept, URL file ) throws JAXBException, IOException, DsplException;
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.dspl.parser.column;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.metsci.glimpse.dspl.schema.Concept;
+import com.metsci.glimpse.dspl.schema.DataType;
+import com.metsci.glimpse.dspl.schema.Table.Column;
+
+/**
+ * Joins the rows of several columns of the same type end to end without copying them.
+ * Single row getters delegate to the part containing the row, so lazily loaded parts
+ * are only decoded as their rows are used. The whole-column array getters concatenate
+ * the parts (see {@link TableColumnUtils#concatenate(List)}) the first time they are called.
+ *
+ * @author agent
+ */
+public class CompositeTableColumn extends AbstractTableColumn
+{
+    protected TableColumn[] parts;
+    // index of the first row of each part
+    protected int[] starts;
+
+    protected TableColumn concatenated;
+
+    public CompositeTableColumn( List<TableColumn> parts )
+    {
+        super( parts.get( 0 ).getColumn( ), parts.get( 0 ).getConcept( ), parts.get( 0 ).getType( ), 0 );
+
+        this.parts = parts.toArray( new TableColumn[parts.size( )] );
+        this.starts = new int[this.parts.length];
+
+        for ( int i = 0; i < this.parts.length; i++ )
+        {
+            this.starts[i] = this.size;
+            this.size += this.parts[i].getSize( );
+        }
+    }
+
+    protected int getPartIndex( int i )
+    {
+        int index = Arrays.binarySearch( starts, i );
+
+        if ( index < 0 ) return -index - 2;
+
+        // skip over empty parts which share a start row
+        while ( index + 1 < starts.length && starts[index + 1] == i )
+            index++;
+
+        return index;
+    }
+
+    protected synchronized TableColumn concatenate( )
+    {
+        if ( concatenated == null )
+        {
+            concatenated = TableColumnUtils.concatenate( Arrays.asList( parts ) );
+        }
+
+        return concatenated;
+    }
+
+    @Override
+    public boolean isConstant( )
+    {
+        return false;
+    }
+
+    @Override
+    public String[] getStringData( )
+    {
+        return concatenate( ).getStringData( );
+    }
+
+    @Override
+    public int[] getIntegerData( )
+    {
+        return concatenate( ).getIntegerData( );
+    }
+
+    @Override
+    public float[] getFloatData( )
+    {
+        return concatenate( ).getFloatData( );
+    }
+
+    @Override
+    public boolean[] getBooleanData( )
+    {
+        return concatenate( ).getBooleanData( );
+    }
+
+    @Override
+    public long[] getDateData( )
+    {
+        return concatenate( ).getDateData( );
+    }
+
+    @Override
+    public String getStringData( int i )
+    {
+        int part = getPartIndex( i );
+        return parts[part].getStringData( i - starts[part] );
+    }
+
+    @Override
+    public int getIntegerData( int i )
+    {
+        int part = getPartIndex( i );
+        return parts[part].getIntegerData( i - starts[part] );
+    }
+
+    @Override
+    public float getFloatData( int i )
+    {
+        int part = getPartIndex( i );
+        return parts[part].getFloatData( i - starts[part] );
+    }
+
+    @Override
+    public boolean getBooleanData( int i )
+    {
+        int part = getPartIndex( i );
+        return parts[part].getBooleanData( i - starts[part] );
+    }
+
+    @Override
+    public long getDateData( int i )
+    {
+        int part = getPartIndex( i );
+        return parts[part].getDateData( i - starts[part] );
+    }
+}
@@ -26,8 +26,206 @@
  */
 package com.metsci.glimpse.dspl.parser.column;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.metsci.glimpse.dspl.schema.DataType;
+
 public class TableColumnUtils
 {
+    /**
+     * Joins the rows of several columns of the same type end to end, in list order.
+     * The result is constant only if every part is a constant column (assumed to share one value).
+     * String columns keep their compact representation: if every part is a {@link CompactStringTableColumn}
+     * the result is one too, and if any part is a {@link CompactInternStringTableColumn} the result is
+     * interned across all the parts.
+     */
+    public static TableColumn concatenate( List<TableColumn> parts )
+    {
+        TableColumn first = parts.get( 0 );
+
+        int size = 0;
+        boolean constant = true;
+        for ( TableColumn part : parts )
+        {
+            size += part.getSize( );
+            constant = constant && part.isConstant( );
+        }
+
+        if ( constant )
+        {
+            return new ConstantTableColumn( first.getColumn( ), first.getConcept( ), first.getType( ), ( ( ConstantTableColumn ) first ).value, size );
+        }
+
+        if ( first.getType( ) == DataType.STRING )
+        {
+            boolean allCompact = true;
+            boolean anyInterned = false;
+            for ( TableColumn part : parts )
+            {
+                allCompact = allCompact && part instanceof CompactStringTableColumn;
+                anyInterned = anyInterned || part instanceof CompactInternStringTableColumn;
+            }
+
+            if ( allCompact ) return concatenateCompact( parts, size );
+            if ( anyInterned ) return concatenateInterned( parts, size );
+        }
+
+        Object data;
+        switch ( first.getType( ) )
+        {
+        case STRING:
+        case CONCEPT:
+            data = new String[size];
+            break;
+        case FLOAT:
+            data = new float[size];
+            break;
+        case INTEGER:
+            data = new int[size];
+            break;
+        case BOOLEAN:
+            data = new boolean[size];
+            break;
+        case DATE:
+            data = new long[size];
+            break;
+        default:
+            throw new UnsupportedOperationException( "Unknown Type: " + first.getType( ) );
+        }
+
+        int offset = 0;
+        for ( TableColumn part : parts )
+        {
+            Object partData;
+            switch ( first.getType( ) )
+            {
+            case STRING:
+            case CONCEPT:
+                partData = part.getStringData( );
+                break;
+            case FLOAT:
+                partData = part.getFloatData( );
+                break;
+            case INTEGER:
+                partData = part.getIntegerData( );
+                break;
+            case BOOLEAN:
+                partData = part.getBooleanData( );
+                break;
+            default:
+                partData = part.getDateData( );
+                break;
+            }
+
+            System.arraycopy( partData, 0, data, offset, part.getSize( ) );
+            offset += part.getSize( );
+        }
+
+        return buildTableColumn( first, data, size );
+    }
+
+    /**
+     * Like {@link #concatenate(List)}, but the rows of the parts are not copied: unless every part is
+     * constant, the result is a {@link CompositeTableColumn} which delegates to the parts. This keeps
+     * lazily loaded parts from being decoded until their rows are used.
+     */
+    public static TableColumn join( List<TableColumn> parts )
+    {
+        if ( parts.size( ) == 1 ) return parts.get( 0 );
+
+        boolean constant = true;
+        for ( TableColumn part : parts )
+        {
+            constant = constant && part.isConstant( );
+        }
+
+        if ( constant ) return concatenate( parts );
+
+        return new CompositeTableColumn( parts );
+    }
+
+    protected static TableColumn concatenateCompact( List<TableColumn> parts, int size )
+    {
+        TableColumn first = parts.get( 0 );
+
+        StringBuilder allStrings = new StringBuilder( );
+        int[] offsets = new int[size];
+
+        int row = 0;
+        for ( TableColumn part : parts )
+        {
+            CompactStringTableColumn compact = ( CompactStringTableColumn ) part;
+
+            int base = allStrings.length( );
+            for ( int i = 0; i < compact.getSize( ); i++ )
+            {
+                offsets[row++] = base + compact.offsets[i];
+            }
+
+            allStrings.append( compact.allStrings );
+        }
+
+        return new CompactStringTableColumn( first.getColumn( ), first.getConcept( ), size, allStrings.toString( ), offsets );
+    }
+
+    protected static TableColumn concatenateInterned( List<TableColumn> parts, int size )
+    {
+        TableColumn first = parts.get( 0 );
+
+        Map<String, Integer> indexByString = new HashMap<String, Integer>( );
+        List<String> uniqueStrings = new ArrayList<String>( );
+        int[] indexByRow = new int[size];
+
+        int row = 0;
+        for ( TableColumn part : parts )
+        {
+            if ( part instanceof CompactInternStringTableColumn )
+            {
+                // remap the part's unique strings once, then translate its rows
+                CompactInternStringTableColumn interned = ( CompactInternStringTableColumn ) part;
+
+                int[] remap = new int[interned.uniqueStrings.length];
+                for ( int i = 0; i < remap.length; i++ )
+                {
+                    remap[i] = intern( interned.uniqueStrings[i], indexByString, uniqueStrings );
+                }
+
+                for ( int i = 0; i < interned.getSize( ); i++ )
+                {
+                    int index = interned.indexByRow[i];
+                    indexByRow[row++] = index == -1 ? -1 : remap[index];
+                }
+            }
+            else
+            {
+                for ( int i = 0; i < part.getSize( ); i++ )
+                {
+                    indexByRow[row++] = intern( part.getStringData( i ), indexByString, uniqueStrings );
+                }
+            }
+        }
+
+        return new CompactInternStringTableColumn( first.getColumn( ), first.getConcept( ), size, uniqueStrings.toArray( new String[uniqueStrings.size( )] ), indexByRow );
+    }
+
+    protected static int intern( String string, Map<String, Integer> indexByString, List<String> uniqueStrings )
+    {
+        if ( string == null ) return -1;
+
+        Integer index = indexByString.get( string );
+        if ( index == null )
+        {
+            index = uniqueStrings.size( );
+            indexByString.put( string, index );
+            uniqueStrings.add( string );
+        }
+
+        return index;
+    }
+
     public static TableColumn buildFilteredTableColumn( TableColumn in, int[] indexArray )
     {
         int size = indexArray.length;
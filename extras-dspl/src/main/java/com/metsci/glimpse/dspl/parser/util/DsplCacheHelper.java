@@ -26,30 +26,46 @@
  */
 package com.metsci.glimpse.dspl.parser.util;
 
+import static com.metsci.glimpse.util.logging.LoggerUtils.*;
+
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.bind.JAXBException;
 
 import com.metsci.glimpse.dspl.DsplParser;
+import com.metsci.glimpse.dspl.parser.ColumnBinaryParser;
 import com.metsci.glimpse.dspl.parser.MultipleFileTableParser;
 import com.metsci.glimpse.dspl.parser.TableParser;
 import com.metsci.glimpse.dspl.parser.TableWriter;
+import com.metsci.glimpse.dspl.parser.column.TableColumn;
+import com.metsci.glimpse.dspl.parser.column.TableColumnUtils;
 import com.metsci.glimpse.dspl.parser.table.PropertyTableData;
+import com.metsci.glimpse.dspl.parser.table.SimplePropertyTableData;
+import com.metsci.glimpse.dspl.parser.table.SimpleSliceTableData;
 import com.metsci.glimpse.dspl.parser.table.SliceTableData;
 import com.metsci.glimpse.dspl.schema.Concept;
+import com.metsci.glimpse.dspl.schema.Data;
 import com.metsci.glimpse.dspl.schema.DataSet;
 import com.metsci.glimpse.dspl.schema.Slice;
 import com.metsci.glimpse.dspl.schema.Table;
@@ -71,67 +87,75 @@ public class DsplCacheHelper
     public static final String CACHE_FORMAT = "bin";
     public static final String HASH_FILE = ".md5";
 
+    // manifest key for tables whose data file cannot be located without opening it
+    protected static final String TABLE_SOURCE = "table";
+
     public static PropertyTableData getTableData( Concept concept ) throws DsplException, JAXBException, IOException
     {
-        try
-        {
-            if ( concept == null ) return null;
+        if ( concept == null ) return null;
 
-            DataSet dataset = concept.getDataSet( );
-            if ( dataset == null ) return null;
+        DataSet dataset = concept.getDataSet( );
+        if ( dataset == null ) return null;
 
-            DsplParser dsplParser = dataset.getParser( );
-            if ( dsplParser == null ) return null;
+        DsplParser dsplParser = dataset.getParser( );
+        if ( dsplParser == null ) return null;
 
-            String calculatedHash = getCalculatedHash( concept );
-            if ( calculatedHash == null ) return null;
+        Table table = concept.getTable( );
+        if ( table == null ) return null;
 
-            Table table = concept.getTable( );
-            if ( table == null ) return null;
+        TableParser parser = dsplParser.getTableParser( table );
+        if ( parser == null ) return null;
 
-            TableParser parser = dsplParser.getTableParser( table );
-            if ( parser == null ) return null;
+        // check whether this data type should be cached (we don't bother for fast formats)
+        // if not, simply parse it in the regular way
+        if ( !parser.isCachable( ) )
+        {
+            return parser.parse( concept );
+        }
 
-            // check whether this data type should be cached (we don't bother for fast formats)
-            // if not, simply parse it in the regular way
-            if ( !parser.isCachable( ) )
-            {
-                return parser.parse( concept );
-            }
+        return getTableData( new ConceptCachedTable( concept, table, dsplParser, parser ) );
+    }
 
-            String cachedHash = getCachedHash( concept );
+    public static SliceTableData getTableData( Slice slice ) throws DsplException, JAXBException, IOException
+    {
+        if ( slice == null ) return null;
 
-            // the cache has not been created or the csv data has changed, load the data from the csv file and recreate the hash
-            if ( cachedHash == null || !cachedHash.equals( calculatedHash ) )
-            {
-                PropertyTableData tableData = parser.parse( concept );
+        DataSet dataset = slice.getDataSet( );
+        if ( dataset == null ) return null;
 
-                File cacheFile = getCacheFile( concept );
-                FileOutputStream cacheFileStream = new FileOutputStream( cacheFile );
+        DsplParser dsplParser = dataset.getParser( );
+        if ( dsplParser == null ) return null;
 
-                String cacheFormat = getExtension( cacheFile );
+        Table table = slice.getTable( );
+        if ( table == null ) return null;
 
-                TableParser cacheParser = dsplParser.getTableParser( cacheFormat );
+        TableParser parser = dsplParser.getTableParser( table );
+        if ( parser == null ) return null;
 
-                if ( cacheParser instanceof TableWriter )
-                {
-                    ( ( TableWriter ) cacheParser ).write( concept, tableData, cacheFileStream.getChannel( ) );
-                    writeHash( concept, calculatedHash );
-                }
-                else
-                {
-                    throw new DsplException( "Invalid cache format: %s. TableParser %s is not a TableWriter.", cacheFormat, cacheParser.getClass( ) );
-                }
+        // check whether this data type should be cached (we don't bother for fast formats)
+        // if not, simply parse it in the regular way
+        if ( !parser.isCachable( ) )
+        {
+            return parser.parse( slice );
+        }
 
-                return tableData;
+        return getTableData( new SliceCachedTable( slice, table, dsplParser, parser ) );
+    }
+
+    protected static <T> T getTableData( CachedTable<T> table ) throws DsplException, JAXBException, IOException
+    {
+        try
+        {
+            File cacheDirectory = table.getCacheDirectory( );
+            DsplCacheManifest manifest = DsplCacheManifest.read( cacheDirectory );
+
+            if ( table.parser instanceof MultipleFileTableParser )
+            {
+                return getMultipleFileTableData( table, cacheDirectory, manifest );
             }
-            // load the data from the cache
             else
             {
-                File cacheFile = getCacheFile( concept );
-                FileInputStream cacheFileStream = new FileInputStream( cacheFile );
-                TableParser cacheParser = dsplParser.getTableParser( getExtension( cacheFile ) );
-                return cacheParser.parse( concept, cacheFileStream.getChannel( ) );
+                return getSingleFileTableData( table, cacheDirectory, manifest );
             }
         }
         catch ( NoSuchAlgorithmException e )
@@ -140,75 +164,215 @@ public class DsplCacheHelper
         }
     }
 
-    public static SliceTableData getTableData( Slice slice ) throws DsplException, JAXBException, IOException
+    protected static <T> T getSingleFileTableData( CachedTable<T> table, File cacheDirectory, DsplCacheManifest manifest ) throws DsplException, JAXBException, IOException, NoSuchAlgorithmException
     {
-        try
+        URL source = getTableSource( table.getTable( ) );
+        String key = source == null ? TABLE_SOURCE : source.toString( );
+
+        DsplCacheManifest.Entry cached = manifest.get( key );
+        if ( cached == null )
         {
-            if ( slice == null ) return null;
+            // caches written before manifests existed only recorded the full hash
+            String cachedHash = getCachedHash( cacheDirectory );
+            if ( cachedHash != null ) cached = new DsplCacheManifest.Entry( key, cachedHash );
+        }
 
-            DataSet dataset = slice.getDataSet( );
-            if ( dataset == null ) return null;
+        DsplCacheManifest.Entry current = source == null ? null : DsplCacheManifest.fingerprint( source );
+        if ( current == null ) current = new DsplCacheManifest.Entry( key, null );
 
-            DsplParser dsplParser = dataset.getParser( );
-            if ( dsplParser == null ) return null;
+        if ( !current.matches( cached ) )
+        {
+            current.setFullHash( MD5Checksum.getMD5Checksum( table.openSource( ) ) );
+        }
+        else
+        {
+            current.setFullHash( cached.getFullHash( ) );
+        }
 
-            String calculatedHash = getCalculatedHash( slice );
-            if ( calculatedHash == null ) return null;
+        File cacheFile = table.getCacheFile( );
 
-            Table table = slice.getTable( );
-            if ( table == null ) return null;
+        // load the data from the cache
+        if ( cached != null && current.getFullHash( ).equals( cached.getFullHash( ) ) && cacheFile.exists( ) )
+        {
+            // the contents are unchanged, but remember the new fingerprint so the full hash is skipped next time
+            if ( !current.matches( cached ) )
+            {
+                manifest.put( current );
+                manifest.write( cacheDirectory );
+            }
+
+            return table.readCache( cacheFile );
+        }
 
-            TableParser parser = dsplParser.getTableParser( table );
-            if ( parser == null ) return null;
+        // the cache has not been created or the data has changed, parse the data and recreate the cache
+        T tableData = table.parse( );
+
+        if ( table.writeCache( tableData, cacheFile ) )
+        {
+            DsplCacheManifest newManifest = new DsplCacheManifest( );
+            newManifest.put( current );
+            newManifest.write( cacheDirectory );
+
+            writeHash( cacheDirectory, current.getFullHash( ) );
+        }
 
-            // check whether this data type should be cached (we don't bother for fast formats)
-            // if not, simply parse it in the regular way
-            if ( !parser.isCachable( ) )
+        return tableData;
+    }
+
+    /**
+     * Each data file of a multiple file table gets its own cache, so that a change to one file
+     * only requires that file to be parsed again. The per-file tables are concatenated in order.
+     */
+    protected static <T> T getMultipleFileTableData( CachedTable<T> table, File cacheDirectory, DsplCacheManifest manifest ) throws DsplException, JAXBException, IOException, NoSuchAlgorithmException
+    {
+        List<URL> files = table.getDataFiles( );
+
+        if ( files.isEmpty( ) )
+        {
+            throw new DsplException( "No data files found for %s.", table.getId( ) );
+        }
+
+        List<DsplCacheManifest.Entry> entries = validate( files, manifest );
+
+        DsplCacheManifest newManifest = new DsplCacheManifest( );
+        List<T> parts = new ArrayList<T>( files.size( ) );
+
+        for ( int i = 0; i < files.size( ); i++ )
+        {
+            DsplCacheManifest.Entry current = entries.get( i );
+            DsplCacheManifest.Entry cached = manifest.get( current.getSource( ) );
+            File partFile = getPartCacheFile( cacheDirectory, current.getSource( ) );
+
+            if ( cached != null && current.getFullHash( ).equals( cached.getFullHash( ) ) && partFile.exists( ) )
             {
-                return parser.parse( slice );
+                parts.add( table.readCache( partFile ) );
+                newManifest.put( current );
             }
+            else
+            {
+                T part = table.parse( files.get( i ) );
+                parts.add( part );
 
-            String cachedHash = getCachedHash( slice );
+                if ( table.writeCache( part, partFile ) ) newManifest.put( current );
+            }
+        }
 
-            // the cache has not been created or the csv data has changed, load the data from the csv file and recreate the hash
-            if ( cachedHash == null || !cachedHash.equals( calculatedHash ) )
+        // remove the caches of files which no longer exist
+        for ( DsplCacheManifest.Entry entry : manifest.getEntries( ) )
+        {
+            if ( newManifest.get( entry.getSource( ) ) == null )
             {
-                SliceTableData tableData = parser.parse( slice );
+                getPartCacheFile( cacheDirectory, entry.getSource( ) ).delete( );
+            }
+        }
 
-                File cacheFile = getCacheFile( slice );
-                OutputStream cacheFileStream = new FileOutputStream( cacheFile );
+        newManifest.write( cacheDirectory );
 
-                String cacheFormat = getExtension( cacheFile );
+        return table.combine( parts );
+    }
 
-                TableParser cacheParser = dsplParser.getTableParser( cacheFormat );
+    /**
+     * Brings the fingerprints of the given files up to date, in parallel. Full hashes are only
+     * computed for files whose cheap fingerprint does not match the manifest.
+     */
+    protected static List<DsplCacheManifest.Entry> validate( List<URL> files, final DsplCacheManifest manifest ) throws DsplException, IOException
+    {
+        int numThreads = Math.max( 1, Math.min( files.size( ), Runtime.getRuntime( ).availableProcessors( ) ) );
+        ExecutorService executor = Executors.newFixedThreadPool( numThreads );
 
-                if ( cacheParser instanceof TableWriter )
-                {
-                    ( ( TableWriter ) cacheParser ).write( slice, tableData, cacheFileStream );
-                    writeHash( slice, calculatedHash );
-                }
-                else
-                {
-                    throw new DsplException( "Invalid cache format: %s. TableParser %s is not a TableWriter.", cacheFormat, cacheParser.getClass( ) );
-                }
+        try
+        {
+            List<Future<DsplCacheManifest.Entry>> futures = new ArrayList<Future<DsplCacheManifest.Entry>>( files.size( ) );
 
-                return tableData;
+            for ( final URL file : files )
+            {
+                futures.add( executor.submit( new Callable<DsplCacheManifest.Entry>( )
+                {
+                    @Override
+                    public DsplCacheManifest.Entry call( ) throws Exception
+                    {
+                        DsplCacheManifest.Entry cached = manifest.get( file.toString( ) );
+                        DsplCacheManifest.Entry current = DsplCacheManifest.fingerprint( file );
+                        if ( current == null ) current = new DsplCacheManifest.Entry( file.toString( ), null );
+
+                        if ( current.matches( cached ) )
+                            current.setFullHash( cached.getFullHash( ) );
+                        else
+                            current.setFullHash( DsplCacheManifest.fullHash( file ) );
+
+                        return current;
+                    }
+                } ) );
             }
-            // load the data from the cache
-            else
+
+            List<DsplCacheManifest.Entry> entries = new ArrayList<DsplCacheManifest.Entry>( files.size( ) );
+
+            for ( Future<DsplCacheManifest.Entry> future : futures )
             {
-                File cacheFile = getCacheFile( slice );
-                InputStream cacheFileStream = new FileInputStream( cacheFile );
-                TableParser cacheParser = dsplParser.getTableParser( getExtension( cacheFile ) );
-                return cacheParser.parse( slice, cacheFileStream );
+                entries.add( future.get( ) );
             }
+
+            return entries;
         }
-        catch ( NoSuchAlgorithmException e )
+        catch ( InterruptedException e )
         {
-            throw new DsplException( "Unable to load from cache.", e );
+            Thread.currentThread( ).interrupt( );
+            throw new DsplException( "Interrupted while validating cache.", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause( );
+            if ( cause instanceof IOException ) throw ( IOException ) cause;
+            throw new DsplException( "Unable to validate cache.", cause );
+        }
+        finally
+        {
+            executor.shutdownNow( );
         }
     }
 
+    /**
+     * @return the data file of a single file table, if it can be located without opening it, or null
+     */
+    protected static URL getTableSource( Table table ) throws IOException
+    {
+        Data data = table.getData( );
+        if ( data == null ) return null;
+
+        DataSet dataset = table.getDataSet( );
+        String name = data.getFile( ).getValue( );
+
+        // canonical tables may come from the network
+        String namespace = dataset.getTargetNamespace( );
+        if ( namespace != null && ( namespace.startsWith( DsplHelper.canonicalGoogleNamespace ) || namespace.startsWith( DsplHelper.canonicalMetronNamespace ) ) ) return null;
+
+        // follow the same search order as DsplHelper.getLocalTableInputStream
+        File file = new File( name );
+        if ( file.isFile( ) ) return file.toURI( ).toURL( );
+
+        URL resource = DsplCacheHelper.class.getClassLoader( ).getResource( name );
+        if ( resource != null ) return resource;
+
+        File dataSetFile = dataset.getFile( );
+        if ( dataSetFile == null ) return null;
+
+        if ( dataSetFile.getName( ).endsWith( ".zip" ) )
+        {
+            return new URL( String.format( "jar:file:%s!/%s", dataSetFile.getAbsolutePath( ), name ) );
+        }
+
+        File relativeFile = new File( dataSetFile.getParentFile( ), name );
+        if ( relativeFile.isFile( ) ) return relativeFile.toURI( ).toURL( );
+
+        return null;
+    }
+
+    protected static File getPartCacheFile( File cacheDirectory, String source ) throws IOException, NoSuchAlgorithmException
+    {
+        String sourceHash = MD5Checksum.getMD5Checksum( new ByteArrayInputStream( source.getBytes( "UTF-8" ) ) );
+        return new File( cacheDirectory, CACHE_FILE + "_" + sourceHash + "." + CACHE_FORMAT );
+    }
+
     public static File getCacheDirectory( Concept concept ) throws DsplException, JAXBException, IOException
     {
         return getCacheDirectory( concept.getDataSet( ), concept.getTable( ), concept.getId( ) );
@@ -291,6 +455,12 @@ public class DsplCacheHelper
         return new File( sliceDir, CACHE_FILE + "." + CACHE_FORMAT );
     }
 
+    /**
+     * @deprecated the cache is now validated against the fingerprints in its {@link DsplCacheManifest}.
+     *             Equivalent to the old hash of the slice's data, but reuses the full hashes recorded in the
+     *             manifest for any data file whose fingerprint is unchanged.
+     */
+    @Deprecated
     public static String getCalculatedHash( Slice slice ) throws DsplException, JAXBException, IOException, NoSuchAlgorithmException
     {
         DataSet dataset = slice.getDataSet( );
@@ -298,43 +468,15 @@ public class DsplCacheHelper
         Table table = slice.getTable( );
         TableParser parser = dsplParser.getTableParser( table );
 
-        // the existence of ExtendedCsvParser complicates things because the data is split over multiple
-        // tables so the hash must hash over all the data files
-        // we handle this by computing a hash for each file then computing the hash of the individual hashes
-        if ( parser instanceof MultipleFileTableParser )
-        {
-            MultipleFileTableParser multiFileParser = ( MultipleFileTableParser ) parser;
-            List<URL> fileList = multiFileParser.getDataFiles( slice );
-            List<byte[]> fileHashList = new ArrayList<byte[]>( );
-
-            for ( URL file : fileList )
-            {
-                fileHashList.add( MD5Checksum.createChecksum( file.openStream( ) ) );
-            }
-
-            int totalSize = 0;
-            for ( byte[] hash : fileHashList )
-            {
-                totalSize += hash.length;
-            }
-
-            int currentSize = 0;
-            byte[] allHashes = new byte[totalSize];
-            for ( byte[] hash : fileHashList )
-            {
-                System.arraycopy( hash, 0, allHashes, currentSize, hash.length );
-                currentSize += hash.length;
-            }
-
-            return MD5Checksum.getMD5Checksum( allHashes );
-        }
-        else
-        {
-            InputStream hashIn = DsplHelper.getTableInputStream( slice );
-            return MD5Checksum.getMD5Checksum( hashIn );
-        }
+        return getCalculatedHash( new SliceCachedTable( slice, table, dsplParser, parser ) );
     }
 
+    /**
+     * @deprecated the cache is now validated against the fingerprints in its {@link DsplCacheManifest}.
+     *             Equivalent to the old hash of the concept's data, but reuses the full hashes recorded in the
+     *             manifest for any data file whose fingerprint is unchanged.
+     */
+    @Deprecated
     public static String getCalculatedHash( Concept concept ) throws DsplException, JAXBException, IOException, NoSuchAlgorithmException
     {
         DataSet dataset = concept.getDataSet( );
@@ -342,40 +484,35 @@ public class DsplCacheHelper
         Table table = concept.getTable( );
         TableParser parser = dsplParser.getTableParser( table );
 
-        // the existence of ExtendedCsvParser complicates things because the data is split over multiple
-        // tables so the hash must hash over all the data files
-        // we handle this by computing a hash for each file then computing the hash of the individual hashes
-        if ( parser instanceof MultipleFileTableParser )
-        {
-            MultipleFileTableParser multiFileParser = ( MultipleFileTableParser ) parser;
-            List<URL> fileList = multiFileParser.getDataFiles( concept );
-            List<byte[]> fileHashList = new ArrayList<byte[]>( );
-
-            for ( URL file : fileList )
-            {
-                fileHashList.add( MD5Checksum.createChecksum( file.openStream( ) ) );
-            }
+        return getCalculatedHash( new ConceptCachedTable( concept, table, dsplParser, parser ) );
+    }
 
-            int totalSize = 0;
-            for ( byte[] hash : fileHashList )
-            {
-                totalSize += hash.length;
-            }
+    protected static String getCalculatedHash( CachedTable<?> table ) throws DsplException, JAXBException, IOException, NoSuchAlgorithmException
+    {
+        DsplCacheManifest manifest = DsplCacheManifest.read( table.getCacheDirectory( ) );
 
-            int currentSize = 0;
-            byte[] allHashes = new byte[totalSize];
-            for ( byte[] hash : fileHashList )
+        // the hash of a multiple file table is the concatenation of the hashes of its files
+        if ( table.parser instanceof MultipleFileTableParser )
+        {
+            StringBuilder hash = new StringBuilder( );
+            for ( DsplCacheManifest.Entry entry : validate( table.getDataFiles( ), manifest ) )
             {
-                System.arraycopy( hash, 0, allHashes, currentSize, hash.length );
-                currentSize += hash.length;
+                hash.append( entry.getFullHash( ) );
             }
 
-            return MD5Checksum.getMD5Checksum( allHashes );
+            return hash.toString( );
         }
         else
         {
-            InputStream hashIn = DsplHelper.getTableInputStream( concept );
-            return MD5Checksum.getMD5Checksum( hashIn );
+            URL source = getTableSource( table.getTable( ) );
+            if ( source != null )
+            {
+                DsplCacheManifest.Entry cached = manifest.get( source.toString( ) );
+                DsplCacheManifest.Entry current = DsplCacheManifest.fingerprint( source );
+                if ( current != null && current.matches( cached ) ) return cached.getFullHash( );
+            }
+
+            return MD5Checksum.getMD5Checksum( table.openSource( ) );
         }
     }
 
@@ -391,8 +528,11 @@ public class DsplCacheHelper
 
     protected static String getCachedHash( DataSet dataset, Table table, String id ) throws DsplException, JAXBException, IOException
     {
-        File cacheDirectory = getCacheDirectory( dataset, table, id );
+        return getCachedHash( getCacheDirectory( dataset, table, id ) );
+    }
 
+    protected static String getCachedHash( File cacheDirectory ) throws IOException
+    {
         for ( File file : cacheDirectory.listFiles( ) )
         {
             String fileName = file.getName( );
@@ -433,6 +573,26 @@ public class DsplCacheHelper
         out.close( );
     }
 
+    protected static File getTempFile( File file )
+    {
+        return new File( file.getParentFile( ), file.getName( ) + ".tmp" );
+    }
+
+    // cache files may still be memory-mapped by lazily loaded tables, so a new cache file is
+    // written alongside the old one and renamed over it, rather than truncating the old one in place
+    protected static boolean replaceFile( File source, File target )
+    {
+        if ( source.renameTo( target ) ) return true;
+
+        // some platforms cannot rename over an existing file
+        target.delete( );
+        if ( source.renameTo( target ) ) return true;
+
+        logWarning( logger, "Unable to replace cache file %s. It will be rebuilt on next load.", target );
+        source.delete( );
+        return false;
+    }
+
     protected static String getExtension( File file )
     {
         if ( file == null ) return null;
@@ -443,4 +603,266 @@ public class DsplCacheHelper
 
         return name.substring( index + 1, name.length( ) );
     }
+
+    /**
+     * Adapts the Slice and Concept variants of the cache operations so that the
+     * validation logic above only needs to be written once.
+     */
+    protected static abstract class CachedTable<T>
+    {
+        protected DsplParser dsplParser;
+        protected TableParser parser;
+        protected DataSet dataset;
+        protected Table table;
+        protected String id;
+
+        public CachedTable( DataSet dataset, Table table, String id, DsplParser dsplParser, TableParser parser )
+        {
+            this.dataset = dataset;
+            this.table = table;
+            this.id = id;
+            this.dsplParser = dsplParser;
+            this.parser = parser;
+        }
+
+        public Table getTable( )
+        {
+            return table;
+        }
+
+        public String getId( )
+        {
+            return id;
+        }
+
+        public File getCacheDirectory( ) throws DsplException, JAXBException, IOException
+        {
+            return DsplCacheHelper.getCacheDirectory( dataset, table, id );
+        }
+
+        public File getCacheFile( ) throws DsplException, JAXBException, IOException, NoSuchAlgorithmException
+        {
+            return DsplCacheHelper.getCacheFile( dataset, table, id );
+        }
+
+        public TableParser getCacheParser( File cacheFile )
+        {
+            return dsplParser.getTableParser( getExtension( cacheFile ) );
+        }
+
+        /**
+         * Writes the table to a temporary file which then replaces the cache file.
+         *
+         * @return whether the cache file was replaced
+         */
+        public boolean writeCache( T data, File cacheFile ) throws DsplException, JAXBException, IOException
+        {
+            TableParser cacheParser = getCacheParser( cacheFile );
+
+            if ( !( cacheParser instanceof TableWriter ) )
+            {
+                throw new DsplException( "Invalid cache format: %s. TableParser %s is not a TableWriter.", getExtension( cacheFile ), cacheParser.getClass( ) );
+            }
+
+            File tempFile = getTempFile( cacheFile );
+            FileOutputStream out = new FileOutputStream( tempFile );
+            try
+            {
+                write( ( TableWriter ) cacheParser, data, out.getChannel( ) );
+            }
+            finally
+            {
+                out.close( );
+            }
+
+            return replaceFile( tempFile, cacheFile );
+        }
+
+        public abstract List<URL> getDataFiles( ) throws DsplException, JAXBException, IOException;
+
+        public abstract InputStream openSource( ) throws DsplException, JAXBException, IOException;
+
+        public abstract T parse( ) throws DsplException, JAXBException, IOException;
+
+        public abstract T parse( URL file ) throws DsplException, JAXBException, IOException;
+
+        public abstract T readCache( File cacheFile ) throws DsplException, JAXBException, IOException;
+
+        public abstract T combine( List<T> parts ) throws DsplException;
+
+        /**
+         * In lazy cache mode the parts are joined without decoding them, otherwise they are copied into one column.
+         */
+        protected TableColumn combineColumns( List<TableColumn> parts )
+        {
+            if ( dsplParser.isLazyCacheMode( ) )
+            {
+                return TableColumnUtils.join( parts );
+            }
+            else
+            {
+                return TableColumnUtils.concatenate( parts );
+            }
+        }
+
+        protected abstract void write( TableWriter writer, T data, FileChannel channel ) throws DsplException, JAXBException, IOException;
+    }
+
+    protected static class SliceCachedTable extends CachedTable<SliceTableData>
+    {
+        protected Slice slice;
+
+        public SliceCachedTable( Slice slice, Table table, DsplParser dsplParser, TableParser parser )
+        {
+            super( slice.getDataSet( ), table, slice.getId( ), dsplParser, parser );
+            this.slice = slice;
+        }
+
+        @Override
+        public List<URL> getDataFiles( ) throws DsplException, JAXBException, IOException
+        {
+            return ( ( MultipleFileTableParser ) parser ).getDataFiles( slice );
+        }
+
+        @Override
+        public InputStream openSource( ) throws DsplException, JAXBException, IOException
+        {
+            return DsplHelper.getTableInputStream( slice );
+        }
+
+        @Override
+        public SliceTableData parse( ) throws DsplException, JAXBException, IOException
+        {
+            return parser.parse( slice );
+        }
+
+        @Override
+        public SliceTableData parse( URL file ) throws DsplException, JAXBException, IOException
+        {
+            return ( ( MultipleFileTableParser ) parser ).parse( slice, file );
+        }
+
+        @Override
+        public SliceTableData readCache( File cacheFile ) throws DsplException, JAXBException, IOException
+        {
+            TableParser cacheParser = getCacheParser( cacheFile );
+
+            if ( dsplParser.isLazyCacheMode( ) && cacheParser instanceof ColumnBinaryParser )
+            {
+                return ( ( ColumnBinaryParser ) cacheParser ).parseLazy( slice, cacheFile );
+            }
+
+            InputStream cacheFileStream = new FileInputStream( cacheFile );
+            return cacheParser.parse( slice, cacheFileStream );
+        }
+
+        @Override
+        public SliceTableData combine( List<SliceTableData> parts ) throws DsplException
+        {
+            if ( parts.size( ) == 1 ) return parts.get( 0 );
+
+            SliceTableData first = parts.get( 0 );
+
+            Map<String, TableColumn> dimensionColumns = new LinkedHashMap<String, TableColumn>( );
+            for ( String columnId : first.getDimensionColumnIds( ) )
+            {
+                List<TableColumn> columns = new ArrayList<TableColumn>( parts.size( ) );
+                for ( SliceTableData part : parts )
+                    columns.add( part.getDimensionColumn( columnId ) );
+
+                dimensionColumns.put( columnId, combineColumns( columns ) );
+            }
+
+            Map<String, TableColumn> metricColumns = new LinkedHashMap<String, TableColumn>( );
+            for ( String columnId : first.getMetricColumnIds( ) )
+            {
+                List<TableColumn> columns = new ArrayList<TableColumn>( parts.size( ) );
+                for ( SliceTableData part : parts )
+                    columns.add( part.getMetricColumn( columnId ) );
+
+                metricColumns.put( columnId, combineColumns( columns ) );
+            }
+
+            return new SimpleSliceTableData( slice, dimensionColumns, metricColumns );
+        }
+
+        @Override
+        protected void write( TableWriter writer, SliceTableData data, FileChannel channel ) throws DsplException, JAXBException, IOException
+        {
+            writer.write( slice, data, channel );
+        }
+    }
+
+    protected static class ConceptCachedTable extends CachedTable<PropertyTableData>
+    {
+        protected Concept concept;
+
+        public ConceptCachedTable( Concept concept, Table table, DsplParser dsplParser, TableParser parser )
+        {
+            super( concept.getDataSet( ), table, concept.getId( ), dsplParser, parser );
+            this.concept = concept;
+        }
+
+        @Override
+        public List<URL> getDataFiles( ) throws DsplException, JAXBException, IOException
+        {
+            return ( ( MultipleFileTableParser ) parser ).getDataFiles( concept );
+        }
+
+        @Override
+        public InputStream openSource( ) throws DsplException, JAXBException, IOException
+        {
+            return DsplHelper.getTableInputStream( concept );
+        }
+
+        @Override
+        public PropertyTableData parse( ) throws DsplException, JAXBException, IOException
+        {
+            return parser.parse( concept );
+        }
+
+        @Override
+        public PropertyTableData parse( URL file ) throws DsplException, JAXBException, IOException
+        {
+            return ( ( MultipleFileTableParser ) parser ).parse( concept, file );
+        }
+
+        @Override
+        public PropertyTableData readCache( File cacheFile ) throws DsplException, JAXBException, IOException
+        {
+            TableParser cacheParser = getCacheParser( cacheFile );
+
+            if ( dsplParser.isLazyCacheMode( ) && cacheParser instanceof ColumnBinaryParser )
+            {
+                return ( ( ColumnBinaryParser ) cacheParser ).parseLazy( concept, cacheFile );
+            }
+
+            FileInputStream cacheFileStream = new FileInputStream( cacheFile );
+            return cacheParser.parse( concept, cacheFileStream.getChannel( ) );
+        }
+
+        @Override
+        public PropertyTableData combine( List<PropertyTableData> parts ) throws DsplException
+        {
+            if ( parts.size( ) == 1 ) return parts.get( 0 );
+
+            Map<String, TableColumn> columns = new LinkedHashMap<String, TableColumn>( );
+            for ( String columnId : parts.get( 0 ).getColumnIds( ) )
+            {
+                List<TableColumn> partColumns = new ArrayList<TableColumn>( parts.size( ) );
+                for ( PropertyTableData part : parts )
+                    partColumns.add( part.getColumn( columnId ) );
+
+                columns.put( columnId, combineColumns( partColumns ) );
+            }
+
+            return new SimplePropertyTableData( concept, columns );
+        }
+
+        @Override
+        protected void write( TableWriter writer, PropertyTableData data, FileChannel channel ) throws DsplException, JAXBException, IOException
+        {
+            writer.write( concept, data, channel );
+        }
+    }
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.dspl.parser.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+
+import com.metsci.glimpse.dspl.util.MD5Checksum;
+
+/**
+ * Records a fingerprint of each source file of a cached table, so that cache validity can usually
+ * be established without reading the sources in full.<p>
+ *
+ * Each entry holds the file size, modification time and a sampled hash (a hash of a fixed number of
+ * evenly spaced blocks), which together are cheap to recompute, along with the full MD5 hash of the file.
+ * A source whose cheap fingerprint matches is taken to be unchanged. Otherwise its full hash is
+ * recomputed and compared, so merely touching a file does not invalidate the cache.
+ *
+ * @author agent
+ */
+public class DsplCacheManifest
+{
+    public static final String MANIFEST_FILE = ".manifest";
+
+    protected static final int SAMPLE_COUNT = 16;
+    protected static final int SAMPLE_SIZE = 64 * 1024;
+
+    protected static final String NONE = "-";
+
+    protected Map<String, Entry> entries;
+
+    public DsplCacheManifest( )
+    {
+        this.entries = new LinkedHashMap<String, Entry>( );
+    }
+
+    public Entry get( String source )
+    {
+        return entries.get( source );
+    }
+
+    public void put( Entry entry )
+    {
+        entries.put( entry.getSource( ), entry );
+    }
+
+    public Collection<Entry> getEntries( )
+    {
+        return entries.values( );
+    }
+
+    /**
+     * @return the manifest in the given cache directory, which is empty if none has been written
+     */
+    public static DsplCacheManifest read( File directory ) throws IOException
+    {
+        DsplCacheManifest manifest = new DsplCacheManifest( );
+
+        File file = new File( directory, MANIFEST_FILE );
+        if ( !file.exists( ) ) return manifest;
+
+        BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            String line;
+            while ( ( line = in.readLine( ) ) != null )
+            {
+                String[] tokens = line.split( "\t" );
+                if ( tokens.length != 5 ) continue;
+
+                long size = Long.parseLong( tokens[1] );
+                long lastModified = Long.parseLong( tokens[2] );
+                String sampleHash = NONE.equals( tokens[3] ) ? null : tokens[3];
+
+                manifest.put( new Entry( tokens[0], size, lastModified, sampleHash, tokens[4] ) );
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            // a corrupt manifest just means every source is fully hashed again
+            manifest.entries.clear( );
+        }
+        finally
+        {
+            in.close( );
+        }
+
+        return manifest;
+    }
+
+    public void write( File directory ) throws IOException
+    {
+        File file = new File( directory, MANIFEST_FILE );
+
+        BufferedWriter out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+        try
+        {
+            for ( Entry entry : entries.values( ) )
+            {
+                String sampleHash = entry.getSampleHash( ) == null ? NONE : entry.getSampleHash( );
+
+                out.write( entry.getSource( ) + "\t" + entry.getSize( ) + "\t" + entry.getLastModified( ) + "\t" + sampleHash + "\t" + entry.getFullHash( ) );
+                out.newLine( );
+            }
+        }
+        finally
+        {
+            out.close( );
+        }
+    }
+
+    /**
+     * Computes the cheap fingerprint of a source. Local files and zip/jar entries are supported (for zip
+     * entries the stored CRC serves as the sampled hash). Returns null for other sources, such as network
+     * URLs, which can then only be validated by a full hash.
+     */
+    public static Entry fingerprint( URL url ) throws IOException, NoSuchAlgorithmException
+    {
+        if ( "file".equals( url.getProtocol( ) ) )
+        {
+            File file;
+            try
+            {
+                file = new File( url.toURI( ) );
+            }
+            catch ( URISyntaxException e )
+            {
+                file = new File( url.getPath( ) );
+            }
+
+            if ( !file.isFile( ) ) return null;
+
+            return new Entry( url.toString( ), file.length( ), file.lastModified( ), sampleHash( file ), null );
+        }
+        else if ( "jar".equals( url.getProtocol( ) ) )
+        {
+            URLConnection connection = url.openConnection( );
+            if ( !( connection instanceof JarURLConnection ) ) return null;
+
+            JarEntry entry = ( ( JarURLConnection ) connection ).getJarEntry( );
+            if ( entry == null || entry.getCrc( ) == -1 ) return null;
+
+            return new Entry( url.toString( ), entry.getSize( ), entry.getTime( ), Long.toHexString( entry.getCrc( ) ), null );
+        }
+
+        return null;
+    }
+
+    public static String fullHash( URL url ) throws IOException, NoSuchAlgorithmException
+    {
+        return MD5Checksum.getMD5Checksum( url.openStream( ) );
+    }
+
+    /**
+     * Hashes the file length and {@link #SAMPLE_COUNT} evenly spaced blocks of {@link #SAMPLE_SIZE} bytes,
+     * which include the first and last blocks. Small files are hashed in full.
+     */
+    public static String sampleHash( File file ) throws IOException, NoSuchAlgorithmException
+    {
+        MessageDigest digest = MessageDigest.getInstance( "MD5" );
+
+        RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try
+        {
+            long length = in.length( );
+            digest.update( Long.toString( length ).getBytes( "UTF-8" ) );
+
+            byte[] buffer = new byte[SAMPLE_SIZE];
+
+            if ( length <= ( long ) SAMPLE_COUNT * SAMPLE_SIZE )
+            {
+                int numRead;
+                while ( ( numRead = in.read( buffer ) ) > 0 )
+                {
+                    digest.update( buffer, 0, numRead );
+                }
+            }
+            else
+            {
+                long spacing = ( length - SAMPLE_SIZE ) / ( SAMPLE_COUNT - 1 );
+
+                for ( int i = 0; i < SAMPLE_COUNT; i++ )
+                {
+                    long offset = i == SAMPLE_COUNT - 1 ? length - SAMPLE_SIZE : i * spacing;
+
+                    in.seek( offset );
+                    in.readFully( buffer );
+                    digest.update( buffer );
+                }
+            }
+        }
+        finally
+        {
+            in.close( );
+        }
+
+        return MD5Checksum.getMD5Checksum( digest.digest( ) );
+    }
+
+    public static class Entry
+    {
+        protected String source;
+        protected long size;
+        protected long lastModified;
+        protected String sampleHash;
+        protected String fullHash;
+
+        public Entry( String source, long size, long lastModified, String sampleHash, String fullHash )
+        {
+            this.source = source;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sampleHash = sampleHash;
+            this.fullHash = fullHash;
+        }
+
+        /**
+         * An entry with no cheap fingerprint, which always requires a full hash to validate.
+         */
+        public Entry( String source, String fullHash )
+        {
+            this( source, -1, -1, null, fullHash );
+        }
+
+        public String getSource( )
+        {
+            return source;
+        }
+
+        public long getSize( )
+        {
+            return size;
+        }
+
+        public long getLastModified( )
+        {
+            return lastModified;
+        }
+
+        public String getSampleHash( )
+        {
+            return sampleHash;
+        }
+
+        public String getFullHash( )
+        {
+            return fullHash;
+        }
+
+        public void setFullHash( String fullHash )
+        {
+            this.fullHash = fullHash;
+        }
+
+        /**
+         * @return whether both entries have a cheap fingerprint, and the fingerprints agree
+         */
+        public boolean matches( Entry other )
+        {
+            return other != null && sampleHash != null && sampleHash.equals( other.sampleHash ) && size == other.size && lastModified == other.lastModified;
+        }
+    }
+}
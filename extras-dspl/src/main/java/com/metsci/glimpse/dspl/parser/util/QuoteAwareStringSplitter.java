@@ -32,6 +32,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.metsci.glimpse.util.primitives.IntsArray;
+
 public class QuoteAwareStringSplitter
 {
     protected static final char QUOTE = '\"';
@@ -157,4 +159,106 @@ public class QuoteAwareStringSplitter
 
         return items.toArray( new String[0] );
     }
+
+    public static int splitLine( byte[] line, int from, int to, IntsArray bounds ) throws IOException
+    {
+        return splitLine( line, from, to, COMMA, Integer.MAX_VALUE, bounds );
+    }
+
+    /**
+     * Splits the bytes of a single line according to the same rules as {@link #splitLine(String, char, int)},
+     * without creating any Strings. The line must use an ASCII-compatible encoding (such as UTF-8).
+     *
+     * The start (inclusive) and end (exclusive) index of each token are stored in consecutive
+     * elements of bounds, which is cleared first.
+     *
+     * @return the number of tokens
+     */
+    public static int splitLine( byte[] line, int from, int to, char split, int limit, IntsArray bounds ) throws IOException
+    {
+        bounds.n = 0;
+
+        int itemStartPos = from;
+        ParseMode mode = DEFAULT;
+        for ( int linePos = from; linePos < to; linePos++ )
+        {
+            if ( bounds.n / 2 == limit - 1 )
+            {
+                linePos = to - 1;
+            }
+
+            byte c = line[linePos];
+
+            if ( linePos == to - 1 )
+            {
+                if ( c == QUOTE )
+                {
+                    bounds.append( itemStartPos );
+                    bounds.append( linePos );
+                }
+                else if ( c == split )
+                {
+                    bounds.append( itemStartPos );
+                    bounds.append( linePos );
+                    if ( bounds.n / 2 < limit )
+                    {
+                        bounds.append( from );
+                        bounds.append( from );
+                    }
+                }
+                else
+                {
+                    bounds.append( itemStartPos );
+                    bounds.append( linePos + 1 );
+                }
+                break;
+            }
+
+            switch ( mode )
+            {
+
+            case BETWEEN_QUOTES:
+                if ( c == QUOTE )
+                {
+                    bounds.append( itemStartPos );
+                    bounds.append( linePos );
+                    mode = AFTER_END_QUOTE_BEFORE_COMMA;
+                    itemStartPos = linePos + 1;
+                }
+                break;
+
+            case AFTER_END_QUOTE_BEFORE_COMMA:
+                if ( c == QUOTE )
+                {
+                    throw new IOException( String.format( "Unable to parse: \"%s\"", new String( line, from, to - from ) ) );
+                }
+                else if ( c == split )
+                {
+                    itemStartPos = linePos + 1;
+                    mode = DEFAULT;
+                }
+                break;
+
+            case DEFAULT:
+                if ( c == QUOTE )
+                {
+                    itemStartPos = linePos + 1;
+                    mode = BETWEEN_QUOTES;
+                }
+                else if ( c == split )
+                {
+                    bounds.append( itemStartPos );
+                    bounds.append( linePos );
+                    itemStartPos = linePos + 1;
+                }
+                break;
+
+            default:
+                throw new RuntimeException( String.format( "Unexpected state while parsing: \"%s\"", new String( line, from, to - from ) ) );
+
+            }
+        }
+
+        return bounds.n / 2;
+    }
 }
@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.util.io.datapipe;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+
+/**
+ * An implementation of {@link ReadableDataPipe} that reads directly from a memory-mapped file.
+ * <p>
+ * Bytes are never copied through an intermediate buffer: scalar and array reads go straight from
+ * the mapping into the caller's variables, and the <code>viewXxx</code> methods return buffers that
+ * share the mapped memory, so a column of a million floats costs one call rather than four million
+ * bytes of copying.
+ * <p>
+ * A single mapping cannot exceed 2 GB, so larger files are mapped as a chain of segments. Segments
+ * are mapped lazily as reading reaches them. Values which straddle a segment boundary are assembled
+ * byte by byte, and views which straddle a boundary get a dedicated mapping of their own.
+ * <p>
+ * Byte order is big-endian, for interoperability with {@link WritableDataChannel} and
+ * DataOutputStream.
+ *
+ * @author agent
+ */
+public class MappedDataPipe implements ReadableDataPipe
+{
+    // Size of segments (bytes) should be a multiple of 8, so aligned values never straddle segments
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    protected static final String STRING_ENCODING = "UTF-8";
+
+    protected final FileChannel _channel;
+    protected final long _start;
+    protected final long _size;
+    protected final long _segmentSize;
+
+    private final MappedByteBuffer[] _segments;
+    private final ByteBuffer _scratch = ByteBuffer.allocate(8);
+    private final DataInputStream _stream;
+
+    private int _segmentIndex;
+    private ByteBuffer _segment;
+
+    /**
+     * Maps the whole file. The file is closed if it cannot be mapped.
+     */
+    public static MappedDataPipe open(File file) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try
+        {
+            return new MappedDataPipe(channel);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public MappedDataPipe(FileChannel channel) throws IOException
+    {
+        this(channel, 0, channel.size(), DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param channel      the file to map; it is closed when this pipe is closed
+     * @param start        the offset in the file of the first byte of the pipe
+     * @param size         the number of bytes in the pipe
+     * @param segmentSize  the maximum size of each mapped segment, at most <code>Integer.MAX_VALUE</code>
+     */
+    public MappedDataPipe(FileChannel channel, long start, long size, long segmentSize) throws IOException
+    {
+        if (start < 0 || size < 0 || start + size > channel.size())
+            throw new IllegalArgumentException("Region [" + start + ", " + (start + size) + ") is outside file of size " + channel.size());
+
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segment size must be in (0, " + Integer.MAX_VALUE + "]: " + segmentSize);
+
+        _channel = channel;
+        _start = start;
+        _size = size;
+        _segmentSize = segmentSize;
+
+        _segments = new MappedByteBuffer[(int) Math.max(1, (size + segmentSize - 1) / segmentSize)];
+        _stream = new DataInputStream(new MappedInputStream());
+
+        setSegment(0, 0);
+    }
+
+    public FileChannel getChannel()
+    {
+        return _channel;
+    }
+
+    /**
+     * @return the number of bytes in the pipe.
+     */
+    public long size()
+    {
+        return _size;
+    }
+
+    /**
+     * @return the current read position, relative to the start of the pipe.
+     */
+    public long position()
+    {
+        return _segmentIndex * _segmentSize + _segment.position();
+    }
+
+    /**
+     * Moves the read position. This is cheap; nothing is read until a value is requested.
+     */
+    public void position(long position) throws IOException
+    {
+        if (position < 0 || position > _size)
+            throw new IllegalArgumentException("Position " + position + " is outside [0, " + _size + "]");
+
+        int index = (int) Math.min(position / _segmentSize, _segments.length - 1);
+        setSegment(index, (int) (position - index * _segmentSize));
+    }
+
+    public long remaining()
+    {
+        return _size - position();
+    }
+
+    /**
+     * @throws EOFException if fewer than <code>nBytes</code> bytes remain.
+     */
+    public void skip(long nBytes) throws IOException
+    {
+        if (nBytes > remaining())
+            throw new EOFException();
+
+        position(position() + nBytes);
+    }
+
+    private void setSegment(int index, int offset) throws IOException
+    {
+        MappedByteBuffer segment = _segments[index];
+        if (segment == null) {
+            long segmentStart = index * _segmentSize;
+            long segmentLength = Math.min(_segmentSize, _size - segmentStart);
+            segment = _channel.map(MapMode.READ_ONLY, _start + segmentStart, segmentLength);
+            _segments[index] = segment;
+        }
+
+        _segmentIndex = index;
+        _segment = segment;
+        _segment.position(offset);
+    }
+
+    /**
+     * Moves on to the next segment if the current one is used up.
+     *
+     * @return whether the next <code>nBytes</code> bytes lie within the current segment.
+     */
+    private boolean ensure(int nBytes) throws IOException
+    {
+        if (_segment.remaining() >= nBytes)
+            return true;
+
+        if (!_segment.hasRemaining() && _segmentIndex + 1 < _segments.length) {
+            setSegment(_segmentIndex + 1, 0);
+            return _segment.remaining() >= nBytes;
+        }
+
+        return false;
+    }
+
+    /**
+     * Slow path for a value which straddles two segments.
+     */
+    private ByteBuffer straddle(int nBytes) throws IOException
+    {
+        if (remaining() < nBytes)
+            throw new EOFException();
+
+        _scratch.clear();
+        for (int i = 0; i < nBytes; i++) {
+            _scratch.put(readByte());
+        }
+        _scratch.flip();
+
+        return _scratch;
+    }
+
+    private void advance(int nBytes)
+    {
+        _segment.position(_segment.position() + nBytes);
+    }
+
+    public boolean readBoolean() throws IOException
+    {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException
+    {
+        if (!ensure(1))
+            throw new EOFException();
+
+        return _segment.get();
+    }
+
+    public short readShort() throws IOException
+    {
+        return (ensure(2) ? _segment : straddle(2)).getShort();
+    }
+
+    public int readInt() throws IOException
+    {
+        return (ensure(4) ? _segment : straddle(4)).getInt();
+    }
+
+    public long readLong() throws IOException
+    {
+        return (ensure(8) ? _segment : straddle(8)).getLong();
+    }
+
+    public float readFloat() throws IOException
+    {
+        return (ensure(4) ? _segment : straddle(4)).getFloat();
+    }
+
+    public double readDouble() throws IOException
+    {
+        return (ensure(8) ? _segment : straddle(8)).getDouble();
+    }
+
+    public boolean[] readBooleanArray(boolean[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (!ensure(1))
+                throw new EOFException();
+
+            int length = Math.min(ni - i, _segment.remaining());
+            for (int j = 0; j < length; j++) {
+                values[i++] = (_segment.get() != 0);
+            }
+        }
+
+        return values;
+    }
+
+    public byte[] readByteArray(byte[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (!ensure(1))
+                throw new EOFException();
+
+            int length = Math.min(ni - i, _segment.remaining());
+            _segment.get(values, i, length);
+            i += length;
+        }
+
+        return values;
+    }
+
+    public short[] readShortArray(short[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (ensure(2)) {
+                int length = Math.min(ni - i, _segment.remaining() >> 1);
+                _segment.asShortBuffer().get(values, i, length);
+                advance(length << 1);
+                i += length;
+            }
+            else {
+                values[i++] = straddle(2).getShort();
+            }
+        }
+
+        return values;
+    }
+
+    public int[] readIntArray(int[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (ensure(4)) {
+                int length = Math.min(ni - i, _segment.remaining() >> 2);
+                _segment.asIntBuffer().get(values, i, length);
+                advance(length << 2);
+                i += length;
+            }
+            else {
+                values[i++] = straddle(4).getInt();
+            }
+        }
+
+        return values;
+    }
+
+    public long[] readLongArray(long[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (ensure(8)) {
+                int length = Math.min(ni - i, _segment.remaining() >> 3);
+                _segment.asLongBuffer().get(values, i, length);
+                advance(length << 3);
+                i += length;
+            }
+            else {
+                values[i++] = straddle(8).getLong();
+            }
+        }
+
+        return values;
+    }
+
+    public float[] readFloatArray(float[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (ensure(4)) {
+                int length = Math.min(ni - i, _segment.remaining() >> 2);
+                _segment.asFloatBuffer().get(values, i, length);
+                advance(length << 2);
+                i += length;
+            }
+            else {
+                values[i++] = straddle(4).getFloat();
+            }
+        }
+
+        return values;
+    }
+
+    public double[] readDoubleArray(double[] values) throws IOException
+    {
+        for (int i = 0, ni = values.length; i < ni; ) {
+            if (ensure(8)) {
+                int length = Math.min(ni - i, _segment.remaining() >> 3);
+                _segment.asDoubleBuffer().get(values, i, length);
+                advance(length << 3);
+                i += length;
+            }
+            else {
+                values[i++] = straddle(8).getDouble();
+            }
+        }
+
+        return values;
+    }
+
+    public String readString() throws IOException
+    {
+        byte[] bytes = new byte[readInt()];
+        readByteArray(bytes);
+
+        return new String(bytes, STRING_ENCODING);
+    }
+
+    /**
+     * Returns a read-only, big-endian buffer over the next <code>nBytes</code> bytes, without
+     * copying, and advances past them.
+     * <p>
+     * The returned buffer shares the file mapping and stays valid after this pipe is closed.
+     *
+     * @throws EOFException if fewer than <code>nBytes</code> bytes remain.
+     */
+    public ByteBuffer viewBytes(long nBytes) throws IOException
+    {
+        if (nBytes < 0 || nBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Cannot view " + nBytes + " bytes in a single buffer");
+
+        if (nBytes > remaining())
+            throw new EOFException();
+
+        int length = (int) nBytes;
+        ByteBuffer view;
+
+        if (ensure(length)) {
+            view = _segment.slice();
+            view.limit(length);
+            advance(length);
+        }
+        else {
+            // NOTE: the view straddles segments, so it gets a mapping of its own
+            long position = position();
+            view = _channel.map(MapMode.READ_ONLY, _start + position, length);
+            position(position + length);
+        }
+
+        return view;
+    }
+
+    public ShortBuffer viewShorts(int count) throws IOException
+    {
+        return viewBytes((long) count << 1).asShortBuffer();
+    }
+
+    public IntBuffer viewInts(int count) throws IOException
+    {
+        return viewBytes((long) count << 2).asIntBuffer();
+    }
+
+    public LongBuffer viewLongs(int count) throws IOException
+    {
+        return viewBytes((long) count << 3).asLongBuffer();
+    }
+
+    public FloatBuffer viewFloats(int count) throws IOException
+    {
+        return viewBytes((long) count << 2).asFloatBuffer();
+    }
+
+    public DoubleBuffer viewDoubles(int count) throws IOException
+    {
+        return viewBytes((long) count << 3).asDoubleBuffer();
+    }
+
+    public void close() throws IOException
+    {
+        _channel.close();
+    }
+
+    /**
+     * @return a stream which reads from, and advances, this pipe's own position.
+     */
+    public DataInputStream getInputStream()
+    {
+        return _stream;
+    }
+
+    protected class MappedInputStream extends InputStream
+    {
+        @Override
+        public int read() throws IOException
+        {
+            if (!ensure(1))
+                return -1;
+
+            return _segment.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return 0;
+
+            if (!ensure(1))
+                return -1;
+
+            int length = Math.min(len, _segment.remaining());
+            _segment.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long length = Math.max(0, Math.min(n, remaining()));
+            position(position() + length);
+            return length;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min(remaining(), Integer.MAX_VALUE);
+        }
+    }
+}
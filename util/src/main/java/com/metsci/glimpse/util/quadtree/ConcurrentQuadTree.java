@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.util.quadtree;
+
+import static com.metsci.glimpse.util.quadtree.QuadTree.quadrant;
+import static java.lang.Math.max;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.metsci.glimpse.util.quadtree.QuadTree.Accumulator;
+
+/**
+ * A quadtree that can be searched by any number of threads while another thread modifies it.
+ *
+ * Nodes and buckets are never modified once they are reachable from the root. A modification
+ * copies the bucket it touches, and the internal nodes on the path from the root down to that
+ * bucket, and then publishes the new root with a single volatile write. A search reads the root
+ * once and traverses that snapshot without locking, so searches never block (or are blocked
+ * by) writers, and always see the tree as it was between two modifications. Writers are
+ * serialized by a lock.
+ *
+ * The price is that every add or remove copies one bucket plus a few small nodes, so a
+ * {@code maxBucketSize} somewhat smaller than for {@link QuadTree} is usually best. Batch
+ * modifications (see subclasses) publish once per batch, but still copy per element.
+ *
+ * Like {@link QuadTree}, empty leaves are not merged back together on removal.
+ *
+ * @author agent
+ */
+public abstract class ConcurrentQuadTree<B>
+{
+
+    protected static interface BucketModifier<B>
+    {
+        /**
+         * Must not modify {@code bucket}. Returns {@code bucket} itself if nothing changed.
+         */
+        B modify(B bucket);
+    }
+
+
+    protected static abstract class Node<B>
+    {
+    }
+
+
+    protected static final class InternalNode<B> extends Node<B>
+    {
+        public final float xDivider;
+        public final float yDivider;
+
+        /**
+         * Indexed using {@link QuadTree#quadrant(float, float, float, float)}
+         */
+        public final Node<B>[] children;
+
+        public InternalNode(float xDivider, float yDivider, Node<B>[] children)
+        {
+            this.xDivider = xDivider;
+            this.yDivider = yDivider;
+            this.children = children;
+        }
+    }
+
+
+    protected static final class LeafNode<B> extends Node<B>
+    {
+        public final B bucket;
+
+        // A leaf whose values can't be separated by splitting (e.g. many values at
+        // the same point) would otherwise be re-split on every add
+        public final int splitThreshold;
+
+        public LeafNode(B bucket, int splitThreshold)
+        {
+            this.bucket = bucket;
+            this.splitThreshold = splitThreshold;
+        }
+    }
+
+
+
+    protected final int maxBucketSize;
+
+    protected final ReentrantLock writeLock;
+
+    protected volatile Node<B> root;
+
+
+    public ConcurrentQuadTree(B rootBucket, int maxBucketSize)
+    {
+        this.maxBucketSize = maxBucketSize;
+        this.writeLock = new ReentrantLock();
+        this.root = new LeafNode<B>(rootBucket, maxBucketSize);
+    }
+
+    /**
+     * Calls {@code accumulator} for each bucket that may contain points inside the search box,
+     * using a snapshot of the tree taken when this method is called. Does not lock.
+     *
+     * @see QuadTree#accumulate(float, float, float, float, Accumulator)
+     */
+    public void accumulate(float xMin, float xMax, float yMin, float yMax, Accumulator<B> accumulator)
+    {
+        accumulate(root, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, xMin, xMax, yMin, yMax, accumulator);
+    }
+
+    protected static <B> void accumulate(Node<B> node, float xMinNode, float xMaxNode, float yMinNode, float yMaxNode, float xMin, float xMax, float yMin, float yMax, Accumulator<B> accumulator)
+    {
+        if (node instanceof LeafNode)
+        {
+            accumulator.accumulate(((LeafNode<B>) node).bucket, xMinNode, xMaxNode, yMinNode, yMaxNode);
+            return;
+        }
+
+        InternalNode<B> internal = (InternalNode<B>) node;
+        float xDivider = internal.xDivider;
+        float yDivider = internal.yDivider;
+        Node<B>[] children = internal.children;
+
+        boolean includeSmallX = (xMin < xDivider);
+        boolean includeLargeX = (xMax >= xDivider);
+        boolean includeSmallY = (yMin < yDivider);
+        boolean includeLargeY = (yMax >= yDivider);
+
+        if (includeSmallX && includeSmallY) accumulate(children[0], xMinNode, xDivider, yMinNode, yDivider, xMin, xMax, yMin, yMax, accumulator);
+        if (includeLargeX && includeSmallY) accumulate(children[1], xDivider, xMaxNode, yMinNode, yDivider, xMin, xMax, yMin, yMax, accumulator);
+        if (includeSmallX && includeLargeY) accumulate(children[2], xMinNode, xDivider, yDivider, yMaxNode, xMin, xMax, yMin, yMax, accumulator);
+        if (includeLargeX && includeLargeY) accumulate(children[3], xDivider, xMaxNode, yDivider, yMaxNode, xMin, xMax, yMin, yMax, accumulator);
+    }
+
+    /**
+     * Applies {@code modifier} to the bucket containing (x,y), and publishes the result.
+     */
+    protected void modify(float x, float y, BucketModifier<B> modifier)
+    {
+        writeLock.lock();
+        try
+        {
+            root = modify(root, x, y, modifier);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the tree rooted at {@code root}, with {@code modifier} applied to the
+     * bucket containing (x,y). Nodes that are not on the path to that bucket are shared with
+     * the original. Returns {@code root} itself if the bucket did not change.
+     *
+     * Callers must hold {@link #writeLock}, and are responsible for publishing the result.
+     */
+    protected Node<B> modify(Node<B> root, float x, float y, BucketModifier<B> modifier)
+    {
+        return modify(root, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, x, y, modifier);
+    }
+
+    protected Node<B> modify(Node<B> node, float xMin, float xMax, float yMin, float yMax, float x, float y, BucketModifier<B> modifier)
+    {
+        if (node instanceof LeafNode)
+        {
+            LeafNode<B> leaf = (LeafNode<B>) node;
+            B newBucket = modifier.modify(leaf.bucket);
+            if (newBucket == leaf.bucket) return leaf;
+
+            int size = bucketSize(newBucket);
+            if (size > leaf.splitThreshold) return split(newBucket, size, xMin, xMax, yMin, yMax);
+
+            return new LeafNode<B>(newBucket, leaf.splitThreshold);
+        }
+
+        InternalNode<B> internal = (InternalNode<B>) node;
+        float xDivider = internal.xDivider;
+        float yDivider = internal.yDivider;
+
+        int q = quadrant(xDivider, yDivider, x, y);
+        Node<B> child = internal.children[q];
+        Node<B> newChild;
+        switch (q)
+        {
+            case 0: newChild = modify(child, xMin, xDivider, yMin, yDivider, x, y, modifier); break;
+            case 1: newChild = modify(child, xDivider, xMax, yMin, yDivider, x, y, modifier); break;
+            case 2: newChild = modify(child, xMin, xDivider, yDivider, yMax, x, y, modifier); break;
+            default: newChild = modify(child, xDivider, xMax, yDivider, yMax, x, y, modifier); break;
+        }
+        if (newChild == child) return internal;
+
+        Node<B>[] newChildren = internal.children.clone();
+        newChildren[q] = newChild;
+        return new InternalNode<B>(xDivider, yDivider, newChildren);
+    }
+
+    /**
+     * Returns a new subtree holding the contents of {@code bucket}, which is too full to stay in
+     * a single leaf. Mirrors {@link QuadTree#splitLeaf(QuadTree.LeafNode)}.
+     */
+    protected Node<B> split(B bucket, int size, float xMin, float xMax, float yMin, float yMax)
+    {
+        // 2 * machine epsilon for 32-bit floats
+        float minDividerSpacing = (float) Math.pow(2.0, -23.0);
+        boolean xSplittable = (xMax - xMin > minDividerSpacing);
+        boolean ySplittable = (yMax - yMin > minDividerSpacing);
+        if (!xSplittable && !ySplittable) return new LeafNode<B>(bucket, max(maxBucketSize, 2 * size));
+
+        float[] dividers = new float[2];
+        chooseDividers(xMin, xMax, yMin, yMax, bucket, dividers);
+
+        // See QuadTree.splitLeaf() for the reasoning here
+        float xDivider = (xSplittable ? dividers[0] : xMin);
+        float yDivider = (ySplittable ? dividers[1] : yMin);
+
+        B[] newBuckets = splitBucket(bucket, xDivider, yDivider);
+
+        int numNonEmpty = 0;
+        for (int q = 0; q < newBuckets.length; q++) if (bucketSize(newBuckets[q]) > 0) numNonEmpty++;
+
+        // Splitting didn't separate anything, so don't try again until the bucket has doubled
+        if (numNonEmpty <= 1) return new LeafNode<B>(bucket, max(maxBucketSize, 2 * size));
+
+        @SuppressWarnings("unchecked")
+        Node<B>[] children = (Node<B>[]) new Node<?>[4];
+        for (int q = 0; q < 4; q++) children[q] = new LeafNode<B>(newBuckets[q], maxBucketSize);
+        return new InternalNode<B>(xDivider, yDivider, children);
+    }
+
+    protected abstract void chooseDividers(float xMin, float xMax, float yMin, float yMax, B bucket, float[] result);
+
+    protected abstract B[] splitBucket(B bucket, float xDivider, float yDivider);
+
+    protected abstract int bucketSize(B bucket);
+
+}
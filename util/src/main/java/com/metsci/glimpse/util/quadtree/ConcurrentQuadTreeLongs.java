@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.util.quadtree;
+
+import static java.util.Arrays.copyOf;
+
+import com.metsci.glimpse.util.primitives.Longs;
+import com.metsci.glimpse.util.primitives.LongsArray;
+import com.metsci.glimpse.util.primitives.LongsModifiable;
+import com.metsci.glimpse.util.quadtree.QuadTree.Accumulator;
+
+/**
+ * Like {@link QuadTreeLongs}, but safe for searching from many threads while another
+ * thread adds and removes values. See {@link ConcurrentQuadTree}.
+ *
+ * As with {@link QuadTreeLongs}, {@code x(v)} and {@code y(v)} must not change while
+ * {@code v} is in the tree.
+ *
+ * @author agent
+ */
+public abstract class ConcurrentQuadTreeLongs extends ConcurrentQuadTree<long[]>
+{
+
+    public ConcurrentQuadTreeLongs(int maxBucketSize)
+    {
+        super(new long[0], maxBucketSize);
+    }
+
+    protected abstract float x(long v);
+
+    protected abstract float y(long v);
+
+    public Longs search(float xMin, float xMax, float yMin, float yMax)
+    {
+        LongsModifiable results = new LongsArray();
+        search(xMin, xMax, yMin, yMax, results);
+        return results;
+    }
+
+    /**
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(float xMin, float xMax, float yMin, float yMax, LongsModifiable results)
+    {
+        return search(xMin, xMax, yMin, yMax, null, results);
+    }
+
+    public Longs search(float xMin, float xMax, float yMin, float yMax, FilterLong vFilter)
+    {
+        LongsModifiable results = new LongsArray();
+        search(xMin, xMax, yMin, yMax, vFilter, results);
+        return results;
+    }
+
+    /**
+     * @param vFilter may be null, to include all values
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(final float xMin, final float xMax, final float yMin, final float yMax, final FilterLong vFilter, final LongsModifiable results)
+    {
+        int nBefore = results.n();
+
+        accumulate(xMin, xMax, yMin, yMax, new Accumulator<long[]>()
+        {
+            public void accumulate(long[] bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+            {
+                boolean xAll = (xMin <= xMinBucket && xMaxBucket <= xMax);
+                boolean yAll = (yMin <= yMinBucket && yMaxBucket <= yMax);
+
+                if (xAll && yAll && vFilter == null)
+                {
+                    results.append(bucket);
+                    return;
+                }
+
+                for (int i = 0; i < bucket.length; i++)
+                {
+                    long v = bucket[i];
+                    if (vFilter != null && !vFilter.include(v)) continue;
+
+                    if (!xAll)
+                    {
+                        float x = x(v);
+                        if (x < xMin || x > xMax) continue;
+                    }
+
+                    if (!yAll)
+                    {
+                        float y = y(v);
+                        if (y < yMin || y > yMax) continue;
+                    }
+
+                    results.append(v);
+                }
+            }
+        });
+
+        return results.n() - nBefore;
+    }
+
+    /**
+     * If {@code x(v)} or {@code y(v)} returns {@code NaN}, this method returns
+     * immediately without adding {@code v} to the tree.
+     */
+    public void add(long v)
+    {
+        float x = x(v);
+        if (Float.isNaN(x)) return;
+
+        float y = y(v);
+        if (Float.isNaN(y)) return;
+
+        modify(x, y, adder(v));
+    }
+
+    /**
+     * Adds all of {@code vs}, making them visible to searches at the same time.
+     */
+    public void addAll(Longs vs)
+    {
+        writeLock.lock();
+        try
+        {
+            Node<long[]> newRoot = root;
+            for (int i = 0; i < vs.n(); i++)
+            {
+                long v = vs.v(i);
+
+                float x = x(v);
+                if (Float.isNaN(x)) continue;
+
+                float y = y(v);
+                if (Float.isNaN(y)) continue;
+
+                newRoot = modify(newRoot, x, y, adder(v));
+            }
+            root = newRoot;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    public void remove(long v)
+    {
+        modify(x(v), y(v), remover(v));
+    }
+
+    /**
+     * Removes all of {@code vs}, making the removals visible to searches at the same time.
+     */
+    public void removeAll(Longs vs)
+    {
+        writeLock.lock();
+        try
+        {
+            Node<long[]> newRoot = root;
+            for (int i = 0; i < vs.n(); i++)
+            {
+                long v = vs.v(i);
+                newRoot = modify(newRoot, x(v), y(v), remover(v));
+            }
+            root = newRoot;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    protected static BucketModifier<long[]> adder(final long v)
+    {
+        return new BucketModifier<long[]>()
+        {
+            public long[] modify(long[] bucket)
+            {
+                long[] newBucket = copyOf(bucket, bucket.length + 1);
+                newBucket[bucket.length] = v;
+                return newBucket;
+            }
+        };
+    }
+
+    protected static BucketModifier<long[]> remover(final long v)
+    {
+        return new BucketModifier<long[]>()
+        {
+            public long[] modify(long[] bucket)
+            {
+                for (int i = 0; i < bucket.length; i++)
+                {
+                    if (bucket[i] == v)
+                    {
+                        long[] newBucket = new long[bucket.length - 1];
+                        System.arraycopy(bucket, 0, newBucket, 0, i);
+                        System.arraycopy(bucket, i + 1, newBucket, i, newBucket.length - i);
+                        return newBucket;
+                    }
+                }
+                return bucket;
+            }
+        };
+    }
+
+    @Override
+    protected void chooseDividers(float xMin, float xMax, float yMin, float yMax, long[] bucket, float[] result)
+    {
+        double oneOverSize = 1.0 / bucket.length;
+        double xMean = 0;
+        double yMean = 0;
+        for (int i = 0; i < bucket.length; i++)
+        {
+            long v = bucket[i];
+            xMean += QuadTree.truncInf(x(v)) * oneOverSize;
+            yMean += QuadTree.truncInf(y(v)) * oneOverSize;
+        }
+        result[0] = QuadTree.truncInf((float) xMean);
+        result[1] = QuadTree.truncInf((float) yMean);
+    }
+
+    @Override
+    protected long[][] splitBucket(long[] bucket, float xDivider, float yDivider)
+    {
+        LongsArray[] quadrants = new LongsArray[4];
+        for (int q = 0; q < 4; q++) quadrants[q] = new LongsArray();
+
+        for (int i = 0; i < bucket.length; i++)
+        {
+            long v = bucket[i];
+            int q = QuadTree.quadrant(xDivider, yDivider, x(v), y(v));
+            quadrants[q].append(v);
+        }
+
+        long[][] newBuckets = new long[4][];
+        for (int q = 0; q < 4; q++) newBuckets[q] = quadrants[q].copyOf();
+        return newBuckets;
+    }
+
+    @Override
+    protected int bucketSize(long[] bucket)
+    {
+        return bucket.length;
+    }
+
+}
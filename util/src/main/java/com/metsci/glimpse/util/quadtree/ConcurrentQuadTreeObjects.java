@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.util.quadtree;
+
+import static java.util.Arrays.copyOf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import com.metsci.glimpse.util.quadtree.QuadTree.Accumulator;
+
+/**
+ * Like {@link QuadTreeObjects}, but safe for searching from many threads while another
+ * thread adds and removes values. See {@link ConcurrentQuadTree}.
+ *
+ * Buckets are plain {@code Object[]} arrays, so that they can be copied cheaply.
+ *
+ * @author agent
+ */
+public abstract class ConcurrentQuadTreeObjects<V> extends ConcurrentQuadTree<Object[]>
+{
+
+    public ConcurrentQuadTreeObjects(int maxBucketSize)
+    {
+        super(new Object[0], maxBucketSize);
+    }
+
+    protected abstract float x(V v);
+
+    protected abstract float y(V v);
+
+    public Collection<V> search(float xMin, float xMax, float yMin, float yMax)
+    {
+        Collection<V> results = new ArrayList<V>();
+        search(xMin, xMax, yMin, yMax, results);
+        return results;
+    }
+
+    /**
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(float xMin, float xMax, float yMin, float yMax, Collection<V> results)
+    {
+        return search(xMin, xMax, yMin, yMax, null, results);
+    }
+
+    public Collection<V> search(float xMin, float xMax, float yMin, float yMax, FilterObject<V> vFilter)
+    {
+        Collection<V> results = new ArrayList<V>();
+        search(xMin, xMax, yMin, yMax, vFilter, results);
+        return results;
+    }
+
+    /**
+     * @param vFilter may be null, to include all values
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(final float xMin, final float xMax, final float yMin, final float yMax, final FilterObject<V> vFilter, final Collection<V> results)
+    {
+        int nBefore = results.size();
+
+        accumulate(xMin, xMax, yMin, yMax, new Accumulator<Object[]>()
+        {
+            public void accumulate(Object[] bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+            {
+                boolean xAll = (xMin <= xMinBucket && xMaxBucket <= xMax);
+                boolean yAll = (yMin <= yMinBucket && yMaxBucket <= yMax);
+
+                for (int i = 0; i < bucket.length; i++)
+                {
+                    @SuppressWarnings("unchecked")
+                    V v = (V) bucket[i];
+                    if (vFilter != null && !vFilter.include(v)) continue;
+
+                    if (!xAll)
+                    {
+                        float x = x(v);
+                        if (x < xMin || x > xMax) continue;
+                    }
+
+                    if (!yAll)
+                    {
+                        float y = y(v);
+                        if (y < yMin || y > yMax) continue;
+                    }
+
+                    results.add(v);
+                }
+            }
+        });
+
+        return results.size() - nBefore;
+    }
+
+    /**
+     * If {@code x(v)} or {@code y(v)} returns {@code NaN}, this method returns
+     * immediately without adding {@code v} to the tree.
+     */
+    public void add(V v)
+    {
+        float x = x(v);
+        if (Float.isNaN(x)) return;
+
+        float y = y(v);
+        if (Float.isNaN(y)) return;
+
+        modify(x, y, adder(v));
+    }
+
+    /**
+     * Adds all of {@code vs}, making them visible to searches at the same time.
+     */
+    public void addAll(Collection<? extends V> vs)
+    {
+        writeLock.lock();
+        try
+        {
+            Node<Object[]> newRoot = root;
+            for (V v : vs)
+            {
+                float x = x(v);
+                if (Float.isNaN(x)) continue;
+
+                float y = y(v);
+                if (Float.isNaN(y)) continue;
+
+                newRoot = modify(newRoot, x, y, adder(v));
+            }
+            root = newRoot;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    public void remove(V v)
+    {
+        modify(x(v), y(v), remover(v));
+    }
+
+    /**
+     * Removes all of {@code vs}, making the removals visible to searches at the same time.
+     */
+    public void removeAll(Collection<? extends V> vs)
+    {
+        writeLock.lock();
+        try
+        {
+            Node<Object[]> newRoot = root;
+            for (V v : vs)
+            {
+                newRoot = modify(newRoot, x(v), y(v), remover(v));
+            }
+            root = newRoot;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    protected static BucketModifier<Object[]> adder(final Object v)
+    {
+        return new BucketModifier<Object[]>()
+        {
+            public Object[] modify(Object[] bucket)
+            {
+                Object[] newBucket = copyOf(bucket, bucket.length + 1);
+                newBucket[bucket.length] = v;
+                return newBucket;
+            }
+        };
+    }
+
+    /**
+     * Removes one element equal to {@code v}, like {@link Collection#remove(Object)}.
+     */
+    protected static BucketModifier<Object[]> remover(final Object v)
+    {
+        return new BucketModifier<Object[]>()
+        {
+            public Object[] modify(Object[] bucket)
+            {
+                for (int i = 0; i < bucket.length; i++)
+                {
+                    if (v == null ? bucket[i] == null : v.equals(bucket[i]))
+                    {
+                        Object[] newBucket = new Object[bucket.length - 1];
+                        System.arraycopy(bucket, 0, newBucket, 0, i);
+                        System.arraycopy(bucket, i + 1, newBucket, i, newBucket.length - i);
+                        return newBucket;
+                    }
+                }
+                return bucket;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void chooseDividers(float xMin, float xMax, float yMin, float yMax, Object[] bucket, float[] result)
+    {
+        double oneOverSize = 1.0 / bucket.length;
+        double xMean = 0;
+        double yMean = 0;
+        for (int i = 0; i < bucket.length; i++)
+        {
+            V v = (V) bucket[i];
+            xMean += QuadTree.truncInf(x(v)) * oneOverSize;
+            yMean += QuadTree.truncInf(y(v)) * oneOverSize;
+        }
+        result[0] = QuadTree.truncInf((float) xMean);
+        result[1] = QuadTree.truncInf((float) yMean);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object[][] splitBucket(Object[] bucket, float xDivider, float yDivider)
+    {
+        int[] quadrants = new int[bucket.length];
+        int[] counts = new int[4];
+        for (int i = 0; i < bucket.length; i++)
+        {
+            V v = (V) bucket[i];
+            quadrants[i] = QuadTree.quadrant(xDivider, yDivider, x(v), y(v));
+            counts[quadrants[i]]++;
+        }
+
+        Object[][] newBuckets = new Object[4][];
+        for (int q = 0; q < 4; q++) newBuckets[q] = new Object[counts[q]];
+
+        int[] filled = new int[4];
+        for (int i = 0; i < bucket.length; i++)
+        {
+            int q = quadrants[i];
+            newBuckets[q][filled[q]++] = bucket[i];
+        }
+
+        return newBuckets;
+    }
+
+    @Override
+    protected int bucketSize(Object[] bucket)
+    {
+        return bucket.length;
+    }
+
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.util.quadtree;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.metsci.glimpse.util.primitives.Ints;
+import com.metsci.glimpse.util.primitives.IntsArray;
+import com.metsci.glimpse.util.primitives.IntsModifiable;
+import com.metsci.glimpse.util.primitives.algorithms.Sorting;
+
+/**
+ * An immutable quadtree of int values with fixed x,y coordinates, built in one shot from
+ * a static point set.
+ *
+ * Points are sorted by their Morton (Z-order) codes, so every node of the tree covers a
+ * contiguous run of the sorted points. The tree is stored implicitly in a handful of
+ * primitive buffers -- no per-node objects -- which keeps the footprint small for very large
+ * point sets, and lets a tree be written to a file and later memory-mapped, without any
+ * parsing (see {@link #write(File)} and {@link #map(File)}). Offsets within the file are
+ * ints, and the file is mapped as a single buffer, so a file cannot exceed 2 GB (somewhat fewer
+ * than 180 million points).
+ *
+ * Unlike {@link QuadTreeInts}, coordinates are stored in the tree, so no callbacks are made.
+ * Node bounds are the tight (closed) bounding boxes of the points in each node.
+ *
+ * @author agent
+ */
+public class PackedQuadTreeInts
+{
+
+    public static interface Accumulator
+    {
+        /**
+         * Every point in {@code [from,to)} will have {@code x} in {@code [xMinBucket,xMaxBucket]}
+         * and {@code y} in {@code [yMinBucket,yMaxBucket]}. Use {@link PackedQuadTreeInts#x(int)},
+         * {@link PackedQuadTreeInts#y(int)} and {@link PackedQuadTreeInts#v(int)} to look up points.
+         */
+        void accumulate(int from, int to, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket);
+    }
+
+
+    protected static final int FILE_MAGIC = 0x50515449; // "PQTI"
+    protected static final int FILE_VERSION = 1;
+    protected static final int HEADER_INTS = 4;
+
+    // Bits of precision per dimension in the Morton codes -- also the max tree depth
+    protected static final int MORTON_BITS = 24;
+
+    // Ints per node: from, to, firstChild, numChildren
+    protected static final int NODE_INTS = 4;
+
+    // Floats per node: xMin, xMax, yMin, yMax
+    protected static final int NODE_FLOATS = 4;
+
+
+    protected final int numPoints;
+    protected final int numNodes;
+
+    protected final IntBuffer nodeInts;
+    protected final FloatBuffer nodeFloats;
+
+    protected final FloatBuffer xs;
+    protected final FloatBuffer ys;
+    protected final IntBuffer vs;
+
+
+    protected PackedQuadTreeInts(int numPoints, int numNodes, IntBuffer nodeInts, FloatBuffer nodeFloats, FloatBuffer xs, FloatBuffer ys, IntBuffer vs)
+    {
+        this.numPoints = numPoints;
+        this.numNodes = numNodes;
+        this.nodeInts = nodeInts;
+        this.nodeFloats = nodeFloats;
+        this.xs = xs;
+        this.ys = ys;
+        this.vs = vs;
+    }
+
+    /**
+     * @see #build(float[], float[], int[], int, ExecutorService)
+     */
+    public static PackedQuadTreeInts build(float[] x, float[] y, int[] v, int maxLeafSize)
+    {
+        return build(x, y, v, maxLeafSize, null);
+    }
+
+    /**
+     * Builds a tree containing value {@code v[i]} at {@code (x[i],y[i])}, for each {@code i}.
+     * Points with a {@code NaN} coordinate are left out, like {@link QuadTreeInts#add(int)}.
+     *
+     * If {@code exec} is non-null, Morton codes are computed and sorted in parallel chunks on
+     * {@code exec}, and then merged. The input arrays are not modified.
+     *
+     * @param maxLeafSize leaves are split until they hold no more than this many points
+     *                    (or until points can't be separated at the Morton code precision)
+     */
+    public static PackedQuadTreeInts build(final float[] x, final float[] y, int[] v, int maxLeafSize, ExecutorService exec)
+    {
+        if (x.length != y.length || x.length != v.length) throw new IllegalArgumentException(String.format("Size of x, y and v arrays must be identical. Found: %d, %d and %d.", x.length, y.length, v.length));
+
+        // Drop points with NaN coordinates, and find the extent of the rest
+        IntsArray keep = new IntsArray(x.length);
+        float xMin = Float.POSITIVE_INFINITY, xMax = Float.NEGATIVE_INFINITY;
+        float yMin = Float.POSITIVE_INFINITY, yMax = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < x.length; i++)
+        {
+            if (Float.isNaN(x[i]) || Float.isNaN(y[i])) continue;
+            keep.append(i);
+            xMin = min(xMin, QuadTree.truncInf(x[i]));
+            xMax = max(xMax, QuadTree.truncInf(x[i]));
+            yMin = min(yMin, QuadTree.truncInf(y[i]));
+            yMax = max(yMax, QuadTree.truncInf(y[i]));
+        }
+
+        final int n = keep.n;
+        final int[] order = keep.a;
+        final long[] codes = new long[n];
+
+        final double xOrigin = xMin;
+        final double yOrigin = yMin;
+        final double xScale = (xMax > xMin ? ((1 << MORTON_BITS) - 1) / ((double) xMax - xMin) : 0);
+        final double yScale = (yMax > yMin ? ((1 << MORTON_BITS) - 1) / ((double) yMax - yMin) : 0);
+
+        // Compute and sort Morton codes, carrying original indices along
+        int numChunks = (exec == null ? 1 : max(1, min(Runtime.getRuntime().availableProcessors(), n / 65536)));
+        final int[] chunkStarts = new int[numChunks + 1];
+        for (int c = 0; c <= numChunks; c++) chunkStarts[c] = (int) ((long) n * c / numChunks);
+
+        if (numChunks == 1)
+        {
+            computeCodes(x, y, order, codes, 0, n, xOrigin, xScale, yOrigin, yScale);
+            Sorting.quicksort(codes, order, 0, n);
+        }
+        else
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int c = 0; c < numChunks; c++)
+            {
+                final int from = chunkStarts[c];
+                final int to = chunkStarts[c + 1];
+                futures.add(exec.submit(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        computeCodes(x, y, order, codes, from, to, xOrigin, xScale, yOrigin, yScale);
+                        Sorting.quicksort(codes, order, from, to);
+                        return null;
+                    }
+                }));
+            }
+            waitFor(futures);
+            mergeRuns(codes, order, chunkStarts);
+        }
+
+        // Lay out nodes breadth-first, so that the children of a node are contiguous
+        IntsArray nodes = new IntsArray();
+        IntsArray levels = new IntsArray();
+        nodes.append(new int[] { 0, n, 0, 0 });
+        levels.append(0);
+
+        for (int node = 0; node < levels.n; node++)
+        {
+            int from = nodes.a[node * NODE_INTS];
+            int to = nodes.a[node * NODE_INTS + 1];
+            int level = levels.a[node];
+            if (to - from <= maxLeafSize || level >= MORTON_BITS) continue;
+
+            int shift = 2 * (MORTON_BITS - 1 - level);
+            int firstChild = levels.n;
+            int numChildren = 0;
+
+            int start = from;
+            for (int q = 0; q < 4 && start < to; q++)
+            {
+                int end = digitEnd(codes, start, to, shift, q);
+                if (end > start)
+                {
+                    nodes.append(new int[] { start, end, 0, 0 });
+                    levels.append(level + 1);
+                    numChildren++;
+                }
+                start = end;
+            }
+
+            // All points share this quadrant digit -- descend without adding a node per level
+            if (numChildren == 1)
+            {
+                nodes.n -= NODE_INTS;
+                levels.n -= 1;
+                levels.a[node] = level + 1;
+                node--;
+                continue;
+            }
+
+            nodes.a[node * NODE_INTS + 2] = firstChild;
+            nodes.a[node * NODE_INTS + 3] = numChildren;
+        }
+
+        int numNodes = levels.n;
+
+        // Store points in sorted order
+        float[] xsSorted = new float[n];
+        float[] ysSorted = new float[n];
+        int[] vsSorted = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            int j = order[i];
+            xsSorted[i] = x[j];
+            ysSorted[i] = y[j];
+            vsSorted[i] = v[j];
+        }
+
+        // Tight bounds, bottom-up (children always come after their parents)
+        float[] bounds = new float[numNodes * NODE_FLOATS];
+        for (int node = numNodes - 1; node >= 0; node--)
+        {
+            int from = nodes.a[node * NODE_INTS];
+            int to = nodes.a[node * NODE_INTS + 1];
+            int firstChild = nodes.a[node * NODE_INTS + 2];
+            int numChildren = nodes.a[node * NODE_INTS + 3];
+
+            float bxMin = Float.POSITIVE_INFINITY, bxMax = Float.NEGATIVE_INFINITY;
+            float byMin = Float.POSITIVE_INFINITY, byMax = Float.NEGATIVE_INFINITY;
+            if (numChildren == 0)
+            {
+                for (int i = from; i < to; i++)
+                {
+                    bxMin = min(bxMin, xsSorted[i]);
+                    bxMax = max(bxMax, xsSorted[i]);
+                    byMin = min(byMin, ysSorted[i]);
+                    byMax = max(byMax, ysSorted[i]);
+                }
+            }
+            else
+            {
+                for (int c = firstChild; c < firstChild + numChildren; c++)
+                {
+                    bxMin = min(bxMin, bounds[c * NODE_FLOATS]);
+                    bxMax = max(bxMax, bounds[c * NODE_FLOATS + 1]);
+                    byMin = min(byMin, bounds[c * NODE_FLOATS + 2]);
+                    byMax = max(byMax, bounds[c * NODE_FLOATS + 3]);
+                }
+            }
+
+            bounds[node * NODE_FLOATS] = bxMin;
+            bounds[node * NODE_FLOATS + 1] = bxMax;
+            bounds[node * NODE_FLOATS + 2] = byMin;
+            bounds[node * NODE_FLOATS + 3] = byMax;
+        }
+
+        return new PackedQuadTreeInts(n, numNodes, IntBuffer.wrap(nodes.copyOf()), FloatBuffer.wrap(bounds), FloatBuffer.wrap(xsSorted), FloatBuffer.wrap(ysSorted), IntBuffer.wrap(vsSorted));
+    }
+
+    protected static void computeCodes(float[] x, float[] y, int[] order, long[] codes, int from, int to, double xOrigin, double xScale, double yOrigin, double yScale)
+    {
+        int maxCell = (1 << MORTON_BITS) - 1;
+        for (int i = from; i < to; i++)
+        {
+            int j = order[i];
+            int qx = (int) max(0, min(maxCell, (QuadTree.truncInf(x[j]) - xOrigin) * xScale));
+            int qy = (int) max(0, min(maxCell, (QuadTree.truncInf(y[j]) - yOrigin) * yScale));
+            codes[i] = spreadBits(qx) | (spreadBits(qy) << 1);
+        }
+    }
+
+    /**
+     * Spreads the low 32 bits of {@code v} out to the even bits of a long.
+     */
+    protected static long spreadBits(int v)
+    {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Within sorted {@code codes[from,to)}, whose digits above {@code shift} are all equal, returns
+     * the index just past the codes whose 2-bit digit at {@code shift} is {@code <= digit}.
+     *
+     * The digit ordering matches {@link QuadTree#quadrant(float, float, float, float)}.
+     */
+    protected static int digitEnd(long[] codes, int from, int to, int shift, int digit)
+    {
+        int lo = from;
+        int hi = to;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (((codes[mid] >>> shift) & 3) <= digit) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Merges the sorted runs {@code [runStarts[i],runStarts[i+1])} pairwise until one run is left.
+     */
+    protected static void mergeRuns(long[] codes, int[] order, int[] runStarts)
+    {
+        long[] codesTemp = new long[codes.length];
+        int[] orderTemp = new int[order.length];
+
+        int[] starts = runStarts;
+        long[] codesFrom = codes, codesTo = codesTemp;
+        int[] orderFrom = order, orderTo = orderTemp;
+
+        while (starts.length > 2)
+        {
+            int numRuns = starts.length - 1;
+            int[] newStarts = new int[(numRuns + 1) / 2 + 1];
+            for (int r = 0; r < numRuns; r += 2)
+            {
+                int a = starts[r];
+                int aEnd = starts[r + 1];
+                int b = aEnd;
+                int bEnd = (r + 2 < starts.length ? starts[r + 2] : aEnd);
+                int k = a;
+
+                newStarts[r / 2] = a;
+                while (a < aEnd && b < bEnd)
+                {
+                    if (codesFrom[b] < codesFrom[a]) { codesTo[k] = codesFrom[b]; orderTo[k++] = orderFrom[b++]; }
+                    else { codesTo[k] = codesFrom[a]; orderTo[k++] = orderFrom[a++]; }
+                }
+                while (a < aEnd) { codesTo[k] = codesFrom[a]; orderTo[k++] = orderFrom[a++]; }
+                while (b < bEnd) { codesTo[k] = codesFrom[b]; orderTo[k++] = orderFrom[b++]; }
+            }
+            newStarts[newStarts.length - 1] = starts[starts.length - 1];
+            starts = newStarts;
+
+            long[] codesSwap = codesFrom; codesFrom = codesTo; codesTo = codesSwap;
+            int[] orderSwap = orderFrom; orderFrom = orderTo; orderTo = orderSwap;
+        }
+
+        if (codesFrom != codes)
+        {
+            System.arraycopy(codesFrom, 0, codes, 0, codes.length);
+            System.arraycopy(orderFrom, 0, order, 0, order.length);
+        }
+    }
+
+    protected static void waitFor(List<Future<?>> futures)
+    {
+        try
+        {
+            for (Future<?> future : futures) future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public int size()
+    {
+        return numPoints;
+    }
+
+    public int numNodes()
+    {
+        return numNodes;
+    }
+
+    public float x(int i)
+    {
+        return xs.get(i);
+    }
+
+    public float y(int i)
+    {
+        return ys.get(i);
+    }
+
+    public int v(int i)
+    {
+        return vs.get(i);
+    }
+
+    public void accumulate(float xMin, float xMax, float yMin, float yMax, Accumulator accumulator)
+    {
+        if (numNodes > 0 && numPoints > 0) accumulate(0, xMin, xMax, yMin, yMax, accumulator);
+    }
+
+    protected void accumulate(int node, float xMin, float xMax, float yMin, float yMax, Accumulator accumulator)
+    {
+        float bxMin = nodeFloats.get(node * NODE_FLOATS);
+        float bxMax = nodeFloats.get(node * NODE_FLOATS + 1);
+        float byMin = nodeFloats.get(node * NODE_FLOATS + 2);
+        float byMax = nodeFloats.get(node * NODE_FLOATS + 3);
+        if (bxMax < xMin || bxMin > xMax || byMax < yMin || byMin > yMax) return;
+
+        int numChildren = nodeInts.get(node * NODE_INTS + 3);
+        if (numChildren == 0)
+        {
+            accumulator.accumulate(nodeInts.get(node * NODE_INTS), nodeInts.get(node * NODE_INTS + 1), bxMin, bxMax, byMin, byMax);
+        }
+        else
+        {
+            int firstChild = nodeInts.get(node * NODE_INTS + 2);
+            for (int c = firstChild; c < firstChild + numChildren; c++)
+            {
+                accumulate(c, xMin, xMax, yMin, yMax, accumulator);
+            }
+        }
+    }
+
+    public Ints search(float xMin, float xMax, float yMin, float yMax)
+    {
+        IntsModifiable results = new IntsArray();
+        search(xMin, xMax, yMin, yMax, results);
+        return results;
+    }
+
+    /**
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(float xMin, float xMax, float yMin, float yMax, IntsModifiable results)
+    {
+        return search(xMin, xMax, yMin, yMax, null, results);
+    }
+
+    /**
+     * @param vFilter may be null, to include all values
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(final float xMin, final float xMax, final float yMin, final float yMax, final FilterInt vFilter, final IntsModifiable results)
+    {
+        int nBefore = results.n();
+
+        accumulate(xMin, xMax, yMin, yMax, new Accumulator()
+        {
+            public void accumulate(int from, int to, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+            {
+                boolean xAll = (xMin <= xMinBucket && xMaxBucket <= xMax);
+                boolean yAll = (yMin <= yMinBucket && yMaxBucket <= yMax);
+
+                for (int i = from; i < to; i++)
+                {
+                    if (!xAll)
+                    {
+                        float x = xs.get(i);
+                        if (x < xMin || x > xMax) continue;
+                    }
+
+                    if (!yAll)
+                    {
+                        float y = ys.get(i);
+                        if (y < yMin || y > yMax) continue;
+                    }
+
+                    int v = vs.get(i);
+                    if (vFilter != null && !vFilter.include(v)) continue;
+
+                    results.append(v);
+                }
+            }
+        });
+
+        return results.n() - nBefore;
+    }
+
+    /**
+     * Writes the tree to {@code file}, in a form that can be memory-mapped by {@link #map(File)}.
+     *
+     * @throws IOException if the file would exceed the 2 GB limit of {@link #map(File)}
+     */
+    public void write(File file) throws IOException
+    {
+        long fileSize = fileSize(numPoints, numNodes);
+        if (fileSize > Integer.MAX_VALUE) throw new IOException("Packed quadtree is too large to map (" + fileSize + " bytes, limit is " + Integer.MAX_VALUE + "): " + file);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * 4).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(numPoints).putInt(numNodes).flip();
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            writeInts(channel, chunk, nodeInts, numNodes * NODE_INTS);
+            writeFloats(channel, chunk, nodeFloats, numNodes * NODE_FLOATS);
+            writeFloats(channel, chunk, xs, numPoints);
+            writeFloats(channel, chunk, ys, numPoints);
+            writeInts(channel, chunk, vs, numPoints);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Memory-maps a tree written by {@link #write(File)}. The file is not read up front: pages
+     * are loaded by the OS as searches touch them.
+     *
+     * @throws IOException if the file is not a packed quadtree file, is truncated or corrupt,
+     *                     or exceeds 2 GB
+     */
+    public static PackedQuadTreeInts map(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Packed quadtree file is too large to map (" + size + " bytes, limit is " + Integer.MAX_VALUE + "): " + file);
+
+            ByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.remaining() < HEADER_INTS * 4 || mapped.getInt(0) != FILE_MAGIC) throw new IOException("Not a packed quadtree file: " + file);
+            int version = mapped.getInt(4);
+            if (version != FILE_VERSION) throw new IOException("Unsupported packed quadtree file version: " + version);
+
+            int numPoints = mapped.getInt(8);
+            int numNodes = mapped.getInt(12);
+
+            // The sections are laid out back to back, so the counts determine the file size exactly
+            if (numPoints < 0 || numNodes < 0) throw new IOException("Corrupt packed quadtree file (points: " + numPoints + ", nodes: " + numNodes + "): " + file);
+            long expectedSize = fileSize(numPoints, numNodes);
+            if (expectedSize != size) throw new IOException("Corrupt packed quadtree file (points: " + numPoints + ", nodes: " + numNodes + ", expected " + expectedSize + " bytes, found " + size + "): " + file);
+
+            int offset = HEADER_INTS * 4;
+            IntBuffer nodeInts = slice(mapped, offset, numNodes * NODE_INTS).asIntBuffer();
+            offset += numNodes * NODE_INTS * 4;
+            FloatBuffer nodeFloats = slice(mapped, offset, numNodes * NODE_FLOATS).asFloatBuffer();
+            offset += numNodes * NODE_FLOATS * 4;
+            FloatBuffer xs = slice(mapped, offset, numPoints).asFloatBuffer();
+            offset += numPoints * 4;
+            FloatBuffer ys = slice(mapped, offset, numPoints).asFloatBuffer();
+            offset += numPoints * 4;
+            IntBuffer vs = slice(mapped, offset, numPoints).asIntBuffer();
+
+            return new PackedQuadTreeInts(numPoints, numNodes, nodeInts, nodeFloats, xs, ys, vs);
+        }
+        finally
+        {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    protected static long fileSize(int numPoints, int numNodes)
+    {
+        return HEADER_INTS * 4L + numNodes * (NODE_INTS + NODE_FLOATS) * 4L + numPoints * 3 * 4L;
+    }
+
+    protected static ByteBuffer slice(ByteBuffer buffer, int offset, int count)
+    {
+        ByteBuffer dup = buffer.duplicate();
+        dup.limit(offset + count * 4);
+        dup.position(offset);
+        return dup.slice().order(buffer.order());
+    }
+
+    protected static void writeInts(FileChannel channel, ByteBuffer chunk, IntBuffer values, int count) throws IOException
+    {
+        for (int i = 0; i < count; )
+        {
+            chunk.clear();
+            for (; i < count && chunk.remaining() >= 4; i++) chunk.putInt(values.get(i));
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    protected static void writeFloats(FileChannel channel, ByteBuffer chunk, FloatBuffer values, int count) throws IOException
+    {
+        for (int i = 0; i < count; )
+        {
+            chunk.clear();
+            for (; i < count && chunk.remaining() >= 4; i++) chunk.putFloat(values.get(i));
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    protected static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+}
@@ -28,6 +28,7 @@ package com.metsci.glimpse.util.quadtree;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.util.Arrays.copyOf;
 
 /**
  * @author hogye
@@ -45,6 +46,20 @@ public abstract class QuadTree<B>
     }
 
 
+    public static interface NearestAccumulator<B>
+    {
+        /**
+         * Called for buckets in order of increasing (scaled) distance from the query point.
+         * Every point in {@code bucket} will have {@code x} in {@code [xMinBucket,xMaxBucket)}
+         * and {@code y} in {@code [yMinBucket,yMaxBucket)}.
+         *
+         * @return The squared distance beyond which points are no longer of interest. Buckets
+         *         farther away than this are not visited.
+         */
+        float accumulate(B bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket);
+    }
+
+
     public static interface Node<B>
     {
         LeafNode<B> leaf(float x, float y);
@@ -153,11 +168,154 @@ public abstract class QuadTree<B>
         return max( min( x, Float.MAX_VALUE ), -Float.MAX_VALUE );
     }
 
+    /**
+     * Squared distance from (x,y) to the nearest point of the box, after scaling x
+     * distances by {@code xScale} and y distances by {@code yScale}. Zero if (x,y)
+     * is inside the box.
+     */
+    public static float distanceSquared(float x, float y, float xScale, float yScale, float xMin, float xMax, float yMin, float yMax)
+    {
+        float dx = (x < xMin ? xMin - x : (x > xMax ? x - xMax : 0)) * xScale;
+        float dy = (y < yMin ? yMin - y : (y > yMax ? y - yMax : 0)) * yScale;
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * Squared distance from (x,y) to the farthest corner of the box, scaled as in
+     * {@link #distanceSquared(float, float, float, float, float, float, float, float)}.
+     */
+    public static float farthestDistanceSquared(float x, float y, float xScale, float yScale, float xMin, float xMax, float yMin, float yMax)
+    {
+        float dx = max(x - xMin, xMax - x) * xScale;
+        float dy = max(y - yMin, yMax - y) * yScale;
+        return dx*dx + dy*dy;
+    }
+
+
+    /**
+     * Priority queue of nodes (with their bounds) keyed by distance, for best-first
+     * traversal. Kept per thread (shared by all trees) and reused, so that nearest-neighbour
+     * queries do not allocate once the queue has grown to its working size.
+     */
+    protected static class NodeQueue<B>
+    {
+        public Node<B>[] nodes;
+        public float[] bounds;
+        public float[] keys;
+        public int size;
+
+        // True while a traversal is using this queue, so that a nested query on the
+        // same thread (from inside an accumulator) gets a queue of its own
+        public boolean inUse;
+
+        // Receives the bounds of each popped node
+        public final float[] popped = new float[4];
+
+        @SuppressWarnings("unchecked")
+        public NodeQueue()
+        {
+            nodes = (Node<B>[]) new Node<?>[64];
+            bounds = new float[4*64];
+            keys = new float[64];
+            size = 0;
+        }
+
+        public void push(Node<B> node, float key, float xMin, float xMax, float yMin, float yMax)
+        {
+            if (size == nodes.length)
+            {
+                int capacity = 2*size;
+                nodes = copyOf(nodes, capacity);
+                bounds = copyOf(bounds, 4*capacity);
+                keys = copyOf(keys, capacity);
+            }
+
+            // Sift up
+            int i = size++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) break;
+                move(parent, i);
+                i = parent;
+            }
+            set(i, node, key, xMin, xMax, yMin, yMax);
+        }
+
+        /**
+         * Removes the head of the queue, after copying its bounds into {@code boundsOut}.
+         */
+        public Node<B> pop(float[] boundsOut)
+        {
+            Node<B> head = nodes[0];
+            System.arraycopy(bounds, 0, boundsOut, 0, 4);
+
+            int last = --size;
+            float key = keys[last];
+
+            // Sift the last element down from the root
+            int i = 0;
+            while (true)
+            {
+                int child = 2*i + 1;
+                if (child >= last) break;
+                if (child + 1 < last && keys[child + 1] < keys[child]) child++;
+                if (key <= keys[child]) break;
+                move(child, i);
+                i = child;
+            }
+            if (last > 0)
+            {
+                set(i, nodes[last], key, bounds[4*last], bounds[4*last+1], bounds[4*last+2], bounds[4*last+3]);
+            }
+            nodes[last] = null;
+
+            return head;
+        }
+
+        public float peekKey()
+        {
+            return keys[0];
+        }
+
+        public void clear()
+        {
+            for (int i = 0; i < size; i++) nodes[i] = null;
+            size = 0;
+        }
+
+        protected void move(int from, int to)
+        {
+            nodes[to] = nodes[from];
+            keys[to] = keys[from];
+            System.arraycopy(bounds, 4*from, bounds, 4*to, 4);
+        }
+
+        protected void set(int i, Node<B> node, float key, float xMin, float xMax, float yMin, float yMax)
+        {
+            nodes[i] = node;
+            keys[i] = key;
+            bounds[4*i] = xMin;
+            bounds[4*i+1] = xMax;
+            bounds[4*i+2] = yMin;
+            bounds[4*i+3] = yMax;
+        }
+    }
+
 
 
     @SuppressWarnings("unchecked")
     protected final Node<B>[] root = new Node[1];
 
+    protected static final ThreadLocal<NodeQueue<?>> nodeQueues = new ThreadLocal<NodeQueue<?>>()
+    {
+        @Override
+        protected NodeQueue<?> initialValue()
+        {
+            return new NodeQueue<Object>();
+        }
+    };
+
 
     public QuadTree(B rootBucket)
     {
@@ -174,6 +332,69 @@ public abstract class QuadTree<B>
         root[0].accumulate(xMin, xMax, yMin, yMax, accumulator);
     }
 
+    /**
+     * Best-first traversal: passes buckets to {@code accumulator} in order of increasing
+     * distance from (x,y), where x distances are multiplied by {@code xScale} and y distances
+     * by {@code yScale} (for example, pixels per axis unit). Stops once the nearest remaining
+     * bucket is farther than the squared distance returned by the latest call to the accumulator
+     * (initially {@code maxDistanceSquared}).
+     *
+     * Does not allocate, except to grow a per-thread node queue.
+     */
+    public void accumulateNearest(float x, float y, float xScale, float yScale, float maxDistanceSquared, NearestAccumulator<B> accumulator)
+    {
+        @SuppressWarnings("unchecked")
+        NodeQueue<B> queue = (NodeQueue<B>) nodeQueues.get();
+        if (queue.inUse) queue = new NodeQueue<B>();
+
+        queue.clear();
+        queue.inUse = true;
+        try
+        {
+            // Bounds are carried alongside nodes, since internal nodes don't store their own
+            float[] bounds = queue.popped;
+            float limit = maxDistanceSquared;
+
+            queue.push(root[0], 0, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+            while (queue.size > 0 && queue.peekKey() <= limit)
+            {
+                Node<B> node = queue.pop(bounds);
+                float xMin = bounds[0];
+                float xMax = bounds[1];
+                float yMin = bounds[2];
+                float yMax = bounds[3];
+
+                if (node instanceof LeafNode)
+                {
+                    limit = accumulator.accumulate(((LeafNode<B>) node).bucket, xMin, xMax, yMin, yMax);
+                }
+                else
+                {
+                    InternalNode<B> internal = (InternalNode<B>) node;
+                    float xd = internal.xDivider;
+                    float yd = internal.yDivider;
+                    Node<B>[] children = internal.children;
+
+                    pushIfNear(queue, children[0], x, y, xScale, yScale, limit, xMin, xd, yMin, yd);
+                    pushIfNear(queue, children[1], x, y, xScale, yScale, limit, xd, xMax, yMin, yd);
+                    pushIfNear(queue, children[2], x, y, xScale, yScale, limit, xMin, xd, yd, yMax);
+                    pushIfNear(queue, children[3], x, y, xScale, yScale, limit, xd, xMax, yd, yMax);
+                }
+            }
+        }
+        finally
+        {
+            queue.clear();
+            queue.inUse = false;
+        }
+    }
+
+    protected static <B> void pushIfNear(NodeQueue<B> queue, Node<B> node, float x, float y, float xScale, float yScale, float limit, float xMin, float xMax, float yMin, float yMax)
+    {
+        float d = distanceSquared(x, y, xScale, yScale, xMin, xMax, yMin, yMax);
+        if (d <= limit) queue.push(node, d, xMin, xMax, yMin, yMax);
+    }
+
     /**
      * For subclasses to call when a leaf's bucket gets full.
      *
@@ -31,7 +31,9 @@ import static java.lang.Float.intBitsToFloat;
 import static java.lang.Math.max;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap.Entry;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
+import com.metsci.glimpse.util.primitives.FloatsModifiable;
 import com.metsci.glimpse.util.primitives.Ints;
 import com.metsci.glimpse.util.primitives.IntsArray;
 import com.metsci.glimpse.util.primitives.IntsModifiable;
@@ -59,6 +61,24 @@ public abstract class QuadTreeInts extends QuadTree<Bucket>
 
     protected final int maxBucketSize;
 
+    protected static final ThreadLocal<NearestInts> nearestScratch = new ThreadLocal<NearestInts>()
+    {
+        @Override
+        protected NearestInts initialValue()
+        {
+            return new NearestInts();
+        }
+    };
+
+    protected static final ThreadLocal<RadiusInts> radiusScratch = new ThreadLocal<RadiusInts>()
+    {
+        @Override
+        protected RadiusInts initialValue()
+        {
+            return new RadiusInts();
+        }
+    };
+
 
     public QuadTreeInts(int maxBucketSize)
     {
@@ -313,6 +333,294 @@ public abstract class QuadTreeInts extends QuadTree<Bucket>
         return results.n() - nBefore;
     }
 
+    /**
+     * @see #nearest(float, float, float, float, int, float, IntsModifiable, FloatsModifiable)
+     */
+    public int nearest(float x, float y, int k, float maxDistance, IntsModifiable results)
+    {
+        return nearest(x, y, 1, 1, k, maxDistance, results, null);
+    }
+
+    /**
+     * Appends the (up to) {@code k} values nearest to (x,y) to {@code results}, nearest first.
+     * Distances are measured after multiplying x differences by {@code xScale} and y differences
+     * by {@code yScale} (for example, pixels per axis unit), and values farther than
+     * {@code maxDistance} are left out. If {@code distances} is non-null, the distance of each
+     * value is appended to it.
+     *
+     * Visits leaves best-first, and does not allocate once per-thread scratch space has grown
+     * to fit {@code k}.
+     *
+     * @return The number of elements appended to {@code results}.
+     */
+    public int nearest(float x, float y, float xScale, float yScale, int k, float maxDistance, IntsModifiable results, FloatsModifiable distances)
+    {
+        if (k <= 0) return 0;
+
+        NearestInts nearest = nearestScratch.get();
+        if (nearest.tree != null) nearest = new NearestInts();
+
+        nearest.reset(this, x, y, xScale, yScale, k, maxDistance*maxDistance);
+        try
+        {
+            accumulateNearest(x, y, xScale, yScale, nearest.limit, nearest);
+
+            int n = nearest.sort();
+            results.append(nearest.vs, 0, n);
+            if (distances != null)
+            {
+                for (int i = 0; i < n; i++) nearest.ds[i] = (float) Math.sqrt(nearest.ds[i]);
+                distances.append(nearest.ds, 0, n);
+            }
+            return n;
+        }
+        finally
+        {
+            nearest.tree = null;
+        }
+    }
+
+    /**
+     * @see #searchRadius(float, float, float, float, float, IntsModifiable)
+     */
+    public int searchRadius(float x, float y, float radius, IntsModifiable results)
+    {
+        return searchRadius(x, y, 1, 1, radius, results);
+    }
+
+    /**
+     * Appends all values within {@code radius} of (x,y) to {@code results}, in no particular order.
+     * Distances are scaled as in {@link #nearest(float, float, float, float, int, float, IntsModifiable, FloatsModifiable)},
+     * so with unequal scales the search region is an axis-aligned ellipse.
+     *
+     * @return The number of elements appended to {@code results}.
+     */
+    public int searchRadius(float x, float y, float xScale, float yScale, float radius, IntsModifiable results)
+    {
+        int nBefore = results.n();
+
+        RadiusInts search = radiusScratch.get();
+        if (search.tree != null) search = new RadiusInts();
+
+        search.reset(this, x, y, xScale, yScale, radius*radius, results);
+        try
+        {
+            accumulate(x - radius/xScale, x + radius/xScale, y - radius/yScale, y + radius/yScale, search);
+        }
+        finally
+        {
+            search.tree = null;
+            search.results = null;
+        }
+
+        return results.n() - nBefore;
+    }
+
+    protected float distanceSquared(int v, float x, float y, float xScale, float yScale)
+    {
+        float dx = (x(v) - x) * xScale;
+        float dy = (y(v) - y) * yScale;
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * Per-thread state (shared by all trees of this type) for {@link #nearest(float, float, float, float, int, float, IntsModifiable, FloatsModifiable)}:
+     * a bounded max-heap of the best candidates so far, keyed by squared distance.
+     */
+    protected static class NearestInts implements NearestAccumulator<Bucket>
+    {
+        // The tree being queried, or null when not in use
+        public QuadTreeInts tree;
+
+        public int[] vs = new int[16];
+        public float[] ds = new float[16];
+        public int n;
+
+        public float x;
+        public float y;
+        public float xScale;
+        public float yScale;
+        public int k;
+        public float limit;
+
+        public void reset(QuadTreeInts tree, float x, float y, float xScale, float yScale, int k, float maxDistanceSquared)
+        {
+            this.tree = tree;
+            this.x = x;
+            this.y = y;
+            this.xScale = xScale;
+            this.yScale = yScale;
+            this.k = k;
+            this.limit = maxDistanceSquared;
+            this.n = 0;
+
+            // Grow geometrically, so that only the first few queries with a larger k allocate
+            if (vs.length < k)
+            {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(k, 2L*vs.length));
+                vs = new int[capacity];
+                ds = new float[capacity];
+            }
+        }
+
+        @Override
+        public float accumulate(Bucket bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+        {
+            int[] a = bucket.singles.a;
+            int na = bucket.singles.n;
+            for (int i = 0; i < na; i++)
+            {
+                int v = a[i];
+                offer(v, tree.distanceSquared(v, x, y, xScale, yScale));
+            }
+
+            if (!bucket.dupes.isEmpty())
+            {
+                // fastIterator reuses a single entry, rather than allocating one per mapping
+                for (ObjectIterator<Entry<IntsArray>> it = bucket.dupes.long2ObjectEntrySet().fastIterator(); it.hasNext();)
+                {
+                    Entry<IntsArray> en = it.next();
+                    long xyKey = en.getLongKey();
+                    float dx = (xFromKey(xyKey) - x) * xScale;
+                    float dy = (yFromKey(xyKey) - y) * yScale;
+                    float d = dx*dx + dy*dy;
+                    if (d > limit) continue;
+
+                    IntsArray dupes = en.getValue();
+                    for (int i = 0; i < dupes.n; i++) offer(dupes.a[i], d);
+                }
+            }
+
+            return limit;
+        }
+
+        public void offer(int v, float d)
+        {
+            if (d > limit) return;
+
+            if (n < k)
+            {
+                // Sift up
+                int i = n++;
+                while (i > 0)
+                {
+                    int parent = (i - 1) >>> 1;
+                    if (ds[parent] >= d) break;
+                    vs[i] = vs[parent];
+                    ds[i] = ds[parent];
+                    i = parent;
+                }
+                vs[i] = v;
+                ds[i] = d;
+
+                if (n == k) limit = ds[0];
+            }
+            else if (d < ds[0])
+            {
+                siftDown(0, n, v, d);
+                limit = ds[0];
+            }
+        }
+
+        protected void siftDown(int i, int size, int v, float d)
+        {
+            while (true)
+            {
+                int child = 2*i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && ds[child + 1] > ds[child]) child++;
+                if (d >= ds[child]) break;
+                vs[i] = vs[child];
+                ds[i] = ds[child];
+                i = child;
+            }
+            vs[i] = v;
+            ds[i] = d;
+        }
+
+        /**
+         * Heap-sorts the candidates in place, nearest first, and returns how many there are.
+         */
+        public int sort()
+        {
+            for (int size = n - 1; size > 0; size--)
+            {
+                int v = vs[size];
+                float d = ds[size];
+                vs[size] = vs[0];
+                ds[size] = ds[0];
+                siftDown(0, size, v, d);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Per-thread state (shared by all trees of this type) for {@link #searchRadius(float, float, float, float, float, IntsModifiable)}.
+     */
+    protected static class RadiusInts implements Accumulator<Bucket>
+    {
+        // The tree being queried, or null when not in use
+        public QuadTreeInts tree;
+
+        public float x;
+        public float y;
+        public float xScale;
+        public float yScale;
+        public float radiusSquared;
+        public IntsModifiable results;
+
+        public void reset(QuadTreeInts tree, float x, float y, float xScale, float yScale, float radiusSquared, IntsModifiable results)
+        {
+            this.tree = tree;
+            this.x = x;
+            this.y = y;
+            this.xScale = xScale;
+            this.yScale = yScale;
+            this.radiusSquared = radiusSquared;
+            this.results = results;
+        }
+
+        @Override
+        public void accumulate(Bucket bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+        {
+            boolean all = (farthestDistanceSquared(x, y, xScale, yScale, xMinBucket, xMaxBucket, yMinBucket, yMaxBucket) <= radiusSquared);
+
+            IntsArray singles = bucket.singles;
+            if (all)
+            {
+                results.append(singles.a, 0, singles.n);
+            }
+            else
+            {
+                for (int i = 0; i < singles.n; i++)
+                {
+                    int v = singles.a[i];
+                    if (tree.distanceSquared(v, x, y, xScale, yScale) <= radiusSquared) results.append(v);
+                }
+            }
+
+            if (!bucket.dupes.isEmpty())
+            {
+                // fastIterator reuses a single entry, rather than allocating one per mapping
+                for (ObjectIterator<Entry<IntsArray>> it = bucket.dupes.long2ObjectEntrySet().fastIterator(); it.hasNext();)
+                {
+                    Entry<IntsArray> en = it.next();
+                    long xyKey = en.getLongKey();
+                    if (!all)
+                    {
+                        float dx = (xFromKey(xyKey) - x) * xScale;
+                        float dy = (yFromKey(xyKey) - y) * yScale;
+                        if (dx*dx + dy*dy > radiusSquared) continue;
+                    }
+
+                    IntsArray dupes = en.getValue();
+                    results.append(dupes.a, 0, dupes.n);
+                }
+            }
+        }
+    }
+
     /**
      * If {@code x(v)} or {@code y(v)} returns {@code NaN}, this method returns
      * immediately without adding {@code v} to the tree.
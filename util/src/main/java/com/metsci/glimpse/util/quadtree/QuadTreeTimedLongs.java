@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2012, Metron, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Metron, Inc. nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL METRON, INC. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.metsci.glimpse.util.quadtree;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.sqrt;
+
+import com.metsci.glimpse.util.primitives.FloatsArray;
+import com.metsci.glimpse.util.primitives.LongsArray;
+import com.metsci.glimpse.util.primitives.sorted.SortedLongsArray;
+import com.metsci.glimpse.util.quadtree.QuadTreeTimedLongs.Bucket;
+
+/**
+ * A spatio-temporal index of long values, each of which has an x, a y, and a time.
+ *
+ * Each leaf stores its values in parallel primitive arrays, sorted by time. A search
+ * for a time window only has to binary-search each leaf that intersects the search box,
+ * and then (for leaves that are entirely inside the box) copy out a contiguous run of
+ * results -- so a narrow time window over a busy region costs roughly the size of the
+ * result, not the size of the region's history.
+ *
+ * Unlike the other quadtrees in this package, coordinates are stored in the tree rather
+ * than computed from the values, so values need not be distinct and no callbacks are made.
+ *
+ * @author agent
+ */
+public class QuadTreeTimedLongs extends QuadTree<Bucket>
+{
+
+    protected static class Bucket
+    {
+        public final SortedLongsArray ts;
+        public final LongsArray vs;
+        public final FloatsArray xs;
+        public final FloatsArray ys;
+
+        // A leaf whose values can't be separated by splitting (e.g. many values
+        // at the same location) is allowed to grow past maxBucketSize
+        public int splitThreshold;
+
+        public Bucket(int splitThreshold)
+        {
+            this.ts = new SortedLongsArray();
+            this.vs = new LongsArray();
+            this.xs = new FloatsArray();
+            this.ys = new FloatsArray();
+            this.splitThreshold = splitThreshold;
+        }
+
+        public int n()
+        {
+            return ts.n;
+        }
+
+        public void insert(int i, long v, float x, float y, long t)
+        {
+            ts.insert(i, t);
+            vs.insert(i, v);
+            xs.insert(i, x);
+            ys.insert(i, y);
+        }
+
+        public void append(Bucket from, int i)
+        {
+            ts.append(from.ts.a[i]);
+            vs.append(from.vs.a[i]);
+            xs.append(from.xs.a[i]);
+            ys.append(from.ys.a[i]);
+        }
+
+        public void removeAt(int i)
+        {
+            int c = ts.n - (i + 1);
+            System.arraycopy(ts.a, i+1, ts.a, i, c);
+            System.arraycopy(vs.a, i+1, vs.a, i, c);
+            System.arraycopy(xs.a, i+1, xs.a, i, c);
+            System.arraycopy(ys.a, i+1, ys.a, i, c);
+            ts.n--;
+            vs.n--;
+            xs.n--;
+            ys.n--;
+        }
+    }
+
+
+    /**
+     * Parallel arrays used to return search results, so that no object needs
+     * to be allocated per result. Searches append to the arrays; call {@link #clear()}
+     * to reuse an instance.
+     */
+    public static class Results
+    {
+        public final LongsArray vs = new LongsArray();
+        public final FloatsArray xs = new FloatsArray();
+        public final FloatsArray ys = new FloatsArray();
+        public final LongsArray ts = new LongsArray();
+
+        public int n()
+        {
+            return vs.n;
+        }
+
+        public void clear()
+        {
+            vs.n = 0;
+            xs.n = 0;
+            ys.n = 0;
+            ts.n = 0;
+        }
+
+        protected void append(Bucket bucket, int i)
+        {
+            vs.append(bucket.vs.a[i]);
+            xs.append(bucket.xs.a[i]);
+            ys.append(bucket.ys.a[i]);
+            ts.append(bucket.ts.a[i]);
+        }
+
+        protected void append(Bucket bucket, int from, int to)
+        {
+            vs.append(bucket.vs.a, from, to);
+            xs.append(bucket.xs.a, from, to);
+            ys.append(bucket.ys.a, from, to);
+            ts.append(bucket.ts.a, from, to);
+        }
+    }
+
+
+    protected final int maxBucketSize;
+
+
+    public QuadTreeTimedLongs(int maxBucketSize)
+    {
+        super(new Bucket(maxBucketSize));
+        this.maxBucketSize = maxBucketSize;
+    }
+
+    /**
+     * Appends to {@code results} every value with {@code x} in {@code [xMin,xMax]},
+     * {@code y} in {@code [yMin,yMax]}, and time in {@code [tMin,tMax]}.
+     *
+     * @return The number of elements appended to {@code results}.
+     */
+    public int search(final float xMin, final float xMax, final float yMin, final float yMax, final long tMin, final long tMax, final Results results)
+    {
+        int nBefore = results.n();
+        if (tMin > tMax) return 0;
+
+        accumulate(xMin, xMax, yMin, yMax, new Accumulator<Bucket>()
+        {
+            public void accumulate(Bucket bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+            {
+                int from = bucket.ts.indexAtOrAfter(tMin);
+                int to = bucket.ts.indexAfter(tMax);
+                if (from >= to) return;
+
+                boolean xAll = (xMin <= xMinBucket && xMaxBucket <= xMax);
+                boolean yAll = (yMin <= yMinBucket && yMaxBucket <= yMax);
+
+                if (xAll && yAll)
+                {
+                    results.append(bucket, from, to);
+                }
+                else
+                {
+                    float[] xs = bucket.xs.a;
+                    float[] ys = bucket.ys.a;
+
+                    for (int i = from; i < to; i++)
+                    {
+                        float x = xs[i];
+                        if (x < xMin || x > xMax) continue;
+
+                        float y = ys[i];
+                        if (y < yMin || y > yMax) continue;
+
+                        results.append(bucket, i);
+                    }
+                }
+            }
+        });
+
+        return results.n() - nBefore;
+    }
+
+    /**
+     * Finds the value nearest to {@code (x,y)} with time in {@code [tMin,tMax]}, among the values
+     * inside the square box extending {@code maxDistance} from {@code (x,y)} along each axis, and
+     * appends it to {@code results}. Distances are measured after multiplying x differences by
+     * {@code xScale} and y differences by {@code yScale} -- e.g. pass pixels-per-unit for
+     * each axis to measure distance in pixels.
+     *
+     * @return The distance to the nearest value, or {@code NaN} if there is no value within
+     *         the box (in which case nothing is appended to {@code results}).
+     */
+    public float nearest(float x, float y, float xScale, float yScale, float maxDistance, long tMin, long tMax, Results results)
+    {
+        Nearest nearest = new Nearest(x, y, xScale, yScale, maxDistance, tMin, tMax);
+        nearest.search(root[0], Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+
+        if (nearest.bestBucket == null) return Float.NaN;
+
+        results.append(nearest.bestBucket, nearest.bestIndex);
+        return (float) sqrt(nearest.bestDistSq);
+    }
+
+    protected static class Nearest
+    {
+        final float x;
+        final float y;
+        final float xScale;
+        final float yScale;
+        final long tMin;
+        final long tMax;
+        final double maxDistance;
+
+        double bestDistSq;
+        Bucket bestBucket = null;
+        int bestIndex = -1;
+
+        public Nearest(float x, float y, float xScale, float yScale, float maxDistance, long tMin, long tMax)
+        {
+            this.x = x;
+            this.y = y;
+            this.xScale = xScale;
+            this.yScale = yScale;
+            this.tMin = tMin;
+            this.tMax = tMax;
+            this.maxDistance = maxDistance;
+
+            // The farthest a value inside the box can be is the distance to its corner
+            this.bestDistSq = 2.0 * maxDistance * maxDistance;
+        }
+
+        public void search(Node<Bucket> node, float xMin, float xMax, float yMin, float yMax)
+        {
+            double dx = (x < xMin ? xMin - x : (x > xMax ? x - xMax : 0)) * xScale;
+            double dy = (y < yMin ? yMin - y : (y > yMax ? y - yMax : 0)) * yScale;
+            if (dx > maxDistance || dy > maxDistance || dx*dx + dy*dy > bestDistSq) return;
+
+            if (node instanceof LeafNode)
+            {
+                searchBucket(((LeafNode<Bucket>) node).bucket);
+            }
+            else
+            {
+                InternalNode<Bucket> internal = (InternalNode<Bucket>) node;
+                float xd = internal.xDivider;
+                float yd = internal.yDivider;
+
+                // Visit the quadrant containing the query point first, so that
+                // the best distance shrinks as early as possible
+                int q0 = quadrant(xd, yd, x, y);
+                for (int k = 0; k < 4; k++)
+                {
+                    int q = q0 ^ k;
+                    boolean largeX = (q & 1) != 0;
+                    boolean largeY = (q & 2) != 0;
+                    search(internal.children[q], (largeX ? xd : xMin), (largeX ? xMax : xd), (largeY ? yd : yMin), (largeY ? yMax : yd));
+                }
+            }
+        }
+
+        public void searchBucket(Bucket bucket)
+        {
+            int from = bucket.ts.indexAtOrAfter(tMin);
+            int to = bucket.ts.indexAfter(tMax);
+
+            float[] xs = bucket.xs.a;
+            float[] ys = bucket.ys.a;
+            for (int i = from; i < to; i++)
+            {
+                double dx = (xs[i] - x) * xScale;
+                double dy = (ys[i] - y) * yScale;
+                if (abs(dx) > maxDistance || abs(dy) > maxDistance) continue;
+
+                double distSq = dx*dx + dy*dy;
+                if (distSq <= bestDistSq)
+                {
+                    bestDistSq = distSq;
+                    bestBucket = bucket;
+                    bestIndex = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * If {@code x} or {@code y} is {@code NaN}, this method returns immediately
+     * without adding {@code v} to the tree.
+     */
+    public void add(long v, float x, float y, long t)
+    {
+        if (Float.isNaN(x) || Float.isNaN(y)) return;
+
+        LeafNode<Bucket> leaf = leaf(x, y);
+        Bucket bucket = leaf.bucket;
+
+        // Values usually arrive in time order, so this is usually an append
+        bucket.insert(bucket.ts.indexAfter(t), v, x, y, t);
+
+        if (bucket.n() > bucket.splitThreshold)
+        {
+            splitLeaf(leaf);
+
+            // If the split left all the values in a single leaf, don't
+            // try again until the bucket has grown substantially
+            Node<Bucket> replacement = leaf.referringArray[leaf.referringIndex];
+            if (replacement instanceof LeafNode)
+            {
+                Bucket unsplit = ((LeafNode<Bucket>) replacement).bucket;
+                unsplit.splitThreshold = 2 * unsplit.n();
+            }
+        }
+    }
+
+    /**
+     * Removes one occurrence of {@code v} with the given coordinates and time.
+     *
+     * @return Whether a matching value was found.
+     */
+    public boolean remove(long v, float x, float y, long t)
+    {
+        if (Float.isNaN(x) || Float.isNaN(y)) return false;
+
+        Bucket bucket = leaf(x, y).bucket;
+
+        long[] vs = bucket.vs.a;
+        int to = bucket.ts.indexAfter(t);
+        for (int i = bucket.ts.indexAtOrAfter(t); i < to; i++)
+        {
+            if (vs[i] == v)
+            {
+                bucket.removeAt(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    protected void chooseDividers(float xMin, float xMax, float yMin, float yMax, Bucket bucket, float[] result)
+    {
+        float[] xs = bucket.xs.a;
+        float[] ys = bucket.ys.a;
+        int n = bucket.n();
+
+        double oneOverSize = 1.0 / n;
+        double xMean = 0;
+        double yMean = 0;
+        for (int i = 0; i < n; i++)
+        {
+            xMean += truncInf(xs[i]) * oneOverSize;
+            yMean += truncInf(ys[i]) * oneOverSize;
+        }
+        result[0] = truncInf((float) xMean);
+        result[1] = truncInf((float) yMean);
+    }
+
+    @Override
+    protected Bucket[] splitBucket(Bucket bucket, float xDivider, float yDivider)
+    {
+        Bucket[] newBuckets = new Bucket[4];
+        for (int q = 0; q < newBuckets.length; q++) newBuckets[q] = new Bucket(maxBucketSize);
+
+        // Iterating in order keeps each new bucket sorted by time
+        float[] xs = bucket.xs.a;
+        float[] ys = bucket.ys.a;
+        int n = bucket.n();
+        for (int i = 0; i < n; i++)
+        {
+            int q = quadrant(xDivider, yDivider, xs[i], ys[i]);
+            newBuckets[q].append(bucket, i);
+        }
+
+        return newBuckets;
+    }
+
+    @Override
+    protected int bucketSize(Bucket bucket)
+    {
+        return bucket.n();
+    }
+
+}
@@ -29,6 +29,8 @@ package com.metsci.glimpse.util.quadtree;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import com.metsci.glimpse.util.primitives.FloatsModifiable;
+
 
 /**
  * Like {@link QuadTreeObjects}, but sacrificing generality for search speed.
@@ -46,6 +48,15 @@ public class QuadTreeXys<V extends Xy> extends QuadTree<Collection<V>>
 
     protected final int maxBucketSize;
 
+    protected static final ThreadLocal<NearestXys<?>> nearestScratch = new ThreadLocal<NearestXys<?>>()
+    {
+        @Override
+        protected NearestXys<?> initialValue()
+        {
+            return new NearestXys<Xy>();
+        }
+    };
+
 
     public QuadTreeXys(int maxBucketSize)
     {
@@ -192,6 +203,215 @@ public class QuadTreeXys<V extends Xy> extends QuadTree<Collection<V>>
         return results.size() - nBefore;
     }
 
+    /**
+     * @see #nearest(float, float, float, float, int, float, Collection, FloatsModifiable)
+     */
+    public int nearest(float x, float y, int k, float maxDistance, Collection<V> results)
+    {
+        return nearest(x, y, 1, 1, k, maxDistance, results, null);
+    }
+
+    /**
+     * Appends the (up to) {@code k} values nearest to (x,y) to {@code results}, nearest first.
+     * Distances are measured after multiplying x differences by {@code xScale} and y differences
+     * by {@code yScale} (for example, pixels per axis unit), and values farther than
+     * {@code maxDistance} are left out. If {@code distances} is non-null, the distance of each
+     * value is appended to it.
+     *
+     * Visits leaves best-first, and does not allocate once per-thread scratch space has grown
+     * to fit {@code k}.
+     *
+     * @return The number of elements appended to {@code results}.
+     */
+    public int nearest(float x, float y, float xScale, float yScale, int k, float maxDistance, Collection<V> results, FloatsModifiable distances)
+    {
+        if (k <= 0) return 0;
+
+        @SuppressWarnings("unchecked")
+        NearestXys<V> nearest = (NearestXys<V>) nearestScratch.get();
+        if (nearest.inUse) nearest = new NearestXys<V>();
+
+        nearest.reset(x, y, xScale, yScale, k, maxDistance*maxDistance);
+        nearest.inUse = true;
+        try
+        {
+            accumulateNearest(x, y, xScale, yScale, nearest.limit, nearest);
+
+            int n = nearest.sort();
+            for (int i = 0; i < n; i++)
+            {
+                @SuppressWarnings("unchecked")
+                V v = (V) nearest.vs[i];
+                results.add(v);
+            }
+            if (distances != null)
+            {
+                for (int i = 0; i < n; i++) nearest.ds[i] = (float) Math.sqrt(nearest.ds[i]);
+                distances.append(nearest.ds, 0, n);
+            }
+            return n;
+        }
+        finally
+        {
+            // Don't hold on to values after the query
+            for (int i = 0; i < nearest.n; i++) nearest.vs[i] = null;
+            nearest.inUse = false;
+        }
+    }
+
+    /**
+     * @see #searchRadius(float, float, float, float, float, Collection)
+     */
+    public int searchRadius(float x, float y, float radius, Collection<V> results)
+    {
+        return searchRadius(x, y, 1, 1, radius, results);
+    }
+
+    /**
+     * Appends all values within {@code radius} of (x,y) to {@code results}, in no particular order.
+     * Distances are scaled as in {@link #nearest(float, float, float, float, int, float, Collection, FloatsModifiable)},
+     * so with unequal scales the search region is an axis-aligned ellipse.
+     *
+     * @return The number of elements appended to {@code results}.
+     */
+    public int searchRadius(final float x, final float y, final float xScale, final float yScale, float radius, final Collection<V> results)
+    {
+        int nBefore = results.size();
+        final float radiusSquared = radius*radius;
+
+        accumulate(x - radius/xScale, x + radius/xScale, y - radius/yScale, y + radius/yScale, new Accumulator<Collection<V>>()
+        {
+            public void accumulate(Collection<V> bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+            {
+                if (farthestDistanceSquared(x, y, xScale, yScale, xMinBucket, xMaxBucket, yMinBucket, yMaxBucket) <= radiusSquared)
+                {
+                    results.addAll(bucket);
+                    return;
+                }
+
+                for (V v : bucket)
+                {
+                    float dx = (v.x() - x) * xScale;
+                    float dy = (v.y() - y) * yScale;
+                    if (dx*dx + dy*dy <= radiusSquared) results.add(v);
+                }
+            }
+        });
+
+        return results.size() - nBefore;
+    }
+
+    /**
+     * Per-thread state (shared by all trees of this type) for {@link #nearest(float, float, float, float, int, float, Collection, FloatsModifiable)}:
+     * a bounded max-heap of the best candidates so far, keyed by squared distance.
+     */
+    protected static class NearestXys<V extends Xy> implements NearestAccumulator<Collection<V>>
+    {
+        // True while a query is using this scratch
+        public boolean inUse;
+
+        public Object[] vs = new Object[16];
+        public float[] ds = new float[16];
+        public int n;
+
+        public float x;
+        public float y;
+        public float xScale;
+        public float yScale;
+        public int k;
+        public float limit;
+
+        public void reset(float x, float y, float xScale, float yScale, int k, float maxDistanceSquared)
+        {
+            this.x = x;
+            this.y = y;
+            this.xScale = xScale;
+            this.yScale = yScale;
+            this.k = k;
+            this.limit = maxDistanceSquared;
+            this.n = 0;
+
+            if (vs.length < k)
+            {
+                vs = new Object[k];
+                ds = new float[k];
+            }
+        }
+
+        @Override
+        public float accumulate(Collection<V> bucket, float xMinBucket, float xMaxBucket, float yMinBucket, float yMaxBucket)
+        {
+            for (V v : bucket)
+            {
+                float dx = (v.x() - x) * xScale;
+                float dy = (v.y() - y) * yScale;
+                offer(v, dx*dx + dy*dy);
+            }
+
+            return limit;
+        }
+
+        public void offer(Object v, float d)
+        {
+            if (d > limit) return;
+
+            if (n < k)
+            {
+                // Sift up
+                int i = n++;
+                while (i > 0)
+                {
+                    int parent = (i - 1) >>> 1;
+                    if (ds[parent] >= d) break;
+                    vs[i] = vs[parent];
+                    ds[i] = ds[parent];
+                    i = parent;
+                }
+                vs[i] = v;
+                ds[i] = d;
+
+                if (n == k) limit = ds[0];
+            }
+            else if (d < ds[0])
+            {
+                siftDown(0, n, v, d);
+                limit = ds[0];
+            }
+        }
+
+        protected void siftDown(int i, int size, Object v, float d)
+        {
+            while (true)
+            {
+                int child = 2*i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && ds[child + 1] > ds[child]) child++;
+                if (d >= ds[child]) break;
+                vs[i] = vs[child];
+                ds[i] = ds[child];
+                i = child;
+            }
+            vs[i] = v;
+            ds[i] = d;
+        }
+
+        /**
+         * Heap-sorts the candidates in place, nearest first, and returns how many there are.
+         */
+        public int sort()
+        {
+            for (int size = n - 1; size > 0; size--)
+            {
+                Object v = vs[size];
+                float d = ds[size];
+                vs[size] = vs[0];
+                ds[size] = ds[0];
+                siftDown(0, size, v, d);
+            }
+            return n;
+        }
+    }
+
     /**
      * If {@code v.x()} or {@code v.y()} returns {@code NaN}, this method returns
      * immediately without adding {@code v} to the tree.